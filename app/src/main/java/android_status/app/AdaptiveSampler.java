@@ -0,0 +1,87 @@
+package android_status.app;
+
+/**
+ * Chooses the delay before the next periodic sample from the samples seen so far.
+ *
+ * Rules, applied on every {@link #observe}:
+ * <ul>
+ *   <li>charging, temperature moving faster than {@code tempRatePerMin}, or battery falling faster
+ *       than {@code batteryDropPerMin}: sample at {@code minIntervalMs}. Steps smaller than
+ *       {@code tempMinDeltaC} / {@code batteryMinDropPct} are ignored as noise; steps of twice that count regardless of rate</li>
+ *   <li>otherwise values are stable: double the interval, up to {@code maxIntervalMs}</li>
+ *   <li>battery at or below {@code lowBatteryPct} and not charging: the delay returned is twice
+ *       that interval and never below {@code baseIntervalMs}; the doubling is not carried into the
+ *       next observation, so it applies once rather than compounding. A negative (unknown) level
+ *       never counts as low</li>
+ * </ul>
+ * Pure Java and clock-free (time is passed in) so it can be driven by recorded traces.
+ */
+public class AdaptiveSampler {
+    public static final class Config {
+        public long minIntervalMs = 10_000L;
+        public long baseIntervalMs = 30_000L;
+        public long maxIntervalMs = 10 * 60_000L;
+        public double tempRatePerMin = 0.5;
+        /** Smaller steps are sensor noise and never count as a fast change. */
+        public double tempMinDeltaC = 1.5;
+        public double batteryDropPerMin = 0.5;
+        public int batteryMinDropPct = 2;
+        public int lowBatteryPct = 20;
+    }
+
+    private final Config config;
+    /** Interval from the change-rate rules alone; the low-battery factor is applied on top of it. */
+    private long stableMs;
+    private long intervalMs;
+    private long lastMs = -1;
+    private double lastTemp = Double.NaN;
+    private int lastBattery = -1;
+
+    public AdaptiveSampler(Config config) {
+        this.config = config;
+        this.stableMs = config.baseIntervalMs;
+        this.intervalMs = config.baseIntervalMs;
+    }
+
+    public synchronized long intervalMs() {
+        return intervalMs;
+    }
+
+    /** Feeds one sample and recomputes the interval. @return the new interval */
+    public synchronized long observe(long nowMs, Double tempC, int batteryPct, boolean charging) {
+        boolean fast = charging;
+        if (lastMs >= 0 && nowMs > lastMs) {
+            double minutes = (nowMs - lastMs) / 60_000.0;
+            double dTemp = tempC != null && !Double.isNaN(lastTemp) ? Math.abs(tempC - lastTemp) : 0.0;
+            // a large step counts even when spread over a long backed-off interval
+            if (dTemp >= config.tempMinDeltaC
+                    && (dTemp / minutes >= config.tempRatePerMin || dTemp >= 2 * config.tempMinDeltaC)) {
+                fast = true;
+            }
+            int drop = lastBattery >= 0 && batteryPct >= 0 ? lastBattery - batteryPct : 0;
+            if (drop >= config.batteryMinDropPct
+                    && (drop / minutes >= config.batteryDropPerMin || drop >= 2 * config.batteryMinDropPct)) {
+                fast = true;
+            }
+        }
+
+        long next;
+        if (fast) {
+            next = config.minIntervalMs;
+        } else if (lastMs < 0) {
+            next = stableMs; // nothing to compare against yet
+        } else {
+            next = Math.min(config.maxIntervalMs, stableMs * 2);
+        }
+        stableMs = Math.max(config.minIntervalMs, next);
+        if (!charging && batteryPct >= 0 && batteryPct <= config.lowBatteryPct) {
+            next = Math.max(config.baseIntervalMs, Math.min(config.maxIntervalMs, stableMs * 2));
+        }
+        intervalMs = Math.max(config.minIntervalMs, next);
+
+        lastMs = nowMs;
+        lastTemp = tempC != null ? tempC : Double.NaN;
+        lastBattery = batteryPct;
+        return intervalMs;
+    }
+}
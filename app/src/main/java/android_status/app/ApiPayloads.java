@@ -0,0 +1,124 @@
+package android_status.app;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Request bodies of the API contract (see README "API contracts"): token registration, one sample
+ * record, the batch wrapper and a history range. Pure Java, so the fleet simulator sends exactly
+ * what devices send.
+ */
+public final class ApiPayloads {
+    private static final byte[] BATCH_PREFIX = "{\"type\":\"batch\",\"records\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BATCH_SUFFIX = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private ApiPayloads() {
+    }
+
+    /** @param deviceName null to omit */
+    public static JSONObject registerToken(String deviceId, String deviceName, String fcmToken) throws JSONException {
+        JSONObject payload = new JSONObject();
+        payload.put("type", "registerToken");
+        payload.put("deviceId", deviceId);
+        if (deviceName != null) payload.put("deviceName", deviceName);
+        payload.put("fcmToken", fcmToken);
+        return payload;
+    }
+
+    /**
+     * One API record: full, or a delta when {@code filter} says only some fields moved and
+     * {@code deltas} is set. API samples are explicit, so the filter never suppresses them.
+     * @param self internal metrics to attach as {@code "self"}, or null
+     */
+    public static JSONObject sample(MetricSample sample, DeltaFilter filter, boolean deltas, JSONObject self)
+            throws JSONException {
+        DeltaFilter.Decision d = filter.evaluate(sample, true);
+        JSONObject payload = (d.kind == DeltaFilter.Kind.DELTA && deltas) ? sample.toDeltaJson(d.changed) : sample.toJson();
+        if (self != null) payload.put("self", self);
+        return payload;
+    }
+
+    /**
+     * Answer to a {@code REQUEST_HISTORY}: one {@link TimeSeriesStore} range in columns, written
+     * straight from the primitive arrays. Raw points carry one value per metric, rollups
+     * {@code {"min":[..],"max":[..],"avg":[..],"count":[..]}}; a metric with no value is null.
+     * <pre>
+     * {"type":"history","deviceId":"..","requestId":"..","resolution":"hour","fromMs":..,"toMs":..,
+     *  "points":n,"timestampMs":[..],"metrics":{"memoryPct":{..},"cpuPct":{..},..}}
+     * </pre>
+     * @param deviceName null to omit
+     * @param requestId null to omit
+     */
+    public static byte[] history(String deviceId, String deviceName, String requestId, long fromMs, long toMs,
+                                 TimeSeriesStore.Series series) {
+        StringBuilder out = new StringBuilder(128 + series.size * 120);
+        out.append("{\"type\":\"history\",\"deviceId\":").append(JSONObject.quote(deviceId));
+        if (deviceName != null) out.append(",\"deviceName\":").append(JSONObject.quote(deviceName));
+        if (requestId != null) out.append(",\"requestId\":").append(JSONObject.quote(requestId));
+        out.append(",\"resolution\":\"").append(series.resolution.name().toLowerCase(java.util.Locale.ROOT))
+                .append("\",\"fromMs\":").append(fromMs).append(",\"toMs\":").append(toMs)
+                .append(",\"points\":").append(series.size).append(",\"timestampMs\":[");
+        for (int i = 0; i < series.size; i++) {
+            if (i > 0) out.append(',');
+            out.append(series.timestampMs[i]);
+        }
+        out.append("],\"metrics\":{");
+        boolean raw = series.resolution == TimeSeriesStore.Resolution.RAW;
+        for (TimeSeriesStore.Metric m : TimeSeriesStore.Metric.values()) {
+            int k = m.ordinal();
+            if (k > 0) out.append(',');
+            out.append('"').append(m.field).append("\":");
+            if (raw) {
+                floats(out, series.avg[k], series.size);
+                continue;
+            }
+            out.append("{\"min\":");
+            floats(out, series.min[k], series.size);
+            out.append(",\"max\":");
+            floats(out, series.max[k], series.size);
+            out.append(",\"avg\":");
+            floats(out, series.avg[k], series.size);
+            out.append(",\"count\":[");
+            for (int i = 0; i < series.size; i++) {
+                if (i > 0) out.append(',');
+                out.append(series.count[k][i]);
+            }
+            out.append("]}");
+        }
+        out.append("}}");
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void floats(StringBuilder out, float[] values, int n) {
+        out.append('[');
+        for (int i = 0; i < n; i++) {
+            if (i > 0) out.append(',');
+            float v = values[i];
+            if (Float.isNaN(v) || Float.isInfinite(v)) {
+                out.append("null");
+            } else {
+                out.append(v);
+            }
+        }
+        out.append(']');
+    }
+
+    /** {@code {"type":"batch","records":[...]}} around already-encoded JSON records, without re-parsing them. */
+    public static byte[] batch(List<byte[]> records) {
+        int size = BATCH_PREFIX.length + BATCH_SUFFIX.length + records.size();
+        for (byte[] r : records) size += r.length;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        out.write(BATCH_PREFIX, 0, BATCH_PREFIX.length);
+        for (int i = 0; i < records.size(); i++) {
+            if (i > 0) out.write(',');
+            byte[] p = records.get(i);
+            out.write(p, 0, p.length);
+        }
+        out.write(BATCH_SUFFIX, 0, BATCH_SUFFIX.length);
+        return out.toByteArray();
+    }
+}
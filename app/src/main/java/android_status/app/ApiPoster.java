@@ -5,38 +5,151 @@ import android.util.Log;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 
 public class ApiPoster {
     private static final String TAG = "ApiPoster";
-    private static final OkHttpClient client = new OkHttpClient();
-    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    /** One upload from the first attempt until retries are done; errors are uploads that did not succeed. */
+    private static final InternalMetrics.Timer TIMER = InternalMetrics.timer("sink.api");
+
+    /** Endpoints that answered 415 to a non-JSON body; they get JSON for the rest of the process. */
+    private static final Set<String> jsonOnly = ConcurrentHashMap.newKeySet();
+    /** Endpoints whose owner said they accept gzipped bodies (see {@link #allowGzip}). */
+    private static final Set<String> gzipOk = ConcurrentHashMap.newKeySet();
+    /** Endpoints that answered 415 to a gzipped body anyway; they get plain bodies from then on. */
+    private static final Set<String> noGzip = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Opts an endpoint in to (or out of) gzipped request bodies. Off by default: a backend that does
+     * not understand Content-Encoding may fail the body with a 400 rather than a 415, and then every
+     * retry would fail the same way.
+     */
+    public static void allowGzip(String url, boolean allow) {
+        if (url == null) return;
+        if (allow) {
+            gzipOk.add(url);
+        } else {
+            gzipOk.remove(url);
+        }
+    }
 
     public static boolean postJson(String url, JSONObject payload, String apiKey) {
+        return postBody(url, payload.toString().getBytes(StandardCharsets.UTF_8), JsonPayloadEncoder.CONTENT_TYPE, apiKey);
+    }
+
+    /** @return the encoder to use for this endpoint: {@code preferred} unless the endpoint rejected it */
+    public static PayloadEncoder encoderFor(String url, PayloadEncoder preferred) {
+        if (preferred == null || jsonOnly.contains(url)) return new JsonPayloadEncoder();
+        return preferred;
+    }
+
+    /**
+     * Posts an already-encoded body, e.g. an outbox batch. A 415 reply to a non-JSON content type
+     * marks the endpoint as JSON-only so the caller's next attempt falls back to JSON. Transient
+     * failures are retried and a failing endpoint is short-circuited by {@link SinkResilience}.
+     */
+    public static boolean postBody(String url, byte[] encoded, String contentType, String apiKey) {
         if (url == null || url.isEmpty()) return false;
+        long t0 = System.nanoTime();
+        boolean ok = false;
         try {
-            RequestBody body = RequestBody.create(payload.toString(), JSON);
-            Request.Builder builder = new Request.Builder().url(url).post(body);
-            if (apiKey != null && !apiKey.isEmpty()) {
-                builder.header("Authorization", "Bearer " + apiKey);
-            }
-            Request req = builder.build();
-            try (Response resp = client.newCall(req).execute()) {
-                boolean ok = resp.isSuccessful();
-                if (!ok) Log.w(TAG, "API post failed: " + resp.code() + " " + resp.message());
+            Request req = buildRequest(url, encoded, contentType, apiKey);
+            try (Response resp = SinkResilience.execute(req)) {
+                ok = handle(url, contentType, resp);
                 return ok;
             }
+        } catch (SinkResilience.CircuitOpenException ex) {
+            Log.w(TAG, ex.getMessage() + "; not posting");
+            return false;
         } catch (IOException ex) {
             Log.e(TAG, "IO error posting to API", ex);
             return false;
         } catch (Exception ex) {
             Log.e(TAG, "Error posting to API", ex);
             return false;
+        } finally {
+            finish(t0, ok);
+        }
+    }
+
+    /**
+     * Same as {@link #postBody} but on OkHttp's dispatcher; {@code done} runs on an OkHttp or retry
+     * thread once retries (see {@link SinkResilience}) are exhausted.
+     */
+    public static void postBodyAsync(String url, byte[] encoded, String contentType, String apiKey, SinkQueue.Completion done) {
+        if (url == null || url.isEmpty()) {
+            done.done(false);
+            return;
+        }
+        long t0 = System.nanoTime();
+        Request req;
+        try {
+            req = buildRequest(url, encoded, contentType, apiKey);
+        } catch (Exception ex) {
+            Log.e(TAG, "Error building API request", ex);
+            finish(t0, false);
+            done.done(false);
+            return;
+        }
+        SinkResilience.enqueue(req, new SinkResilience.Listener() {
+            @Override
+            public void onFailure(IOException ex) {
+                if (ex instanceof SinkResilience.CircuitOpenException) {
+                    Log.w(TAG, ex.getMessage() + "; not posting");
+                } else {
+                    Log.e(TAG, "IO error posting to API", ex);
+                }
+                finish(t0, false);
+                done.done(false);
+            }
+
+            @Override
+            public void onResponse(Response resp) {
+                boolean ok;
+                try (Response r = resp) {
+                    ok = handle(url, contentType, r);
+                }
+                finish(t0, ok);
+                done.done(ok);
+            }
+        });
+    }
+
+    private static void finish(long startNs, boolean ok) {
+        TIMER.stop(startNs);
+        if (!ok) TIMER.error();
+    }
+
+    private static Request buildRequest(String url, byte[] encoded, String contentType, String apiKey) {
+        RequestBody body = RequestBody.create(encoded, MediaType.get(contentType));
+        Request.Builder builder = new Request.Builder().url(url).post(body)
+                .header("Accept", JsonPayloadEncoder.CONTENT_TYPE);
+        if (apiKey != null && !apiKey.isEmpty()) {
+            builder.header("Authorization", "Bearer " + apiKey);
+        }
+        if (gzipOk.contains(url) && !noGzip.contains(url)) HttpTransport.compressible(builder);
+        return builder.build();
+    }
+
+    private static boolean handle(String url, String contentType, Response resp) {
+        boolean ok = resp.isSuccessful();
+        if (resp.code() == 415) {
+            if ("gzip".equals(resp.request().header("Content-Encoding"))) {
+                Log.i(TAG, "API rejected gzip request bodies; sending uncompressed");
+                noGzip.add(url);
+            } else if (!contentType.equals(JsonPayloadEncoder.CONTENT_TYPE)) {
+                Log.i(TAG, "API rejected " + contentType + "; falling back to JSON");
+                jsonOnly.add(url);
+            }
         }
+        if (!ok) Log.w(TAG, "API post failed: " + resp.code() + " " + resp.message());
+        return ok;
     }
 }
@@ -3,7 +3,6 @@ package android_status.app;
 import android.Manifest;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
@@ -27,11 +26,6 @@ public class App extends AppCompatActivity {
     private Button stopButton;
     private TextView statusView;
 
-    private static final String KEY_WEBHOOK = "webhook_url";
-    private static final String KEY_API = "api_endpoint";
-    private static final String KEY_API_KEY = "api_key";
-    private static final String KEY_ENABLE_SLACK = "enable_slack";
-    private static final String KEY_ENABLE_API = "enable_api";
     private static final int REQ_POST_NOTIF = 42;
     private static final int REQ_LOCATION = 43;
 
@@ -49,17 +43,12 @@ public class App extends AppCompatActivity {
         enableSlack = findViewById(R.id.switchEnableSlack);
         enableApi = findViewById(R.id.switchEnableApi);
 
-        SharedPreferences prefs = Prefs.get(this);
-        String saved = prefs.getString(KEY_WEBHOOK, "");
-        String savedApi = prefs.getString(KEY_API, "");
-        String savedApiKey = prefs.getString(KEY_API_KEY, "");
-        boolean savedSlack = prefs.getBoolean(KEY_ENABLE_SLACK, true);
-        boolean savedApiSend = prefs.getBoolean(KEY_ENABLE_API, true);
-        webhookInput.setText(saved);
-        apiInput.setText(savedApi);
-        apiKeyInput.setText(savedApiKey);
-        enableSlack.setChecked(savedSlack);
-        enableApi.setChecked(savedApiSend);
+        Settings saved = Prefs.settings(this);
+        webhookInput.setText(saved.webhookUrl);
+        apiInput.setText(saved.apiEndpoint);
+        apiKeyInput.setText(saved.apiKey);
+        enableSlack.setChecked(saved.enableSlack);
+        enableApi.setChecked(saved.enableApi);
 
         startButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -69,11 +58,7 @@ public class App extends AppCompatActivity {
                 String apiKey = apiKeyInput.getText().toString().trim();
                 boolean doSlack = enableSlack.isChecked();
                 boolean doApi = enableApi.isChecked();
-                prefs.edit().putString(KEY_WEBHOOK, webhook).apply();
-                prefs.edit().putString(KEY_API, api).apply();
-                prefs.edit().putString(KEY_API_KEY, apiKey).apply();
-                prefs.edit().putBoolean(KEY_ENABLE_SLACK, doSlack).apply();
-                prefs.edit().putBoolean(KEY_ENABLE_API, doApi).apply();
+                Prefs.save(App.this, new Settings(webhook, api, apiKey, doSlack, doApi));
                 Intent svc = new Intent(App.this, MetricService.class);
                 svc.putExtra("webhook", webhook);
                 svc.putExtra("api", api);
@@ -0,0 +1,126 @@
+package android_status.app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Reference decoder for the format written by {@link BinaryPayloadEncoder}. */
+public class BinaryPayloadDecoder {
+    private final byte[] b;
+    private int pos;
+
+    private BinaryPayloadDecoder(byte[] b) {
+        this.b = b;
+    }
+
+    public static List<MetricSample> decode(byte[] body) throws IOException {
+        return new BinaryPayloadDecoder(body).decodeAll();
+    }
+
+    private List<MetricSample> decodeAll() throws IOException {
+        byte[] magic = BinaryPayloadEncoder.MAGIC;
+        if (b.length < magic.length) throw new IOException("truncated header");
+        for (int i = 0; i < magic.length; i++) {
+            if (b[i] != magic[i]) throw new IOException("bad magic/version");
+        }
+        pos = magic.length;
+        int count = (int) varint();
+        int dictSize = (int) varint();
+        if (count < 0 || dictSize < 0 || dictSize > b.length) throw new IOException("corrupt counts");
+        String[] dict = new String[dictSize];
+        for (int i = 0; i < dictSize; i++) {
+            int len = (int) varint();
+            if (len < 0 || pos + len > b.length) throw new IOException("truncated dictionary");
+            dict[i] = new String(b, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+        }
+
+        List<MetricSample> out = new ArrayList<>(Math.min(count, 4096));
+        long prevTs = 0;
+        long prevLat = 0, prevLon = 0;
+        for (int i = 0; i < count; i++) {
+            MetricSample s = new MetricSample();
+            int flags = (int) varint();
+            s.deviceId = lookup(dict, varint());
+            if ((flags & BinaryPayloadEncoder.F_DEVICE_NAME) != 0) s.deviceName = lookup(dict, varint());
+            prevTs += zigzag();
+            s.timestampMs = prevTs;
+            s.memoryPct = zigzag() / 10.0;
+            if ((flags & BinaryPayloadEncoder.F_TEMP) != 0) s.tempC = zigzag() / 1000.0;
+            s.batteryPct = (int) varint();
+            s.voltageMv = (int) varint();
+            if ((flags & BinaryPayloadEncoder.F_LOCATION) != 0) {
+                prevLat += zigzag();
+                prevLon += zigzag();
+                s.lat = prevLat / 100000.0;
+                s.lon = prevLon / 100000.0;
+                if ((flags & BinaryPayloadEncoder.F_ACCURACY) != 0) s.accuracy = varint() / 10.0f;
+                if ((flags & BinaryPayloadEncoder.F_PROVIDER) != 0) s.provider = lookup(dict, varint());
+            }
+            if ((flags & BinaryPayloadEncoder.F_CPU) != 0) {
+                s.cpuPct = zigzag() / 10.0;
+                int cores = (int) varint();
+                if (cores < 0 || cores > b.length) throw new IOException("corrupt core count");
+                s.coreCpuPct = new double[cores];
+                s.coreFreqKhz = new long[cores];
+                for (int c = 0; c < cores; c++) s.coreCpuPct[c] = zigzag() / 10.0;
+                for (int c = 0; c < cores; c++) s.coreFreqKhz[c] = varint();
+                if ((flags & BinaryPayloadEncoder.F_PROCS) != 0) {
+                    int n = (int) varint();
+                    if (n < 0 || n > b.length) throw new IOException("corrupt process count");
+                    s.topProcPids = new int[n];
+                    s.topProcNames = new String[n];
+                    s.topProcPct = new double[n];
+                    for (int p = 0; p < n; p++) {
+                        s.topProcPids[p] = (int) varint();
+                        String name = lookup(dict, varint());
+                        s.topProcNames[p] = name.isEmpty() ? null : name;
+                        s.topProcPct[p] = zigzag() / 10.0;
+                    }
+                }
+            }
+            if ((flags & BinaryPayloadEncoder.F_REQUESTS) != 0) {
+                int n = (int) varint();
+                if (n < 0 || n > b.length) throw new IOException("corrupt request count");
+                s.requestIds = new String[n];
+                for (int r = 0; r < n; r++) s.requestIds[r] = lookup(dict, varint());
+                s.triggeredAtMs = s.timestampMs - zigzag();
+            }
+            if ((flags & BinaryPayloadEncoder.F_CHARGING_KNOWN) != 0) s.charging = (flags & BinaryPayloadEncoder.F_CHARGING) != 0;
+            if ((flags & BinaryPayloadEncoder.F_STALE) != 0) s.staleSources = names(dict);
+            if ((flags & BinaryPayloadEncoder.F_MISSING) != 0) s.missingSources = names(dict);
+            out.add(s);
+        }
+        return out;
+    }
+
+    private String[] names(String[] dict) throws IOException {
+        int n = (int) varint();
+        if (n < 0 || n > b.length) throw new IOException("corrupt source count");
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) names[i] = lookup(dict, varint());
+        return names;
+    }
+
+    private static String lookup(String[] dict, long i) throws IOException {
+        if (i < 0 || i >= dict.length) throw new IOException("dictionary index out of range: " + i);
+        return dict[(int) i];
+    }
+
+    private long varint() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= b.length) throw new IOException("truncated varint");
+            byte x = b[pos++];
+            v |= (long) (x & 0x7F) << shift;
+            if ((x & 0x80) == 0) return v;
+        }
+        throw new IOException("varint too long");
+    }
+
+    private long zigzag() throws IOException {
+        long v = varint();
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
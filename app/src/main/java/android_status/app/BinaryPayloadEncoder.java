@@ -0,0 +1,216 @@
+package android_status.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary batch format ("ASB1"), decoded by {@link BinaryPayloadDecoder}.
+ *
+ * <pre>
+ * 'A' 'S' 'B' version=1
+ * varint count
+ * varint dictSize, dictSize x (varint byteLength, UTF-8 bytes)   -- deviceId, deviceName, provider, process names,
+ *                                                                 request ids, source names
+ * count x sample:
+ *   varint flags                  bit0 tempC, bit1 location, bit2 accuracy, bit3 provider, bit4 deviceName,
+ *                                 bit5 cpu, bit6 top processes, bit7 request ids, bit8 charging known,
+ *                                 bit9 charging, bit10 stale sources, bit11 missing sources
+ *   varint deviceId index
+ *   [varint deviceName index]
+ *   zigzag timestampMs            absolute for the first sample, delta from the previous one after that
+ *   zigzag memoryPct x 10
+ *   [zigzag tempC x 1000]
+ *   varint batteryPct
+ *   varint voltage millivolts
+ *   [zigzag lat x 1e5, zigzag lon x 1e5]  delta from the previous located sample in the batch
+ *   [varint accuracy x 10]
+ *   [varint provider index]
+ *   [zigzag cpuPct x 10, varint cores, cores x zigzag corePct x 10, cores x varint kHz]
+ *   [varint n, n x (varint pid, varint name index, zigzag cpuPct x 10)]
+ *   [varint n, n x varint request id index, zigzag timestampMs - triggeredAtMs]
+ *   [varint n, n x varint stale source name index]
+ *   [varint n, n x varint missing source name index]
+ * </pre>
+ *
+ * Precision matches what the JSON payload carries: memory to 0.1 %, coordinates to 5 decimals,
+ * voltage in whole millivolts. Accuracy is kept to 0.1 m and temperature to 0.001 C.
+ */
+public class BinaryPayloadEncoder implements PayloadEncoder {
+    public static final String CONTENT_TYPE = "application/vnd.android-status.v1+binary";
+    static final byte[] MAGIC = {'A', 'S', 'B', 1};
+    static final int F_TEMP = 1;
+    static final int F_LOCATION = 1 << 1;
+    static final int F_ACCURACY = 1 << 2;
+    static final int F_PROVIDER = 1 << 3;
+    static final int F_DEVICE_NAME = 1 << 4;
+    static final int F_CPU = 1 << 5;
+    static final int F_PROCS = 1 << 6;
+    static final int F_REQUESTS = 1 << 7;
+    static final int F_CHARGING_KNOWN = 1 << 8;
+    static final int F_CHARGING = 1 << 9;
+    static final int F_STALE = 1 << 10;
+    static final int F_MISSING = 1 << 11;
+
+    @Override
+    public String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(List<MetricSample> samples) {
+        Map<String, Integer> index = new HashMap<>();
+        List<String> dict = new ArrayList<>();
+        for (MetricSample s : samples) {
+            intern(s.deviceId != null ? s.deviceId : "", index, dict);
+            if (s.deviceName != null) intern(s.deviceName, index, dict);
+            if (s.provider != null) intern(s.provider, index, dict);
+            if (s.topProcNames != null) {
+                for (String n : s.topProcNames) intern(n != null ? n : "", index, dict);
+            }
+            if (s.requestIds != null) {
+                for (String id : s.requestIds) intern(id, index, dict);
+            }
+            if (s.staleSources != null) {
+                for (String n : s.staleSources) intern(n, index, dict);
+            }
+            if (s.missingSources != null) {
+                for (String n : s.missingSources) intern(n, index, dict);
+            }
+        }
+
+        Buf out = new Buf(16 + samples.size() * 24);
+        out.bytes(MAGIC, MAGIC.length);
+        out.varint(samples.size());
+        out.varint(dict.size());
+        for (String d : dict) {
+            byte[] b = d.getBytes(StandardCharsets.UTF_8);
+            out.varint(b.length);
+            out.bytes(b, b.length);
+        }
+
+        long prevTs = 0;
+        long prevLat = 0, prevLon = 0;
+        for (MetricSample s : samples) {
+            boolean located = s.lat != null && s.lon != null;
+            int flags = 0;
+            if (s.tempC != null) flags |= F_TEMP;
+            if (located) flags |= F_LOCATION;
+            if (located && s.accuracy != null) flags |= F_ACCURACY;
+            if (located && s.provider != null) flags |= F_PROVIDER;
+            if (s.deviceName != null) flags |= F_DEVICE_NAME;
+            if (s.cpuPct != null) flags |= F_CPU;
+            if (s.cpuPct != null && s.topProcPids != null) flags |= F_PROCS;
+            boolean requested = s.requestIds != null && s.requestIds.length > 0;
+            if (requested) flags |= F_REQUESTS;
+            if (s.charging != null) flags |= s.charging ? F_CHARGING_KNOWN | F_CHARGING : F_CHARGING_KNOWN;
+            boolean stale = s.staleSources != null && s.staleSources.length > 0;
+            boolean missing = s.missingSources != null && s.missingSources.length > 0;
+            if (stale) flags |= F_STALE;
+            if (missing) flags |= F_MISSING;
+            out.varint(flags);
+            out.varint(index.get(s.deviceId != null ? s.deviceId : ""));
+            if (s.deviceName != null) out.varint(index.get(s.deviceName));
+            out.zigzag(s.timestampMs - prevTs);
+            prevTs = s.timestampMs;
+            out.zigzag(Math.round(s.memoryPct * 10.0));
+            if (s.tempC != null) out.zigzag(Math.round(s.tempC * 1000.0));
+            out.varint(Math.max(0, s.batteryPct));
+            out.varint(Math.max(0, s.voltageMv));
+            if (located) {
+                long lat = Math.round(s.lat * 100000.0);
+                long lon = Math.round(s.lon * 100000.0);
+                out.zigzag(lat - prevLat);
+                out.zigzag(lon - prevLon);
+                prevLat = lat;
+                prevLon = lon;
+                if (s.accuracy != null) out.varint(Math.max(0, Math.round(s.accuracy * 10.0)));
+                if (s.provider != null) out.varint(index.get(s.provider));
+            }
+            if (s.cpuPct != null) {
+                out.zigzag(Math.round(s.cpuPct * 10.0));
+                int cores = s.coreCpuPct != null ? s.coreCpuPct.length : 0;
+                out.varint(cores);
+                for (int c = 0; c < cores; c++) out.zigzag(Math.round(s.coreCpuPct[c] * 10.0));
+                for (int c = 0; c < cores; c++) {
+                    long khz = s.coreFreqKhz != null && c < s.coreFreqKhz.length ? s.coreFreqKhz[c] : 0;
+                    out.varint(Math.max(0, khz));
+                }
+                if (s.topProcPids != null) {
+                    out.varint(s.topProcPids.length);
+                    for (int i = 0; i < s.topProcPids.length; i++) {
+                        out.varint(Math.max(0, s.topProcPids[i]));
+                        String n = s.topProcNames[i];
+                        out.varint(index.get(n != null ? n : ""));
+                        out.zigzag(Math.round(s.topProcPct[i] * 10.0));
+                    }
+                }
+            }
+            if (requested) {
+                out.varint(s.requestIds.length);
+                for (String id : s.requestIds) out.varint(index.get(id));
+                out.zigzag(s.timestampMs - s.triggeredAtMs);
+            }
+            if (stale) names(out, s.staleSources, index);
+            if (missing) names(out, s.missingSources, index);
+        }
+        return out.toByteArray();
+    }
+
+    private static void names(Buf out, String[] names, Map<String, Integer> index) {
+        out.varint(names.length);
+        for (String n : names) out.varint(index.get(n));
+    }
+
+    private static void intern(String s, Map<String, Integer> index, List<String> dict) {
+        if (!index.containsKey(s)) {
+            index.put(s, dict.size());
+            dict.add(s);
+        }
+    }
+
+    /** Growable byte buffer; avoids ByteArrayOutputStream's synchronized writes. */
+    static final class Buf {
+        private byte[] b;
+        private int n;
+
+        Buf(int capacity) {
+            b = new byte[Math.max(16, capacity)];
+        }
+
+        void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                b[n++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            b[n++] = (byte) v;
+        }
+
+        void zigzag(long v) {
+            varint((v << 1) ^ (v >> 63));
+        }
+
+        void bytes(byte[] src, int len) {
+            ensure(len);
+            System.arraycopy(src, 0, b, n, len);
+            n += len;
+        }
+
+        byte[] toByteArray() {
+            byte[] r = new byte[n];
+            System.arraycopy(b, 0, r, 0, n);
+            return r;
+        }
+
+        private void ensure(int extra) {
+            if (n + extra > b.length) {
+                byte[] nb = new byte[Math.max(b.length * 2, n + extra)];
+                System.arraycopy(b, 0, nb, 0, n);
+                b = nb;
+            }
+        }
+    }
+}
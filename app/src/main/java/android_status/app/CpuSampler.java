@@ -0,0 +1,214 @@
+package android_status.app;
+
+import java.util.Arrays;
+
+/**
+ * Per-core CPU utilisation, per-core frequency and the top-K processes by CPU since the previous
+ * {@link #sample()}.
+ *
+ * All state lives in primitive arrays that are sized once (and grown only when more cores or
+ * processes appear), so the per-tick cost is one /proc/stat pass, one sysfs read per core and one
+ * /proc/[pid]/stat read per visible process. Process deltas are matched by pid through sorted
+ * arrays and binary search. Only the K winners get their names read.
+ *
+ * On Android 7+ an ordinary app only sees its own processes in /proc, so the top-K list is limited
+ * to what the kernel exposes to this uid.
+ */
+public class CpuSampler {
+    private static final int STRIDE = 7;
+    private static final int IDLE = 3;
+    private static final int IOWAIT = 4;
+
+    private final ProcParser parser;
+    private final int topK;
+
+    private long[] stat = new long[STRIDE * 9];
+    private long[] prevTotal = new long[9];
+    private long[] prevIdle = new long[9];
+    private double[] util = new double[9];
+    private long[] freqKhz = new long[8];
+    private String[] freqPaths = new String[0];
+    private int rows;
+    private boolean primed;
+
+    private int[] pids = new int[256];
+    private long[] ticks = new long[256];
+    private int procCount;
+    private int[] prevPids = new int[256];
+    private long[] prevTicks = new long[256];
+    private int prevProcCount;
+    private long prevTotalJiffies;
+
+    private final int[] topPid;
+    private final long[] topDelta;
+    private final String[] topName;
+    private int topCount;
+    private double topScale;
+
+    public CpuSampler(ProcParser parser, int topK) {
+        this.parser = parser;
+        this.topK = topK;
+        this.topPid = new int[topK];
+        this.topDelta = new long[topK];
+        this.topName = new String[topK];
+    }
+
+    /** Takes a new reading; utilisation values are relative to the previous call. */
+    public void sample() {
+        synchronized (parser) {
+            int n = parser.readCpuStats(stat, STRIDE);
+            if (n * STRIDE > stat.length) {
+                stat = Arrays.copyOf(stat, n * STRIDE);
+                prevTotal = Arrays.copyOf(prevTotal, n);
+                prevIdle = Arrays.copyOf(prevIdle, n);
+                util = Arrays.copyOf(util, n);
+                n = parser.readCpuStats(stat, STRIDE);
+            }
+            if (n == 0) return;
+            rows = n;
+            for (int r = 0; r < n; r++) {
+                long total = 0;
+                int base = r * STRIDE;
+                for (int i = 0; i < STRIDE; i++) total += stat[base + i];
+                long idle = stat[base + IDLE] + stat[base + IOWAIT];
+                long dt = total - prevTotal[r];
+                util[r] = (primed && dt > 0) ? ((dt - (idle - prevIdle[r])) * 100.0) / dt : 0.0;
+                prevTotal[r] = total;
+                prevIdle[r] = idle;
+            }
+            readFrequencies(n - 1);
+            long totalJiffies = prevTotal[0];
+            sampleProcesses(totalJiffies - prevTotalJiffies);
+            prevTotalJiffies = totalJiffies;
+            primed = true;
+        }
+    }
+
+    /** @return false until two samples were taken */
+    public boolean ready() {
+        return primed && rows > 0;
+    }
+
+    public double totalPct() {
+        return util[0];
+    }
+
+    public int cores() {
+        return Math.max(0, rows - 1);
+    }
+
+    public double corePct(int core) {
+        return util[core + 1];
+    }
+
+    /** @return kHz, or 0 when the core is offline or cpufreq is not exposed */
+    public long coreFreqKhz(int core) {
+        return core < freqKhz.length ? freqKhz[core] : 0;
+    }
+
+    public int topCount() {
+        return topCount;
+    }
+
+    public int topPid(int i) {
+        return topPid[i];
+    }
+
+    public String topName(int i) {
+        return topName[i];
+    }
+
+    /** Share of total CPU time across all cores, like {@link #totalPct()}. */
+    public double topPct(int i) {
+        return topDelta[i] * topScale;
+    }
+
+    private void readFrequencies(int cores) {
+        if (freqPaths.length < cores) {
+            freqPaths = new String[cores];
+            for (int c = 0; c < cores; c++) {
+                freqPaths[c] = "/sys/devices/system/cpu/cpu" + c + "/cpufreq/scaling_cur_freq";
+            }
+            freqKhz = new long[cores];
+        }
+        for (int c = 0; c < cores; c++) {
+            long v = parser.readLong(freqPaths[c]);
+            freqKhz[c] = v > 0 ? v : 0;
+        }
+    }
+
+    private void sampleProcesses(long totalDelta) {
+        topCount = 0;
+        if (topK == 0) return;
+        String[] names = parser.file("/proc").list();
+        if (names == null) return;
+
+        procCount = 0;
+        for (String name : names) {
+            int pid = parsePid(name);
+            if (pid < 0) continue;
+            if (procCount == pids.length) {
+                pids = Arrays.copyOf(pids, procCount * 2);
+                ticks = Arrays.copyOf(ticks, procCount * 2);
+            }
+            pids[procCount++] = pid;
+        }
+        Arrays.sort(pids, 0, procCount);
+
+        int kept = 0;
+        for (int i = 0; i < procCount; i++) {
+            int pid = pids[i];
+            long t = parser.readProcessTicks("/proc/" + pid + "/stat");
+            if (t < 0) continue; // exited between list() and read
+            pids[kept] = pid;
+            ticks[kept] = t;
+            kept++;
+            if (!primed) continue;
+            int j = Arrays.binarySearch(prevPids, 0, prevProcCount, pid);
+            if (j < 0) continue; // new since last tick; counted next time
+            offerTop(pid, t - prevTicks[j]);
+        }
+        procCount = kept;
+
+        // the arrays from this tick become the baseline for the next one
+        int[] tp = prevPids;
+        prevPids = pids;
+        pids = tp.length >= prevPids.length ? tp : new int[prevPids.length];
+        long[] tt = prevTicks;
+        prevTicks = ticks;
+        ticks = tt.length >= prevTicks.length ? tt : new long[prevTicks.length];
+        prevProcCount = procCount;
+
+        // /proc/[pid]/stat and /proc/stat are both in USER_HZ ticks; totals are summed over all cores
+        topScale = totalDelta > 0 ? 100.0 / totalDelta : 0.0;
+        for (int i = 0; i < topCount; i++) {
+            topName[i] = parser.readProcessName("/proc/" + topPid[i] + "/stat");
+        }
+    }
+
+    /** Keeps topPid/topDelta sorted by delta, descending; insertion sort over K slots. */
+    private void offerTop(int pid, long delta) {
+        if (delta <= 0) return;
+        if (topCount == topK && delta <= topDelta[topK - 1]) return;
+        int i = topCount < topK ? topCount++ : topK - 1;
+        while (i > 0 && topDelta[i - 1] < delta) {
+            topDelta[i] = topDelta[i - 1];
+            topPid[i] = topPid[i - 1];
+            i--;
+        }
+        topDelta[i] = delta;
+        topPid[i] = pid;
+    }
+
+    private static int parsePid(String name) {
+        int v = 0;
+        int n = name.length();
+        if (n == 0 || n > 9) return -1;
+        for (int i = 0; i < n; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+}
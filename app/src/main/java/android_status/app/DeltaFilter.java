@@ -0,0 +1,152 @@
+package android_status.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides whether a sample is worth sending, comparing it with the last sample that was sent.
+ *
+ * A field counts as changed when it moved past its deadband or crossed one of its alert thresholds.
+ * Nothing changed: {@link Kind#SKIP}, unless {@code heartbeatMs} passed since the last send.
+ * Something changed: {@link Kind#DELTA} with the changed field names, or {@link Kind#FULL} when a
+ * keyframe is due ({@code keyframeMs} since the last full sample). Field names match the JSON keys;
+ * the location block is reported as the single name {@link #LOCATION} and all CPU fields as {@link #CPU}.
+ */
+public class DeltaFilter {
+    public static final String MEMORY = "memoryPct";
+    public static final String TEMP = "tempC";
+    public static final String BATTERY = "batteryPct";
+    public static final String VOLTAGE = "voltageV";
+    public static final String LOCATION = "location";
+    public static final String CPU = "cpuPct";
+
+    public enum Kind { SKIP, DELTA, FULL }
+
+    public static final class Decision {
+        public final Kind kind;
+        public final List<String> changed;
+
+        Decision(Kind kind, List<String> changed) {
+            this.kind = kind;
+            this.changed = changed;
+        }
+    }
+
+    /** Deadbands and thresholds; a deadband of {@link Double#POSITIVE_INFINITY} ignores the field. */
+    public static final class Config {
+        public double memoryPct = 1.0;
+        public double tempC = 0.5;
+        public int batteryPct = 1;
+        public int voltageMv = 50;
+        public double locationMeters = 25.0;
+        public double cpuPct = 10.0;
+        public double[] tempThresholdsC = {45.0, 60.0};
+        public int[] batteryThresholdsPct = {20, 10, 5};
+        public long heartbeatMs = 10 * 60_000L;
+        public long keyframeMs = 30 * 60_000L;
+    }
+
+    private static final Decision SKIP = new Decision(Kind.SKIP, Collections.emptyList());
+
+    private final Config config;
+    private MetricSample lastSent;
+    private long lastSentMs = Long.MIN_VALUE;
+    private long lastKeyframeMs = Long.MIN_VALUE;
+
+    public DeltaFilter(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * @param force the caller must send something (e.g. an explicit request); never returns SKIP
+     */
+    public synchronized Decision evaluate(MetricSample s, boolean force) {
+        long now = s.timestampMs;
+        if (lastSent == null || now - lastKeyframeMs >= config.keyframeMs || now < lastSentMs) {
+            return commit(s, new Decision(Kind.FULL, Collections.emptyList()), true);
+        }
+        List<String> changed = new ArrayList<>(5);
+        if (Math.abs(s.memoryPct - lastSent.memoryPct) >= config.memoryPct) changed.add(MEMORY);
+        if (tempChanged(lastSent.tempC, s.tempC)) changed.add(TEMP);
+        if (Math.abs(s.batteryPct - lastSent.batteryPct) >= config.batteryPct
+                || crossed(lastSent.batteryPct, s.batteryPct, config.batteryThresholdsPct)) {
+            changed.add(BATTERY);
+        }
+        if (Math.abs(s.voltageMv - lastSent.voltageMv) >= config.voltageMv) changed.add(VOLTAGE);
+        if (locationChanged(lastSent, s)) changed.add(LOCATION);
+        if (s.cpuPct != null && config.cpuPct != Double.POSITIVE_INFINITY
+                && (lastSent.cpuPct == null || Math.abs(s.cpuPct - lastSent.cpuPct) >= config.cpuPct)) {
+            changed.add(CPU);
+        }
+
+        if (changed.isEmpty() && !force && now - lastSentMs < config.heartbeatMs) return SKIP;
+        return commit(s, new Decision(Kind.DELTA, changed), false);
+    }
+
+    /** Forgets the reference sample so the next evaluation yields a keyframe. */
+    public synchronized void reset() {
+        lastSent = null;
+    }
+
+    private Decision commit(MetricSample s, Decision d, boolean keyframe) {
+        if (keyframe) {
+            lastSent = s.copy();
+            lastKeyframeMs = s.timestampMs;
+        } else {
+            // only the fields that went out move the reference, so slow drift still trips the deadband
+            MetricSample ref = lastSent;
+            for (String f : d.changed) {
+                switch (f) {
+                    case MEMORY: ref.memoryPct = s.memoryPct; break;
+                    case TEMP: ref.tempC = s.tempC; break;
+                    case BATTERY: ref.batteryPct = s.batteryPct; break;
+                    case VOLTAGE: ref.voltageMv = s.voltageMv; break;
+                    case LOCATION:
+                        ref.lat = s.lat;
+                        ref.lon = s.lon;
+                        ref.accuracy = s.accuracy;
+                        ref.provider = s.provider;
+                        break;
+                    case CPU: ref.cpuPct = s.cpuPct; break;
+                    default:
+                        break;
+                }
+            }
+            ref.timestampMs = s.timestampMs;
+        }
+        lastSentMs = s.timestampMs;
+        return d;
+    }
+
+    private boolean tempChanged(Double before, Double now) {
+        if (before == null || now == null) return before != now;
+        if (Math.abs(now - before) >= config.tempC) return true;
+        for (double t : config.tempThresholdsC) {
+            if ((before < t) != (now < t)) return true;
+        }
+        return false;
+    }
+
+    private static boolean crossed(int before, int now, int[] thresholds) {
+        for (int t : thresholds) {
+            if ((before <= t) != (now <= t)) return true;
+        }
+        return false;
+    }
+
+    private boolean locationChanged(MetricSample a, MetricSample b) {
+        if (config.locationMeters == Double.POSITIVE_INFINITY) return false;
+        boolean hasA = a.lat != null && a.lon != null;
+        boolean hasB = b.lat != null && b.lon != null;
+        if (!hasA || !hasB) return hasB && !hasA;
+        return distanceMeters(a.lat, a.lon, b.lat, b.lon) >= config.locationMeters;
+    }
+
+    /** Equirectangular approximation; accurate to well under a metre at deadband distances. */
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * 6_371_000.0;
+    }
+}
@@ -1,7 +1,6 @@
 package android_status.app;
 
 import android.content.Context;
-import android.content.Intent;
 import android.util.Log;
 
 import androidx.core.content.ContextCompat;
@@ -11,42 +10,44 @@ import com.google.firebase.messaging.RemoteMessage;
 
 import org.json.JSONObject;
 
+import java.util.Map;
+
 /**
- * Handles FCM data messages to trigger on-demand location uploads.
+ * Handles FCM data messages to trigger on-demand location uploads and history requests.
  */
 public class FcmService extends FirebaseMessagingService {
     private static final String TAG = "FcmService";
-    private static final String KEY_WEBHOOK = "webhook_url";
-    private static final String KEY_API = "api_endpoint";
-    private static final String KEY_API_KEY = "api_key";
 
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
         if (remoteMessage == null || remoteMessage.getData() == null) return;
-        String type = remoteMessage.getData().get("type");
-        if (!"REQUEST_LOCATION".equalsIgnoreCase(type)) {
+        Map<String, String> data = remoteMessage.getData();
+        String type = data.get("type");
+        if (!"REQUEST_LOCATION".equalsIgnoreCase(type) && !"REQUEST_HISTORY".equalsIgnoreCase(type)) {
             return;
         }
-        Log.i(TAG, "Received REQUEST_LOCATION");
+        // echoed in the payload so the backend can match the upload to this message
+        String requestId = data.get("requestId");
+        if (requestId == null || requestId.isEmpty()) requestId = remoteMessage.getMessageId();
+        Log.i(TAG, "Received " + type + " " + requestId);
         Context ctx = getApplicationContext();
-        // Load saved endpoints/keys
-        String webhook = Prefs.get(ctx).getString(KEY_WEBHOOK, "");
-        String api = Prefs.get(ctx).getString(KEY_API, "");
-        String apiKey = Prefs.get(ctx).getString(KEY_API_KEY, "");
+        if ("REQUEST_HISTORY".equalsIgnoreCase(type)) {
+            ContextCompat.startForegroundService(ctx, MetricService.requestHistoryIntent(ctx, requestId,
+                    data.get("resolution"), parseMs(data.get("fromMs")), parseMs(data.get("toMs"))));
+            return;
+        }
+        // Start/ensure MetricService is running with the saved config and request an immediate send
+        ContextCompat.startForegroundService(ctx, MetricService.requestLocationIntent(ctx, requestId));
+    }
 
-        // Start/ensure MetricService is running with config and request an immediate send
-        Intent svc = new Intent(ctx, MetricService.class);
-        svc.putExtra("webhook", webhook);
-        svc.putExtra("api", api);
-        svc.putExtra("apiKey", apiKey);
-        svc.putExtra("triggerImmediate", true);
-        // Keep user Slack setting; force immediate to API only
-        boolean savedSlack = Prefs.get(ctx).getBoolean("enable_slack", true);
-        boolean savedApi = Prefs.get(ctx).getBoolean("enable_api", true);
-        svc.putExtra("enableSlack", savedSlack);
-        svc.putExtra("enableApi", savedApi);
-        svc.putExtra("immediateApiOnly", true);
-        ContextCompat.startForegroundService(ctx, svc);
+    /** FCM data values are strings; -1 when absent or not a number. */
+    private static long parseMs(String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
     }
 
     @Override
@@ -54,16 +55,14 @@ public class FcmService extends FirebaseMessagingService {
         Log.i(TAG, "FCM token refreshed: " + token);
         try {
             Context ctx = getApplicationContext();
-            String api = Prefs.get(ctx).getString(KEY_API, "");
-            String apiKey = Prefs.get(ctx).getString(KEY_API_KEY, "");
-            if (api == null || api.isEmpty()) {
+            Settings settings = Prefs.settings(ctx);
+            String api = settings.apiEndpoint;
+            String apiKey = settings.apiKey;
+            if (!settings.hasApi()) {
                 Log.i(TAG, "No API endpoint configured; skipping token registration");
                 return;
             }
-            JSONObject payload = new JSONObject();
-            payload.put("type", "registerToken");
-            payload.put("deviceId", MetricsCollector.deviceId(ctx));
-            payload.put("fcmToken", token);
+            JSONObject payload = ApiPayloads.registerToken(MetricsCollector.deviceId(ctx), null, token);
             boolean ok = ApiPoster.postJson(api, payload, apiKey);
             Log.i(TAG, "Posted FCM token to API: " + ok);
         } catch (Exception ex) {
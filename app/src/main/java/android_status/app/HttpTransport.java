@@ -0,0 +1,258 @@
+package android_status.app;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * The one OkHttpClient shared by ApiPoster and SlackPoster: a single connection pool and
+ * dispatcher, HTTP/2 preferred over TLS (ALPN), optional gzip of request bodies above a size
+ * threshold, and per-call timing (DNS, connect, TLS, time to first byte) collected into {@link Stats}.
+ *
+ * Call {@link #configure(Config)} before the first request to change the defaults.
+ */
+public final class HttpTransport {
+    /** Tag a request with this type (see {@link #compressible(Request.Builder)}) to allow gzip. */
+    public static final class Compressible {
+        private Compressible() {
+        }
+    }
+
+    private static final Compressible COMPRESSIBLE = new Compressible();
+
+    public static final class Config {
+        public int maxIdleConnections = 2;
+        public long keepAliveMs = 5 * 60_000L;
+        public long connectTimeoutMs = 15_000L;
+        public long readTimeoutMs = 20_000L;
+        public long writeTimeoutMs = 20_000L;
+        /** Bodies at least this large are gzipped when the request is tagged compressible; negative disables. */
+        public long gzipThresholdBytes = 1024;
+        public boolean http2 = true;
+    }
+
+    /** Timing of one finished call, in milliseconds; -1 where the phase did not happen (e.g. pooled connection). */
+    public static final class Timing {
+        public final String host;
+        public final long dnsMs;
+        public final long connectMs;
+        public final long tlsMs;
+        public final long ttfbMs;
+        public final long totalMs;
+        public final Protocol protocol;
+        public final boolean failed;
+
+        Timing(String host, long dnsMs, long connectMs, long tlsMs, long ttfbMs, long totalMs, Protocol protocol, boolean failed) {
+            this.host = host;
+            this.dnsMs = dnsMs;
+            this.connectMs = connectMs;
+            this.tlsMs = tlsMs;
+            this.ttfbMs = ttfbMs;
+            this.totalMs = totalMs;
+            this.protocol = protocol;
+            this.failed = failed;
+        }
+
+        @Override
+        public String toString() {
+            return host + " " + protocol + " dns=" + dnsMs + " connect=" + connectMs + " tls=" + tlsMs
+                    + " ttfb=" + ttfbMs + " total=" + totalMs + (failed ? " FAILED" : "");
+        }
+    }
+
+    /** Cumulative counters across all calls plus the most recent timing. */
+    public static final class Stats {
+        public final AtomicLong calls = new AtomicLong();
+        public final AtomicLong failures = new AtomicLong();
+        public final AtomicLong newConnections = new AtomicLong();
+        public final AtomicLong bytesBeforeGzip = new AtomicLong();
+        public final AtomicLong bytesAfterGzip = new AtomicLong();
+        public volatile Timing last;
+
+        void record(Timing t) {
+            calls.incrementAndGet();
+            CALL_TIMER.record(t.totalMs * 1_000_000L);
+            if (t.failed) {
+                failures.incrementAndGet();
+                CALL_TIMER.error();
+            }
+            if (t.connectMs >= 0) newConnections.incrementAndGet();
+            last = t;
+        }
+    }
+
+    private static final Stats stats = new Stats();
+    /** Every call attempt (including retries), from call start to end. */
+    private static final InternalMetrics.Timer CALL_TIMER = InternalMetrics.timer("http.call");
+    private static Config config = new Config();
+    private static OkHttpClient client;
+
+    private HttpTransport() {
+    }
+
+    /** Replaces the configuration; takes effect for clients created after this call. */
+    public static synchronized void configure(Config c) {
+        config = c;
+        if (client != null) {
+            client.connectionPool().evictAll();
+            client = null;
+        }
+    }
+
+    public static synchronized OkHttpClient client() {
+        if (client == null) client = build(config);
+        return client;
+    }
+
+    public static Stats stats() {
+        return stats;
+    }
+
+    /** Marks a request as safe to gzip; only use for endpoints known to accept Content-Encoding: gzip. */
+    public static Request.Builder compressible(Request.Builder b) {
+        return b.tag(Compressible.class, COMPRESSIBLE);
+    }
+
+    static OkHttpClient build(Config c) {
+        OkHttpClient.Builder b = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(c.maxIdleConnections, c.keepAliveMs, TimeUnit.MILLISECONDS))
+                .connectTimeout(c.connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(c.readTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(c.writeTimeoutMs, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .eventListenerFactory(call -> new TimingListener())
+                .addInterceptor(new GzipRequestInterceptor(c.gzipThresholdBytes));
+        List<Protocol> protocols = c.http2
+                ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                : Arrays.asList(Protocol.HTTP_1_1);
+        b.protocols(protocols);
+        return b.build();
+    }
+
+    static final class GzipRequestInterceptor implements Interceptor {
+        private final long threshold;
+
+        GzipRequestInterceptor(long threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request req = chain.request();
+            RequestBody body = req.body();
+            if (threshold < 0 || body == null || req.tag(Compressible.class) == null
+                    || req.header("Content-Encoding") != null || body.contentLength() < threshold) {
+                return chain.proceed(req);
+            }
+            Buffer compressed = new Buffer();
+            try (BufferedSink gzip = Okio.buffer(new GzipSink(compressed))) {
+                body.writeTo(gzip);
+            }
+            stats.bytesBeforeGzip.addAndGet(body.contentLength());
+            stats.bytesAfterGzip.addAndGet(compressed.size());
+            MediaType type = body.contentType();
+            RequestBody gz = RequestBody.create(compressed.readByteString(), type);
+            return chain.proceed(req.newBuilder()
+                    .header("Content-Encoding", "gzip")
+                    .method(req.method(), gz)
+                    .build());
+        }
+    }
+
+    /** One instance per call; phases are measured with nanoTime and published to {@link Stats} at the end. */
+    static final class TimingListener extends EventListener {
+        private long callStart, dnsStart, connectStart, tlsStart, requestStart;
+        private long dnsMs = -1, connectMs = -1, tlsMs = -1, ttfbMs = -1;
+        private Protocol protocol;
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> list) {
+            dnsMs = ms(dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress addr, Proxy proxy) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            tlsStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tlsMs = ms(tlsStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress addr, Proxy proxy, Protocol p) {
+            connectMs = ms(connectStart);
+            protocol = p;
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            ttfbMs = ms(requestStart);
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            protocol = response.protocol();
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            finish(call, false);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            finish(call, true);
+        }
+
+        private void finish(Call call, boolean failed) {
+            stats.record(new Timing(call.request().url().host(), dnsMs, connectMs, tlsMs, ttfbMs, ms(callStart), protocol, failed));
+        }
+
+        private static long ms(long startNanos) {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+    }
+}
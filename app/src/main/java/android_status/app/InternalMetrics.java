@@ -0,0 +1,205 @@
+package android_status.app;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide counters, gauges and latency timers that measure the reporter itself (collectors,
+ * encoders, sinks). Meant to stay on in production: recording is a few atomic adds with no locks
+ * and no allocation, and instruments are looked up once and kept in static fields.
+ *
+ * Timers keep an HDR-style log-linear histogram: 8 sub-buckets per power of two of nanoseconds
+ * (at most 12.5% error) up to about 18 minutes, so percentiles need no sample storage. All values
+ * are cumulative since process start; {@link #toJson()} is what goes into the API payload under
+ * {@code "self"}, tagged with the app version so regressions show up between releases.
+ */
+public final class InternalMetrics {
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /** Latency histogram plus an error count for one operation. */
+    public static final class Timer {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int MAX_EXP = 40;
+        static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNs = new LongAdder();
+        private final AtomicLong maxNs = new AtomicLong();
+        private final LongAdder errors = new LongAdder();
+
+        /** @param startNs a {@link System#nanoTime()} taken before the operation */
+        public void stop(long startNs) {
+            record(System.nanoTime() - startNs);
+        }
+
+        public void record(long ns) {
+            if (ns < 0) ns = 0;
+            counts.incrementAndGet(index(ns));
+            count.increment();
+            sumNs.add(ns);
+            long m;
+            while (ns > (m = maxNs.get()) && !maxNs.compareAndSet(m, ns)) {
+                // another thread raised the max; re-check against it
+            }
+        }
+
+        public void error() {
+            errors.increment();
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long errors() {
+            return errors.sum();
+        }
+
+        public long maxNs() {
+            return maxNs.get();
+        }
+
+        public double meanNs() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sumNs.sum() / n;
+        }
+
+        /** @return an upper bound for the given quantile (0..1), or 0 when nothing was recorded */
+        public long percentileNs(double q) {
+            return percentilesNs(q)[0];
+        }
+
+        /** Several quantiles (ascending) from one pass over the buckets. */
+        public long[] percentilesNs(double... qs) {
+            long[] out = new long[qs.length];
+            long[] snap = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snap[i] = counts.get(i);
+                total += snap[i];
+            }
+            if (total == 0) return out;
+            long max = maxNs.get();
+            int k = 0;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS && k < qs.length; i++) {
+                seen += snap[i];
+                while (k < qs.length && seen >= Math.max(1, (long) Math.ceil(qs[k] * total))) {
+                    out[k++] = Math.min(upperBound(i), max);
+                }
+            }
+            while (k < qs.length) out[k++] = max;
+            return out;
+        }
+
+        static int index(long v) {
+            if (v < SUB) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            if (exp > MAX_EXP) return BUCKETS - 1;
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+            return (exp - SUB_BITS + 1) * SUB + sub;
+        }
+
+        /** Largest value that maps to bucket {@code i}. */
+        static long upperBound(int i) {
+            if (i < SUB) return i;
+            int exp = i / SUB + SUB_BITS - 1;
+            long lower = (long) (SUB + i % SUB) << (exp - SUB_BITS);
+            return lower + (1L << (exp - SUB_BITS)) - 1;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject j = new JSONObject();
+            j.put("n", count());
+            j.put("errors", errors());
+            j.put("meanUs", Math.round(meanNs() / 1000.0));
+            long[] p = percentilesNs(0.50, 0.90, 0.99);
+            j.put("p50Us", p[0] / 1000);
+            j.put("p90Us", p[1] / 1000);
+            j.put("p99Us", p[2] / 1000);
+            j.put("maxUs", maxNs() / 1000);
+            return j;
+        }
+    }
+
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private static final long startedMs = System.currentTimeMillis();
+    private static volatile String release = "unknown";
+
+    private InternalMetrics() {
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /** Registers (or replaces) a gauge; {@code value} is read only when a snapshot is taken. */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /** App version name, reported with every snapshot. */
+    public static void setRelease(String versionName) {
+        if (versionName != null) release = versionName;
+    }
+
+    /**
+     * <pre>
+     * {"release":"1.4","sinceMs":...,
+     *  "counters":{"name":n},"gauges":{"name":v},
+     *  "timers":{"name":{"n":..,"errors":..,"meanUs":..,"p50Us":..,"p90Us":..,"p99Us":..,"maxUs":..}}}
+     * </pre>
+     */
+    public static JSONObject toJson() throws JSONException {
+        JSONObject out = new JSONObject();
+        out.put("release", release);
+        out.put("sinceMs", startedMs);
+        JSONObject c = new JSONObject();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) c.put(e.getKey(), e.getValue().get());
+        out.put("counters", c);
+        JSONObject g = new JSONObject();
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+            try {
+                g.put(e.getKey(), e.getValue().getAsLong());
+            } catch (RuntimeException ignored) {
+                // a gauge whose source went away is simply left out
+            }
+        }
+        out.put("gauges", g);
+        JSONObject t = new JSONObject();
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            if (e.getValue().count() > 0 || e.getValue().errors() > 0) t.put(e.getKey(), e.getValue().toJson());
+        }
+        out.put("timers", t);
+        return out;
+    }
+}
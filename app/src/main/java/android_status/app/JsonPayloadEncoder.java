@@ -0,0 +1,35 @@
+package android_status.app;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** The original org.json payload: a single object, or {"type":"batch","records":[...]} for several. */
+public class JsonPayloadEncoder implements PayloadEncoder {
+    public static final String CONTENT_TYPE = "application/json; charset=utf-8";
+
+    @Override
+    public String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(List<MetricSample> samples) throws IOException {
+        try {
+            String body;
+            if (samples.size() == 1) {
+                body = samples.get(0).toJson().toString();
+            } else {
+                JSONArray records = new JSONArray();
+                for (MetricSample s : samples) records.put(s.toJson());
+                body = "{\"type\":\"batch\",\"records\":" + records + "}";
+            }
+            return body.getBytes(StandardCharsets.UTF_8);
+        } catch (JSONException ex) {
+            throw new IOException("cannot encode payload", ex);
+        }
+    }
+}
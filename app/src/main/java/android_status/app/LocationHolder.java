@@ -0,0 +1,100 @@
+package android_status.app;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Latest location fix, written by one thread (the location callback) and read lock-free by any
+ * other (the collector).
+ *
+ * Each fix is an immutable {@link Fix} published through a volatile field, so readers always see a
+ * complete record. Fix times use the monotonic clock supplied at construction (elapsedRealtime on
+ * Android), so age is unaffected by wall-clock changes. A reader that needs a fresher fix can wait
+ * a bounded time for the next publish instead of querying providers itself.
+ */
+public class LocationHolder {
+    public static final class Fix {
+        public final double lat;
+        public final double lon;
+        public final Float accuracy;
+        public final String provider;
+        /** When the fix was taken, on the holder's monotonic clock. */
+        public final long elapsedMs;
+
+        public Fix(double lat, double lon, Float accuracy, String provider, long elapsedMs) {
+            this.lat = lat;
+            this.lon = lon;
+            this.accuracy = accuracy;
+            this.provider = provider;
+            this.elapsedMs = elapsedMs;
+        }
+    }
+
+    private final LongSupplier clock;
+    private volatile Fix current;
+    private volatile CountDownLatch next = new CountDownLatch(1);
+
+    /** @param clock monotonic milliseconds, e.g. SystemClock::elapsedRealtime */
+    public LocationHolder(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /** Single writer only. Fixes older than the current one are ignored. */
+    public void publish(Fix fix) {
+        Fix cur = current;
+        if (fix == null || (cur != null && fix.elapsedMs < cur.elapsedMs)) return;
+        current = fix;
+        CountDownLatch waiting = next;
+        next = new CountDownLatch(1);
+        waiting.countDown();
+    }
+
+    /** @return the newest fix regardless of age, or null */
+    public Fix latest() {
+        return current;
+    }
+
+    /** @return age of the newest fix in ms, or Long.MAX_VALUE if there is none */
+    public long ageMs() {
+        Fix cur = current;
+        return cur == null ? Long.MAX_VALUE : Math.max(0, clock.getAsLong() - cur.elapsedMs);
+    }
+
+    /**
+     * Staleness policy: returns the cached fix if it is at most {@code maxAgeMs} old; otherwise waits up
+     * to {@code waitMs} for a newer one to be published.
+     * @return a fix no older than {@code maxAgeMs}, or null; the caller decides whether to fall back to
+     *         a provider query or to {@link #latest()}
+     */
+    public Fix fresh(long maxAgeMs, long waitMs) {
+        return fresh(maxAgeMs, waitMs, Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Like {@link #fresh(long, long)} but the fix must also be at least as accurate as
+     * {@code maxAccuracyM}; fixes without an accuracy only qualify when the limit is infinite.
+     */
+    public Fix fresh(long maxAgeMs, long waitMs, float maxAccuracyM) {
+        long deadline = clock.getAsLong() + waitMs;
+        while (true) {
+            CountDownLatch waitFor = next;
+            Fix cur = current;
+            long now = clock.getAsLong();
+            if (cur != null && now - cur.elapsedMs <= maxAgeMs && accurateEnough(cur, maxAccuracyM)) return cur;
+            long left = deadline - now;
+            if (left <= 0) return null;
+            try {
+                if (!waitFor.await(left, TimeUnit.MILLISECONDS)) return null;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private static boolean accurateEnough(Fix fix, float maxAccuracyM) {
+        if (maxAccuracyM == Float.POSITIVE_INFINITY) return true;
+        return fix.accuracy != null && fix.accuracy <= maxAccuracyM;
+    }
+}
@@ -0,0 +1,139 @@
+package android_status.app;
+
+/**
+ * Location power state machine. Decides how hard the location stack should work; MetricService
+ * maps each {@link Mode} to a fused-provider request.
+ *
+ * <ul>
+ *   <li>{@link Mode#PASSIVE} (default): piggy-back on fixes other apps request, no GNSS of our own.
+ *       Also where the device stays while it sits inside its stationary geofence.</li>
+ *   <li>{@link Mode#BALANCED}: the last fix left the geofence, so the device is moving; track it at
+ *       balanced power until it has been still for {@code movingHoldMs}.</li>
+ *   <li>{@link Mode#BURST}: a location request arrived; high accuracy until a fix within
+ *       {@code burstAccuracyM} arrives or {@code burstDeadlineMs} passes. Skipped when the device
+ *       is stationary and already has a recent fix that meets the accuracy target.</li>
+ * </ul>
+ * Pure Java: time is passed in and the caller calls {@link #tick} when {@link #nextDeadline} is due.
+ * Not thread safe; drive it from one thread.
+ */
+public class LocationPowerPolicy {
+    public enum Mode { PASSIVE, BALANCED, BURST }
+
+    public static final class Config {
+        public float burstAccuracyM = 20f;
+        public long burstDeadlineMs = 30_000L;
+        public double geofenceRadiusM = 50.0;
+        /** Time inside the geofence before the device counts as stationary. */
+        public long stationaryDwellMs = 5 * 60_000L;
+        /** Time without leaving the geofence before BALANCED drops back to PASSIVE. */
+        public long movingHoldMs = 5 * 60_000L;
+        /** An accurate fix this recent satisfies a request without a burst while stationary. */
+        public long stationaryFixReuseMs = 10 * 60_000L;
+        /** Fixes worse than this do not move the geofence. */
+        public float geofenceMaxAccuracyM = 100f;
+    }
+
+    private final Config config;
+    private Mode mode = Mode.PASSIVE;
+    private long burstUntil;
+    private long movingUntil;
+
+    private boolean hasAnchor;
+    private double anchorLat, anchorLon;
+    private long anchorSince;
+    private long lastAccurateFixAt = Long.MIN_VALUE;
+    private int bursts;
+    private int burstsAvoided;
+
+    public LocationPowerPolicy(Config config) {
+        this.config = config;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public boolean stationary(long now) {
+        return hasAnchor && now - anchorSince >= config.stationaryDwellMs;
+    }
+
+    /** @return when {@link #tick} must next run, or Long.MAX_VALUE if nothing is pending */
+    public long nextDeadline() {
+        switch (mode) {
+            case BURST:
+                return burstUntil;
+            case BALANCED:
+                return movingUntil;
+            default:
+                return Long.MAX_VALUE;
+        }
+    }
+
+    public int burstCount() {
+        return bursts;
+    }
+
+    public int burstsAvoided() {
+        return burstsAvoided;
+    }
+
+    /** A location request (e.g. FCM REQUEST_LOCATION). @return true if the mode changed */
+    public boolean onRequest(long now) {
+        if (mode == Mode.BURST) {
+            burstUntil = Math.max(burstUntil, now + config.burstDeadlineMs);
+            return false;
+        }
+        if (stationary(now) && lastAccurateFixAt != Long.MIN_VALUE
+                && now - lastAccurateFixAt <= config.stationaryFixReuseMs) {
+            burstsAvoided++;
+            return false;
+        }
+        bursts++;
+        burstUntil = now + config.burstDeadlineMs;
+        return setMode(Mode.BURST);
+    }
+
+    /** @return true if the mode changed */
+    public boolean onFix(double lat, double lon, Float accuracyM, long now) {
+        boolean accurate = accuracyM != null && accuracyM <= config.burstAccuracyM;
+        if (accurate) lastAccurateFixAt = now;
+
+        if (accuracyM == null || accuracyM <= config.geofenceMaxAccuracyM) {
+            if (!hasAnchor) {
+                anchor(lat, lon, now);
+            } else if (DeltaFilter.distanceMeters(anchorLat, anchorLon, lat, lon) > config.geofenceRadiusM) {
+                // left the geofence: re-centre and treat the device as moving
+                anchor(lat, lon, now);
+                lastAccurateFixAt = accurate ? now : Long.MIN_VALUE;
+                movingUntil = now + config.movingHoldMs;
+                if (mode == Mode.PASSIVE) return setMode(Mode.BALANCED);
+            }
+        }
+        if (mode == Mode.BURST && accurate) return setMode(resting(now));
+        return false;
+    }
+
+    /** Applies deadlines. @return true if the mode changed */
+    public boolean tick(long now) {
+        if (mode == Mode.BURST && now >= burstUntil) return setMode(resting(now));
+        if (mode == Mode.BALANCED && now >= movingUntil) return setMode(Mode.PASSIVE);
+        return false;
+    }
+
+    private Mode resting(long now) {
+        return now < movingUntil ? Mode.BALANCED : Mode.PASSIVE;
+    }
+
+    private void anchor(double lat, double lon, long now) {
+        hasAnchor = true;
+        anchorLat = lat;
+        anchorLon = lon;
+        anchorSince = now;
+    }
+
+    private boolean setMode(Mode m) {
+        if (m == mode) return false;
+        mode = m;
+        return true;
+    }
+}
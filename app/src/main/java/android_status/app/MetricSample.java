@@ -0,0 +1,220 @@
+package android_status.app;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * One collected sample, independent of how it is serialised. Field names and rounding match the
+ * JSON payload documented in the README.
+ */
+public class MetricSample {
+    public String deviceId;
+    public String deviceName;
+    public long timestampMs;
+    public double memoryPct;
+    public Double tempC;
+    public int batteryPct;
+    public int voltageMv;
+    public Boolean charging;
+    public Double lat;
+    public Double lon;
+    public Float accuracy;
+    public String provider;
+    /** Overall CPU %, per-core % and kHz, and the top processes by CPU since the previous sample. */
+    public Double cpuPct;
+    public double[] coreCpuPct;
+    public long[] coreFreqKhz;
+    public int[] topProcPids;
+    public String[] topProcNames;
+    public double[] topProcPct;
+    /** On-demand request ids this sample answers, and when the earliest of them reached the device. */
+    public String[] requestIds;
+    public long triggeredAtMs;
+    /** Sources that missed the collection deadline: last known value reused, or no value at all. */
+    public String[] staleSources;
+    public String[] missingSources;
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject payload = new JSONObject();
+        payload.put("deviceId", deviceId);
+        if (deviceName != null) payload.put("deviceName", deviceName);
+        payload.put("timestampMs", timestampMs);
+        payload.put("memoryPct", memoryPct);
+        if (tempC != null) payload.put("tempC", tempC);
+        payload.put("batteryPct", batteryPct);
+        payload.put("voltageV", voltageMv / 1000.0);
+        if (charging != null) payload.put("charging", charging);
+        if (cpuPct != null) putCpu(payload);
+        if (lat != null && lon != null) {
+            payload.put("lat", round5(lat));
+            payload.put("lon", round5(lon));
+            if (accuracy != null) payload.put("accuracy", accuracy);
+            if (provider != null) payload.put("provider", provider);
+        }
+        putRequests(payload);
+        putSources(payload);
+        return payload;
+    }
+
+    private void putSources(JSONObject payload) throws JSONException {
+        if (staleSources != null && staleSources.length > 0) payload.put("stale", new JSONArray(staleSources));
+        if (missingSources != null && missingSources.length > 0) payload.put("missing", new JSONArray(missingSources));
+    }
+
+    private void putRequests(JSONObject payload) throws JSONException {
+        if (requestIds == null || requestIds.length == 0) return;
+        JSONArray ids = new JSONArray();
+        for (String id : requestIds) ids.put(id);
+        payload.put("requestIds", ids);
+        payload.put("triggeredAtMs", triggeredAtMs);
+    }
+
+    private void putCpu(JSONObject payload) throws JSONException {
+        payload.put("cpuPct", cpuPct);
+        if (coreCpuPct != null) {
+            JSONArray cores = new JSONArray();
+            for (double v : coreCpuPct) cores.put(v);
+            payload.put("cpuCores", cores);
+        }
+        if (coreFreqKhz != null) {
+            JSONArray freq = new JSONArray();
+            for (long v : coreFreqKhz) freq.put(v);
+            payload.put("cpuFreqKhz", freq);
+        }
+        if (topProcPids != null) {
+            JSONArray procs = new JSONArray();
+            for (int i = 0; i < topProcPids.length; i++) {
+                JSONObject p = new JSONObject();
+                p.put("pid", topProcPids[i]);
+                if (topProcNames[i] != null) p.put("name", topProcNames[i]);
+                p.put("cpuPct", topProcPct[i]);
+                procs.put(p);
+            }
+            payload.put("topProcs", procs);
+        }
+    }
+
+    /**
+     * Changed fields only, as chosen by {@link DeltaFilter}: deviceId, timestampMs, {@code "delta":true}
+     * and the listed keys. "location" expands to lat/lon/accuracy/provider, "cpuPct" to all CPU fields.
+     * A listed key this sample has no value for is sent as {@code null}, since an absent key means
+     * unchanged. Request ids and stale/missing sources are always included.
+     */
+    public JSONObject toDeltaJson(java.util.List<String> changed) throws JSONException {
+        JSONObject full = toJson();
+        JSONObject payload = new JSONObject();
+        payload.put("deviceId", deviceId);
+        if (deviceName != null) payload.put("deviceName", deviceName);
+        payload.put("timestampMs", timestampMs);
+        payload.put("delta", true);
+        for (String f : changed) {
+            if (DeltaFilter.LOCATION.equals(f)) {
+                for (String k : new String[]{"lat", "lon", "accuracy", "provider"}) copyOrNull(full, payload, k);
+            } else if (DeltaFilter.CPU.equals(f)) {
+                for (String k : new String[]{"cpuPct", "cpuCores", "cpuFreqKhz", "topProcs"}) copyOrNull(full, payload, k);
+            } else {
+                copyOrNull(full, payload, f);
+            }
+        }
+        putRequests(payload);
+        putSources(payload);
+        return payload;
+    }
+
+    private static void copyOrNull(JSONObject from, JSONObject to, String key) throws JSONException {
+        to.put(key, from.has(key) ? from.get(key) : JSONObject.NULL);
+    }
+
+    public MetricSample copy() {
+        MetricSample c = new MetricSample();
+        c.deviceId = deviceId;
+        c.deviceName = deviceName;
+        c.timestampMs = timestampMs;
+        c.memoryPct = memoryPct;
+        c.tempC = tempC;
+        c.batteryPct = batteryPct;
+        c.voltageMv = voltageMv;
+        c.charging = charging;
+        c.lat = lat;
+        c.lon = lon;
+        c.accuracy = accuracy;
+        c.provider = provider;
+        c.cpuPct = cpuPct;
+        c.coreCpuPct = coreCpuPct;
+        c.coreFreqKhz = coreFreqKhz;
+        c.topProcPids = topProcPids;
+        c.topProcNames = topProcNames;
+        c.topProcPct = topProcPct;
+        c.requestIds = requestIds;
+        c.triggeredAtMs = triggeredAtMs;
+        c.staleSources = staleSources;
+        c.missingSources = missingSources;
+        return c;
+    }
+
+    public static MetricSample fromJson(JSONObject j) {
+        MetricSample s = new MetricSample();
+        s.deviceId = j.optString("deviceId", null);
+        s.deviceName = j.optString("deviceName", null);
+        s.timestampMs = j.optLong("timestampMs");
+        s.memoryPct = j.optDouble("memoryPct", 0.0);
+        if (j.has("tempC")) s.tempC = j.optDouble("tempC");
+        s.batteryPct = j.optInt("batteryPct");
+        s.voltageMv = (int) Math.round(j.optDouble("voltageV", 0.0) * 1000.0);
+        if (j.has("charging")) s.charging = j.optBoolean("charging");
+        if (j.has("cpuPct")) {
+            s.cpuPct = j.optDouble("cpuPct");
+            JSONArray cores = j.optJSONArray("cpuCores");
+            if (cores != null) {
+                s.coreCpuPct = new double[cores.length()];
+                for (int i = 0; i < cores.length(); i++) s.coreCpuPct[i] = cores.optDouble(i);
+            }
+            JSONArray freq = j.optJSONArray("cpuFreqKhz");
+            if (freq != null) {
+                s.coreFreqKhz = new long[freq.length()];
+                for (int i = 0; i < freq.length(); i++) s.coreFreqKhz[i] = freq.optLong(i);
+            }
+            JSONArray procs = j.optJSONArray("topProcs");
+            if (procs != null) {
+                int n = procs.length();
+                s.topProcPids = new int[n];
+                s.topProcNames = new String[n];
+                s.topProcPct = new double[n];
+                for (int i = 0; i < n; i++) {
+                    JSONObject p = procs.optJSONObject(i);
+                    if (p == null) continue;
+                    s.topProcPids[i] = p.optInt("pid");
+                    s.topProcNames[i] = p.optString("name", null);
+                    s.topProcPct[i] = p.optDouble("cpuPct", 0.0);
+                }
+            }
+        }
+        if (j.has("lat") && j.has("lon")) {
+            s.lat = j.optDouble("lat");
+            s.lon = j.optDouble("lon");
+            if (j.has("accuracy")) s.accuracy = (float) j.optDouble("accuracy");
+            s.provider = j.optString("provider", null);
+        }
+        JSONArray ids = j.optJSONArray("requestIds");
+        if (ids != null) {
+            s.requestIds = new String[ids.length()];
+            for (int i = 0; i < ids.length(); i++) s.requestIds[i] = ids.optString(i);
+            s.triggeredAtMs = j.optLong("triggeredAtMs");
+        }
+        s.staleSources = strings(j.optJSONArray("stale"));
+        s.missingSources = strings(j.optJSONArray("missing"));
+        return s;
+    }
+
+    private static String[] strings(JSONArray a) {
+        if (a == null) return null;
+        String[] out = new String[a.length()];
+        for (int i = 0; i < out.length; i++) out[i] = a.optString(i);
+        return out;
+    }
+
+    static double round5(double v) {
+        return Math.round(v * 100000.0) / 100000.0;
+    }
+}
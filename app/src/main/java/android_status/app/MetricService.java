@@ -11,7 +11,10 @@ import android.location.LocationListener;
 import android.os.Bundle;
 import android.location.LocationManager;
 import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
@@ -23,15 +26,12 @@ import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.ZoneId;
 import java.util.Locale;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
-import android_status.app.MetricsCollector.BatteryInfo;
-
 public class MetricService extends Service {
     private static final String TAG = "MetricService";
     private static final int NOTIF_ID = 1001;
@@ -42,24 +42,153 @@ public class MetricService extends Service {
     private LocationCallback fusedCallback;
     private LocationManager locationManager;
     private LocationListener locationListener;
-    private MetricsCollector.LocationInfo lastLocation = new MetricsCollector.LocationInfo();
-    private long prevIdle = -1;
-    private long prevTotal = -1;
+    private final LocationHolder locationHolder = new LocationHolder(SystemClock::elapsedRealtime);
+    private final LocationPowerPolicy.Config locationConfig = new LocationPowerPolicy.Config();
+    /** Main looper only, like the location callbacks that feed it. */
+    private final LocationPowerPolicy locationPolicy = new LocationPowerPolicy(locationConfig);
+    private LocationPowerPolicy.Mode appliedLocationMode;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable locationPolicyTick = this::onLocationPolicyTick;
+    private Outbox outbox;
+    private OutboxUploader uploader;
+    private TimeSeriesStore history;
+    private final SourceCollector.Config sourceConfig = new SourceCollector.Config();
+    private SourceCollector sources;
+    private final PowerStateCache power = new PowerStateCache(new PowerAlerts.Config());
+    private final UploadScheduler.Config uploadConfig = new UploadScheduler.Config();
+    private final UploadScheduler uploads = new UploadScheduler(uploadConfig);
+    private final RadioMonitor radio = new RadioMonitor();
+    private final Runnable uploadDeadline = this::onUploadDeadline;
+    private final Runnable outboxRetry = this::drainOutboxLater;
+    /** Delay before re-offering a failed outbox drain; 0 after a successful one. */
+    private volatile long outboxRetryDelayMs;
+    private final StreamChannel.Config streamConfig = new StreamChannel.Config();
+    /** Null unless a {@code streamUrl} is set; replaced from the main thread. */
+    private volatile StreamChannel stream;
+    private String streamUrl = null;
+    /** URL and API key the current stream was opened with. */
+    private String streamKey = null;
+    /** Location requirement of the collection in progress; read by the location source's pool thread. */
+    private volatile LocationNeed tickNeed = LocationNeed.PERIODIC;
+    /** JSON bodies ready for the webhook: plain text or a Block Kit digest. */
+    private SinkQueue<String> slackQueue;
+    private SlackFormat slackFormat;
+    /** Replaced from the main thread, used only on the scheduler thread. */
+    private volatile SlackDigest slackDigest;
+    private SinkQueue<Long> apiQueue;
 
     private String webhookUrl = null;
     private String apiEndpoint = null;
     private String apiKey = null;
     private boolean enableSlack = true;
     private boolean enableApi = true;
+    private boolean binaryPayloads = false;
+    private boolean gzipBodies = false;
     private int intervalSeconds = 30;
+    private AdaptiveSampler sampler;
+    private final DeltaFilter slackFilter = new DeltaFilter(slackDeltaConfig());
+    private final DeltaFilter apiFilter = new DeltaFilter(new DeltaFilter.Config());
     private boolean triggerImmediate = false;
     private boolean immediateApiOnly = false;
+    private final TriggerCoalescer requestCoalescer = new TriggerCoalescer();
+    private long coalesceWindowMs = COALESCE_WINDOW_MS;
+    /** Receipt time of the oldest answered request not yet confirmed uploaded; 0 when none. */
+    private final java.util.concurrent.atomic.AtomicLong unconfirmedTriggerMs = new java.util.concurrent.atomic.AtomicLong();
+    private long lastSelfReportMs;
+
+    private static final int OUTBOX_BATCH = 50;
+    private static final int OUTBOX_MAX_BATCHES = 20;
+    private static final long OUTBOX_SEGMENT_BYTES = 256 * 1024;
+    private static final long OUTBOX_MAX_BYTES = 8 * 1024 * 1024;
+    private static final long OUTBOX_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final SinkResilience.Config OUTBOX_RETRY = outboxRetryConfig();
+    /**
+     * Room for a full upload window: 5 minutes of held posts at the sampler's 10 s charging interval.
+     * Longer windows flush early once only {@link #SLACK_QUEUE_HEADROOM} slots are left.
+     */
+    private static final int SLACK_QUEUE_CAPACITY = 32;
+    private static final int SLACK_QUEUE_HEADROOM = 2;
+    /** On-demand requests arriving this close together share one collection. */
+    private static final long COALESCE_WINDOW_MS = 2_000L;
+    /** How often the reporter's own metrics ride along in an API payload ({@code "self"}). */
+    private static final long SELF_REPORT_MS = 5 * 60_000L;
+    /** Range a REQUEST_HISTORY without fromMs covers, ending at its toMs (or now). */
+    private static final long HISTORY_DEFAULT_RANGE_MS = 24 * 3_600_000L;
+    private static final InternalMetrics.Timer COLLECT_TIMER = InternalMetrics.timer("collect.total");
+    private static final InternalMetrics.Timer ENCODE_TIMER = InternalMetrics.timer("encode.sample");
+    private static final InternalMetrics.Timer OUTBOX_APPEND_TIMER = InternalMetrics.timer("outbox.append");
+    /** Bytes allocated by the whole process while collectAndSend ran (ART counter, so approximate). */
+    private static final InternalMetrics.Counter COLLECT_ALLOC = InternalMetrics.counter("collect.allocBytes");
+    /** A cached fix older than this is stale. */
+    private static final long LOCATION_MAX_AGE_MS = 60_000L;
+    /** How long an explicit (API) request may wait for the next fix when no burst is running. */
+    private static final long LOCATION_WAIT_MS = 5_000L;
+    private static final long PASSIVE_INTERVAL_MS = 60_000L;
+    private static final long BALANCED_INTERVAL_MS = 30_000L;
+    private static final long BURST_INTERVAL_MS = 2_000L;
 
     @Override
     public void onCreate() {
         super.onCreate();
         createNotificationChannel();
         startForeground(NOTIF_ID, buildNotification("Monitoring device status"));
+        try {
+            outbox = new Outbox(new java.io.File(getFilesDir(), "outbox"),
+                    OUTBOX_SEGMENT_BYTES, OUTBOX_MAX_BYTES, OUTBOX_MAX_AGE_MS);
+            uploader = new OutboxUploader(outbox, OUTBOX_BATCH);
+            Log.i(TAG, "Outbox opened with " + outbox.pending() + " pending records");
+        } catch (Exception ex) {
+            Log.w(TAG, "Outbox unavailable; API posts will not be buffered", ex);
+        }
+        try {
+            history = new TimeSeriesStore(new java.io.File(getFilesDir(), "history.ats"), new TimeSeriesStore.Config());
+        } catch (Exception ex) {
+            Log.w(TAG, "History store unavailable; samples will not be kept", ex);
+        }
+        // battery and battery temperature come from broadcasts; crossings trigger an immediate report
+        power.start(this, this::onPowerAlert);
+        java.util.List<MetricSource> all = new java.util.ArrayList<>(MetricsCollector.sources(this, power));
+        all.add(MetricSource.of("location", MetricSource.Cost.BLOCKING, 0, () -> {
+            MetricsCollector.LocationInfo li = resolveLocation(getApplicationContext(), tickNeed);
+            return s -> {
+                if (li.lat != null && li.lon != null) {
+                    s.lat = li.lat;
+                    s.lon = li.lon;
+                    s.accuracy = li.accuracy;
+                    s.provider = li.provider;
+                }
+            };
+        }));
+        sources = new SourceCollector(all, sourceConfig, SystemClock::elapsedRealtime);
+        slackFormat = new SlackFormat(ZoneId.systemDefault(), Locale.getDefault());
+        // Network sends run on OkHttp's dispatcher so a slow endpoint never delays the next tick.
+        slackQueue = new SinkQueue<>("slack", this::sendSlack, SLACK_QUEUE_CAPACITY, 1,
+                SinkQueue.Backpressure.DROP_OLDEST, null, 0);
+        // Drain requests: one upload at a time, any number of pending requests collapse into one.
+        apiQueue = new SinkQueue<>("api", this::sendOutbox, 1, 1,
+                SinkQueue.Backpressure.COALESCE, (queued, incoming) -> incoming, 0);
+        // both sinks hold their items until UploadScheduler picks a cheap moment (see scheduleUpload)
+        slackQueue.hold();
+        apiQueue.hold();
+        radio.start(this, mainHandler, new RadioMonitor.Listener() {
+            @Override
+            public void onNetwork(boolean connected, boolean metered) {
+                if (connected && outboxRetryDelayMs > 0) {
+                    // a drain failed while offline: offer it again now rather than at the end of its backoff
+                    mainHandler.removeCallbacks(outboxRetry);
+                    drainOutboxLater();
+                }
+                UploadScheduler.Reason r = uploads.onNetwork(SystemClock.elapsedRealtime(), connected, metered);
+                if (r != null) flushUploads(r);
+            }
+
+            @Override
+            public void onRadioActive() {
+                UploadScheduler.Reason r = uploads.onRadioActive();
+                if (r != null) flushUploads(r);
+            }
+        });
+        registerInternalMetrics();
     }
 
     @Override
@@ -79,9 +208,54 @@ public class MetricService extends Service {
         if (intent != null && intent.hasExtra("enableApi")) {
             enableApi = intent.getBooleanExtra("enableApi", true);
         }
+        if (intent != null && intent.hasExtra("streamUrl")) {
+            streamUrl = intent.getStringExtra("streamUrl");
+        }
+        if (intent != null && intent.hasExtra("binaryPayloads")) {
+            binaryPayloads = intent.getBooleanExtra("binaryPayloads", false);
+        }
+        if (intent != null && intent.hasExtra("gzipBodies")) {
+            gzipBodies = intent.getBooleanExtra("gzipBodies", false);
+        }
+        ApiPoster.allowGzip(apiEndpoint, gzipBodies);
         if (intent != null && intent.getBooleanExtra("triggerImmediate", false)) {
             triggerImmediate = true;
         }
+        if (intent != null && intent.hasExtra("slackDigestSamples")) {
+            // digest mode: one Block Kit message per N samples or T minutes instead of one post per tick
+            int samples = intent.getIntExtra("slackDigestSamples", 0);
+            long maxAgeMs = intent.getIntExtra("slackDigestMinutes", 15) * 60_000L;
+            SlackDigest current = slackDigest;
+            boolean unchanged = samples > 0
+                    ? current != null && current.config().maxSamples == samples && current.config().maxAgeMs == maxAgeMs
+                    : current == null;
+            if (!unchanged) {
+                // what the old digest buffered would otherwise be lost with it
+                flushDigest(current);
+                if (samples > 0) {
+                    SlackDigest.Config dc = new SlackDigest.Config();
+                    dc.maxSamples = samples;
+                    dc.maxAgeMs = maxAgeMs;
+                    slackDigest = new SlackDigest(dc, slackFormat);
+                } else {
+                    slackDigest = null;
+                }
+            }
+        }
+        if (intent != null && intent.hasExtra("uploadMaxLatencySec")) {
+            // 0 turns batching off: every upload leaves as soon as it is produced
+            uploadConfig.maxLatencyMs = Math.max(0, intent.getIntExtra("uploadMaxLatencySec", 300)) * 1000L;
+            if (uploadConfig.maxLatencyMs == 0) {
+                slackQueue.resume();
+                apiQueue.resume();
+            } else {
+                slackQueue.hold();
+                apiQueue.hold();
+            }
+        }
+        if (intent != null && intent.hasExtra("coalesceWindowMs")) {
+            coalesceWindowMs = Math.max(0, intent.getLongExtra("coalesceWindowMs", COALESCE_WINDOW_MS));
+        }
         if (intent != null && intent.hasExtra("immediateApiOnly")) {
             immediateApiOnly = intent.getBooleanExtra("immediateApiOnly", false);
         } else {
@@ -89,90 +263,445 @@ public class MetricService extends Service {
         }
         if (scheduler == null) {
             scheduler = Executors.newSingleThreadScheduledExecutor();
+            AdaptiveSampler.Config sc = new AdaptiveSampler.Config();
+            sc.baseIntervalMs = intervalSeconds * 1000L;
+            sampler = new AdaptiveSampler(sc);
             if (enableSlack) {
-                scheduler.scheduleAtFixedRate(() -> collectAndSend(true, false), 0, intervalSeconds, TimeUnit.SECONDS);
+                scheduler.execute(this::periodicTick);
             }
+            // upload anything left over from before a restart or crash
+            scheduler.execute(() -> {
+                if (drainOutbox()) scheduleUpload(false);
+            });
         }
+        applyStream();
+        if (intent != null && intent.hasExtra("historyResolution")) {
+            String requestId = intent.getStringExtra("requestId");
+            String resolution = intent.getStringExtra("historyResolution");
+            long fromMs = intent.getLongExtra("historyFromMs", -1);
+            long toMs = intent.getLongExtra("historyToMs", -1);
+            scheduler.execute(() -> sendHistory(requestId, resolution, fromMs, toMs));
+        }
+        LocationNeed need = LocationNeed.PERIODIC;
+        if (triggerImmediate && immediateApiOnly) {
+            // an FCM REQUEST_LOCATION: escalate to a burst unless a stationary device already has a good fix
+            locationPolicy.onRequest(SystemClock.elapsedRealtime());
+            need = locationPolicy.mode() == LocationPowerPolicy.Mode.BURST
+                    ? new LocationNeed(LOCATION_MAX_AGE_MS, locationConfig.burstDeadlineMs, locationConfig.burstAccuracyM)
+                    : new LocationNeed(locationConfig.stationaryFixReuseMs, 0, locationConfig.burstAccuracyM);
+        }
+        appliedLocationMode = null; // re-register on every start, e.g. after permissions were granted
+        applyLocationMode();
         if (triggerImmediate) {
             triggerImmediate = false;
+            // a request that came through FCM means the backend could not reach us over the stream
+            StreamChannel st = stream;
+            if (st != null) st.connectNow();
             boolean allowSlack = immediateApiOnly ? false : enableSlack;
             boolean allowApi = enableApi;
-            scheduler.execute(() -> collectAndSend(allowSlack, allowApi));
+            LocationNeed immediateNeed = allowApi && need == LocationNeed.PERIODIC
+                    ? new LocationNeed(LOCATION_MAX_AGE_MS, LOCATION_WAIT_MS, Float.POSITIVE_INFINITY) : need;
+            if (!immediateApiOnly || !allowApi) {
+                scheduler.execute(() -> collectAndSend(allowSlack, allowApi, immediateNeed, false));
+            } else if (requestCoalescer.offer(intent.getStringExtra("requestId"), System.currentTimeMillis())) {
+                // the first request of a batch schedules the collection; later ones join it until it samples
+                scheduler.schedule(() -> collectAndSend(allowSlack, allowApi, immediateNeed, true),
+                        coalesceWindowMs, TimeUnit.MILLISECONDS);
+            } else {
+                Log.i(TAG, "Request merged into pending collection (" + requestCoalescer.merged() + " merged, "
+                        + requestCoalescer.duplicates() + " duplicates so far)");
+            }
         }
-        startLocationUpdates();
         return START_STICKY;
     }
 
-    private void collectAndSend(boolean allowSlack, boolean allowApi) {
+    /** Collects, then reschedules itself with whatever interval the sampler settled on. */
+    private void periodicTick() {
+        collectAndSend(true, false, LocationNeed.PERIODIC, false);
+        try {
+            scheduler.schedule(this::periodicTick, sampler.intervalMs(), TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException ignored) {
+            // service is shutting down
+        }
+    }
+
+    /**
+     * @param answersRequests true only for the collection a REQUEST_LOCATION scheduled: it takes the pending
+     *                        request ids, and its {@code need} carries their location requirement. Any other
+     *                        collection leaves them for that one.
+     */
+    private void collectAndSend(boolean allowSlack, boolean allowApi, LocationNeed need, boolean answersRequests) {
+        long t0 = System.nanoTime();
+        long alloc0 = runtimeStat("art.gc.bytes-allocated");
         try {
             Context ctx = getApplicationContext();
-            double cpu = 0.0;
-            long[] snap = MetricsCollector.readCpuStat();
-            if (snap != null) {
-                long idle = snap[3] + snap[4];
-                long total = 0;
-                for (long v : snap) total += v;
-                if (prevTotal > 0 && total > prevTotal) {
-                    double totalDelta = (double) (total - prevTotal);
-                    double idleDelta = (double) (idle - prevIdle);
-                    cpu = ((totalDelta - idleDelta) / totalDelta) * 100.0;
-                }
-                prevIdle = idle;
-                prevTotal = total;
+            MetricSample sample = new MetricSample();
+            // sources run in parallel; a location wait (burst) extends the deadline by its own length
+            tickNeed = need;
+            SourceCollector.Result collected = sources.collect(sample, sourceConfig.deadlineMs + need.waitMs);
+            if (!collected.complete()) {
+                sample.staleSources = collected.stale.toArray(new String[0]);
+                sample.missingSources = collected.missing.toArray(new String[0]);
+                Log.w(TAG, "Sources late or failed: stale=" + collected.stale + " missing=" + collected.missing);
+            }
+            if (sampler != null) {
+                // a battery that never reported leaves batteryPct at 0, which is not low battery
+                int battery = collected.missing.contains("battery") ? -1 : sample.batteryPct;
+                sampler.observe(System.currentTimeMillis(), sample.tempC, battery,
+                        Boolean.TRUE.equals(sample.charging));
             }
-
-            double memPct = Math.round(MetricsCollector.readMemUsagePercent() * 10.0) / 10.0; // one decimal
-            Double temp = MetricsCollector.readTempCelsius(ctx);
-            BatteryInfo bi = MetricsCollector.readBattery(ctx);
-            MetricsCollector.LocationInfo li = (lastLocation != null && lastLocation.lat != null) ? lastLocation : MetricsCollector.readLocation(ctx);
 
             String deviceId = MetricsCollector.deviceId(ctx);
-            String deviceName = resolveDeviceName(deviceId);
-            String nowShort = new SimpleDateFormat("h:mm a", Locale.getDefault()).format(new Date());
-            String nowFull = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(new Date());
-
-            String tempStr = temp != null ? String.format(Locale.US, "temp=%.1f'C", temp) : "temp=N/A";
-            String voltage = String.format(Locale.US, "%.2fV", bi.voltageMv / 1000.0);
-            String msg = String.format(Locale.US,
-                    "[%s] [%s] NOTIFICATION [Camera %s] MEM: %.1f%% | %s | Battery: %d%% | Voltage: %s",
-                    nowShort, nowFull, (deviceName != null ? deviceName : deviceId), memPct, tempStr, bi.level, voltage);
+            sample.deviceId = deviceId;
+            sample.deviceName = resolveDeviceName(deviceId);
+            sample.timestampMs = System.currentTimeMillis();
+            if (history != null) history.append(sample);
+            TriggerCoalescer.Batch requests = allowApi && answersRequests ? requestCoalescer.drain() : null;
+            if (requests != null) {
+                sample.requestIds = requests.requestIds;
+                sample.triggeredAtMs = requests.firstReceivedMs;
+                Log.i(TAG, "Sample answers " + requests.triggers + " request(s), "
+                        + (sample.timestampMs - requests.firstReceivedMs) + " ms after the first");
+            }
 
+            boolean queued = false;
             if (allowSlack && enableSlack && webhookUrl != null && !webhookUrl.isEmpty()) {
-                boolean ok = SlackPoster.postToWebhook(webhookUrl, msg);
-                Log.i(TAG, "Posted to Slack: " + ok);
+                String body = null;
+                SlackDigest digest = slackDigest;
+                if (digest != null) {
+                    // the digest wants every sample for its min/max, so the delta filter is bypassed
+                    body = digest.offer(sample);
+                    if (body == null) Log.d(TAG, digest.pending() + " sample(s) buffered for the Slack digest");
+                } else if (slackFilter.evaluate(sample, false).kind == DeltaFilter.Kind.SKIP) {
+                    Log.d(TAG, "Unchanged since last Slack post; suppressed");
+                } else {
+                    body = SlackPoster.textPayload(slackFormat.line(sample));
+                }
+                if (body != null) {
+                    queued = true;
+                    if (!slackQueue.offer(body)) Log.w(TAG, "Slack queue full; message dropped");
+                }
             } else {
-                Log.i(TAG, "Slack disabled or webhook not set, message: " + msg);
+                Log.i(TAG, "Slack disabled or webhook not set, message: " + slackFormat.line(sample));
             }
 
             if (allowApi && enableApi && apiEndpoint != null && !apiEndpoint.isEmpty()) {
                 try {
-                    org.json.JSONObject payload = new org.json.JSONObject();
-                    payload.put("deviceId", deviceId);
-                    if (deviceName != null) payload.put("deviceName", deviceName);
-                    payload.put("timestampMs", System.currentTimeMillis());
-                    payload.put("memoryPct", memPct);
-                    if (temp != null) payload.put("tempC", temp);
-                    payload.put("batteryPct", bi.level);
-                    payload.put("voltageV", bi.voltageMv / 1000.0);
-                    if (li.lat != null && li.lon != null) {
-                        double lat5 = Math.round(li.lat * 100000.0) / 100000.0;
-                        double lon5 = Math.round(li.lon * 100000.0) / 100000.0;
-                        payload.put("lat", lat5);
-                        payload.put("lon", lon5);
-                        if (li.accuracy != null) payload.put("accuracy", li.accuracy);
-                        if (li.provider != null) payload.put("provider", li.provider);
+                    long e0 = System.nanoTime();
+                    org.json.JSONObject self = null;
+                    if (sample.timestampMs - lastSelfReportMs >= SELF_REPORT_MS) {
+                        self = InternalMetrics.toJson();
+                        lastSelfReportMs = sample.timestampMs;
+                    }
+                    // deltas are JSON-only; a batch holding the "self" snapshot is sent as JSON too
+                    org.json.JSONObject payload = ApiPayloads.sample(sample, apiFilter, !binaryPayloads, self);
+                    byte[] json = payload.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                    ENCODE_TIMER.stop(e0);
+                    if (outbox != null) {
+                        long a0 = System.nanoTime();
+                        outbox.append(json, sample.timestampMs);
+                        OUTBOX_APPEND_TIMER.stop(a0);
+                        if (requests != null) unconfirmedTriggerMs.compareAndSet(0, requests.firstReceivedMs);
+                    } else {
+                        ApiPoster.postBodyAsync(apiEndpoint, json, JsonPayloadEncoder.CONTENT_TYPE, apiKey, ok -> {
+                            Log.i(TAG, "Posted to API: " + ok);
+                            if (ok && requests != null) {
+                                Log.i(TAG, "Trigger-to-upload latency "
+                                        + (System.currentTimeMillis() - requests.firstReceivedMs) + " ms");
+                            }
+                        });
                     }
-                    boolean apiOk = ApiPoster.postJson(apiEndpoint, payload, apiKey);
-                    Log.i(TAG, "Posted to API: " + apiOk);
                 } catch (Exception ex) {
                     Log.w(TAG, "Failed to build/send API payload", ex);
                 }
             } else {
                 Log.i(TAG, "API disabled or endpoint not set; skipping API post");
             }
+            if (drainOutbox()) queued = true;
+            // API samples only exist for on-demand requests and power alerts, so they go out at once
+            if (queued) scheduleUpload(allowApi);
         } catch (Exception ex) {
+            COLLECT_TIMER.error();
             Log.e(TAG, "Error collecting/sending metrics", ex);
+        } finally {
+            COLLECT_TIMER.stop(t0);
+            long alloc1 = runtimeStat("art.gc.bytes-allocated");
+            if (alloc0 >= 0 && alloc1 >= alloc0) COLLECT_ALLOC.add(alloc1 - alloc0);
+        }
+    }
+
+    /** Gauges over state that already has its own counters; read only when a snapshot is taken. */
+    private void registerInternalMetrics() {
+        try {
+            InternalMetrics.setRelease(getPackageManager().getPackageInfo(getPackageName(), 0).versionName);
+        } catch (Exception ex) {
+            Log.w(TAG, "Cannot read app version", ex);
+        }
+        Runtime rt = Runtime.getRuntime();
+        InternalMetrics.gauge("heap.usedBytes", () -> rt.totalMemory() - rt.freeMemory());
+        InternalMetrics.gauge("heap.nativeBytes", Debug::getNativeHeapAllocatedSize);
+        InternalMetrics.gauge("gc.count", () -> runtimeStat("art.gc.gc-count"));
+        InternalMetrics.gauge("gc.timeMs", () -> runtimeStat("art.gc.gc-time"));
+        HttpTransport.Stats http = HttpTransport.stats();
+        InternalMetrics.gauge("http.newConnections", http.newConnections::get);
+        InternalMetrics.gauge("http.bytesBeforeGzip", http.bytesBeforeGzip::get);
+        InternalMetrics.gauge("http.bytesAfterGzip", http.bytesAfterGzip::get);
+        SinkResilience.Stats sink = SinkResilience.stats();
+        InternalMetrics.gauge("sink.attempts", sink.attempts::get);
+        InternalMetrics.gauge("sink.retries", sink.retries::get);
+        InternalMetrics.gauge("sink.shortCircuited", sink.shortCircuited::get);
+        InternalMetrics.gauge("sink.breakerOpened", sink.breakerOpened::get);
+        InternalMetrics.gauge("sink.breakerClosed", sink.breakerClosed::get);
+        Outbox ob = outbox;
+        if (ob != null) InternalMetrics.gauge("outbox.pending", ob::pending);
+        TimeSeriesStore h = history;
+        if (h != null) InternalMetrics.gauge("history.droppedFromRollups", h::droppedFromRollups);
+        InternalMetrics.gauge("trigger.duplicates", requestCoalescer::duplicates);
+        InternalMetrics.gauge("trigger.merged", requestCoalescer::merged);
+        InternalMetrics.gauge("stream.open", () -> {
+            StreamChannel st = stream;
+            return st != null && st.isOpen() ? 1 : 0;
+        });
+        InternalMetrics.gauge("upload.pending", uploads::pending);
+        InternalMetrics.gauge("upload.wakeupsSaved", uploads::wakeupsSaved);
+        InternalMetrics.gauge("upload.wakeupsSpent", uploads::wakeupsSpent);
+        for (UploadScheduler.Reason r : UploadScheduler.Reason.values()) {
+            InternalMetrics.gauge("upload.flush." + r.name().toLowerCase(Locale.ROOT), () -> uploads.flushes(r));
+        }
+    }
+
+    /** @return an ART runtime counter (see {@link Debug#getRuntimeStat}), or -1 if unavailable */
+    private static long runtimeStat(String name) {
+        try {
+            String v = Debug.getRuntimeStat(name);
+            return v != null ? Long.parseLong(v) : -1;
+        } catch (RuntimeException ex) {
+            return -1;
+        }
+    }
+
+    /** Main thread. Reports now instead of at the next tick; PowerAlerts already rate-limits. */
+    private void onPowerAlert(String reason) {
+        ScheduledExecutorService s = scheduler;
+        if (s == null) return;
+        Log.i(TAG, "Out-of-band report: " + reason);
+        try {
+            s.execute(() -> collectAndSend(enableSlack, enableApi, LocationNeed.PERIODIC, false));
+        } catch (java.util.concurrent.RejectedExecutionException ignored) {
+            // service is shutting down
+        }
+    }
+
+    /** Any thread. Queues an outbox drain on the scheduler thread, held like any other upload. */
+    private void drainOutboxLater() {
+        ScheduledExecutorService s = scheduler;
+        if (s == null) return;
+        try {
+            s.execute(() -> {
+                if (drainOutbox()) scheduleUpload(false);
+            });
+        } catch (java.util.concurrent.RejectedExecutionException ignored) {
+            // service is shutting down
+        }
+    }
+
+    /**
+     * Any thread. A failed drain leaves its records in the outbox; nothing else re-offers them until the
+     * next sample, so retry after a backoff (cut short by {@code onNetwork}). A drain that stopped at
+     * {@code OUTBOX_MAX_BATCHES} continues at once.
+     */
+    private void outboxDrained(boolean ok, long pending) {
+        mainHandler.removeCallbacks(outboxRetry);
+        if (ok) outboxRetryDelayMs = 0;
+        if (pending == 0) return;
+        long delay = 0;
+        if (!ok) {
+            delay = SinkResilience.jitter(outboxRetryDelayMs, OUTBOX_RETRY);
+            outboxRetryDelayMs = delay;
+        }
+        mainHandler.postDelayed(outboxRetry, delay);
+    }
+
+    /** Queues an outbox drain if there is anything to upload. @return true if one was queued */
+    private boolean drainOutbox() {
+        if (uploader == null || !enableApi || apiEndpoint == null || apiEndpoint.isEmpty()) return false;
+        if (outbox.pending() == 0) return false;
+        return apiQueue.offer(System.currentTimeMillis());
+    }
+
+    /** Main thread. Opens, replaces or closes the stream to match {@code streamUrl} and the API key. */
+    private void applyStream() {
+        StreamChannel current = stream;
+        String url = enableApi ? streamUrl : null;
+        String key = url == null || url.isEmpty() ? null : url + "|" + apiKey;
+        if (key == null ? current == null : key.equals(streamKey)) return;
+        if (current != null) current.stop();
+        stream = null;
+        streamKey = key;
+        if (key == null) return;
+        StreamChannel st = new StreamChannel(url, apiKey, MetricsCollector.deviceId(getApplicationContext()),
+                streamConfig, new StreamChannel.Listener() {
+                    @Override
+                    public void onCommand(org.json.JSONObject command) {
+                        String type = command.optString("type");
+                        String requestId = command.optString("requestId", null);
+                        if ("REQUEST_HISTORY".equalsIgnoreCase(type)) {
+                            startService(requestHistoryIntent(getApplicationContext(), requestId,
+                                    command.optString("resolution", null), command.optLong("fromMs", -1),
+                                    command.optLong("toMs", -1)));
+                            return;
+                        }
+                        if (!"REQUEST_LOCATION".equalsIgnoreCase(type)) return;
+                        Log.i(TAG, "Received REQUEST_LOCATION " + requestId + " over stream");
+                        // same path as FCM, so a request sent both ways is answered once
+                        startService(requestLocationIntent(getApplicationContext(), requestId));
+                    }
+
+                    @Override
+                    public void onStateChanged(boolean open) {
+                        Log.i(TAG, "Stream " + (open ? "open" : "closed"));
+                        if (open) drainOutboxLater();
+                    }
+                });
+        stream = st;
+        st.start();
+    }
+
+    /** Intent that makes the service answer a REQUEST_LOCATION, with the saved settings. */
+    static Intent requestLocationIntent(Context ctx, String requestId) {
+        Intent svc = savedSettingsIntent(ctx);
+        svc.putExtra("triggerImmediate", true);
+        svc.putExtra("requestId", requestId);
+        // Keep user Slack setting; force immediate to API only
+        svc.putExtra("immediateApiOnly", true);
+        return svc;
+    }
+
+    /**
+     * Intent that makes the service answer a REQUEST_HISTORY, with the saved settings.
+     * @param resolution raw, minute, hour or day; null or unknown means hour
+     * @param fromMs -1 for {@link #HISTORY_DEFAULT_RANGE_MS} before {@code toMs}
+     * @param toMs -1 for now
+     */
+    static Intent requestHistoryIntent(Context ctx, String requestId, String resolution, long fromMs, long toMs) {
+        Intent svc = savedSettingsIntent(ctx);
+        svc.putExtra("requestId", requestId);
+        svc.putExtra("historyResolution", resolution != null ? resolution : "");
+        svc.putExtra("historyFromMs", fromMs);
+        svc.putExtra("historyToMs", toMs);
+        return svc;
+    }
+
+    private static Intent savedSettingsIntent(Context ctx) {
+        Settings settings = Prefs.settings(ctx);
+        Intent svc = new Intent(ctx, MetricService.class);
+        svc.putExtra("webhook", settings.webhookUrl);
+        svc.putExtra("api", settings.apiEndpoint);
+        svc.putExtra("apiKey", settings.apiKey);
+        svc.putExtra("enableSlack", settings.enableSlack);
+        svc.putExtra("enableApi", settings.enableApi);
+        return svc;
+    }
+
+    /** Scheduler thread. Posts one range of the on-device history straight to the API. */
+    private void sendHistory(String requestId, String resolution, long fromMs, long toMs) {
+        TimeSeriesStore h = history;
+        if (h == null || !enableApi || apiEndpoint == null || apiEndpoint.isEmpty()) {
+            Log.i(TAG, "History unavailable or API disabled; REQUEST_HISTORY " + requestId + " ignored");
+            return;
+        }
+        TimeSeriesStore.Resolution res = TimeSeriesStore.Resolution.parse(resolution);
+        if (res == null) res = TimeSeriesStore.Resolution.HOUR;
+        long to = toMs >= 0 ? toMs : System.currentTimeMillis();
+        long from = fromMs >= 0 ? fromMs : to - HISTORY_DEFAULT_RANGE_MS;
+        try {
+            TimeSeriesStore.Series series = h.query(res, from, to);
+            String deviceId = MetricsCollector.deviceId(getApplicationContext());
+            byte[] body = ApiPayloads.history(deviceId, resolveDeviceName(deviceId), requestId, from, to, series);
+            int points = series.size;
+            ApiPoster.postBodyAsync(apiEndpoint, body, JsonPayloadEncoder.CONTENT_TYPE, apiKey,
+                    ok -> Log.i(TAG, "Posted " + points + " history point(s) for " + requestId + ": " + ok));
+        } catch (Exception ex) {
+            Log.w(TAG, "Failed to send history", ex);
+        }
+    }
+
+    /** Any thread. Tells UploadScheduler about a new held upload and flushes if it says so. */
+    private void scheduleUpload(boolean urgent) {
+        UploadScheduler.Reason r = uploads.offer(SystemClock.elapsedRealtime(), urgent, radio.radioActive());
+        // flush before DROP_OLDEST has to discard a held Slack post
+        if (r == null && slackQueue.queued() >= SLACK_QUEUE_CAPACITY - SLACK_QUEUE_HEADROOM) r = uploads.onQueueFull();
+        if (r != null) {
+            flushUploads(r);
+        } else {
+            long due = uploads.nextDeadlineMs();
+            if (due >= 0) {
+                mainHandler.removeCallbacks(uploadDeadline);
+                mainHandler.postDelayed(uploadDeadline, Math.max(0, due - SystemClock.elapsedRealtime()));
+            }
+        }
+    }
+
+    private void onUploadDeadline() {
+        UploadScheduler.Reason r = uploads.tick(SystemClock.elapsedRealtime());
+        if (r != null) flushUploads(r);
+    }
+
+    private void flushUploads(UploadScheduler.Reason reason) {
+        mainHandler.removeCallbacks(uploadDeadline);
+        int held = uploads.pending();
+        uploads.flushed(reason, radio.radioActive());
+        slackQueue.release();
+        apiQueue.release();
+        Log.d(TAG, "Flushed " + held + " held upload(s): " + reason + "; radio wakeups saved "
+                + uploads.wakeupsSaved() + ", spent " + uploads.wakeupsSpent());
+    }
+
+    private void sendOutbox(Long requestedAtMs, SinkQueue.Completion done) {
+        final String url = apiEndpoint;
+        final String key = apiKey;
+        if (uploader == null || url == null || url.isEmpty()) {
+            done.done(true);
+            return;
+        }
+        PayloadEncoder encoder = ApiPoster.encoderFor(url, binaryPayloads ? new BinaryPayloadEncoder() : null);
+        StreamChannel st = stream;
+        OutboxUploader.AsyncBatchSender sender = st != null && st.isOpen() ? st
+                : (body, contentType, records, sent) -> ApiPoster.postBodyAsync(url, body, contentType, key, sent);
+        uploader.drainAsync(sender, OUTBOX_MAX_BATCHES, encoder, ok -> {
+                    long pending = outbox.pending();
+                    long triggeredAt = unconfirmedTriggerMs.get();
+                    if (ok && pending == 0 && triggeredAt != 0 && unconfirmedTriggerMs.compareAndSet(triggeredAt, 0)) {
+                        Log.i(TAG, "Trigger-to-upload latency " + (System.currentTimeMillis() - triggeredAt) + " ms");
+                    }
+                    if (!ok || pending > 0) {
+                        Log.i(TAG, "Outbox drain ok=" + ok + ", " + pending + " pending; last call "
+                                + HttpTransport.stats().last + "; breaker " + SinkResilience.state(url)
+                                + ", " + SinkResilience.stats());
+                    }
+                    done.done(ok);
+                    outboxDrained(ok, pending);
+                });
+    }
+
+    /** Any thread. Posts what {@code digest} still buffers, straight to the webhook. */
+    private void flushDigest(SlackDigest digest) {
+        String body = digest != null ? digest.flush() : null;
+        String url = webhookUrl;
+        if (body == null || url == null || url.isEmpty()) return;
+        SlackPoster.postPayloadAsync(url, body, ok -> Log.i(TAG, "Posted partial Slack digest: " + ok));
+    }
+
+    private void sendSlack(String body, SinkQueue.Completion done) {
+        final String url = webhookUrl;
+        if (url == null || url.isEmpty()) {
+            done.done(false);
+            return;
         }
+        SlackPoster.postPayloadAsync(url, body, ok -> {
+            Log.i(TAG, "Posted to Slack: " + ok);
+            done.done(ok);
+        });
     }
 
     private Notification buildNotification(String text) {
@@ -195,8 +724,25 @@ public class MetricService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        mainHandler.removeCallbacks(locationPolicyTick);
         if (scheduler != null) scheduler.shutdownNow();
+        flushDigest(slackDigest);
+        if (sources != null) sources.close();
+        radio.stop();
+        mainHandler.removeCallbacks(uploadDeadline);
+        mainHandler.removeCallbacks(outboxRetry);
+        if (stream != null) stream.stop();
+        power.stop();
+        if (slackQueue != null) slackQueue.close();
+        if (apiQueue != null) apiQueue.close();
         stopLocationUpdates();
+        if (history != null) history.flush();
+        if (outbox != null) {
+            try {
+                outbox.close();
+            } catch (Exception ignored) {
+            }
+        }
     }
 
     @Override
@@ -204,16 +750,52 @@ public class MetricService extends Service {
         return null;
     }
 
-    private void startLocationUpdates() {
+    /** Re-registers location updates when the policy changed mode and arms its next deadline. */
+    private void applyLocationMode() {
+        LocationPowerPolicy.Mode mode = locationPolicy.mode();
+        if (mode != appliedLocationMode) {
+            Log.i(TAG, "Location mode " + appliedLocationMode + " -> " + mode);
+            appliedLocationMode = mode;
+            startLocationUpdates(mode);
+        }
+        mainHandler.removeCallbacks(locationPolicyTick);
+        long deadline = locationPolicy.nextDeadline();
+        if (deadline != Long.MAX_VALUE) {
+            mainHandler.postDelayed(locationPolicyTick, Math.max(0, deadline - SystemClock.elapsedRealtime()));
+        }
+    }
+
+    private void onLocationPolicyTick() {
+        locationPolicy.tick(SystemClock.elapsedRealtime());
+        applyLocationMode();
+    }
+
+    private void startLocationUpdates(LocationPowerPolicy.Mode mode) {
         // stop any previous callbacks before starting a new provider
         stopLocationUpdates();
         boolean fusedStarted = false;
         try {
             fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
-            LocationRequest req = new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, 10_000)
-                    .setMinUpdateIntervalMillis(5_000)
-                    .setWaitForAccurateLocation(true)
-                    .build();
+            LocationRequest req;
+            switch (mode) {
+                case BURST:
+                    // accuracy is judged by the policy, so take every fix as it improves
+                    req = new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, BURST_INTERVAL_MS)
+                            .setWaitForAccurateLocation(false)
+                            .setDurationMillis(locationConfig.burstDeadlineMs)
+                            .build();
+                    break;
+                case BALANCED:
+                    req = new LocationRequest.Builder(Priority.PRIORITY_BALANCED_POWER_ACCURACY, BALANCED_INTERVAL_MS)
+                            .setMinUpdateIntervalMillis(10_000)
+                            .build();
+                    break;
+                default:
+                    req = new LocationRequest.Builder(Priority.PRIORITY_PASSIVE, PASSIVE_INTERVAL_MS)
+                            .setMinUpdateIntervalMillis(10_000)
+                            .build();
+                    break;
+            }
             fusedCallback = new LocationCallback() {
                 @Override
                 public void onLocationResult(LocationResult result) {
@@ -256,9 +838,19 @@ public class MetricService extends Service {
                     // no-op
                 }
             };
-            // request from both GPS and network to increase chances on emulator
-            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 10000, 0, locationListener);
-            locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 10000, 0, locationListener);
+            switch (mode) {
+                case BURST:
+                    // request from both GPS and network to increase chances on emulator
+                    locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, BURST_INTERVAL_MS, 0, locationListener);
+                    locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, BURST_INTERVAL_MS, 0, locationListener);
+                    break;
+                case BALANCED:
+                    locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, BALANCED_INTERVAL_MS, 0, locationListener);
+                    break;
+                default:
+                    locationManager.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, PASSIVE_INTERVAL_MS, 0, locationListener);
+                    break;
+            }
         } catch (SecurityException se) {
             Log.w(TAG, "Location permission not granted; cannot start fallback updates", se);
         } catch (Exception ex) {
@@ -278,14 +870,74 @@ public class MetricService extends Service {
         }
     }
 
+    /**
+     * Called on the main looper only; LocationHolder relies on a single writer and LocationPowerPolicy
+     * is not thread safe.
+     */
     private void updateLastLocation(Location location) {
         if (location == null) return;
+        LocationHolder.Fix fix = new LocationHolder.Fix(location.getLatitude(), location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : null, location.getProvider(),
+                location.getElapsedRealtimeNanos() / 1_000_000L);
+        locationHolder.publish(fix);
+        if (locationPolicy.onFix(fix.lat, fix.lon, fix.accuracy, SystemClock.elapsedRealtime())) {
+            applyLocationMode();
+        }
+    }
+
+    /** What a collection accepts as its location fix. */
+    private static final class LocationNeed {
+        static final LocationNeed PERIODIC = new LocationNeed(LOCATION_MAX_AGE_MS, 0, Float.POSITIVE_INFINITY);
+
+        final long maxAgeMs;
+        final long waitMs;
+        final float accuracyM;
+
+        LocationNeed(long maxAgeMs, long waitMs, float accuracyM) {
+            this.maxAgeMs = maxAgeMs;
+            this.waitMs = waitMs;
+            this.accuracyM = accuracyM;
+        }
+    }
+
+    /**
+     * Fresh cached fix meeting the accuracy target if there is one, else wait up to {@code waitMs} for
+     * one (a burst ends as soon as it arrives), else any fresh fix, else query providers, else the
+     * stale cached fix. Provider queries only happen on that slow path.
+     */
+    private MetricsCollector.LocationInfo resolveLocation(Context ctx, LocationNeed need) {
+        LocationHolder.Fix fix = locationHolder.fresh(need.maxAgeMs, need.waitMs, need.accuracyM);
+        if (fix == null && need.accuracyM != Float.POSITIVE_INFINITY) {
+            fix = locationHolder.fresh(need.maxAgeMs, 0);
+        }
+        if (fix == null) {
+            MetricsCollector.LocationInfo queried = MetricsCollector.readLocation(ctx);
+            if (queried.lat != null) return queried;
+            fix = locationHolder.latest();
+            if (fix != null) Log.i(TAG, "Using stale location fix, age " + locationHolder.ageMs() + " ms");
+        }
         MetricsCollector.LocationInfo li = new MetricsCollector.LocationInfo();
-        li.lat = location.getLatitude();
-        li.lon = location.getLongitude();
-        li.accuracy = location.getAccuracy();
-        li.provider = location.getProvider();
-        lastLocation = li;
+        if (fix != null) {
+            li.lat = fix.lat;
+            li.lon = fix.lon;
+            li.accuracy = fix.accuracy;
+            li.provider = fix.provider;
+        }
+        return li;
+    }
+
+    private static DeltaFilter.Config slackDeltaConfig() {
+        DeltaFilter.Config c = new DeltaFilter.Config();
+        c.locationMeters = Double.POSITIVE_INFINITY; // the Slack text has no location
+        c.cpuPct = Double.POSITIVE_INFINITY; // nor CPU
+        return c;
+    }
+
+    private static SinkResilience.Config outboxRetryConfig() {
+        SinkResilience.Config c = new SinkResilience.Config();
+        c.baseDelayMs = 15_000L;
+        c.maxDelayMs = 10 * 60_000L;
+        return c;
     }
 
     private String resolveDeviceName(String deviceId) {
@@ -0,0 +1,66 @@
+package android_status.app;
+
+/**
+ * One reader that contributes fields to a {@link MetricSample}, run by {@link SourceCollector}.
+ *
+ * {@link #read()} may run on a pool thread and must not touch the sample; it returns a
+ * {@link Reading} that the collector applies on the collecting thread once it arrived in time.
+ * A new metric is a new source, not another step in MetricService.
+ */
+public interface MetricSource {
+    /** How a source is scheduled. */
+    enum Cost {
+        /** Microseconds and never blocks: run inline on the collecting thread. */
+        CHEAP,
+        /** File or sysfs reads that can stall: run on the pool under the deadline. */
+        IO,
+        /** Binder calls or waits (e.g. for a location fix): run on the pool under the deadline. */
+        BLOCKING
+    }
+
+    /** Immutable result of one read. */
+    interface Reading {
+        void applyTo(MetricSample s);
+    }
+
+    interface Reader {
+        Reading read() throws Exception;
+    }
+
+    /** Short name, used in the payload's {@code stale}/{@code missing} lists and in InternalMetrics. */
+    String name();
+
+    Cost cost();
+
+    /**
+     * A reading younger than this is reused instead of reading again; 0 reads on every collection.
+     * Event-driven sources that only copy cached state can use 0 and {@link Cost#CHEAP}.
+     */
+    long cadenceMs();
+
+    Reading read() throws Exception;
+
+    static MetricSource of(String name, Cost cost, long cadenceMs, Reader reader) {
+        return new MetricSource() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public Cost cost() {
+                return cost;
+            }
+
+            @Override
+            public long cadenceMs() {
+                return cadenceMs;
+            }
+
+            @Override
+            public Reading read() throws Exception {
+                return reader.read();
+            }
+        };
+    }
+}
@@ -10,111 +10,146 @@ import android.location.LocationManager;
 import android.provider.Settings;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
-import java.util.regex.Pattern;
 
 public class MetricsCollector {
     private static final String TAG = "MetricsCollector";
 
+    // One parser per reader: each is locked for a whole read, and the CPU pass (every core's
+    // frequency, every /proc/[pid]/stat) must not hold up the memory or thermal sources.
+    private static final ProcParser PARSER = new ProcParser();
+    private static final ThermalSensorRegistry THERMAL = new ThermalSensorRegistry(new ProcParser());
+    private static final CpuSampler CPU = new CpuSampler(new ProcParser(), 5);
+
+    private static final InternalMetrics.Timer MEMORY_TIMER = InternalMetrics.timer("collect.memory");
+    private static final InternalMetrics.Timer TEMP_TIMER = InternalMetrics.timer("collect.temp");
+    private static final InternalMetrics.Timer BATTERY_TIMER = InternalMetrics.timer("collect.battery");
+    private static final InternalMetrics.Timer CPU_TIMER = InternalMetrics.timer("collect.cpu");
+    private static final InternalMetrics.Timer LOCATION_TIMER = InternalMetrics.timer("collect.location");
+
+    /**
+     * The readers below as {@link MetricSource}s for a {@link SourceCollector}: memory, CPU and
+     * temperature as IO. Battery is read inline from {@code power} when given, else as a
+     * blocking binder call. Location depends on the caller's freshness needs and is added by
+     * MetricService.
+     */
+    public static List<MetricSource> sources(Context ctx, PowerStateCache power) {
+        Context app = ctx.getApplicationContext();
+        List<MetricSource> out = new ArrayList<>(4);
+        out.add(MetricSource.of("memory", MetricSource.Cost.IO, 0, () -> {
+            double pct = Math.round(readMemUsagePercent() * 10.0) / 10.0; // one decimal
+            return s -> s.memoryPct = pct;
+        }));
+        out.add(MetricSource.of("cpu", MetricSource.Cost.IO, 0, () -> {
+            MetricSample cpu = new MetricSample();
+            readCpu(cpu);
+            return s -> {
+                s.cpuPct = cpu.cpuPct;
+                s.coreCpuPct = cpu.coreCpuPct;
+                s.coreFreqKhz = cpu.coreFreqKhz;
+                s.topProcPids = cpu.topProcPids;
+                s.topProcNames = cpu.topProcNames;
+                s.topProcPct = cpu.topProcPct;
+            };
+        }));
+        out.add(MetricSource.of("temp", MetricSource.Cost.IO, 0, () -> {
+            Double t = readTempCelsius(app, power);
+            return s -> s.tempC = t;
+        }));
+        out.add(MetricSource.of("battery", power != null ? MetricSource.Cost.CHEAP : MetricSource.Cost.BLOCKING, 0, () -> {
+            BatteryInfo bi = readBattery(app, power);
+            // a failed read, not an empty battery: the sample lists it as stale or missing instead of 0%
+            if (bi.level < 0) throw new IllegalStateException("battery level not reported");
+            return s -> {
+                s.batteryPct = bi.level;
+                s.voltageMv = bi.voltageMv;
+                s.charging = bi.charging;
+            };
+        }));
+        return out;
+    }
+
     public static long[] readCpuStat() {
         // returns array: user, nice, system, idle, iowait, irq, softirq
-        File f = new File("/proc/stat");
-        if (!f.exists()) return null;
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            String line = br.readLine();
-            if (line == null) return null;
-            String[] toks = line.trim().split("\\s+");
-            if (toks.length < 5) return null;
-            long[] vals = new long[7];
-            for (int i = 0; i < vals.length && i + 1 < toks.length; i++) {
-                vals[i] = Long.parseLong(toks[i + 1]);
-            }
-            return vals;
-        } catch (Exception ex) {
-            Log.w(TAG, "readCpuStat failed", ex);
-            return null;
+        long[] vals = new long[7];
+        synchronized (PARSER) {
+            return PARSER.readCpuStat(vals) ? vals : null;
         }
     }
 
-    public static double readMemUsagePercent() {
-        File f = new File("/proc/meminfo");
-        if (!f.exists()) return 0.0;
-        long total = 0, avail = 0;
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.startsWith("MemTotal:")) {
-                    total = Long.parseLong(line.replaceAll("[^0-9]", ""));
-                } else if (line.startsWith("MemAvailable:")) {
-                    avail = Long.parseLong(line.replaceAll("[^0-9]", ""));
-                    break;
+    /**
+     * Takes a per-core/top-process CPU reading and copies it into the sample. The first call only
+     * primes the deltas and leaves the sample's CPU fields null.
+     */
+    public static void readCpu(MetricSample into) {
+        long t0 = System.nanoTime();
+        try {
+            synchronized (CPU) {
+                CPU.sample();
+                if (!CPU.ready()) return;
+                into.cpuPct = Math.round(CPU.totalPct() * 10.0) / 10.0;
+                int cores = CPU.cores();
+                into.coreCpuPct = new double[cores];
+                into.coreFreqKhz = new long[cores];
+                for (int c = 0; c < cores; c++) {
+                    into.coreCpuPct[c] = Math.round(CPU.corePct(c) * 10.0) / 10.0;
+                    into.coreFreqKhz[c] = CPU.coreFreqKhz(c);
+                }
+                int k = CPU.topCount();
+                into.topProcPids = new int[k];
+                into.topProcNames = new String[k];
+                into.topProcPct = new double[k];
+                for (int i = 0; i < k; i++) {
+                    into.topProcPids[i] = CPU.topPid(i);
+                    into.topProcNames[i] = CPU.topName(i);
+                    into.topProcPct[i] = Math.round(CPU.topPct(i) * 10.0) / 10.0;
                 }
             }
-            if (total <= 0) return 0.0;
-            double used = (double) (total - avail);
-            return (used / (double) total) * 100.0;
         } catch (Exception ex) {
-            Log.w(TAG, "readMemUsagePercent failed", ex);
-            return 0.0;
+            CPU_TIMER.error();
+            Log.w(TAG, "readCpu failed", ex);
+        } finally {
+            CPU_TIMER.stop(t0);
         }
     }
 
-    public static Double readTempCelsius(Context ctx) {
-        // Try common thermal zone paths, then hwmon, then battery temp as fallback
-        Double tzTemp = readThermalZones();
-        if (tzTemp != null) return tzTemp;
-
-        Double hwmonTemp = readHwmonInputs();
-        if (hwmonTemp != null) return hwmonTemp;
-
-        Double battTemp = readBatteryTemp(ctx);
-        return battTemp;
-    }
-
-    private static Double readThermalZones() {
+    public static double readMemUsagePercent() {
+        long t0 = System.nanoTime();
         try {
-            File base = new File("/sys/class/thermal");
-            File[] zones = base.listFiles((dir, name) -> name.startsWith("thermal_zone"));
-            if (zones == null) return null;
-            Pattern prefer = Pattern.compile("(?i)(cpu|ap|a7|a53|soc)");
-            Double firstValid = null;
-            for (File z : zones) {
-                String type = readFirstLine(new File(z, "type"));
-                Double temp = parseTempFile(new File(z, "temp"));
-                if (temp != null && temp > 0) {
-                    if (firstValid == null) firstValid = temp;
-                    if (type != null && prefer.matcher(type).find()) {
-                        return temp; // prefer CPU-like sensors
-                    }
-                }
+            synchronized (PARSER) {
+                return PARSER.readMemUsagePercent();
             }
-            return firstValid;
-        } catch (Exception ex) {
-            Log.w(TAG, "readThermalZones failed", ex);
-            return null;
+        } finally {
+            MEMORY_TIMER.stop(t0);
         }
     }
 
-    private static Double readHwmonInputs() {
+    public static Double readTempCelsius(Context ctx) {
+        return readTempCelsius(ctx, null);
+    }
+
+    /** Like {@link #readTempCelsius(Context)}, with the battery fallback taken from {@code power} when it has one. */
+    public static Double readTempCelsius(Context ctx, PowerStateCache power) {
+        long t0 = System.nanoTime();
         try {
-            File base = new File("/sys/class/hwmon");
-            File[] hmons = base.listFiles();
-            if (hmons == null) return null;
-            for (File hm : hmons) {
-                File[] temps = hm.listFiles((dir, name) -> name.startsWith("temp") && name.endsWith("_input"));
-                if (temps == null) continue;
-                for (File t : temps) {
-                    Double val = parseTempFile(t);
-                    if (val != null && val > 0) return val;
-                }
+            // Cached thermal zone / hwmon sensor first, then battery temp as fallback
+            try {
+                double sensor = THERMAL.read();
+                if (!Double.isNaN(sensor)) return sensor;
+            } catch (Exception ex) {
+                TEMP_TIMER.error();
+                Log.w(TAG, "thermal sensor read failed", ex);
             }
-        } catch (Exception ex) {
-            Log.w(TAG, "readHwmonInputs failed", ex);
+
+            PowerStateCache.Snapshot cached = power != null ? power.snapshot() : null;
+            Double battTemp = cached != null && cached.batteryTempC != null ? cached.batteryTempC : readBatteryTemp(ctx);
+            if (battTemp == null) TEMP_TIMER.error();
+            return battTemp;
+        } finally {
+            TEMP_TIMER.stop(t0);
         }
-        return null;
     }
 
     private static Double readBatteryTemp(Context ctx) {
@@ -132,38 +167,24 @@ public class MetricsCollector {
         }
         // filesystem fallback
         try {
-            File f = new File("/sys/class/power_supply/battery/temp");
-            Double v = parseTempFile(f);
+            Double v = parseTempFile("/sys/class/power_supply/battery/temp");
             if (v != null) return v;
         } catch (Exception ignored) {
         }
         return null;
     }
 
-    private static String readFirstLine(File f) {
-        if (f == null || !f.exists()) return null;
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            return br.readLine();
-        } catch (Exception ignored) {
-            return null;
-        }
-    }
-
-    private static Double parseTempFile(File f) {
-        if (f == null || !f.exists()) return null;
-        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
-            String s = br.readLine();
-            if (s == null) return null;
-            long raw = Long.parseLong(s.trim());
-            if (raw > 1000) return raw / 1000.0;
-            return (double) raw;
-        } catch (Exception ignored) {
-            return null;
+    private static Double parseTempFile(String absPath) {
+        double v;
+        synchronized (PARSER) {
+            v = PARSER.readTempCelsius(absPath);
         }
+        return Double.isNaN(v) ? null : v;
     }
 
     public static class BatteryInfo {
-        public int level = 0;
+        /** Percent, or -1 when the system did not report it. */
+        public int level = -1;
         public int voltageMv = 0;
         public boolean charging = false;
     }
@@ -176,7 +197,21 @@ public class MetricsCollector {
     }
 
     public static BatteryInfo readBattery(Context ctx) {
+        return readBattery(ctx, null);
+    }
+
+    /** From {@code power}'s last broadcast when it has one (no binder call), else from the sticky intent. */
+    public static BatteryInfo readBattery(Context ctx, PowerStateCache power) {
+        long t0 = System.nanoTime();
         BatteryInfo bi = new BatteryInfo();
+        PowerStateCache.Snapshot cached = power != null ? power.snapshot() : null;
+        if (cached != null && cached.level >= 0) {
+            bi.level = cached.level;
+            bi.voltageMv = cached.voltageMv;
+            bi.charging = cached.charging;
+            BATTERY_TIMER.stop(t0);
+            return bi;
+        }
         try {
             IntentFilter ifilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
             Intent b = ctx.registerReceiver(null, ifilter);
@@ -185,13 +220,15 @@ public class MetricsCollector {
                 int scale = b.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
                 int voltage = b.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0);
                 int status = b.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
-                bi.level = (level >= 0 && scale > 0) ? (level * 100 / scale) : 0;
+                bi.level = (level >= 0 && scale > 0) ? (level * 100 / scale) : -1;
                 bi.voltageMv = voltage;
                 bi.charging = (status == BatteryManager.BATTERY_STATUS_CHARGING) || (status == BatteryManager.BATTERY_STATUS_FULL);
             }
         } catch (Exception ex) {
+            BATTERY_TIMER.error();
             Log.w(TAG, "readBattery failed", ex);
         }
+        BATTERY_TIMER.stop(t0);
         return bi;
     }
 
@@ -205,10 +242,14 @@ public class MetricsCollector {
     }
 
     public static LocationInfo readLocation(Context ctx) {
+        long t0 = System.nanoTime();
         LocationInfo li = new LocationInfo();
         try {
             LocationManager lm = (LocationManager) ctx.getSystemService(Context.LOCATION_SERVICE);
-            if (lm == null) return li;
+            if (lm == null) {
+                LOCATION_TIMER.stop(t0);
+                return li;
+            }
             Location best = null;
             for (String p : new String[]{LocationManager.GPS_PROVIDER, LocationManager.NETWORK_PROVIDER, LocationManager.PASSIVE_PROVIDER}) {
                 try {
@@ -227,8 +268,10 @@ public class MetricsCollector {
                 li.provider = best.getProvider();
             }
         } catch (Exception ex) {
+            LOCATION_TIMER.error();
             Log.w(TAG, "readLocation failed", ex);
         }
+        LOCATION_TIMER.stop(t0);
         return li;
     }
 }
@@ -0,0 +1,237 @@
+package android_status.app;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, file-backed queue of payloads waiting for upload.
+ *
+ * Records live in segment files named after the sequence number of their first record. Each record
+ * is framed as [int length][int crc32][long timestampMs][payload]; a torn or corrupt tail left by a
+ * crash is cut off when the outbox is reopened. The highest acknowledged sequence number is kept in
+ * a separate checkpoint file that is replaced atomically, and segments are deleted once every record
+ * in them is acknowledged or once they fall outside the size/age retention limits.
+ */
+public class Outbox {
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int HEADER_BYTES = 16;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    public static final class Record {
+        public final long seq;
+        public final long timestampMs;
+        public final byte[] payload;
+
+        Record(long seq, long timestampMs, byte[] payload) {
+            this.seq = seq;
+            this.timestampMs = timestampMs;
+            this.payload = payload;
+        }
+    }
+
+    private final File dir;
+    private final long maxSegmentBytes;
+    private final long maxTotalBytes;
+    private final long maxAgeMs;
+    /** first sequence number -> segment file */
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+    private final CRC32 crc = new CRC32();
+    private RandomAccessFile active;
+    private long activeBase;
+    private long nextSeq;
+    private long ackedSeq = -1;
+
+    /**
+     * @param maxSegmentBytes roll to a new segment once the active one reaches this size
+     * @param maxTotalBytes   drop the oldest segments, acknowledged or not, above this total size
+     * @param maxAgeMs        drop segments whose newest record is older than this
+     */
+    public Outbox(File dir, long maxSegmentBytes, long maxTotalBytes, long maxAgeMs) throws IOException {
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxAgeMs = maxAgeMs;
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+        recover();
+    }
+
+    /** Appends one payload and forces it to disk. @return its sequence number */
+    public synchronized long append(byte[] payload, long timestampMs) throws IOException {
+        if (payload.length > MAX_RECORD_BYTES) throw new IOException("record too large: " + payload.length);
+        if (active == null || active.length() >= maxSegmentBytes) roll();
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).putLong(timestampMs).put(payload);
+        active.seek(active.length());
+        active.write(frame.array());
+        active.getFD().sync();
+        long seq = nextSeq++;
+        enforceRetention(timestampMs);
+        return seq;
+    }
+
+    /** @return up to {@code max} unacknowledged records, oldest first */
+    public synchronized List<Record> peek(int max) throws IOException {
+        List<Record> out = new ArrayList<>();
+        long want = ackedSeq + 1;
+        if (want >= nextSeq) return out;
+        Map.Entry<Long, File> start = segments.floorEntry(want);
+        if (start == null) start = segments.firstEntry();
+        for (Map.Entry<Long, File> e : segments.tailMap(start.getKey(), true).entrySet()) {
+            long seq = e.getKey();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(e.getValue())))) {
+                while (out.size() < max) {
+                    Record r = readRecord(in, seq);
+                    if (r == null) break;
+                    if (seq >= want) out.add(r);
+                    seq++;
+                }
+            }
+            if (out.size() >= max) break;
+        }
+        return out;
+    }
+
+    /** Marks every record up to and including {@code seq} as delivered and deletes finished segments. */
+    public synchronized void ack(long seq) throws IOException {
+        if (seq <= ackedSeq) return;
+        ackedSeq = Math.min(seq, nextSeq - 1);
+        writeCheckpoint();
+        while (segments.size() > 1) {
+            Map.Entry<Long, File> first = segments.firstEntry();
+            Long nextBase = segments.higherKey(first.getKey());
+            if (nextBase == null || nextBase - 1 > ackedSeq) break;
+            deleteSegment(first.getKey());
+        }
+    }
+
+    /** @return number of records appended but not yet acknowledged */
+    public synchronized long pending() {
+        return nextSeq - 1 - ackedSeq;
+    }
+
+    public synchronized void close() throws IOException {
+        if (active != null) {
+            active.close();
+            active = null;
+        }
+    }
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                try {
+                    segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), f);
+                } catch (NumberFormatException ignored) {
+                    // not ours
+                }
+            }
+        }
+        ackedSeq = readCheckpoint();
+        if (segments.isEmpty()) {
+            nextSeq = ackedSeq + 1;
+            return;
+        }
+        // only the newest segment can have a torn tail; older ones were closed cleanly by roll()
+        Map.Entry<Long, File> last = segments.lastEntry();
+        long seq = last.getKey();
+        long validBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(last.getValue())))) {
+            Record r;
+            while ((r = readRecord(in, seq)) != null) {
+                validBytes += HEADER_BYTES + r.payload.length;
+                seq++;
+            }
+        }
+        nextSeq = Math.max(seq, ackedSeq + 1);
+        activeBase = last.getKey();
+        active = new RandomAccessFile(last.getValue(), "rw");
+        if (active.length() != validBytes) {
+            active.setLength(validBytes);
+            active.getFD().sync();
+        }
+    }
+
+    private Record readRecord(DataInputStream in, long seq) throws IOException {
+        try {
+            int len = in.readInt();
+            int sum = in.readInt();
+            long ts = in.readLong();
+            if (len < 0 || len > MAX_RECORD_BYTES) return null;
+            byte[] payload = new byte[len];
+            in.readFully(payload);
+            crc.reset();
+            crc.update(payload, 0, len);
+            if ((int) crc.getValue() != sum) return null;
+            return new Record(seq, ts, payload);
+        } catch (EOFException eof) {
+            return null;
+        }
+    }
+
+    private void roll() throws IOException {
+        if (active != null) active.close();
+        activeBase = nextSeq;
+        File f = new File(dir, String.format(java.util.Locale.US, "%020d%s", activeBase, SEGMENT_SUFFIX));
+        segments.put(activeBase, f);
+        active = new RandomAccessFile(f, "rw");
+    }
+
+    private void enforceRetention(long nowMs) throws IOException {
+        long total = 0;
+        for (File f : segments.values()) total += f.length();
+        while (segments.size() > 1) {
+            Map.Entry<Long, File> first = segments.firstEntry();
+            boolean tooBig = total > maxTotalBytes;
+            boolean tooOld = first.getValue().lastModified() < nowMs - maxAgeMs;
+            if (!tooBig && !tooOld) break;
+            long dropped = segments.higherKey(first.getKey()) - 1;
+            total -= first.getValue().length();
+            deleteSegment(first.getKey());
+            if (dropped > ackedSeq) {
+                ackedSeq = dropped;
+                writeCheckpoint();
+            }
+        }
+    }
+
+    private void deleteSegment(long base) {
+        File f = segments.remove(base);
+        if (f != null && !f.delete()) f.deleteOnExit();
+    }
+
+    private long readCheckpoint() {
+        File f = new File(dir, CHECKPOINT);
+        if (!f.exists()) return -1;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            return in.readLong();
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        File tmp = new File(dir, CHECKPOINT + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(ByteBuffer.allocate(8).putLong(ackedSeq).array());
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(new File(dir, CHECKPOINT))) throw new IOException("cannot replace checkpoint");
+    }
+}
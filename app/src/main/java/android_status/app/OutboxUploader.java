@@ -0,0 +1,169 @@
+package android_status.app;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drains an {@link Outbox} in batches. With the JSON encoder each batch is wrapped as
+ * {@code {"type":"batch","records":[...]}} without re-parsing the stored JSON; any other
+ * {@link PayloadEncoder} gets the records parsed back into {@link MetricSample}s, unless the batch
+ * holds a record only JSON can carry (a delta or a {@code "self"} snapshot) and goes as JSON.
+ * Batches are sent through a {@link BatchSender} and acknowledged only after the sender reports
+ * success, so a failed or interrupted upload is simply retried from the same checkpoint next time.
+ *
+ * Records are not leased while a batch is in flight, so only one drain may run at a time.
+ */
+public class OutboxUploader {
+    public interface BatchSender {
+        boolean send(byte[] body, String contentType, int records);
+    }
+
+    public interface AsyncBatchSender {
+        void send(byte[] body, String contentType, int records, SinkQueue.Completion done);
+    }
+
+    private static final InternalMetrics.Timer JSON_BATCH_TIMER = InternalMetrics.timer("encode.batchJson");
+    private static final InternalMetrics.Counter DROPPED_RECORDS = InternalMetrics.counter("outbox.unparsableRecords");
+    /** Includes parsing the stored JSON records back into samples. */
+    private static final InternalMetrics.Timer ENCODER_TIMER = InternalMetrics.timer("encode.batchEncoder");
+
+    private final Outbox outbox;
+    private final int batchSize;
+
+    public OutboxUploader(Outbox outbox, int batchSize) {
+        this.outbox = outbox;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sends batches until the outbox is empty, a send fails, or {@code maxBatches} were sent.
+     * @return number of records delivered
+     */
+    public int drain(BatchSender sender, int maxBatches) throws IOException {
+        return drain(sender, maxBatches, null);
+    }
+
+    /** @param encoder null or a {@link JsonPayloadEncoder} keeps the zero-copy JSON path */
+    public int drain(BatchSender sender, int maxBatches, PayloadEncoder encoder) throws IOException {
+        int delivered = 0;
+        for (int i = 0; i < maxBatches; i++) {
+            List<Outbox.Record> batch = outbox.peek(batchSize);
+            if (batch.isEmpty()) break;
+            Encoded e = encode(batch, encoder);
+            if (e.records > 0 && !sender.send(e.body, e.contentType, e.records)) break;
+            outbox.ack(batch.get(batch.size() - 1).seq);
+            delivered += batch.size();
+        }
+        return delivered;
+    }
+
+    /**
+     * Asynchronous drain: each batch is sent through {@code sender}, the next one is read when the
+     * previous completes. {@code done} receives false if a send or disk read failed, true otherwise.
+     */
+    public void drainAsync(AsyncBatchSender sender, int maxBatches, PayloadEncoder encoder, SinkQueue.Completion done) {
+        if (maxBatches <= 0) {
+            done.done(true);
+            return;
+        }
+        List<Outbox.Record> batch;
+        Encoded e;
+        try {
+            batch = outbox.peek(batchSize);
+            if (batch.isEmpty()) {
+                done.done(true);
+                return;
+            }
+            e = encode(batch, encoder);
+        } catch (IOException ex) {
+            done.done(false);
+            return;
+        }
+        final long lastSeq = batch.get(batch.size() - 1).seq;
+        SinkQueue.Completion next = ok -> {
+            if (!ok) {
+                done.done(false);
+                return;
+            }
+            try {
+                outbox.ack(lastSeq);
+            } catch (IOException ex) {
+                done.done(false);
+                return;
+            }
+            drainAsync(sender, maxBatches - 1, encoder, done);
+        };
+        if (e.records == 0) {
+            next.done(true);
+        } else {
+            sender.send(e.body, e.contentType, e.records, next);
+        }
+    }
+
+    private static final class Encoded {
+        final byte[] body;
+        final String contentType;
+        final int records;
+
+        Encoded(byte[] body, String contentType, int records) {
+            this.body = body;
+            this.contentType = contentType;
+            this.records = records;
+        }
+    }
+
+    private static Encoded encode(List<Outbox.Record> batch, PayloadEncoder encoder) throws IOException {
+        long t0 = System.nanoTime();
+        if (encoder == null || encoder instanceof JsonPayloadEncoder) {
+            Encoded e = new Encoded(encode(batch), JsonPayloadEncoder.CONTENT_TYPE, batch.size());
+            JSON_BATCH_TIMER.stop(t0);
+            return e;
+        }
+        List<MetricSample> samples = decodeRecords(batch);
+        if (samples == null) {
+            // deltas and internal-metrics snapshots only exist in JSON; send this batch the original way
+            Encoded e = new Encoded(encode(batch), JsonPayloadEncoder.CONTENT_TYPE, batch.size());
+            JSON_BATCH_TIMER.stop(t0);
+            return e;
+        }
+        if (samples.isEmpty()) return new Encoded(null, null, 0);
+        try {
+            return new Encoded(encoder.encode(samples), encoder.contentType(), samples.size());
+        } catch (IOException | RuntimeException ex) {
+            ENCODER_TIMER.error();
+            throw ex;
+        } finally {
+            ENCODER_TIMER.stop(t0);
+        }
+    }
+
+    /**
+     * Records that no longer parse are dropped rather than blocking the queue forever.
+     * @return null if the batch holds a record the sample encoders cannot carry: a delta, which
+     *         cannot be expanded to a full sample, or one with a {@code "self"} metrics snapshot
+     */
+    static List<MetricSample> decodeRecords(List<Outbox.Record> batch) {
+        List<MetricSample> out = new ArrayList<>(batch.size());
+        for (Outbox.Record r : batch) {
+            try {
+                JSONObject j = new JSONObject(new String(r.payload, StandardCharsets.UTF_8));
+                if (j.optBoolean("delta") || j.has("self")) return null;
+                out.add(MetricSample.fromJson(j));
+            } catch (JSONException ignored) {
+                DROPPED_RECORDS.inc();
+            }
+        }
+        return out;
+    }
+
+    static byte[] encode(List<Outbox.Record> batch) {
+        List<byte[]> records = new ArrayList<>(batch.size());
+        for (Outbox.Record r : batch) records.add(r.payload);
+        return ApiPayloads.batch(records);
+    }
+}
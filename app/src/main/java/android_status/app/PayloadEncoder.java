@@ -0,0 +1,12 @@
+package android_status.app;
+
+import java.io.IOException;
+import java.util.List;
+
+/** Serialises a batch of samples for the API. Implementations must be stateless between calls. */
+public interface PayloadEncoder {
+    /** Value sent as the Content-Type header. */
+    String contentType();
+
+    byte[] encode(List<MetricSample> samples) throws IOException;
+}
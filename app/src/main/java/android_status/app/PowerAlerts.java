@@ -0,0 +1,105 @@
+package android_status.app;
+
+/**
+ * Decides when a battery or thermal change is worth an immediate, out-of-band report instead of
+ * waiting for the next periodic sample.
+ *
+ * Temperature and battery level are tracked as bands between their thresholds. Moving into a
+ * worse band (hotter, emptier) or a higher thermal status raises an alert; moving back is
+ * recorded silently. A value must clear a threshold by the hysteresis before its band changes, so
+ * a reading that jitters on a threshold does not flap. Alerts closer than {@code minGapMs} are
+ * held back, and the band is left unchanged so the alert fires on the first update after the gap.
+ * Pure Java; time is passed in.
+ */
+public class PowerAlerts {
+    public static final class Config {
+        /** Same defaults as {@link DeltaFilter.Config}, ascending. */
+        public double[] tempThresholdsC = {45.0, 60.0};
+        /** Descending. */
+        public int[] batteryThresholdsPct = {20, 10, 5};
+        public double tempHysteresisC = 1.0;
+        public int batteryHysteresisPct = 1;
+        /** PowerManager.THERMAL_STATUS_SEVERE; lower statuses never alert. */
+        public int thermalStatusAlert = 3;
+        public long minGapMs = 60_000L;
+    }
+
+    private final Config config;
+    private int tempBand = -1;
+    private int batteryBand = -1;
+    private int thermalStatus = -1;
+    private long lastAlertMs = Long.MIN_VALUE;
+    private long alerts;
+    private long heldBack;
+
+    public PowerAlerts(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Feeds the latest state; the first call only sets the baseline.
+     * @param tempC null if unknown
+     * @param thermal PowerManager thermal status, or -1 if unavailable
+     * @return a short reason (e.g. "battery<=10%") if a report should go out now, else null
+     */
+    public synchronized String update(long nowMs, int batteryPct, Double tempC, boolean charging, int thermal) {
+        int tb = tempC != null ? band(tempC, tempBand) : tempBand;
+        // while charging the battery band is frozen, so unplugging at a low level still alerts
+        int bb = batteryPct >= 0 && !charging ? batteryBand(batteryPct, batteryBand) : batteryBand;
+        String reason = null;
+        if (tempBand >= 0 && tb > tempBand) {
+            reason = "temp>=" + fmt(config.tempThresholdsC[tb - 1]) + "C";
+        } else if (batteryBand >= 0 && bb > batteryBand) {
+            reason = "battery<=" + config.batteryThresholdsPct[bb - 1] + "%";
+        } else if (thermalStatus >= 0 && thermal > thermalStatus && thermal >= config.thermalStatusAlert) {
+            reason = "thermalStatus=" + thermal;
+        }
+        if (reason != null && lastAlertMs != Long.MIN_VALUE && nowMs - lastAlertMs < config.minGapMs) {
+            heldBack++;
+            return null;
+        }
+        tempBand = tb;
+        batteryBand = bb;
+        thermalStatus = thermal;
+        if (reason != null) {
+            lastAlertMs = nowMs;
+            alerts++;
+        }
+        return reason;
+    }
+
+    public synchronized long alerts() {
+        return alerts;
+    }
+
+    public synchronized long heldBack() {
+        return heldBack;
+    }
+
+    /** Number of temperature thresholds at or below {@code t}, with hysteresis around the current band. */
+    private int band(double t, int current) {
+        double[] th = config.tempThresholdsC;
+        int b = 0;
+        for (int i = 0; i < th.length; i++) {
+            // staying in (or above) a band only needs the lower edge minus hysteresis
+            double edge = current > i ? th[i] - config.tempHysteresisC : th[i];
+            if (t >= edge) b = i + 1;
+        }
+        return b;
+    }
+
+    /** Number of battery thresholds at or above {@code pct}, with hysteresis around the current band. */
+    private int batteryBand(int pct, int current) {
+        int[] th = config.batteryThresholdsPct;
+        int b = 0;
+        for (int i = 0; i < th.length; i++) {
+            int edge = current > i ? th[i] + config.batteryHysteresisPct : th[i];
+            if (pct <= edge) b = i + 1;
+        }
+        return b;
+    }
+
+    private static String fmt(double v) {
+        return v == Math.rint(v) ? Long.toString((long) v) : Double.toString(v);
+    }
+}
@@ -0,0 +1,157 @@
+package android_status.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Battery and thermal state kept in memory, updated by an {@code ACTION_BATTERY_CHANGED} receiver
+ * and, on Android 10+, by PowerManager thermal-status callbacks. Collectors read {@link #snapshot()}
+ * instead of fetching the sticky battery intent on every sample.
+ *
+ * Every update also goes through {@link PowerAlerts}; when it reports a threshold crossing the
+ * listener is told so the service can send a report right away. Temperature alerts use the battery
+ * temperature, the one reading that arrives as an event. Callbacks arrive on the main thread.
+ */
+public class PowerStateCache {
+    private static final String TAG = "PowerStateCache";
+
+    public interface Listener {
+        void onAlert(String reason);
+    }
+
+    /** Immutable; replaced as a whole on every update. */
+    public static final class Snapshot {
+        /** Percent, or -1 while no battery broadcast has arrived. */
+        public final int level;
+        public final int voltageMv;
+        public final boolean charging;
+        /** Battery temperature; null if the intent did not carry one. */
+        public final Double batteryTempC;
+        /** PowerManager.THERMAL_STATUS_*, or -1 before Android 10. */
+        public final int thermalStatus;
+        /** SystemClock.elapsedRealtime() of the update. */
+        public final long updatedAtMs;
+
+        Snapshot(int level, int voltageMv, boolean charging, Double batteryTempC, int thermalStatus, long updatedAtMs) {
+            this.level = level;
+            this.voltageMv = voltageMv;
+            this.charging = charging;
+            this.batteryTempC = batteryTempC;
+            this.thermalStatus = thermalStatus;
+            this.updatedAtMs = updatedAtMs;
+        }
+    }
+
+    private static final InternalMetrics.Counter BATTERY_EVENTS = InternalMetrics.counter("power.batteryEvents");
+    private static final InternalMetrics.Counter THERMAL_EVENTS = InternalMetrics.counter("power.thermalEvents");
+    private static final InternalMetrics.Counter ALERTS = InternalMetrics.counter("power.alerts");
+
+    private final PowerAlerts alerts;
+    private volatile Snapshot snapshot;
+    private Context context;
+    private Listener listener;
+    private PowerManager.OnThermalStatusChangedListener thermalListener;
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context ctx, Intent intent) {
+            onBattery(intent);
+        }
+    };
+
+    public PowerStateCache(PowerAlerts.Config alertConfig) {
+        this.alerts = new PowerAlerts(alertConfig);
+    }
+
+    /** Registers the receiver (whose sticky intent gives the initial state) and the thermal listener. */
+    public synchronized void start(Context ctx, Listener listener) {
+        if (context != null) return;
+        this.context = ctx.getApplicationContext();
+        this.listener = listener;
+        try {
+            Intent sticky = context.registerReceiver(receiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (sticky != null) onBattery(sticky);
+        } catch (Exception ex) {
+            Log.w(TAG, "Cannot register battery receiver", ex);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            try {
+                PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                if (pm != null) {
+                    thermalListener = this::onThermal;
+                    // also delivers the current status right away
+                    pm.addThermalStatusListener(context.getMainExecutor(), thermalListener);
+                }
+            } catch (Exception ex) {
+                Log.w(TAG, "Cannot register thermal listener", ex);
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        if (context == null) return;
+        try {
+            context.unregisterReceiver(receiver);
+        } catch (Exception ignored) {
+        }
+        if (thermalListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            try {
+                PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                if (pm != null) pm.removeThermalStatusListener(thermalListener);
+            } catch (Exception ignored) {
+            }
+            thermalListener = null;
+        }
+        context = null;
+        listener = null;
+    }
+
+    /** @return the latest state, or null before the first update */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    private void onBattery(Intent b) {
+        BATTERY_EVENTS.inc();
+        int level = b.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = b.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        int status = b.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        int t = b.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, Integer.MIN_VALUE);
+        Snapshot prev = snapshot;
+        publish(new Snapshot((level >= 0 && scale > 0) ? (level * 100 / scale) : 0,
+                b.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0),
+                status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL,
+                t != Integer.MIN_VALUE ? t / 10.0 : null, // tenths of a degree C
+                prev != null ? prev.thermalStatus : -1,
+                SystemClock.elapsedRealtime()));
+    }
+
+    private void onThermal(int status) {
+        THERMAL_EVENTS.inc();
+        Snapshot prev = snapshot;
+        if (prev == null) {
+            publish(new Snapshot(-1, 0, false, null, status, SystemClock.elapsedRealtime()));
+        } else {
+            publish(new Snapshot(prev.level, prev.voltageMv, prev.charging, prev.batteryTempC, status,
+                    SystemClock.elapsedRealtime()));
+        }
+    }
+
+    private void publish(Snapshot s) {
+        snapshot = s;
+        String reason = alerts.update(s.updatedAtMs, s.level, s.batteryTempC, s.charging, s.thermalStatus);
+        Listener l = listener;
+        if (reason != null && l != null) {
+            ALERTS.inc();
+            Log.i(TAG, "Power alert: " + reason);
+            l.onAlert(reason);
+        }
+    }
+}
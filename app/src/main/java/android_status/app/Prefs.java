@@ -2,14 +2,66 @@ package android_status.app;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
 
 import androidx.security.crypto.EncryptedSharedPreferences;
 import androidx.security.crypto.MasterKey;
 
+/**
+ * Process-wide access to the settings store. Opening EncryptedSharedPreferences costs a Keystore
+ * round-trip and a key-set load, so it happens once per process; readers normally use the
+ * {@link Settings} snapshot, which a change listener keeps current.
+ */
 public class Prefs {
+    private static final String TAG = "Prefs";
     private static final String PREFS_NAME = "android_status_prefs";
 
+    private static volatile SharedPreferences prefs;
+    private static volatile Settings settings;
+    // SharedPreferences only holds listeners weakly
+    private static final SharedPreferences.OnSharedPreferenceChangeListener LISTENER =
+            (p, key) -> settings = Settings.fromMap(p.getAll());
+
     public static SharedPreferences get(Context ctx) {
+        SharedPreferences p = prefs;
+        if (p != null) return p;
+        synchronized (Prefs.class) {
+            if (prefs == null) {
+                long start = SystemClock.elapsedRealtime();
+                p = open(ctx.getApplicationContext());
+                p.registerOnSharedPreferenceChangeListener(LISTENER);
+                prefs = p;
+                Log.i(TAG, "Opened settings store in " + (SystemClock.elapsedRealtime() - start) + " ms");
+            }
+            return prefs;
+        }
+    }
+
+    /** The current settings; decrypted once per process and refreshed on every change. */
+    public static Settings settings(Context ctx) {
+        Settings s = settings;
+        if (s != null) return s;
+        SharedPreferences p = get(ctx);
+        synchronized (Prefs.class) {
+            if (settings == null) settings = Settings.fromMap(p.getAll());
+            return settings;
+        }
+    }
+
+    /** Writes all settings in one edit and publishes the new snapshot immediately. */
+    public static void save(Context ctx, Settings s) {
+        get(ctx).edit()
+                .putString(Settings.KEY_WEBHOOK, s.webhookUrl)
+                .putString(Settings.KEY_API, s.apiEndpoint)
+                .putString(Settings.KEY_API_KEY, s.apiKey)
+                .putBoolean(Settings.KEY_ENABLE_SLACK, s.enableSlack)
+                .putBoolean(Settings.KEY_ENABLE_API, s.enableApi)
+                .apply();
+        settings = s;
+    }
+
+    private static SharedPreferences open(Context ctx) {
         try {
             MasterKey masterKey = new MasterKey.Builder(ctx)
                     .setKeyScheme(MasterKey.KeyScheme.AES256_GCM)
@@ -0,0 +1,304 @@
+package android_status.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads /proc and /sys files into a reused byte buffer and scans numbers straight from the bytes.
+ * Open handles are kept per path and rewound with seek(0), which makes the kernel regenerate the
+ * file contents without a new open(). No regex, no per-call String or reader allocation.
+ *
+ * The root is configurable so the same code can run against fixture directories on plain Linux.
+ * Not thread safe on its own; each reader owns an instance and locks it (see MetricsCollector).
+ */
+public class ProcParser {
+    private static final int BUF_SIZE = 16 * 1024;
+    private static final byte[] CPU = {'c', 'p', 'u'};
+    private static final byte[] MEM_TOTAL = "MemTotal:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MEM_AVAILABLE = "MemAvailable:".getBytes(StandardCharsets.US_ASCII);
+
+    private final String root;
+    private final byte[] buf = new byte[BUF_SIZE];
+    private final Map<String, RandomAccessFile> handles = new HashMap<>();
+    private int len;
+    private int pos;
+
+    public ProcParser() {
+        this("");
+    }
+
+    /** @param root prefix prepended to absolute paths such as "/proc/stat"; "" means the real filesystem */
+    public ProcParser(String root) {
+        this.root = root == null ? "" : root;
+    }
+
+    public String root() {
+        return root;
+    }
+
+    public File file(String absPath) {
+        return new File(root + absPath);
+    }
+
+    /**
+     * Fills the first seven fields of the aggregate cpu line (user, nice, system, idle, iowait, irq, softirq).
+     * @return false if /proc/stat could not be read or parsed
+     */
+    public boolean readCpuStat(long[] out) {
+        if (!load("/proc/stat")) return false;
+        if (!startsWith(0, CPU)) return false;
+        pos = CPU.length;
+        int n = 0;
+        while (n < out.length && n < 7) {
+            long v = nextLong();
+            if (v < 0) break;
+            out[n++] = v;
+        }
+        for (int i = n; i < out.length; i++) out[i] = 0;
+        return n >= 4;
+    }
+
+    /**
+     * Single pass over /proc/stat filling {@code stride} fields (user, nice, system, idle, iowait, irq,
+     * softirq, ...) per row: row 0 is the aggregate "cpu" line, row n+1 is "cpun". Rows of offline
+     * cores are left untouched.
+     * @return number of rows seen (highest core index + 2), or 0 if the file could not be read;
+     *         rows beyond {@code out.length / stride} are counted but not stored
+     */
+    public int readCpuStats(long[] out, int stride) {
+        if (!load("/proc/stat")) return 0;
+        int rows = 0;
+        int line = 0;
+        while (line < len && startsWith(line, CPU)) {
+            pos = line + CPU.length;
+            int row = 0;
+            if (pos < len && buf[pos] >= '0' && buf[pos] <= '9') {
+                int core = 0;
+                while (pos < len && buf[pos] >= '0' && buf[pos] <= '9') core = core * 10 + (buf[pos++] - '0');
+                row = core + 1;
+            }
+            rows = Math.max(rows, row + 1);
+            int base = row * stride;
+            if (base + stride <= out.length) {
+                for (int i = 0; i < stride; i++) {
+                    long v = nextLong();
+                    out[base + i] = v < 0 ? 0 : v;
+                    if (v < 0) {
+                        for (int j = i + 1; j < stride; j++) out[base + j] = 0;
+                        break;
+                    }
+                }
+            }
+            line = nextLine(line);
+        }
+        return rows;
+    }
+
+    /**
+     * Reads utime + stime (clock ticks) from a /proc/[pid]/stat file without caching its handle,
+     * since processes come and go. The command name may contain spaces or parentheses, so fields
+     * are counted from the last ')'.
+     * @return ticks, or -1 if the process is gone or the file is unreadable
+     */
+    public long readProcessTicks(String absPath) {
+        if (!loadUncached(absPath)) return -1;
+        int close = lastIndexOf((byte) ')');
+        if (close < 0) return -1;
+        pos = close + 1;
+        // after ')' come: state(3) ppid(4) pgrp(5) session(6) tty_nr(7) tpgid(8) flags(9)
+        // minflt(10) cminflt(11) majflt(12) cmajflt(13) utime(14) stime(15)
+        for (int field = 3; field < 14; field++) {
+            if (!skipField()) return -1;
+        }
+        long utime = nextLong();
+        long stime = nextLong();
+        if (utime < 0 || stime < 0) return -1;
+        return utime + stime;
+    }
+
+    /** @return the command name between the parentheses of a /proc/[pid]/stat file, or null */
+    public String readProcessName(String absPath) {
+        if (!loadUncached(absPath)) return null;
+        int open = -1;
+        for (int i = 0; i < len; i++) {
+            if (buf[i] == '(') {
+                open = i;
+                break;
+            }
+        }
+        int close = lastIndexOf((byte) ')');
+        if (open < 0 || close <= open) return null;
+        return new String(buf, open + 1, close - open - 1, java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    /** @return used memory as a percentage of MemTotal, or 0.0 when unavailable */
+    public double readMemUsagePercent() {
+        if (!load("/proc/meminfo")) return 0.0;
+        long total = 0, avail = 0;
+        int line = 0;
+        while (line < len) {
+            if (startsWith(line, MEM_TOTAL)) {
+                pos = line + MEM_TOTAL.length;
+                total = nextLong();
+            } else if (startsWith(line, MEM_AVAILABLE)) {
+                pos = line + MEM_AVAILABLE.length;
+                avail = nextLong();
+                break;
+            }
+            line = nextLine(line);
+        }
+        if (total <= 0) return 0.0;
+        return ((double) (total - avail) / (double) total) * 100.0;
+    }
+
+    /**
+     * Reads a sysfs temperature file. Values above 1000 are treated as millidegrees.
+     * @return degrees Celsius, or NaN when the file is missing or unparsable
+     */
+    public double readTempCelsius(String absPath) {
+        long raw = readLong(absPath);
+        if (raw == Long.MIN_VALUE) return Double.NaN;
+        if (raw > 1000) return raw / 1000.0;
+        return (double) raw;
+    }
+
+    /** @return the first (optionally signed) integer in the file, or Long.MIN_VALUE */
+    public long readLong(String absPath) {
+        if (!load(absPath)) return Long.MIN_VALUE;
+        pos = 0;
+        while (pos < len && buf[pos] == ' ') pos++;
+        boolean neg = pos < len && buf[pos] == '-';
+        if (neg) pos++;
+        if (pos >= len || buf[pos] < '0' || buf[pos] > '9') return Long.MIN_VALUE;
+        long v = nextLong();
+        return neg ? -v : v;
+    }
+
+    /**
+     * Case-insensitive check whether the first line of a file contains any of the given ASCII tokens.
+     * Tokens must be lower case.
+     */
+    public boolean firstLineContainsAny(String absPath, byte[][] tokens) {
+        if (!load(absPath)) return false;
+        int end = nextLine(0);
+        for (byte[] t : tokens) {
+            for (int i = 0; i + t.length <= end; i++) {
+                int j = 0;
+                while (j < t.length && lower(buf[i + j]) == t[j]) j++;
+                if (j == t.length) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Closes every cached handle; the parser can still be used and will reopen files lazily. */
+    public void close() {
+        for (RandomAccessFile f : handles.values()) {
+            try {
+                f.close();
+            } catch (IOException ignored) {
+            }
+        }
+        handles.clear();
+    }
+
+    /** Drops the cached handle for one path, e.g. after a sensor disappeared. */
+    public void forget(String absPath) {
+        RandomAccessFile f = handles.remove(absPath);
+        if (f != null) {
+            try {
+                f.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private boolean load(String absPath) {
+        len = 0;
+        pos = 0;
+        RandomAccessFile f = handles.get(absPath);
+        try {
+            if (f == null) {
+                File file = file(absPath);
+                if (!file.exists()) return false;
+                f = new RandomAccessFile(file, "r");
+                handles.put(absPath, f);
+            } else {
+                f.seek(0);
+            }
+            int r;
+            while (len < buf.length && (r = f.read(buf, len, buf.length - len)) > 0) {
+                len += r;
+            }
+            return len > 0;
+        } catch (IOException ex) {
+            forget(absPath);
+            return false;
+        }
+    }
+
+    private boolean loadUncached(String absPath) {
+        len = 0;
+        pos = 0;
+        try (RandomAccessFile f = new RandomAccessFile(file(absPath), "r")) {
+            int r;
+            while (len < buf.length && (r = f.read(buf, len, buf.length - len)) > 0) {
+                len += r;
+            }
+            return len > 0;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private int lastIndexOf(byte b) {
+        for (int i = len - 1; i >= 0; i--) {
+            if (buf[i] == b) return i;
+        }
+        return -1;
+    }
+
+    /** Skips one space-separated field; false at end of line. */
+    private boolean skipField() {
+        while (pos < len && buf[pos] == ' ') pos++;
+        if (pos >= len || buf[pos] == '\n') return false;
+        while (pos < len && buf[pos] != ' ' && buf[pos] != '\n') pos++;
+        return true;
+    }
+
+    /** Skips to the next digit run on the current line and parses it; -1 if the line ends first. */
+    private long nextLong() {
+        while (pos < len && (buf[pos] < '0' || buf[pos] > '9')) {
+            if (buf[pos] == '\n') return -1;
+            pos++;
+        }
+        if (pos >= len) return -1;
+        long v = 0;
+        while (pos < len && buf[pos] >= '0' && buf[pos] <= '9') {
+            v = v * 10 + (buf[pos++] - '0');
+        }
+        return v;
+    }
+
+    private boolean startsWith(int at, byte[] prefix) {
+        if (at + prefix.length > len) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[at + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private int nextLine(int from) {
+        int i = from;
+        while (i < len && buf[i] != '\n') i++;
+        return i + 1;
+    }
+
+    private static byte lower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + 32) : b;
+    }
+}
@@ -0,0 +1,88 @@
+package android_status.app;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Feeds {@link UploadScheduler}: default-network changes (connected, metered) from a
+ * NetworkCallback, and "radio became active" from ConnectivityManager's network-active listener.
+ * All callbacks are delivered on the given handler's thread.
+ */
+public class RadioMonitor {
+    private static final String TAG = "RadioMonitor";
+
+    public interface Listener {
+        void onNetwork(boolean connected, boolean metered);
+
+        void onRadioActive();
+    }
+
+    // written under the lock in start/stop, read without it from the callback threads
+    private volatile ConnectivityManager cm;
+    private volatile Handler handler;
+    private volatile Listener listener;
+
+    private final ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities caps) {
+            Listener l = listener;
+            if (l != null) l.onNetwork(true, !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED));
+        }
+
+        @Override
+        public void onLost(Network network) {
+            Listener l = listener;
+            if (l != null) l.onNetwork(false, true);
+        }
+    };
+
+    private final ConnectivityManager.OnNetworkActiveListener activeListener = () -> {
+        Handler h = handler;
+        if (h != null) {
+            h.post(() -> {
+                Listener l = listener;
+                if (l != null) l.onRadioActive();
+            });
+        }
+    };
+
+    public synchronized void start(Context ctx, Handler handler, Listener listener) {
+        if (cm != null) return;
+        this.handler = handler;
+        this.listener = listener;
+        cm = (ConnectivityManager) ctx.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) return;
+        try {
+            cm.registerDefaultNetworkCallback(callback, handler);
+            cm.addDefaultNetworkActiveListener(activeListener);
+        } catch (Exception ex) {
+            Log.w(TAG, "Cannot watch connectivity; uploads fall back to their deadline", ex);
+        }
+    }
+
+    public synchronized void stop() {
+        if (cm == null) return;
+        try {
+            cm.unregisterNetworkCallback(callback);
+            cm.removeDefaultNetworkActiveListener(activeListener);
+        } catch (Exception ignored) {
+        }
+        cm = null;
+        listener = null;
+        handler = null;
+    }
+
+    /** @return true if the default network's radio is in its high-power state right now */
+    public boolean radioActive() {
+        ConnectivityManager c = cm;
+        try {
+            return c != null && c.isDefaultNetworkActive();
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+}
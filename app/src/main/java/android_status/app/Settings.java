@@ -0,0 +1,58 @@
+package android_status.app;
+
+import java.util.Map;
+
+/**
+ * Immutable, typed copy of the user settings. {@link Prefs#settings} keeps the current one in memory
+ * and swaps in a new instance when the stored preferences change, so readers never touch the
+ * encrypted store.
+ */
+public final class Settings {
+    public static final String KEY_WEBHOOK = "webhook_url";
+    public static final String KEY_API = "api_endpoint";
+    public static final String KEY_API_KEY = "api_key";
+    public static final String KEY_ENABLE_SLACK = "enable_slack";
+    public static final String KEY_ENABLE_API = "enable_api";
+
+    public static final Settings DEFAULTS = new Settings("", "", "", true, true);
+
+    public final String webhookUrl;
+    public final String apiEndpoint;
+    public final String apiKey;
+    public final boolean enableSlack;
+    public final boolean enableApi;
+
+    public Settings(String webhookUrl, String apiEndpoint, String apiKey, boolean enableSlack, boolean enableApi) {
+        this.webhookUrl = webhookUrl != null ? webhookUrl : "";
+        this.apiEndpoint = apiEndpoint != null ? apiEndpoint : "";
+        this.apiKey = apiKey != null ? apiKey : "";
+        this.enableSlack = enableSlack;
+        this.enableApi = enableApi;
+    }
+
+    /** Builds a snapshot from {@code SharedPreferences.getAll()}; missing or mistyped keys take defaults. */
+    public static Settings fromMap(Map<String, ?> values) {
+        return new Settings(
+                string(values.get(KEY_WEBHOOK)),
+                string(values.get(KEY_API)),
+                string(values.get(KEY_API_KEY)),
+                bool(values.get(KEY_ENABLE_SLACK), DEFAULTS.enableSlack),
+                bool(values.get(KEY_ENABLE_API), DEFAULTS.enableApi));
+    }
+
+    public boolean hasWebhook() {
+        return !webhookUrl.isEmpty();
+    }
+
+    public boolean hasApi() {
+        return !apiEndpoint.isEmpty();
+    }
+
+    private static String string(Object v) {
+        return v instanceof String ? (String) v : "";
+    }
+
+    private static boolean bool(Object v, boolean def) {
+        return v instanceof Boolean ? (Boolean) v : def;
+    }
+}
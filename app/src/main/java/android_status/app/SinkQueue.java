@@ -0,0 +1,184 @@
+package android_status.app;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+
+/**
+ * Bounded hand-off between the collector thread and one asynchronous sink (Slack, API, ...).
+ *
+ * {@link #offer} only enqueues and starts sends; it never waits for the network, except under
+ * {@link Backpressure#BLOCK} when the queue is full, and then for at most {@code maxBlockMs}.
+ * At most {@code maxInFlight} sends run at once; each completion pulls the next item.
+ * A held queue (see {@link #hold}) keeps accepting items but only sends what {@link #release} allows.
+ */
+public class SinkQueue<T> {
+    public enum Backpressure {
+        /** Full queue: discard the oldest queued item to make room. */
+        DROP_OLDEST,
+        /** Full queue: merge the new item into the newest queued one. */
+        COALESCE,
+        /** Full queue: wait for space up to maxBlockMs, then drop the new item. */
+        BLOCK
+    }
+
+    public interface Completion {
+        void done(boolean ok);
+    }
+
+    /** Must not block; call {@code done} exactly once, from any thread. */
+    public interface Sink<T> {
+        void send(T item, Completion done);
+    }
+
+    private final String name;
+    private final Sink<T> sink;
+    private final int capacity;
+    private final int maxInFlight;
+    private final Backpressure policy;
+    private final BinaryOperator<T> merge;
+    private final long maxBlockMs;
+    private final ArrayDeque<T> queue = new ArrayDeque<>();
+    private int inFlight;
+    private boolean closed;
+    private boolean held;
+    /** Items a held queue may still send. */
+    private int allowance;
+
+    public final AtomicLong sent = new AtomicLong();
+    public final AtomicLong failed = new AtomicLong();
+    public final AtomicLong dropped = new AtomicLong();
+    public final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param merge used by {@link Backpressure#COALESCE}; receives (queued, incoming). Null keeps the incoming item.
+     */
+    public SinkQueue(String name, Sink<T> sink, int capacity, int maxInFlight, Backpressure policy,
+                     BinaryOperator<T> merge, long maxBlockMs) {
+        if (capacity < 1 || maxInFlight < 1) throw new IllegalArgumentException("capacity and maxInFlight must be >= 1");
+        this.name = name;
+        this.sink = sink;
+        this.capacity = capacity;
+        this.maxInFlight = maxInFlight;
+        this.policy = policy;
+        this.merge = merge;
+        this.maxBlockMs = maxBlockMs;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** @return false if the item was dropped */
+    public boolean offer(T item) {
+        synchronized (this) {
+            if (closed) return false;
+            if (queue.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        queue.pollFirst();
+                        dropped.incrementAndGet();
+                        break;
+                    case COALESCE:
+                        T last = queue.pollLast();
+                        item = merge != null ? merge.apply(last, item) : item;
+                        coalesced.incrementAndGet();
+                        break;
+                    case BLOCK:
+                        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBlockMs);
+                        try {
+                            while (queue.size() >= capacity && !closed) {
+                                long left = deadline - System.nanoTime();
+                                if (left <= 0) break;
+                                TimeUnit.NANOSECONDS.timedWait(this, left);
+                            }
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                        }
+                        if (queue.size() >= capacity || closed) {
+                            dropped.incrementAndGet();
+                            return false;
+                        }
+                        break;
+                }
+            }
+            queue.addLast(item);
+        }
+        pump();
+        return true;
+    }
+
+    public synchronized int queued() {
+        return queue.size();
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /** Stops sending; offers are still queued under the usual backpressure policy. */
+    public synchronized void hold() {
+        held = true;
+        allowance = 0;
+    }
+
+    /** Lets everything queued right now go out; later items are held again. */
+    public void release() {
+        synchronized (this) {
+            allowance = queue.size();
+        }
+        pump();
+    }
+
+    /** Leaves held mode and sends everything, now and later. */
+    public void resume() {
+        synchronized (this) {
+            held = false;
+        }
+        pump();
+    }
+
+    /** Drops queued items and rejects new ones; sends already in flight finish on their own. */
+    public synchronized void close() {
+        closed = true;
+        dropped.addAndGet(queue.size());
+        queue.clear();
+        notifyAll();
+    }
+
+    private void pump() {
+        while (true) {
+            T next;
+            synchronized (this) {
+                if (closed || inFlight >= maxInFlight || queue.isEmpty()) return;
+                if (held) {
+                    if (allowance == 0) return;
+                    allowance--;
+                }
+                next = queue.pollFirst();
+                inFlight++;
+                notifyAll();
+            }
+            Completion once = new Completion() {
+                private boolean called;
+
+                @Override
+                public void done(boolean ok) {
+                    synchronized (SinkQueue.this) {
+                        if (called) return;
+                        called = true;
+                        inFlight--;
+                    }
+                    (ok ? sent : failed).incrementAndGet();
+                    pump();
+                }
+            };
+            try {
+                sink.send(next, once);
+            } catch (RuntimeException ex) {
+                once.done(false);
+            }
+        }
+    }
+}
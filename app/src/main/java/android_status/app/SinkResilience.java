@@ -0,0 +1,311 @@
+package android_status.app;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Retries and circuit breaking shared by ApiPoster and SlackPoster, on top of {@link HttpTransport}.
+ *
+ * <ul>
+ *   <li>Each attempt gets its own deadline ({@code attemptTimeoutMs}, the OkHttp call timeout).</li>
+ *   <li>IOExceptions, 5xx and 429 are retried up to {@code maxAttempts} in total; other statuses are
+ *       final. Delays use decorrelated jitter ({@code min(cap, random(base, previous * 3))}); a 429
+ *       with Retry-After waits that long instead, unless it exceeds {@code maxRetryAfterMs}.</li>
+ *   <li>One breaker per endpoint (scheme, host, port and path). {@code failureThreshold} consecutive
+ *       failed attempts (IOException or 5xx) open it; while open, calls fail at once with
+ *       {@link CircuitOpenException}. After {@code openMs} one probe is let through (half-open):
+ *       success closes the breaker, failure opens it again.</li>
+ * </ul>
+ * Counters and breaker transitions are kept in {@link Stats}.
+ */
+public final class SinkResilience {
+    public static final class Config {
+        public int maxAttempts = 3;
+        public long baseDelayMs = 500;
+        public long maxDelayMs = 30_000L;
+        public long attemptTimeoutMs = 30_000L;
+        public long maxRetryAfterMs = 5 * 60_000L;
+        public int failureThreshold = 5;
+        public long openMs = 60_000L;
+    }
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** Thrown or reported instead of a network call while an endpoint's breaker is open. */
+    public static final class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(String endpoint) {
+            super("Circuit open for " + endpoint);
+        }
+    }
+
+    /** Final outcome of {@link #enqueue}; the listener owns (and must close) the response. */
+    public interface Listener {
+        void onResponse(Response response);
+
+        void onFailure(IOException ex);
+    }
+
+    public static final class Stats {
+        public final AtomicLong attempts = new AtomicLong();
+        public final AtomicLong retries = new AtomicLong();
+        public final AtomicLong shortCircuited = new AtomicLong();
+        public final AtomicLong breakerOpened = new AtomicLong();
+        public final AtomicLong breakerHalfOpened = new AtomicLong();
+        public final AtomicLong breakerClosed = new AtomicLong();
+
+        @Override
+        public String toString() {
+            return "attempts=" + attempts + " retries=" + retries + " shortCircuited=" + shortCircuited
+                    + " opened=" + breakerOpened + " halfOpened=" + breakerHalfOpened + " closed=" + breakerClosed;
+        }
+    }
+
+    static final class Breaker {
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean probing;
+
+        /** @return false if the call must not go out now */
+        synchronized boolean tryAcquire(long now) {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (now < openUntil) return false;
+                    state = State.HALF_OPEN;
+                    stats.breakerHalfOpened.incrementAndGet();
+                    probing = true;
+                    return true;
+                default:
+                    if (probing) return false;
+                    probing = true;
+                    return true;
+            }
+        }
+
+        synchronized void onSuccess() {
+            consecutiveFailures = 0;
+            probing = false;
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                stats.breakerClosed.incrementAndGet();
+            }
+        }
+
+        synchronized void onFailure(long now, Config c) {
+            consecutiveFailures++;
+            probing = false;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= c.failureThreshold)) {
+                state = State.OPEN;
+                openUntil = now + c.openMs;
+                stats.breakerOpened.incrementAndGet();
+            }
+        }
+
+        /** A final answer that says nothing about endpoint health (e.g. 429, 4xx) still ends a probe. */
+        synchronized void onNeutral() {
+            if (state == State.HALF_OPEN) {
+                probing = false;
+                state = State.CLOSED;
+                consecutiveFailures = 0;
+                stats.breakerClosed.incrementAndGet();
+            }
+        }
+
+        synchronized State state() {
+            return state;
+        }
+    }
+
+    private static final Stats stats = new Stats();
+    private static final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sink-retry");
+        t.setDaemon(true);
+        return t;
+    });
+    private static volatile Config config = new Config();
+
+    private SinkResilience() {
+    }
+
+    /** Replaces the configuration and forgets all breaker state. */
+    public static void configure(Config c) {
+        config = c;
+        breakers.clear();
+    }
+
+    public static Stats stats() {
+        return stats;
+    }
+
+    /** @return the breaker state for the endpoint of {@code url} */
+    public static State state(String url) {
+        HttpUrl u = HttpUrl.parse(url);
+        Breaker b = u == null ? null : breakers.get(endpoint(u));
+        return b == null ? State.CLOSED : b.state();
+    }
+
+    /**
+     * Blocking call with retries; sleeps on the caller's thread between attempts.
+     * @return the final response (possibly unsuccessful), which the caller must close
+     * @throws CircuitOpenException if the endpoint's breaker is open
+     */
+    public static Response execute(Request req) throws IOException {
+        Config c = config;
+        String ep = endpoint(req.url());
+        Breaker breaker = breaker(ep);
+        long prevDelay = c.baseDelayMs;
+        for (int attempt = 1; ; attempt++) {
+            if (!breaker.tryAcquire(nowMs())) {
+                stats.shortCircuited.incrementAndGet();
+                throw new CircuitOpenException(ep);
+            }
+            stats.attempts.incrementAndGet();
+            Call call = HttpTransport.client().newCall(req);
+            call.timeout().timeout(c.attemptTimeoutMs, TimeUnit.MILLISECONDS);
+            long delay;
+            try {
+                Response resp = call.execute();
+                if (!record(breaker, resp, c) || attempt >= c.maxAttempts) return resp;
+                delay = retryDelay(resp, prevDelay, c);
+                if (delay < 0) return resp;
+                resp.close();
+            } catch (IOException ex) {
+                breaker.onFailure(nowMs(), c);
+                if (attempt >= c.maxAttempts) throw ex;
+                delay = jitter(prevDelay, c);
+            }
+            prevDelay = Math.max(c.baseDelayMs, delay);
+            stats.retries.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to retry", ie);
+            }
+        }
+    }
+
+    /** Non-blocking call with retries; the listener runs on an OkHttp or retry-timer thread. */
+    public static void enqueue(Request req, Listener listener) {
+        Config c = config;
+        String ep = endpoint(req.url());
+        attempt(req, ep, breaker(ep), 1, c.baseDelayMs, c, listener);
+    }
+
+    private static void attempt(Request req, String ep, Breaker breaker, int attempt, long prevDelay, Config c,
+                                Listener listener) {
+        if (!breaker.tryAcquire(nowMs())) {
+            stats.shortCircuited.incrementAndGet();
+            listener.onFailure(new CircuitOpenException(ep));
+            return;
+        }
+        stats.attempts.incrementAndGet();
+        Call call = HttpTransport.client().newCall(req);
+        call.timeout().timeout(c.attemptTimeoutMs, TimeUnit.MILLISECONDS);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException ex) {
+                breaker.onFailure(nowMs(), c);
+                if (attempt >= c.maxAttempts) {
+                    listener.onFailure(ex);
+                    return;
+                }
+                retryLater(jitter(prevDelay, c));
+            }
+
+            @Override
+            public void onResponse(Call call, Response resp) {
+                if (!record(breaker, resp, c) || attempt >= c.maxAttempts) {
+                    listener.onResponse(resp);
+                    return;
+                }
+                long delay = retryDelay(resp, prevDelay, c);
+                if (delay < 0) {
+                    listener.onResponse(resp);
+                    return;
+                }
+                resp.close();
+                retryLater(delay);
+            }
+
+            private void retryLater(long delay) {
+                stats.retries.incrementAndGet();
+                long next = Math.max(c.baseDelayMs, delay);
+                TIMER.schedule(() -> attempt(req, ep, breaker, attempt + 1, next, c, listener), delay, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /** Updates the breaker. @return true if the response is worth retrying */
+    private static boolean record(Breaker breaker, Response resp, Config c) {
+        int code = resp.code();
+        if (code >= 500) {
+            breaker.onFailure(nowMs(), c);
+            return true;
+        }
+        if (resp.isSuccessful()) {
+            breaker.onSuccess();
+        } else {
+            breaker.onNeutral();
+        }
+        return code == 429;
+    }
+
+    /** @return how long to wait before retrying this response, or -1 if a retry is pointless */
+    private static long retryDelay(Response resp, long prevDelay, Config c) {
+        if (resp.code() == 429) {
+            long after = retryAfterMs(resp);
+            if (after >= 0) return after <= c.maxRetryAfterMs ? after : -1;
+        }
+        return jitter(prevDelay, c);
+    }
+
+    /** Decorrelated jitter: random between base and three times the previous delay, capped. */
+    static long jitter(long prevDelay, Config c) {
+        long hi = Math.min(c.maxDelayMs, Math.max(c.baseDelayMs, prevDelay) * 3);
+        if (hi <= c.baseDelayMs) return Math.min(c.baseDelayMs, c.maxDelayMs);
+        return ThreadLocalRandom.current().nextLong(c.baseDelayMs, hi + 1);
+    }
+
+    /** Retry-After as delta-seconds or an HTTP date; -1 when absent or unparsable. */
+    static long retryAfterMs(Response r) {
+        String v = r.header("Retry-After");
+        if (v == null) return -1;
+        try {
+            return Math.max(0, Long.parseLong(v.trim()) * 1000L);
+        } catch (NumberFormatException ignored) {
+        }
+        Date at = r.headers().getDate("Retry-After");
+        return at != null ? Math.max(0, at.getTime() - System.currentTimeMillis()) : -1;
+    }
+
+    private static Breaker breaker(String endpoint) {
+        return breakers.computeIfAbsent(endpoint, k -> new Breaker());
+    }
+
+    private static String endpoint(HttpUrl u) {
+        return u.scheme() + "://" + u.host() + ":" + u.port() + u.encodedPath();
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000L;
+    }
+}
@@ -0,0 +1,203 @@
+package android_status.app;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Buffers samples and renders them as one Slack Block Kit message: a context line with the time
+ * range and a monospaced table with one row per device (sample count, min-max of memory,
+ * temperature, battery and voltage).
+ *
+ * A digest is due once {@code maxSamples} samples are buffered or {@code maxAgeMs} has passed since
+ * the first one (sample time). With {@link Scope#PER_DEVICE} every device has its own buffer and
+ * digest; with {@link Scope#FLEET} all devices share one. Only min/max and counts are kept, not
+ * the samples themselves. Synchronized, so the service can flush a digest from another thread while
+ * it is being replaced or shut down.
+ */
+public class SlackDigest {
+    public enum Scope { PER_DEVICE, FLEET }
+
+    public static final class Config {
+        public int maxSamples = 20;
+        public long maxAgeMs = 15 * 60_000L;
+        public Scope scope = Scope.FLEET;
+    }
+
+    /** Block Kit section text is limited to 3000 characters; stay well below with this many rows. */
+    private static final int ROWS_PER_SECTION = 25;
+    private static final String TABLE_HEADER = "device         n  mem %        temp C       batt %   volt V";
+
+    private static final class Row {
+        final String label;
+        int n;
+        double memMin = Double.NaN, memMax = Double.NaN;
+        double tempMin = Double.NaN, tempMax = Double.NaN;
+        int battMin, battMax;
+        int voltMin, voltMax;
+
+        Row(String label) {
+            this.label = label;
+        }
+
+        void add(MetricSample s) {
+            memMin = n == 0 ? s.memoryPct : Math.min(memMin, s.memoryPct);
+            memMax = n == 0 ? s.memoryPct : Math.max(memMax, s.memoryPct);
+            if (s.tempC != null) {
+                tempMin = Double.isNaN(tempMin) ? s.tempC : Math.min(tempMin, s.tempC);
+                tempMax = Double.isNaN(tempMax) ? s.tempC : Math.max(tempMax, s.tempC);
+            }
+            battMin = n == 0 ? s.batteryPct : Math.min(battMin, s.batteryPct);
+            battMax = n == 0 ? s.batteryPct : Math.max(battMax, s.batteryPct);
+            voltMin = n == 0 ? s.voltageMv : Math.min(voltMin, s.voltageMv);
+            voltMax = n == 0 ? s.voltageMv : Math.max(voltMax, s.voltageMv);
+            n++;
+        }
+    }
+
+    private static final class Buffer {
+        final Map<String, Row> rows = new LinkedHashMap<>();
+        int samples;
+        long firstMs;
+        long lastMs;
+    }
+
+    private final Config config;
+    private final SlackFormat format;
+    private final Map<String, Buffer> buffers = new HashMap<>();
+
+    public SlackDigest(Config config, SlackFormat format) {
+        this.config = config;
+        this.format = format;
+    }
+
+    Config config() {
+        return config;
+    }
+
+    /** @return a Block Kit JSON body when this sample completes a digest, else null */
+    public synchronized String offer(MetricSample s) {
+        String key = config.scope == Scope.FLEET ? "" : String.valueOf(s.deviceId);
+        Buffer b = buffers.get(key);
+        if (b == null) {
+            b = new Buffer();
+            buffers.put(key, b);
+        }
+        if (b.samples == 0) b.firstMs = s.timestampMs;
+        b.lastMs = Math.max(b.lastMs, s.timestampMs);
+        String label = SlackFormat.deviceLabel(s);
+        Row r = b.rows.get(label);
+        if (r == null) {
+            r = new Row(label);
+            b.rows.put(label, r);
+        }
+        r.add(s);
+        b.samples++;
+        if (b.samples >= config.maxSamples || s.timestampMs - b.firstMs >= config.maxAgeMs) {
+            buffers.remove(key);
+            return render(b);
+        }
+        return null;
+    }
+
+    /** Renders and clears everything pending (all devices in one message). @return null if empty */
+    public synchronized String flush() {
+        if (buffers.isEmpty()) return null;
+        Buffer all = new Buffer();
+        all.firstMs = Long.MAX_VALUE;
+        for (Buffer b : buffers.values()) {
+            all.samples += b.samples;
+            all.firstMs = Math.min(all.firstMs, b.firstMs);
+            all.lastMs = Math.max(all.lastMs, b.lastMs);
+            all.rows.putAll(b.rows);
+        }
+        buffers.clear();
+        return render(all);
+    }
+
+    public synchronized int pending() {
+        int n = 0;
+        for (Buffer b : buffers.values()) n += b.samples;
+        return n;
+    }
+
+    private String render(Buffer b) {
+        StringBuilder range = new StringBuilder(64);
+        format.appendFullTime(range, b.firstMs);
+        range.append(" - ");
+        format.appendShortTime(range, b.lastMs);
+        range.append(" | ").append(b.samples).append(b.samples == 1 ? " sample" : " samples");
+        String rangeText = range.toString();
+
+        StringBuilder fallback = new StringBuilder(96);
+        fallback.append("Status digest: ");
+        if (b.rows.size() == 1) {
+            fallback.append(b.rows.keySet().iterator().next());
+        } else {
+            fallback.append(b.rows.size()).append(" devices");
+        }
+        fallback.append(", ").append(rangeText);
+
+        StringBuilder out = new StringBuilder(256 + b.rows.size() * 80);
+        out.append("{\"text\":").append(JSONObject.quote(fallback.toString()));
+        out.append(",\"blocks\":[{\"type\":\"header\",\"text\":{\"type\":\"plain_text\",\"text\":\"Status digest\"}}");
+        out.append(",{\"type\":\"context\",\"elements\":[{\"type\":\"mrkdwn\",\"text\":")
+                .append(JSONObject.quote(rangeText)).append("}]}");
+        StringBuilder table = new StringBuilder(ROWS_PER_SECTION * 72);
+        int inSection = 0;
+        for (Row r : b.rows.values()) {
+            if (inSection == 0) table.append("```").append(TABLE_HEADER).append('\n');
+            appendRow(table, r);
+            if (++inSection == ROWS_PER_SECTION) {
+                appendSection(out, table);
+                inSection = 0;
+            }
+        }
+        if (inSection > 0) appendSection(out, table);
+        out.append("]}");
+        return out.toString();
+    }
+
+    private static void appendSection(StringBuilder out, StringBuilder table) {
+        table.append("```");
+        out.append(",{\"type\":\"section\",\"text\":{\"type\":\"mrkdwn\",\"text\":")
+                .append(JSONObject.quote(table.toString())).append("}}");
+        table.setLength(0);
+    }
+
+    private static void appendRow(StringBuilder t, Row r) {
+        int start = t.length();
+        t.append(r.label.length() > 12 ? r.label.substring(0, 12) : r.label);
+        pad(t, start + 13);
+        String n = Integer.toString(r.n);
+        for (int i = n.length(); i < 3; i++) t.append(' ');
+        t.append(n).append("  ");
+        int col = t.length();
+        range(t, r.memMin, r.memMax, 1);
+        pad(t, col + 13);
+        col = t.length();
+        range(t, r.tempMin, r.tempMax, 1);
+        pad(t, col + 13);
+        col = t.length();
+        t.append(r.battMin);
+        if (r.battMax != r.battMin) t.append('-').append(r.battMax);
+        pad(t, col + 9);
+        range(t, r.voltMin / 1000.0, r.voltMax / 1000.0, 2);
+        t.append('\n');
+    }
+
+    private static void range(StringBuilder t, double lo, double hi, int decimals) {
+        SlackFormat.appendFixed(t, lo, decimals);
+        if (!Double.isNaN(hi) && hi != lo) {
+            t.append('-');
+            SlackFormat.appendFixed(t, hi, decimals);
+        }
+    }
+
+    private static void pad(StringBuilder t, int to) {
+        while (t.length() < to) t.append(' ');
+        if (t.charAt(t.length() - 1) != ' ') t.append(' ');
+    }
+}
@@ -0,0 +1,145 @@
+package android_status.app;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Renders the one-line Slack status text from a template that is compiled once into literal and
+ * field segments. Dates go through DateTimeFormatters built at construction (immutable, so one
+ * instance is safe to share between threads); numbers are rounded with BigDecimal instead of
+ * parsing a String.format pattern on every call.
+ *
+ * Fields: {timeShort} {timeFull} {device} {mem} {temp} {battery} {voltage}.
+ */
+public class SlackFormat {
+    public static final String DEFAULT_TEMPLATE =
+            "[{timeShort}] [{timeFull}] NOTIFICATION [Camera {device}] MEM: {mem}% | {temp} | Battery: {battery}% | Voltage: {voltage}V";
+
+    private static final int LITERAL = 0, TIME_SHORT = 1, TIME_FULL = 2, DEVICE = 3, MEM = 4, TEMP = 5,
+            BATTERY = 6, VOLTAGE = 7;
+    private static final String[] FIELDS = {null, "timeShort", "timeFull", "device", "mem", "temp", "battery", "voltage"};
+
+    private final int[] kinds;
+    private final String[] literals;
+    private final DateTimeFormatter shortTime;
+    private final DateTimeFormatter fullTime;
+
+    public SlackFormat(ZoneId zone, Locale locale) {
+        this(DEFAULT_TEMPLATE, zone, locale);
+    }
+
+    /** @throws IllegalArgumentException for an unknown or unterminated field */
+    public SlackFormat(String template, ZoneId zone, Locale locale) {
+        List<Integer> k = new ArrayList<>();
+        List<String> lit = new ArrayList<>();
+        int i = 0;
+        while (i < template.length()) {
+            int open = template.indexOf('{', i);
+            if (open < 0) open = template.length();
+            if (open > i) {
+                k.add(LITERAL);
+                lit.add(template.substring(i, open));
+            }
+            if (open == template.length()) break;
+            int close = template.indexOf('}', open);
+            if (close < 0) throw new IllegalArgumentException("Unterminated field at " + open);
+            k.add(field(template.substring(open + 1, close)));
+            lit.add(null);
+            i = close + 1;
+        }
+        kinds = new int[k.size()];
+        for (int j = 0; j < kinds.length; j++) kinds[j] = k.get(j);
+        literals = lit.toArray(new String[0]);
+        shortTime = DateTimeFormatter.ofPattern("h:mm a", locale).withZone(zone);
+        fullTime = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", locale).withZone(zone);
+    }
+
+    public String line(MetricSample s) {
+        StringBuilder sb = new StringBuilder(128);
+        appendLine(sb, s);
+        return sb.toString();
+    }
+
+    public void appendLine(StringBuilder sb, MetricSample s) {
+        Instant at = null;
+        for (int j = 0; j < kinds.length; j++) {
+            switch (kinds[j]) {
+                case LITERAL:
+                    sb.append(literals[j]);
+                    break;
+                case TIME_SHORT:
+                    if (at == null) at = Instant.ofEpochMilli(s.timestampMs);
+                    shortTime.formatTo(at, sb);
+                    break;
+                case TIME_FULL:
+                    if (at == null) at = Instant.ofEpochMilli(s.timestampMs);
+                    fullTime.formatTo(at, sb);
+                    break;
+                case DEVICE:
+                    sb.append(deviceLabel(s));
+                    break;
+                case MEM:
+                    appendFixed(sb, s.memoryPct, 1);
+                    break;
+                case TEMP:
+                    if (s.tempC != null) {
+                        sb.append("temp=");
+                        appendFixed(sb, s.tempC, 1);
+                        sb.append("'C");
+                    } else {
+                        sb.append("temp=N/A");
+                    }
+                    break;
+                case BATTERY:
+                    sb.append(s.batteryPct);
+                    break;
+                case VOLTAGE:
+                    appendFixed(sb, s.voltageMv / 1000.0, 2);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /** Formats a wall-clock time with the cached "yyyy-MM-dd HH:mm:ss" formatter. */
+    public void appendFullTime(StringBuilder sb, long epochMs) {
+        fullTime.formatTo(Instant.ofEpochMilli(epochMs), sb);
+    }
+
+    /** Formats a wall-clock time with the cached "h:mm a" formatter. */
+    public void appendShortTime(StringBuilder sb, long epochMs) {
+        shortTime.formatTo(Instant.ofEpochMilli(epochMs), sb);
+    }
+
+    static String deviceLabel(MetricSample s) {
+        return s.deviceName != null ? s.deviceName : s.deviceId;
+    }
+
+    /**
+     * Same text as {@code String.format(Locale.US, "%.Nf", v)}: half-up rounding of the shortest decimal
+     * that identifies the double (so 4.015 gives "4.02"), and a sign kept on a value that rounds to zero
+     * ("-0.0"). NaN and infinities print as "N/A".
+     */
+    static void appendFixed(StringBuilder sb, double v, int decimals) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            sb.append("N/A");
+            return;
+        }
+        if (v < 0 || (v == 0 && 1 / v < 0)) sb.append('-');
+        sb.append(BigDecimal.valueOf(Math.abs(v)).setScale(decimals, RoundingMode.HALF_UP).toPlainString());
+    }
+
+    private static int field(String name) {
+        for (int i = 1; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(name)) return i;
+        }
+        throw new IllegalArgumentException("Unknown field {" + name + "}");
+    }
+}
@@ -7,33 +7,66 @@ import org.json.JSONObject;
 import java.io.IOException;
 
 import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 
 public class SlackPoster {
     private static final String TAG = "SlackPoster";
-    private static final OkHttpClient client = new OkHttpClient();
     private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    /** One post from the first attempt until retries are done; errors are posts that did not succeed. */
+    private static final InternalMetrics.Timer TIMER = InternalMetrics.timer("sink.slack");
 
-    public static boolean postToWebhook(String webhookUrl, String text) {
+    /**
+     * Posts a ready-made JSON body (plain text or Block Kit, see {@link SlackDigest}). Rate limiting
+     * (429 with Retry-After), 5xx and I/O errors are retried by {@link SinkResilience}; {@code done}
+     * only runs once the final attempt finished.
+     */
+    public static void postPayloadAsync(String webhookUrl, String jsonBody, SinkQueue.Completion done) {
+        long t0 = System.nanoTime();
+        Request req;
         try {
-            JSONObject j = new JSONObject();
-            j.put("text", text);
-            RequestBody body = RequestBody.create(j.toString(), JSON);
-            Request req = new Request.Builder().url(webhookUrl).post(body).build();
-            try (Response resp = client.newCall(req).execute()) {
-                boolean ok = resp.isSuccessful();
-                if (!ok) Log.w(TAG, "Slack post failed: " + resp.code() + " " + resp.message());
-                return ok;
-            }
-        } catch (IOException ex) {
-            Log.e(TAG, "IO error posting to slack", ex);
-            return false;
+            req = new Request.Builder().url(webhookUrl).post(RequestBody.create(jsonBody, JSON)).build();
         } catch (Exception ex) {
             Log.e(TAG, "Error posting to slack", ex);
-            return false;
+            finish(t0, false);
+            done.done(false);
+            return;
         }
+        SinkResilience.enqueue(req, new SinkResilience.Listener() {
+            @Override
+            public void onFailure(IOException ex) {
+                if (ex instanceof SinkResilience.CircuitOpenException) {
+                    Log.w(TAG, ex.getMessage() + "; not posting");
+                } else {
+                    Log.e(TAG, "IO error posting to slack", ex);
+                }
+                finish(t0, false);
+                done.done(false);
+            }
+
+            @Override
+            public void onResponse(Response resp) {
+                boolean ok;
+                try (Response r = resp) {
+                    ok = r.isSuccessful();
+                    if (!ok) Log.w(TAG, "Slack post failed: " + r.code() + " " + r.message());
+                }
+                finish(t0, ok);
+                done.done(ok);
+            }
+        });
+    }
+
+    /** {@code {"text": ...}} body for a plain message. */
+    public static String textPayload(String text) throws Exception {
+        JSONObject j = new JSONObject();
+        j.put("text", text);
+        return j.toString();
+    }
+
+    private static void finish(long startNs, boolean ok) {
+        TIMER.stop(startNs);
+        if (!ok) TIMER.error();
     }
 }
@@ -0,0 +1,151 @@
+package android_status.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs a set of {@link MetricSource}s for one sample: IO and blocking sources in parallel on a
+ * small pool, cheap ones inline, and everything bounded by a per-collection deadline.
+ *
+ * A source that misses the deadline, fails, or is still stuck in an earlier read does not hold up
+ * the sample: its last good reading is applied and the source is listed as stale, or as missing
+ * if it never produced one. A late read keeps running and its result is used next time. Readings
+ * younger than a source's cadence are reused without reading. Per-source timings, errors and late
+ * counts go to {@link InternalMetrics} as {@code source.<name>}.
+ */
+public class SourceCollector {
+    public static final class Config {
+        public long deadlineMs = 2_000L;
+    }
+
+    /** Which sources did not deliver a fresh reading for this sample. */
+    public static final class Result {
+        public final List<String> stale = new ArrayList<>(2);
+        public final List<String> missing = new ArrayList<>(2);
+
+        public boolean complete() {
+            return stale.isEmpty() && missing.isEmpty();
+        }
+    }
+
+    private static final class Slot {
+        final MetricSource source;
+        final InternalMetrics.Timer timer;
+        final InternalMetrics.Counter late;
+        volatile MetricSource.Reading last;
+        volatile long lastAtMs;
+        Future<Boolean> inFlight;
+        boolean fresh;
+
+        Slot(MetricSource source) {
+            this.source = source;
+            this.timer = InternalMetrics.timer("source." + source.name());
+            this.late = InternalMetrics.counter("source." + source.name() + ".late");
+        }
+    }
+
+    private final Config config;
+    private final LongSupplier clockMs;
+    private final List<Slot> slots = new ArrayList<>();
+    private final ThreadPoolExecutor pool;
+
+    /** @param clockMs monotonic clock used for cadence, e.g. SystemClock::elapsedRealtime */
+    public SourceCollector(List<MetricSource> sources, Config config, LongSupplier clockMs) {
+        this.config = config;
+        this.clockMs = clockMs;
+        int pooled = 0;
+        for (MetricSource s : sources) {
+            slots.add(new Slot(s));
+            if (s.cost() != MetricSource.Cost.CHEAP) pooled++;
+        }
+        // one thread per pooled source: a stuck source is never resubmitted, so it holds at most one
+        AtomicInteger n = new AtomicInteger();
+        pool = new ThreadPoolExecutor(Math.max(1, pooled), Math.max(1, pooled), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "source-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /** Collects with the configured deadline. Call from one thread at a time. */
+    public Result collect(MetricSample into) {
+        return collect(into, config.deadlineMs);
+    }
+
+    /** @param deadlineMs how long pooled sources may take, measured from this call */
+    public Result collect(MetricSample into, long deadlineMs) {
+        long deadlineNs = System.nanoTime() + deadlineMs * 1_000_000L;
+        long now = clockMs.getAsLong();
+        Result result = new Result();
+        List<Slot> waiting = new ArrayList<>(slots.size());
+        for (Slot slot : slots) {
+            slot.fresh = false;
+            long cadence = slot.source.cadenceMs();
+            if (slot.last != null && cadence > 0 && now - slot.lastAtMs < cadence) {
+                slot.fresh = true;
+            } else if (slot.inFlight != null && !slot.inFlight.isDone()) {
+                slot.late.inc(); // still stuck in an earlier read
+            } else if (slot.source.cost() != MetricSource.Cost.CHEAP) {
+                slot.inFlight = pool.submit(() -> read(slot));
+                waiting.add(slot);
+            }
+        }
+        for (Slot slot : slots) {
+            if (!slot.fresh && slot.source.cost() == MetricSource.Cost.CHEAP && slot.inFlight == null) {
+                slot.fresh = read(slot);
+            }
+        }
+        for (Slot slot : waiting) {
+            try {
+                slot.fresh = slot.inFlight.get(Math.max(0, deadlineNs - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                slot.late.inc();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException ex) {
+                slot.timer.error();
+            }
+        }
+        for (Slot slot : slots) {
+            MetricSource.Reading r = slot.last;
+            if (r != null) r.applyTo(into);
+            if (!slot.fresh) (r != null ? result.stale : result.missing).add(slot.source.name());
+        }
+        return result;
+    }
+
+    /** Stops the pool; reads still running are interrupted. */
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private boolean read(Slot slot) {
+        long t0 = System.nanoTime();
+        try {
+            MetricSource.Reading r = slot.source.read();
+            if (r == null) {
+                slot.timer.error();
+                return false;
+            }
+            slot.last = r;
+            slot.lastAtMs = clockMs.getAsLong();
+            return true;
+        } catch (Exception ex) {
+            slot.timer.error();
+            return false;
+        } finally {
+            slot.timer.stop(t0);
+        }
+    }
+}
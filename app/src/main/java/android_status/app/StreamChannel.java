@@ -0,0 +1,341 @@
+package android_status.app;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/**
+ * Optional long-lived WebSocket to the backend: outbox batches go up as binary frames, and the
+ * backend pushes commands down as text frames without waiting for FCM.
+ *
+ * Frames, client to server:
+ * <ul>
+ *   <li>text {@code {"type":"hello","deviceId":"..."}} once per connection;</li>
+ *   <li>binary batch: {@code id} (8 bytes, big-endian), content-type length (1 byte), content type
+ *       (ASCII), then the same body an HTTP post would carry (JSON or binary batch).</li>
+ * </ul>
+ * Server to client, text JSON:
+ * <ul>
+ *   <li>{@code {"type":"ack","id":N}} once batch N is stored ({@code "ok":false} rejects it);</li>
+ *   <li>anything else is a command, with the same fields as an FCM data message
+ *       (e.g. {@code {"type":"REQUEST_LOCATION","requestId":"..."}}).</li>
+ * </ul>
+ * A batch counts as sent only when its ack arrives within {@code ackTimeoutMs}; until then the
+ * outbox keeps it, so delivery is at least once as with HTTP. Heartbeats are WebSocket pings every
+ * {@code pingIntervalMs}; a missed pong fails the socket. A failed or closed socket fails every
+ * unacked batch and reconnects after a decorrelated-jitter backoff (see {@link SinkResilience}).
+ * Pure Java on OkHttp, so it runs against a local MockWebServer.
+ */
+public class StreamChannel implements OutboxUploader.AsyncBatchSender {
+    public static final class Config {
+        public long pingIntervalMs = 60_000L;
+        public long connectTimeoutMs = 15_000L;
+        public long ackTimeoutMs = 10_000L;
+        public long minReconnectMs = 1_000L;
+        public long maxReconnectMs = 5 * 60_000L;
+    }
+
+    public interface Listener {
+        /** Reader thread; hand real work off. */
+        void onCommand(JSONObject command);
+
+        void onStateChanged(boolean open);
+    }
+
+    private static final InternalMetrics.Counter CONNECTS = InternalMetrics.counter("stream.connects");
+    private static final InternalMetrics.Counter FAILURES = InternalMetrics.counter("stream.failures");
+    private static final InternalMetrics.Counter COMMANDS = InternalMetrics.counter("stream.commands");
+    private static final InternalMetrics.Counter ACK_TIMEOUTS = InternalMetrics.counter("stream.ackTimeouts");
+    /** Batch frame sent to ack received. */
+    private static final InternalMetrics.Timer ACK_TIMER = InternalMetrics.timer("stream.ack");
+
+    private final String url;
+    private final String apiKey;
+    private final String deviceId;
+    private final Config config;
+    private final Listener listener;
+    private final OkHttpClient client;
+    private final SinkResilience.Config backoff = new SinkResilience.Config();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "stream-channel");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private WebSocket socket;
+    private boolean open;
+    private boolean stopped = true;
+    private boolean closed;
+    private long nextId = 1;
+    private long reconnectDelayMs;
+    private ScheduledFuture<?> reconnect;
+    private final Map<Long, Pending> unacked = new HashMap<>();
+
+    private static final class Pending {
+        final SinkQueue.Completion done;
+        final long sentNs;
+        final ScheduledFuture<?> timeout;
+
+        Pending(SinkQueue.Completion done, long sentNs, ScheduledFuture<?> timeout) {
+            this.done = done;
+            this.sentNs = sentNs;
+            this.timeout = timeout;
+        }
+    }
+
+    /** @param url {@code ws://} or {@code wss://} */
+    public StreamChannel(String url, String apiKey, String deviceId, Config config, Listener listener) {
+        this.url = url;
+        this.apiKey = apiKey;
+        this.deviceId = deviceId;
+        this.config = config;
+        this.listener = listener;
+        // shares the connection pool and dispatcher with the HTTP sinks
+        this.client = HttpTransport.client().newBuilder()
+                .pingInterval(config.pingIntervalMs, TimeUnit.MILLISECONDS)
+                .connectTimeout(config.connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .socketFactory(new NoDelaySocketFactory())
+                .build();
+        backoff.baseDelayMs = config.minReconnectMs;
+        backoff.maxDelayMs = config.maxReconnectMs;
+    }
+
+    /** Connects and keeps reconnecting until {@link #stop}. */
+    public synchronized void start() {
+        if (closed || !stopped) return;
+        stopped = false;
+        connect();
+    }
+
+    /** Closes the socket for good; unacked batches fail so the outbox keeps them. */
+    public void stop() {
+        WebSocket ws;
+        List<Pending> failed;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            stopped = true;
+            if (reconnect != null) reconnect.cancel(false);
+            ws = socket;
+            socket = null;
+            failed = takeUnacked();
+            open = false;
+        }
+        if (ws != null) ws.close(1000, "stopping");
+        fail(failed);
+        timer.shutdownNow();
+    }
+
+    /** Skips the rest of the reconnect backoff, e.g. when an FCM wake-up says the backend wants us. */
+    public synchronized void connectNow() {
+        if (stopped || socket != null) return;
+        if (reconnect != null) reconnect.cancel(false);
+        connect();
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /** Sends one batch frame; {@code done} runs on the ack, a rejection, a timeout or a socket failure. */
+    @Override
+    public void send(byte[] body, String contentType, int records, SinkQueue.Completion done) {
+        ByteString frame;
+        long id;
+        WebSocket ws;
+        synchronized (this) {
+            ws = open ? socket : null;
+            if (ws == null) {
+                frame = null;
+                id = 0;
+            } else {
+                id = nextId++;
+                frame = frame(id, contentType, body);
+                ScheduledFuture<?> timeout = timer.schedule(() -> onAckTimeout(id), config.ackTimeoutMs,
+                        TimeUnit.MILLISECONDS);
+                unacked.put(id, new Pending(done, System.nanoTime(), timeout));
+            }
+        }
+        if (ws == null) {
+            done.done(false);
+            return;
+        }
+        // false means the socket is closing or its outgoing buffer is full; the failure path fails it
+        if (!ws.send(frame)) complete(id, false);
+    }
+
+    static ByteString frame(long id, String contentType, byte[] body) {
+        byte[] ct = contentType.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer b = ByteBuffer.allocate(8 + 1 + ct.length + body.length);
+        b.putLong(id).put((byte) ct.length).put(ct).put(body);
+        return ByteString.of(b.array());
+    }
+
+    private void connect() {
+        Request.Builder b = new Request.Builder().url(url);
+        if (apiKey != null && !apiKey.isEmpty()) b.header("Authorization", "Bearer " + apiKey);
+        socket = client.newWebSocket(b.build(), new Events());
+    }
+
+    private final class Events extends WebSocketListener {
+        @Override
+        public void onOpen(WebSocket ws, Response response) {
+            synchronized (StreamChannel.this) {
+                if (socket != ws) return;
+                open = true;
+                reconnectDelayMs = 0;
+            }
+            CONNECTS.inc();
+            try {
+                ws.send(new JSONObject().put("type", "hello").put("deviceId", deviceId).toString());
+            } catch (JSONException ignored) {
+            }
+            listener.onStateChanged(true);
+        }
+
+        @Override
+        public void onMessage(WebSocket ws, String text) {
+            JSONObject msg;
+            try {
+                msg = new JSONObject(text);
+            } catch (JSONException ex) {
+                return;
+            }
+            if ("ack".equals(msg.optString("type"))) {
+                complete(msg.optLong("id"), msg.optBoolean("ok", true));
+            } else {
+                COMMANDS.inc();
+                listener.onCommand(msg);
+            }
+        }
+
+        @Override
+        public void onClosing(WebSocket ws, int code, String reason) {
+            ws.close(1000, null);
+        }
+
+        @Override
+        public void onClosed(WebSocket ws, int code, String reason) {
+            dropped(ws);
+        }
+
+        @Override
+        public void onFailure(WebSocket ws, Throwable t, Response response) {
+            FAILURES.inc();
+            dropped(ws);
+        }
+    }
+
+    private void dropped(WebSocket ws) {
+        List<Pending> failed;
+        boolean wasOpen;
+        synchronized (this) {
+            if (socket != ws) return;
+            socket = null;
+            wasOpen = open;
+            open = false;
+            failed = takeUnacked();
+            if (!stopped) {
+                reconnectDelayMs = SinkResilience.jitter(reconnectDelayMs, backoff);
+                reconnect = timer.schedule(this::reconnect, reconnectDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        fail(failed);
+        if (wasOpen) listener.onStateChanged(false);
+    }
+
+    private synchronized void reconnect() {
+        if (!stopped && socket == null) connect();
+    }
+
+    private void onAckTimeout(long id) {
+        ACK_TIMEOUTS.inc();
+        complete(id, false);
+    }
+
+    private void complete(long id, boolean ok) {
+        Pending p;
+        synchronized (this) {
+            p = unacked.remove(id);
+        }
+        if (p == null) return;
+        p.timeout.cancel(false);
+        ACK_TIMER.stop(p.sentNs);
+        if (!ok) ACK_TIMER.error();
+        p.done.done(ok);
+    }
+
+    private List<Pending> takeUnacked() {
+        List<Pending> all = new ArrayList<>(unacked.values());
+        unacked.clear();
+        return all;
+    }
+
+    private static void fail(List<Pending> failed) {
+        for (Pending p : failed) {
+            p.timeout.cancel(false);
+            p.done.done(false);
+        }
+    }
+
+    /**
+     * Frames are written as header and payload; with Nagle on, the payload of a large frame waits
+     * for the peer's delayed ACK of the header (about 40 ms per batch on loopback).
+     */
+    private static final class NoDelaySocketFactory extends SocketFactory {
+        private final SocketFactory base = SocketFactory.getDefault();
+
+        private static Socket noDelay(Socket s) throws IOException {
+            s.setTcpNoDelay(true);
+            return s;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return noDelay(base.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return noDelay(base.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return noDelay(base.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return noDelay(base.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port, InetAddress localHost, int localPort) throws IOException {
+            return noDelay(base.createSocket(host, port, localHost, localPort));
+        }
+    }
+}
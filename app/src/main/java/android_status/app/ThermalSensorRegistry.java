@@ -0,0 +1,149 @@
+package android_status.app;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Picks one temperature sensor and remembers its path so each sample costs a single read.
+ *
+ * Ranking matches the original scan in MetricsCollector: the first thermal zone whose type looks
+ * CPU-like (cpu, ap, a7, a53, soc) wins, otherwise the first zone with a positive reading, otherwise
+ * the first hwmon temp*_input with a positive reading. Discovery runs again after
+ * {@code rediscoverMs}, or immediately when the chosen sensor stops returning a valid value.
+ */
+public class ThermalSensorRegistry {
+    public static final long DEFAULT_REDISCOVER_MS = 10 * 60_000L;
+    /** How long to wait before probing again when no sensor was found at all. */
+    private static final long EMPTY_RETRY_MS = 60_000L;
+    private static final byte[][] PREFERRED_TYPES = {
+            {'c', 'p', 'u'}, {'a', 'p'}, {'a', '7'}, {'a', '5', '3'}, {'s', 'o', 'c'}
+    };
+
+    private final ProcParser parser;
+    private final long rediscoverMs;
+    private String chosenPath;
+    private long nextDiscoveryMs = Long.MIN_VALUE;
+    private int discoveries;
+
+    public ThermalSensorRegistry(ProcParser parser) {
+        this(parser, DEFAULT_REDISCOVER_MS);
+    }
+
+    public ThermalSensorRegistry(ProcParser parser, long rediscoverMs) {
+        this.parser = parser;
+        this.rediscoverMs = rediscoverMs;
+    }
+
+    /** @return degrees Celsius from the chosen sensor, or NaN when no usable sensor exists */
+    public double read() {
+        return read(System.nanoTime() / 1_000_000L);
+    }
+
+    public double read(long nowMs) {
+        synchronized (parser) {
+            // with no sensor at all this waits EMPTY_RETRY_MS rather than probing on every read
+            if (nowMs >= nextDiscoveryMs) {
+                discover(nowMs);
+            }
+            if (chosenPath == null) return Double.NaN;
+            double v = parser.readTempCelsius(chosenPath);
+            if (Double.isNaN(v) || v <= 0) {
+                // sensor went away or reports garbage; probe once more right now
+                discover(nowMs);
+                if (chosenPath == null) return Double.NaN;
+                v = parser.readTempCelsius(chosenPath);
+                if (Double.isNaN(v) || v <= 0) return Double.NaN;
+            }
+            return v;
+        }
+    }
+
+    /** Forces a fresh probe on the next read. */
+    public void invalidate() {
+        synchronized (parser) {
+            nextDiscoveryMs = Long.MIN_VALUE;
+        }
+    }
+
+    /** @return the sensor file currently in use, relative to the parser root, or null */
+    public String chosenPath() {
+        synchronized (parser) {
+            return chosenPath;
+        }
+    }
+
+    public int discoveryCount() {
+        synchronized (parser) {
+            return discoveries;
+        }
+    }
+
+    private void discover(long nowMs) {
+        discoveries++;
+        String previous = chosenPath;
+        chosenPath = probeThermalZones();
+        if (chosenPath == null) chosenPath = probeHwmon();
+        if (previous != null && !previous.equals(chosenPath)) parser.forget(previous);
+        nextDiscoveryMs = nowMs + (chosenPath != null ? rediscoverMs : EMPTY_RETRY_MS);
+    }
+
+    private String probeThermalZones() {
+        String[] zones = parser.file("/sys/class/thermal").list((dir, name) -> name.startsWith("thermal_zone"));
+        if (zones == null) return null;
+        Arrays.sort(zones, ThermalSensorRegistry::compareNumericSuffix);
+        String firstValid = null;
+        for (String z : zones) {
+            String temp = "/sys/class/thermal/" + z + "/temp";
+            String type = "/sys/class/thermal/" + z + "/type";
+            double v = parser.readTempCelsius(temp);
+            boolean preferred = !Double.isNaN(v) && v > 0 && parser.firstLineContainsAny(type, PREFERRED_TYPES);
+            parser.forget(type);
+            if (preferred) {
+                if (firstValid != null) parser.forget(firstValid);
+                return temp;
+            }
+            if (firstValid == null && !Double.isNaN(v) && v > 0) {
+                firstValid = temp;
+            } else {
+                parser.forget(temp);
+            }
+        }
+        return firstValid;
+    }
+
+    private String probeHwmon() {
+        String[] hmons = parser.file("/sys/class/hwmon").list();
+        if (hmons == null) return null;
+        Arrays.sort(hmons, ThermalSensorRegistry::compareNumericSuffix);
+        for (String hm : hmons) {
+            File dir = parser.file("/sys/class/hwmon/" + hm);
+            String[] inputs = dir.list((d, name) -> name.startsWith("temp") && name.endsWith("_input"));
+            if (inputs == null) continue;
+            Arrays.sort(inputs, ThermalSensorRegistry::compareNumericSuffix);
+            for (String in : inputs) {
+                String path = "/sys/class/hwmon/" + hm + "/" + in;
+                double v = parser.readTempCelsius(path);
+                if (!Double.isNaN(v) && v > 0) return path;
+                parser.forget(path);
+            }
+        }
+        return null;
+    }
+
+    /** Orders thermal_zone2 before thermal_zone10 so ranking does not depend on directory order. */
+    private static int compareNumericSuffix(String a, String b) {
+        int na = firstNumber(a), nb = firstNumber(b);
+        if (na != nb) return Integer.compare(na, nb);
+        return a.compareTo(b);
+    }
+
+    private static int firstNumber(String s) {
+        int i = 0;
+        while (i < s.length() && !Character.isDigit(s.charAt(i))) i++;
+        int v = 0;
+        while (i < s.length() && Character.isDigit(s.charAt(i)) && v < 100_000_000) {
+            v = v * 10 + (s.charAt(i++) - '0');
+        }
+        return v;
+    }
+}
@@ -0,0 +1,277 @@
+package android_status.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * On-device metric history in one fixed-size memory-mapped file, so memory and disk use stay
+ * constant however long the device runs.
+ *
+ * The file holds four rings: raw samples plus 1-minute, 1-hour and 1-day rollups. Every
+ * {@link #append} writes one raw record and folds the values into the open bucket of each rollup
+ * in place (min, max, sum, count per metric), so rollups cost no extra pass and no allocation.
+ * When a ring is full its oldest record is overwritten. Ring positions live in the file header;
+ * after a restart the history is still there.
+ *
+ * <pre>
+ * header (128 bytes): magic "ATS1", version, 4 x (capacity, recordSize, head, count)
+ * raw record (32):    long timestampMs, 5 x float value          NaN = not measured
+ * rollup record (112): long bucketStartMs, 5 x (float min, float max, double sum, int count)
+ * </pre>
+ * Metric order is {@link Metric#ordinal()}. Samples older than a rollup's open bucket are kept in
+ * the raw ring but not rolled up.
+ */
+public class TimeSeriesStore {
+    public enum Metric {
+        MEMORY("memoryPct"), CPU("cpuPct"), TEMP("tempC"), BATTERY("batteryPct"), VOLTAGE("voltageV");
+
+        /** Name in the API payload. */
+        public final String field;
+
+        Metric(String field) {
+            this.field = field;
+        }
+    }
+
+    public enum Resolution {
+        RAW(0), MINUTE(60_000L), HOUR(3_600_000L), DAY(86_400_000L);
+
+        public final long bucketMs;
+
+        Resolution(long bucketMs) {
+            this.bucketMs = bucketMs;
+        }
+
+        /** "raw", "minute", "hour" or "day", any case; null for anything else. */
+        public static Resolution parse(String name) {
+            for (Resolution r : values()) {
+                if (r.name().equalsIgnoreCase(name)) return r;
+            }
+            return null;
+        }
+    }
+
+    public static final class Config {
+        /** 24 hours at the sampler's 10 s floor ({@link AdaptiveSampler.Config#minIntervalMs}). */
+        public int rawCapacity = 8640;
+        /** 2 days. */
+        public int minuteCapacity = 2880;
+        /** 30 days. */
+        public int hourCapacity = 720;
+        /** 2 years. */
+        public int dayCapacity = 730;
+    }
+
+    /** Result of a range query; for RAW, min == max == avg and count is 0 or 1. */
+    public static final class Series {
+        public final Resolution resolution;
+        public final int size;
+        public final long[] timestampMs;
+        /** Indexed [metric ordinal][point]; NaN where a metric had no values. */
+        public final float[][] min;
+        public final float[][] max;
+        public final float[][] avg;
+        public final int[][] count;
+
+        Series(Resolution resolution, int size) {
+            this.resolution = resolution;
+            this.size = size;
+            this.timestampMs = new long[size];
+            this.min = new float[METRICS][size];
+            this.max = new float[METRICS][size];
+            this.avg = new float[METRICS][size];
+            this.count = new int[METRICS][size];
+        }
+    }
+
+    private static final int MAGIC = 0x41545331; // "ATS1"
+    private static final int VERSION = 1;
+    private static final int HEADER = 128;
+    private static final int METRICS = Metric.values().length;
+    private static final int RAW_RECORD = 32;
+    private static final int STAT = 20;
+    private static final int ROLLUP_RECORD = 112;
+    private static final Resolution[] TIERS = Resolution.values();
+
+    private final MappedByteBuffer map;
+    private final int[] capacity = new int[TIERS.length];
+    private final int[] recordSize = new int[TIERS.length];
+    private final int[] offset = new int[TIERS.length];
+    private final int[] head = new int[TIERS.length];
+    private final int[] count = new int[TIERS.length];
+    private final float[] values = new float[METRICS];
+    private long dropped;
+
+    public TimeSeriesStore(File file, Config config) throws IOException {
+        capacity[0] = config.rawCapacity;
+        capacity[1] = config.minuteCapacity;
+        capacity[2] = config.hourCapacity;
+        capacity[3] = config.dayCapacity;
+        int pos = HEADER;
+        for (int t = 0; t < TIERS.length; t++) {
+            if (capacity[t] < 1) throw new IllegalArgumentException("capacity must be positive: " + TIERS[t]);
+            recordSize[t] = t == 0 ? RAW_RECORD : ROLLUP_RECORD;
+            offset[t] = pos;
+            pos += capacity[t] * recordSize[t];
+        }
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel ch = raf.getChannel()) {
+            // the mapping stays valid after the channel is closed
+            map = ch.map(FileChannel.MapMode.READ_WRITE, 0, pos);
+        }
+        if (!loadHeader()) {
+            for (int t = 0; t < TIERS.length; t++) {
+                head[t] = 0;
+                count[t] = 0;
+            }
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            writeHeader();
+        }
+    }
+
+    /** Adds one sample; pass NaN for a metric that was not measured. */
+    public synchronized void append(long tsMs, double memoryPct, double cpuPct, double tempC, double batteryPct,
+                                    double voltageV) {
+        values[0] = (float) memoryPct;
+        values[1] = (float) cpuPct;
+        values[2] = (float) tempC;
+        values[3] = (float) batteryPct;
+        values[4] = (float) voltageV;
+
+        int at = slot(0, head[0]);
+        map.putLong(at, tsMs);
+        for (int m = 0; m < METRICS; m++) map.putFloat(at + 8 + m * 4, values[m]);
+        advance(0);
+
+        for (int t = 1; t < TIERS.length; t++) {
+            long bucket = tsMs - Math.floorMod(tsMs, TIERS[t].bucketMs);
+            int cur = count[t] > 0 ? slot(t, head[t] - 1) : -1;
+            long curStart = cur >= 0 ? map.getLong(cur) : Long.MIN_VALUE;
+            if (bucket < curStart) {
+                dropped++;
+                continue;
+            }
+            if (bucket > curStart) {
+                cur = slot(t, head[t]);
+                map.putLong(cur, bucket);
+                for (int m = 0; m < METRICS; m++) {
+                    int s = cur + 8 + m * STAT;
+                    map.putFloat(s, Float.NaN);
+                    map.putFloat(s + 4, Float.NaN);
+                    map.putDouble(s + 8, 0.0);
+                    map.putInt(s + 16, 0);
+                }
+                advance(t);
+            }
+            for (int m = 0; m < METRICS; m++) {
+                float v = values[m];
+                if (Float.isNaN(v)) continue;
+                int s = cur + 8 + m * STAT;
+                int n = map.getInt(s + 16);
+                float lo = map.getFloat(s);
+                float hi = map.getFloat(s + 4);
+                map.putFloat(s, n == 0 || v < lo ? v : lo);
+                map.putFloat(s + 4, n == 0 || v > hi ? v : hi);
+                map.putDouble(s + 8, map.getDouble(s + 8) + v);
+                map.putInt(s + 16, n + 1);
+            }
+        }
+        writeHeader();
+    }
+
+    /** Convenience for a collected sample; missing values are stored as NaN. */
+    public void append(MetricSample s) {
+        append(s.timestampMs, s.memoryPct, s.cpuPct != null ? s.cpuPct : Double.NaN,
+                s.tempC != null ? s.tempC : Double.NaN, s.batteryPct, s.voltageMv / 1000.0);
+    }
+
+    /** @return points with {@code fromMs <= timestamp < toMs}, oldest first, read in one pass */
+    public synchronized Series query(Resolution res, long fromMs, long toMs) {
+        int t = res.ordinal();
+        int n = count[t];
+        int first = head[t] - n;
+        int matches = 0;
+        for (int i = 0; i < n; i++) {
+            long ts = map.getLong(slot(t, first + i));
+            if (ts >= fromMs && ts < toMs) matches++;
+        }
+        Series out = new Series(res, matches);
+        int k = 0;
+        for (int i = 0; i < n && k < matches; i++) {
+            int at = slot(t, first + i);
+            long ts = map.getLong(at);
+            if (ts < fromMs || ts >= toMs) continue;
+            out.timestampMs[k] = ts;
+            for (int m = 0; m < METRICS; m++) {
+                if (t == 0) {
+                    float v = map.getFloat(at + 8 + m * 4);
+                    out.min[m][k] = v;
+                    out.max[m][k] = v;
+                    out.avg[m][k] = v;
+                    out.count[m][k] = Float.isNaN(v) ? 0 : 1;
+                } else {
+                    int s = at + 8 + m * STAT;
+                    int c = map.getInt(s + 16);
+                    out.min[m][k] = map.getFloat(s);
+                    out.max[m][k] = map.getFloat(s + 4);
+                    out.avg[m][k] = c > 0 ? (float) (map.getDouble(s + 8) / c) : Float.NaN;
+                    out.count[m][k] = c;
+                }
+            }
+            k++;
+        }
+        return out;
+    }
+
+    public synchronized int size(Resolution res) {
+        return count[res.ordinal()];
+    }
+
+    /** Samples that arrived too late for a rollup's open bucket (e.g. after a clock step back). */
+    public synchronized long droppedFromRollups() {
+        return dropped;
+    }
+
+    /** Flushes dirty pages to storage; the OS does this anyway, this just bounds the loss on power-off. */
+    public synchronized void flush() {
+        map.force();
+    }
+
+    private int slot(int tier, int index) {
+        return offset[tier] + Math.floorMod(index, capacity[tier]) * recordSize[tier];
+    }
+
+    private void advance(int tier) {
+        head[tier] = (head[tier] + 1) % capacity[tier];
+        if (count[tier] < capacity[tier]) count[tier]++;
+    }
+
+    private boolean loadHeader() {
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) return false;
+        for (int t = 0; t < TIERS.length; t++) {
+            int at = 8 + t * 16;
+            if (map.getInt(at) != capacity[t] || map.getInt(at + 4) != recordSize[t]) return false;
+            int h = map.getInt(at + 8);
+            int c = map.getInt(at + 12);
+            if (h < 0 || h >= capacity[t] || c < 0 || c > capacity[t]) return false;
+            head[t] = h;
+            count[t] = c;
+        }
+        return true;
+    }
+
+    private void writeHeader() {
+        for (int t = 0; t < TIERS.length; t++) {
+            int at = 8 + t * 16;
+            map.putInt(at, capacity[t]);
+            map.putInt(at + 4, recordSize[t]);
+            map.putInt(at + 8, head[t]);
+            map.putInt(at + 12, count[t]);
+        }
+    }
+}
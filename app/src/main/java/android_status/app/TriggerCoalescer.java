@@ -0,0 +1,97 @@
+package android_status.app;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges on-demand triggers (FCM REQUEST_LOCATION) into shared collections.
+ *
+ * The first trigger after a drain opens a batch and tells the caller to schedule one collection;
+ * every trigger that arrives before that collection calls {@link #drain()} joins the batch and is
+ * answered by the same sample. Request ids seen recently are dropped as duplicates, since FCM may
+ * redeliver a message.
+ */
+public class TriggerCoalescer {
+    /** The triggers one collection answers. */
+    public static final class Batch {
+        public final String[] requestIds;
+        /** Wall-clock receipt time of the earliest trigger in the batch. */
+        public final long firstReceivedMs;
+        public final int triggers;
+
+        Batch(String[] requestIds, long firstReceivedMs, int triggers) {
+            this.requestIds = requestIds;
+            this.firstReceivedMs = firstReceivedMs;
+            this.triggers = triggers;
+        }
+    }
+
+    private static final int RECENT_IDS = 128;
+
+    private final List<String> pendingIds = new ArrayList<>();
+    private int pendingTriggers;
+    private long firstReceivedMs;
+    private final Map<String, Boolean> recent = new LinkedHashMap<String, Boolean>(RECENT_IDS, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_IDS;
+        }
+    };
+
+    private long received;
+    private long merged;
+    private long duplicates;
+    private long batches;
+
+    /**
+     * @param requestId id echoed back in the payload, or null if the sender supplied none
+     * @return true if this trigger opened a new batch and the caller must schedule a collection
+     */
+    public synchronized boolean offer(String requestId, long nowMs) {
+        if (requestId != null && recent.put(requestId, Boolean.TRUE) != null) {
+            duplicates++;
+            return false;
+        }
+        received++;
+        if (requestId != null) pendingIds.add(requestId);
+        if (pendingTriggers++ > 0) {
+            merged++;
+            return false;
+        }
+        firstReceivedMs = nowMs;
+        return true;
+    }
+
+    /** Closes the current batch; triggers after this open a new one. @return null if none is pending */
+    public synchronized Batch drain() {
+        if (pendingTriggers == 0) return null;
+        Batch b = new Batch(pendingIds.toArray(new String[0]), firstReceivedMs, pendingTriggers);
+        pendingIds.clear();
+        pendingTriggers = 0;
+        batches++;
+        return b;
+    }
+
+    public synchronized boolean pending() {
+        return pendingTriggers > 0;
+    }
+
+    public synchronized long received() {
+        return received;
+    }
+
+    /** Triggers answered by a collection another trigger had already scheduled. */
+    public synchronized long merged() {
+        return merged;
+    }
+
+    public synchronized long duplicates() {
+        return duplicates;
+    }
+
+    public synchronized long batches() {
+        return batches;
+    }
+}
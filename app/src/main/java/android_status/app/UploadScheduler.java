@@ -0,0 +1,127 @@
+package android_status.app;
+
+/**
+ * Decides when held uploads go out, so a metered radio is woken as rarely as possible.
+ *
+ * Non-urgent uploads wait until one of:
+ * <ul>
+ *   <li>the default network is unmetered (Wi-Fi, Ethernet): sending costs no radio wakeup;</li>
+ *   <li>the radio reports itself active for other traffic: the uploads ride its existing tail;</li>
+ *   <li>the oldest held upload reaches {@code maxLatencyMs};</li>
+ *   <li>a sink's held queue is about to overflow (see {@link #onQueueFull}), so nothing is dropped.</li>
+ * </ul>
+ * An urgent upload (e.g. an FCM request or a power alert) flushes everything at once. Nothing is
+ * flushed while there is no network; an urgent upload or a deadline that passed offline flushes
+ * on reconnect.
+ *
+ * Saved wakeups: an upload offered on a metered network with an idle radio would have woken the
+ * radio on its own; a flush that then goes out on an unmetered network or an active radio saves
+ * all of those, and one that has to wake the radio itself saves all but one.
+ * Pure Java; the caller passes time and connectivity in.
+ */
+public class UploadScheduler {
+    public enum Reason { URGENT, UNMETERED, RADIO_ACTIVE, DEADLINE, QUEUE_FULL }
+
+    public static final class Config {
+        /** Longest a non-urgent upload is held; 0 sends everything immediately. */
+        public long maxLatencyMs = 5 * 60_000L;
+    }
+
+    private final Config config;
+    private boolean connected = true;
+    private boolean metered = true;
+    private int pending;
+    private int wouldWake;
+    /** An urgent upload arrived while offline. */
+    private boolean urgentHeld;
+    private long oldestMs;
+    private long wakeupsSaved;
+    private long wakeupsSpent;
+    private final long[] flushes = new long[Reason.values().length];
+
+    public UploadScheduler(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Registers one held upload.
+     * @param radioActive whether the radio is currently active for other traffic
+     * @return a reason if everything should be flushed now, else null (keep holding)
+     */
+    public synchronized Reason offer(long nowMs, boolean urgent, boolean radioActive) {
+        if (pending == 0) oldestMs = nowMs;
+        pending++;
+        if (connected && metered && !radioActive) wouldWake++;
+        if (!connected) {
+            urgentHeld |= urgent;
+            return null;
+        }
+        if (urgent) return Reason.URGENT;
+        if (!metered) return Reason.UNMETERED;
+        if (radioActive) return Reason.RADIO_ACTIVE;
+        if (nowMs - oldestMs >= config.maxLatencyMs) return Reason.DEADLINE;
+        return null;
+    }
+
+    /** Default network changed. @return a reason to flush now, else null */
+    public synchronized Reason onNetwork(long nowMs, boolean connected, boolean metered) {
+        this.connected = connected;
+        this.metered = metered;
+        if (pending == 0 || !connected) return null;
+        if (urgentHeld) return Reason.URGENT;
+        if (!metered) return Reason.UNMETERED;
+        if (nowMs - oldestMs >= config.maxLatencyMs) return Reason.DEADLINE;
+        return null;
+    }
+
+    /** The radio became active for someone else's traffic. @return a reason to flush now, else null */
+    public synchronized Reason onRadioActive() {
+        return pending > 0 && connected ? Reason.RADIO_ACTIVE : null;
+    }
+
+    /** A sink can hold only a few more items. @return a reason to flush now, else null */
+    public synchronized Reason onQueueFull() {
+        return pending > 0 && connected ? Reason.QUEUE_FULL : null;
+    }
+
+    /** Call at {@link #nextDeadlineMs()}. @return {@link Reason#DEADLINE} if the oldest upload is due */
+    public synchronized Reason tick(long nowMs) {
+        return pending > 0 && connected && nowMs - oldestMs >= config.maxLatencyMs ? Reason.DEADLINE : null;
+    }
+
+    /** @return when the oldest held upload is due, or -1 if nothing is held */
+    public synchronized long nextDeadlineMs() {
+        return pending > 0 ? oldestMs + config.maxLatencyMs : -1;
+    }
+
+    /**
+     * The caller released everything held.
+     * @param radioActive whether the radio was already active when the flush went out
+     */
+    public synchronized void flushed(Reason reason, boolean radioActive) {
+        if (pending == 0) return;
+        boolean wakes = metered && !radioActive && reason != Reason.UNMETERED;
+        if (wakes) wakeupsSpent++;
+        wakeupsSaved += Math.max(0, wouldWake - (wakes ? 1 : 0));
+        flushes[reason.ordinal()]++;
+        pending = 0;
+        wouldWake = 0;
+        urgentHeld = false;
+    }
+
+    public synchronized int pending() {
+        return pending;
+    }
+
+    public synchronized long wakeupsSaved() {
+        return wakeupsSaved;
+    }
+
+    public synchronized long wakeupsSpent() {
+        return wakeupsSpent;
+    }
+
+    public synchronized long flushes(Reason reason) {
+        return flushes[reason.ordinal()];
+    }
+}
@@ -0,0 +1,112 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/** Drives the sampler with simulated battery/temperature/charging traces, one observation per delay it returns. */
+public class AdaptiveSamplerTest {
+    private final AdaptiveSampler.Config config = new AdaptiveSampler.Config();
+
+    @Test
+    public void stableValuesBackOffToTheCap() {
+        AdaptiveSampler sampler = new AdaptiveSampler(config);
+        long now = 0;
+        long[] expected = {30_000, 60_000, 120_000, 240_000, 480_000, 600_000, 600_000};
+        for (long e : expected) {
+            long delay = sampler.observe(now, 35.0, 80, false);
+            assertEquals(e, delay);
+            now += delay;
+        }
+    }
+
+    @Test
+    public void chargingSamplesAtTheMinimum() {
+        AdaptiveSampler sampler = new AdaptiveSampler(config);
+        long now = 0;
+        for (int i = 0; i < 5; i++) {
+            long delay = sampler.observe(now, 35.0, 80, true);
+            assertEquals(config.minIntervalMs, delay);
+            now += delay;
+        }
+    }
+
+    @Test
+    public void fastTemperatureRiseDropsToTheMinimumThenBacksOffAgain() {
+        AdaptiveSampler sampler = new AdaptiveSampler(config);
+        long now = 0;
+        for (int i = 0; i < 4; i++) now += sampler.observe(now, 35.0, 80, false);
+        assertEquals(240_000, sampler.intervalMs());
+
+        // 3 C in 4 minutes: fast
+        assertEquals(config.minIntervalMs, sampler.observe(now, 38.0, 80, false));
+        now += config.minIntervalMs;
+        assertEquals(20_000, sampler.observe(now, 38.0, 80, false));
+    }
+
+    @Test
+    public void sensorNoiseDoesNotCountAsChange() {
+        AdaptiveSampler sampler = new AdaptiveSampler(config);
+        long now = 0;
+        double[] temps = {35.0, 35.4, 34.9, 35.6, 35.1};
+        long delay = 0;
+        for (double t : temps) {
+            delay = sampler.observe(now, t, 80, false);
+            now += delay;
+        }
+        assertEquals(480_000, delay);
+    }
+
+    @Test
+    public void fallingBatteryCountsAsFast() {
+        AdaptiveSampler sampler = new AdaptiveSampler(config);
+        sampler.observe(0, 35.0, 80, false);
+        // 4 % in 30 s
+        assertEquals(config.minIntervalMs, sampler.observe(30_000, 35.0, 76, false));
+    }
+
+    @Test
+    public void lowBatteryDoublesOnceWithoutCompounding() {
+        AdaptiveSampler sampler = new AdaptiveSampler(config);
+        long now = 0;
+        // stable interval 30, 60, 120, 240, 480, 600 s; on low battery each delay is twice that, capped
+        long[] expected = {60_000, 120_000, 240_000, 480_000, 600_000, 600_000};
+        for (long e : expected) {
+            long delay = sampler.observe(now, 35.0, 15, false);
+            assertEquals(e, delay);
+            now += delay;
+        }
+    }
+
+    @Test
+    public void lowBatteryFactorIsDroppedOncePluggedIn() {
+        AdaptiveSampler sampler = new AdaptiveSampler(config);
+        long now = 0;
+        now += sampler.observe(now, 35.0, 15, false);
+        now += sampler.observe(now, 35.0, 15, false);
+        assertEquals(120_000, sampler.intervalMs());
+        assertEquals(config.minIntervalMs, sampler.observe(now, 35.0, 15, true));
+    }
+
+    @Test
+    public void lowBatteryNeverSamplesFasterThanTheBaseInterval() {
+        AdaptiveSampler sampler = new AdaptiveSampler(config);
+        sampler.observe(0, 35.0, 15, false);
+        // a fast temperature step on low battery is still held to the base interval
+        assertEquals(config.baseIntervalMs, sampler.observe(60_000, 40.0, 15, false));
+    }
+
+    @Test
+    public void unknownBatteryLevelIsNotLowBattery() {
+        AdaptiveSampler sampler = new AdaptiveSampler(config);
+        long now = 0;
+        long[] expected = {30_000, 60_000, 120_000};
+        for (long e : expected) {
+            long delay = sampler.observe(now, 35.0, -1, false);
+            assertEquals(e, delay);
+            now += delay;
+        }
+        // the step from unknown to a reading is not a drop: stable 240 s, doubled for the real low level
+        assertEquals(480_000, sampler.observe(now, 35.0, 15, false));
+    }
+}
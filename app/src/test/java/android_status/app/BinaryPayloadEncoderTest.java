@@ -0,0 +1,81 @@
+package android_status.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class BinaryPayloadEncoderTest {
+    private static MetricSample sample(long ts) {
+        MetricSample s = new MetricSample();
+        s.deviceId = "dev-1";
+        s.timestampMs = ts;
+        s.memoryPct = 41.3;
+        s.batteryPct = 77;
+        s.voltageMv = 4012;
+        return s;
+    }
+
+    private static List<MetricSample> roundTrip(MetricSample... samples) throws Exception {
+        return BinaryPayloadDecoder.decode(new BinaryPayloadEncoder().encode(Arrays.asList(samples)));
+    }
+
+    @Test
+    public void chargingAndSourceHealthSurviveTheWire() throws Exception {
+        MetricSample charging = sample(1_000);
+        charging.charging = true;
+        charging.staleSources = new String[]{"temp", "cpu"};
+        MetricSample unplugged = sample(2_000);
+        unplugged.charging = false;
+        unplugged.missingSources = new String[]{"location"};
+        MetricSample unknown = sample(3_000);
+        unknown.staleSources = new String[]{"temp"};
+        unknown.missingSources = new String[]{"cpu"};
+
+        List<MetricSample> out = roundTrip(charging, unplugged, unknown);
+
+        assertEquals(Boolean.TRUE, out.get(0).charging);
+        assertArrayEquals(new String[]{"temp", "cpu"}, out.get(0).staleSources);
+        assertNull(out.get(0).missingSources);
+        assertEquals(Boolean.FALSE, out.get(1).charging);
+        assertNull(out.get(1).staleSources);
+        assertArrayEquals(new String[]{"location"}, out.get(1).missingSources);
+        assertNull(out.get(2).charging);
+        assertArrayEquals(new String[]{"temp"}, out.get(2).staleSources);
+        assertArrayEquals(new String[]{"cpu"}, out.get(2).missingSources);
+    }
+
+    @Test
+    public void healthySampleDecodesAsBefore() throws Exception {
+        MetricSample s = sample(5_000);
+        s.tempC = 36.125;
+        s.lat = -33.86371;
+        s.lon = 151.20221;
+        s.accuracy = 11.4f;
+        s.provider = "fused";
+        s.requestIds = new String[]{"r1"};
+        s.triggeredAtMs = 4_200;
+
+        MetricSample out = roundTrip(s).get(0);
+
+        assertEquals("dev-1", out.deviceId);
+        assertEquals(5_000, out.timestampMs);
+        assertEquals(41.3, out.memoryPct, 1e-9);
+        assertEquals(36.125, out.tempC, 1e-9);
+        assertEquals(77, out.batteryPct);
+        assertEquals(4012, out.voltageMv);
+        assertEquals(-33.86371, out.lat, 1e-9);
+        assertEquals(151.20221, out.lon, 1e-9);
+        assertEquals(11.4f, out.accuracy, 1e-6f);
+        assertEquals("fused", out.provider);
+        assertArrayEquals(new String[]{"r1"}, out.requestIds);
+        assertEquals(4_200, out.triggeredAtMs);
+        assertNull(out.charging);
+        assertNull(out.staleSources);
+        assertNull(out.missingSources);
+    }
+}
@@ -0,0 +1,180 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/** Deadbands, thresholds, heartbeats and keyframes on hand-built sample sequences. */
+public class DeltaFilterTest {
+    private static final long MIN = 60_000L;
+
+    private final DeltaFilter filter = new DeltaFilter(new DeltaFilter.Config());
+
+    private static MetricSample sample(long t) {
+        MetricSample s = new MetricSample();
+        s.deviceId = "dev-1";
+        s.timestampMs = t;
+        s.memoryPct = 50.0;
+        s.tempC = 30.0;
+        s.batteryPct = 80;
+        s.voltageMv = 4000;
+        s.cpuPct = 20.0;
+        s.lat = 52.0;
+        s.lon = 13.0;
+        return s;
+    }
+
+    private static MetricSample withoutTemp(MetricSample s) {
+        s.tempC = null;
+        return s;
+    }
+
+    @Test
+    public void cpuSwingIsADelta() {
+        DeltaFilter f = new DeltaFilter(new DeltaFilter.Config());
+        f.evaluate(sample(0), false);
+        MetricSample s = sample(MIN);
+        s.cpuPct = 25.0;
+        assertEquals(DeltaFilter.Kind.SKIP, f.evaluate(s, false).kind);
+        s = sample(2 * MIN);
+        s.cpuPct = 35.0;
+        DeltaFilter.Decision d = f.evaluate(s, false);
+        assertEquals(DeltaFilter.Kind.DELTA, d.kind);
+        assertEquals(List.of(DeltaFilter.CPU), d.changed);
+    }
+
+    @Test
+    public void infiniteDeadbandsIgnoreCpuAndLocation() {
+        DeltaFilter.Config c = new DeltaFilter.Config();
+        c.cpuPct = Double.POSITIVE_INFINITY;
+        c.locationMeters = Double.POSITIVE_INFINITY;
+        DeltaFilter f = new DeltaFilter(c);
+        MetricSample first = sample(0);
+        first.cpuPct = null;
+        first.lat = null;
+        first.lon = null;
+        f.evaluate(first, false);
+
+        MetricSample s = sample(MIN);
+        s.cpuPct = 95.0;
+        s.lat = 48.0;
+        assertEquals(DeltaFilter.Kind.SKIP, f.evaluate(s, false).kind);
+    }
+
+    @Test
+    public void firstSampleIsAKeyframe() {
+        assertEquals(DeltaFilter.Kind.FULL, filter.evaluate(sample(0), false).kind);
+    }
+
+    @Test
+    public void movesInsideTheDeadbandsAreSkipped() {
+        filter.evaluate(sample(0), false);
+        MetricSample s = sample(MIN);
+        s.memoryPct = 50.9;
+        s.tempC = 30.4;
+        s.voltageMv = 4049;
+        s.lat = 52.0001; // about 11 m
+        assertEquals(DeltaFilter.Kind.SKIP, filter.evaluate(s, false).kind);
+    }
+
+    @Test
+    public void deltaListsOnlyTheChangedFields() {
+        filter.evaluate(sample(0), false);
+        MetricSample s = sample(MIN);
+        s.memoryPct = 52.0;
+        s.batteryPct = 78;
+        DeltaFilter.Decision d = filter.evaluate(s, false);
+        assertEquals(DeltaFilter.Kind.DELTA, d.kind);
+        assertEquals(List.of(DeltaFilter.MEMORY, DeltaFilter.BATTERY), d.changed);
+    }
+
+    @Test
+    public void slowDriftTripsTheDeadbandAgainstTheLastSentValue() {
+        filter.evaluate(sample(0), false);
+        for (int i = 1; i <= 3; i++) {
+            MetricSample s = sample(i * MIN);
+            s.memoryPct = 50.0 + i * 0.4;
+            DeltaFilter.Decision d = filter.evaluate(s, false);
+            assertEquals("step " + i, i < 3 ? DeltaFilter.Kind.SKIP : DeltaFilter.Kind.DELTA, d.kind);
+        }
+    }
+
+    @Test
+    public void crossingAThresholdCountsEvenInsideTheDeadband() {
+        filter.evaluate(sample(0), false);
+        MetricSample s = sample(MIN);
+        s.tempC = 44.8;
+        filter.evaluate(s, false);
+        s = sample(2 * MIN);
+        s.tempC = 45.1;
+        assertEquals(List.of(DeltaFilter.TEMP), filter.evaluate(s, false).changed);
+
+        DeltaFilter.Config c = new DeltaFilter.Config();
+        c.batteryPct = 5;
+        DeltaFilter f = new DeltaFilter(c);
+        MetricSample b = sample(0);
+        b.batteryPct = 21;
+        f.evaluate(b, false);
+        b = sample(MIN);
+        b.batteryPct = 20;
+        assertEquals(List.of(DeltaFilter.BATTERY), f.evaluate(b, false).changed);
+    }
+
+    @Test
+    public void heartbeatAndForceSendAnEmptyDelta() {
+        filter.evaluate(sample(0), false);
+        assertEquals(DeltaFilter.Kind.SKIP, filter.evaluate(sample(MIN), false).kind);
+        DeltaFilter.Decision forced = filter.evaluate(sample(2 * MIN), true);
+        assertEquals(DeltaFilter.Kind.DELTA, forced.kind);
+        assertTrue(forced.changed.isEmpty());
+        assertEquals(DeltaFilter.Kind.SKIP, filter.evaluate(sample(11 * MIN), false).kind);
+        assertEquals(DeltaFilter.Kind.DELTA, filter.evaluate(sample(12 * MIN), false).kind);
+    }
+
+    @Test
+    public void keyframeIsDueAfterKeyframeMsAndAfterAReset() {
+        filter.evaluate(sample(0), false);
+        assertEquals(DeltaFilter.Kind.DELTA, filter.evaluate(sample(10 * MIN), false).kind);
+        assertEquals(DeltaFilter.Kind.FULL, filter.evaluate(sample(30 * MIN), false).kind);
+        filter.reset();
+        assertEquals(DeltaFilter.Kind.FULL, filter.evaluate(sample(31 * MIN), false).kind);
+        // a clock that went back also restarts from a keyframe
+        assertEquals(DeltaFilter.Kind.FULL, filter.evaluate(sample(20 * MIN), true).kind);
+    }
+
+    @Test
+    public void fieldThatLostItsValueIsSentAsNull() throws Exception {
+        filter.evaluate(sample(0), false);
+        MetricSample s = sample(MIN);
+        s.tempC = null;
+        DeltaFilter.Decision d = filter.evaluate(s, false);
+        assertEquals(List.of(DeltaFilter.TEMP), d.changed);
+
+        JSONObject delta = s.toDeltaJson(d.changed);
+        assertTrue(delta.has("tempC"));
+        assertTrue(delta.isNull("tempC"));
+        assertFalse(delta.has("memoryPct"));
+
+        // and the null is the new reference: no change while it stays away
+        assertEquals(DeltaFilter.Kind.SKIP, filter.evaluate(withoutTemp(sample(2 * MIN)), false).kind);
+    }
+
+    @Test
+    public void locationDeltaCarriesAnAccuracyTheNewFixLacks() throws Exception {
+        MetricSample first = sample(0);
+        first.accuracy = 12f;
+        filter.evaluate(first, false);
+        MetricSample s = sample(MIN);
+        s.lat = 52.001;
+        DeltaFilter.Decision d = filter.evaluate(s, false);
+        assertEquals(List.of(DeltaFilter.LOCATION), d.changed);
+        JSONObject delta = s.toDeltaJson(d.changed);
+        assertEquals(52.001, delta.getDouble("lat"), 1e-9);
+        assertTrue(delta.isNull("accuracy"));
+    }
+}
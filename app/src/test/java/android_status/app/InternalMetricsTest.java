@@ -0,0 +1,88 @@
+package android_status.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/** The log-linear timer histogram: bucket bounds, relative error and percentile lookup. */
+public class InternalMetricsTest {
+    private static final int LAST = InternalMetrics.Timer.BUCKETS - 1;
+
+    private static void checkBucket(long v) {
+        int i = InternalMetrics.Timer.index(v);
+        long upper = InternalMetrics.Timer.upperBound(i);
+        assertTrue(v + " above its bucket's bound " + upper, v <= upper);
+        if (i > 0) assertTrue(v + " fits the bucket below", v > InternalMetrics.Timer.upperBound(i - 1));
+        // 8 sub-buckets per power of two: a bound is at most 1/8 above any value in its bucket
+        assertTrue(v + " -> " + upper, upper - v <= v / 8);
+    }
+
+    @Test
+    public void smallValuesHaveTheirOwnBuckets() {
+        for (long v = 0; v < 8; v++) {
+            assertEquals(v, InternalMetrics.Timer.index(v));
+            assertEquals(v, InternalMetrics.Timer.upperBound((int) v));
+        }
+    }
+
+    @Test
+    public void everyValueLiesInsideItsBucketWithinOneEighth() {
+        for (long v = 0; v < 100_000; v++) checkBucket(v);
+        for (int exp = 17; exp <= 40; exp++) {
+            long p = 1L << exp;
+            for (long v : new long[]{p - 1, p, p + 1, p + p / 3, 2 * p - 1}) checkBucket(v);
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguousAndEndAtTheLast() {
+        for (int i = 1; i <= LAST; i++) {
+            long lower = InternalMetrics.Timer.upperBound(i - 1) + 1;
+            assertEquals("bucket " + i, i, InternalMetrics.Timer.index(lower));
+            assertEquals("bucket " + i, i, InternalMetrics.Timer.index(InternalMetrics.Timer.upperBound(i)));
+        }
+        assertEquals(LAST, InternalMetrics.Timer.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreBucketBoundsCappedAtTheMax() {
+        InternalMetrics.Timer t = new InternalMetrics.Timer();
+        assertEquals(0, t.percentileNs(0.5));
+        for (long v = 1; v <= 1000; v++) t.record(v * 1000);
+
+        long[] p = t.percentilesNs(0.5, 0.9, 0.99, 1.0);
+        assertTrue("p50 " + p[0], p[0] >= 500_000 && p[0] <= 500_000 * 9 / 8);
+        assertTrue("p90 " + p[1], p[1] >= 900_000 && p[1] <= 900_000 * 9 / 8);
+        assertTrue("p99 " + p[2], p[2] >= 990_000);
+        assertEquals(1_000_000, p[2]);
+        assertEquals(1_000_000, p[3]);
+        assertEquals(1000, t.count());
+        assertEquals(500_500, t.meanNs(), 1e-6);
+    }
+
+    @Test
+    public void singleValueIsEveryPercentile() {
+        InternalMetrics.Timer t = new InternalMetrics.Timer();
+        t.record(12_345);
+        assertArrayEquals(new long[]{12_345, 12_345, 12_345}, t.percentilesNs(0.0, 0.5, 1.0));
+        t.record(-5);
+        assertEquals(0, t.percentileNs(0.0));
+    }
+
+    @Test
+    public void timerJsonIsInMicroseconds() throws Exception {
+        InternalMetrics.Timer t = new InternalMetrics.Timer();
+        for (int i = 0; i < 99; i++) t.record(1_000_000);
+        t.record(50_000_000);
+        t.error();
+        JSONObject j = t.toJson();
+        assertEquals(100, j.getLong("n"));
+        assertEquals(1, j.getLong("errors"));
+        long p50 = j.getLong("p50Us");
+        assertTrue("p50Us " + p50, p50 >= 1000 && p50 <= 1125);
+        assertEquals(50_000, j.getLong("maxUs"));
+    }
+}
@@ -0,0 +1,106 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/** The staleness policy: cached fix, bounded wait for the next one, accuracy floor, out-of-order fixes. */
+public class LocationHolderTest {
+    private final AtomicLong now = new AtomicLong(100_000);
+    private final LocationHolder holder = new LocationHolder(now::get);
+
+    private static LocationHolder.Fix fix(long elapsedMs, Float accuracy) {
+        return new LocationHolder.Fix(52.5, 13.4, accuracy, "fused", elapsedMs);
+    }
+
+    private static long monotonicMs() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    @Test
+    public void emptyHolderHasNoFixAndNoAge() {
+        assertNull(holder.latest());
+        assertEquals(Long.MAX_VALUE, holder.ageMs());
+        assertNull(holder.fresh(60_000, 0));
+    }
+
+    @Test
+    public void cachedFixIsReturnedWhileYoungEnough() {
+        LocationHolder.Fix f = fix(90_000, 10f);
+        holder.publish(f);
+        assertEquals(10_000, holder.ageMs());
+        assertSame(f, holder.fresh(10_000, 0));
+        assertNull(holder.fresh(9_999, 0));
+        // latest() ignores age
+        now.set(10_000_000);
+        assertSame(f, holder.latest());
+    }
+
+    @Test
+    public void olderFixDoesNotReplaceANewerOne() {
+        LocationHolder.Fix newer = fix(95_000, 10f);
+        holder.publish(newer);
+        holder.publish(fix(94_000, 3f));
+        assertSame(newer, holder.latest());
+        holder.publish(null);
+        assertSame(newer, holder.latest());
+    }
+
+    @Test
+    public void accuracyLimitSkipsCoarseAndUnknownAccuracy() {
+        holder.publish(fix(99_000, 80f));
+        assertNull(holder.fresh(60_000, 0, 50f));
+        assertEquals(80f, holder.fresh(60_000, 0).accuracy, 0f);
+
+        holder.publish(fix(99_500, null));
+        assertNull(holder.fresh(60_000, 0, 50f));
+        holder.publish(fix(99_600, 50f));
+        assertEquals(50f, holder.fresh(60_000, 0, 50f).accuracy, 0f);
+    }
+
+    @Test
+    public void staleFixWaitsForTheNextPublish() throws Exception {
+        LocationHolder live = new LocationHolder(LocationHolderTest::monotonicMs);
+        live.publish(new LocationHolder.Fix(1, 2, 5f, "gps", monotonicMs() - 120_000));
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+                return;
+            }
+            // first a fix that is still too coarse, then a good one: the reader keeps waiting through the first
+            live.publish(new LocationHolder.Fix(3, 4, 200f, "network", monotonicMs()));
+            live.publish(new LocationHolder.Fix(5, 6, 8f, "gps", monotonicMs()));
+        });
+        writer.start();
+        LocationHolder.Fix got = live.fresh(60_000, 5_000, 20f);
+        writer.join();
+        assertEquals(5.0, got.lat, 0);
+    }
+
+    @Test
+    public void waitEndsAtTheDeadline() {
+        LocationHolder live = new LocationHolder(LocationHolderTest::monotonicMs);
+        long t0 = monotonicMs();
+        assertNull(live.fresh(60_000, 150));
+        long waited = monotonicMs() - t0;
+        assertTrue("waited " + waited + " ms", waited >= 140 && waited < 2_000);
+    }
+
+    @Test
+    public void interruptedWaitGivesUp() {
+        LocationHolder live = new LocationHolder(LocationHolderTest::monotonicMs);
+        Thread.currentThread().interrupt();
+        try {
+            assertNull(live.fresh(60_000, 5_000));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Replays location fix streams and requests through the policy and checks the modes it picks. */
+public class LocationPowerPolicyTest {
+    private static final double LAT = -33.8637;
+    private static final double LON = 151.2022;
+    /** About 111 m of latitude. */
+    private static final double STEP = 0.001;
+    private static final long MIN = 60_000L;
+
+    private final LocationPowerPolicy.Config config = new LocationPowerPolicy.Config();
+    private final LocationPowerPolicy policy = new LocationPowerPolicy(config);
+
+    /** One fix a minute at the same spot, from {@code from} to {@code to} inclusive. */
+    private void stayPut(long from, long to, float accuracy) {
+        for (long t = from; t <= to; t += MIN) policy.onFix(LAT, LON, accuracy, t);
+    }
+
+    private void stayPutAt(double lat, long from, long to) {
+        for (long t = from; t <= to; t += MIN) policy.onFix(lat, LON, 10f, t);
+    }
+
+    @Test
+    public void startsPassiveAndStaysThereWhileStill() {
+        assertEquals(LocationPowerPolicy.Mode.PASSIVE, policy.mode());
+        stayPut(0, 10 * MIN, 15f);
+        assertEquals(LocationPowerPolicy.Mode.PASSIVE, policy.mode());
+        assertTrue(policy.stationary(10 * MIN));
+        assertEquals(Long.MAX_VALUE, policy.nextDeadline());
+    }
+
+    @Test
+    public void requestBurstsUntilAnAccurateFix() {
+        assertTrue(policy.onRequest(0));
+        assertEquals(LocationPowerPolicy.Mode.BURST, policy.mode());
+        assertEquals(config.burstDeadlineMs, policy.nextDeadline());
+
+        assertFalse(policy.onFix(LAT, LON, 60f, 5_000)); // too coarse to end the burst
+        assertEquals(LocationPowerPolicy.Mode.BURST, policy.mode());
+        assertTrue(policy.onFix(LAT, LON, 12f, 8_000));
+        assertEquals(LocationPowerPolicy.Mode.PASSIVE, policy.mode());
+        assertEquals(1, policy.burstCount());
+    }
+
+    @Test
+    public void burstEndsAtItsDeadlineWithoutAGoodFix() {
+        policy.onRequest(0);
+        assertFalse(policy.tick(config.burstDeadlineMs - 1));
+        assertTrue(policy.tick(config.burstDeadlineMs));
+        assertEquals(LocationPowerPolicy.Mode.PASSIVE, policy.mode());
+    }
+
+    @Test
+    public void repeatedRequestsExtendOneBurst() {
+        policy.onRequest(0);
+        assertFalse(policy.onRequest(20_000));
+        assertEquals(20_000 + config.burstDeadlineMs, policy.nextDeadline());
+        assertEquals(1, policy.burstCount());
+    }
+
+    @Test
+    public void stationaryDeviceWithARecentFixSkipsTheBurst() {
+        stayPut(0, 6 * MIN, 10f);
+        assertFalse(policy.onRequest(7 * MIN));
+        assertEquals(LocationPowerPolicy.Mode.PASSIVE, policy.mode());
+        assertEquals(1, policy.burstsAvoided());
+        assertEquals(0, policy.burstCount());
+    }
+
+    @Test
+    public void staleFixStillBurstsWhenStationary() {
+        stayPut(0, 6 * MIN, 10f);
+        // no accurate fix for longer than stationaryFixReuseMs
+        stayPut(7 * MIN, 20 * MIN, 80f);
+        assertTrue(policy.onRequest(20 * MIN));
+        assertEquals(LocationPowerPolicy.Mode.BURST, policy.mode());
+    }
+
+    @Test
+    public void notYetStationaryBursts() {
+        stayPut(0, 2 * MIN, 10f);
+        assertTrue(policy.onRequest(3 * MIN));
+    }
+
+    @Test
+    public void leavingTheGeofenceTracksAtBalancedUntilStillAgain() {
+        stayPut(0, 6 * MIN, 10f);
+        // walking: a fix 111 m further on every minute
+        long t = 7 * MIN;
+        assertTrue(policy.onFix(LAT + STEP, LON, 10f, t));
+        assertEquals(LocationPowerPolicy.Mode.BALANCED, policy.mode());
+        assertFalse(policy.stationary(t));
+        for (int i = 2; i <= 4; i++) {
+            t += MIN;
+            policy.onFix(LAT + i * STEP, LON, 10f, t);
+        }
+        assertEquals(t + config.movingHoldMs, policy.nextDeadline());
+
+        // stops: still within the geofence, so the hold runs out
+        long stopped = t;
+        stayPutAt(LAT + 4 * STEP, stopped + MIN, stopped + 4 * MIN);
+        assertFalse(policy.tick(stopped + config.movingHoldMs - 1));
+        assertTrue(policy.tick(stopped + config.movingHoldMs));
+        assertEquals(LocationPowerPolicy.Mode.PASSIVE, policy.mode());
+    }
+
+    @Test
+    public void burstWhileMovingReturnsToBalanced() {
+        stayPut(0, MIN, 10f);
+        policy.onFix(LAT + STEP, LON, 10f, 2 * MIN);
+        assertEquals(LocationPowerPolicy.Mode.BALANCED, policy.mode());
+        policy.onRequest(2 * MIN + 1_000);
+        assertEquals(LocationPowerPolicy.Mode.BURST, policy.mode());
+        assertTrue(policy.onFix(LAT + STEP, LON, 5f, 2 * MIN + 4_000));
+        assertEquals(LocationPowerPolicy.Mode.BALANCED, policy.mode());
+    }
+
+    @Test
+    public void coarseFixesDoNotMoveTheGeofence() {
+        stayPut(0, 6 * MIN, 10f);
+        // a 500 m-accuracy cell fix far away is ignored
+        assertFalse(policy.onFix(LAT + 5 * STEP, LON, 500f, 7 * MIN));
+        assertEquals(LocationPowerPolicy.Mode.PASSIVE, policy.mode());
+        assertTrue(policy.stationary(7 * MIN));
+    }
+}
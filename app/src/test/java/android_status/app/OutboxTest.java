@@ -0,0 +1,158 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Checkpointed acks across reopening, a torn tail after a crash, and size/age retention. */
+public class OutboxTest {
+    private static final long DAY = 24 * 3_600_000L;
+
+    private File dir;
+    private final List<Outbox> open = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("outbox-").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Outbox o : open) o.close();
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    private Outbox outbox(long maxSegmentBytes, long maxTotalBytes, long maxAgeMs) throws IOException {
+        Outbox o = new Outbox(dir, maxSegmentBytes, maxTotalBytes, maxAgeMs);
+        open.add(o);
+        return o;
+    }
+
+    private Outbox reopen(Outbox o, long maxSegmentBytes) throws IOException {
+        o.close();
+        open.remove(o);
+        return outbox(maxSegmentBytes, 1 << 20, Long.MAX_VALUE);
+    }
+
+    private static byte[] payload(int i) {
+        return ("{\"n\":" + i + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> payloads(List<Outbox.Record> records) {
+        List<String> out = new ArrayList<>();
+        for (Outbox.Record r : records) out.add(new String(r.payload, StandardCharsets.UTF_8));
+        return out;
+    }
+
+    private File[] segments() {
+        return dir.listFiles((d, name) -> name.endsWith(".seg"));
+    }
+
+    @Test
+    public void peekStartsAfterTheAckAndTheAckSurvivesReopening() throws Exception {
+        Outbox o = outbox(64, 1 << 20, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) assertEquals(i, o.append(payload(i), 1_000 + i));
+        List<Outbox.Record> first = o.peek(4);
+        assertEquals(List.of("{\"n\":0}", "{\"n\":1}", "{\"n\":2}", "{\"n\":3}"), payloads(first));
+        assertEquals(1_003, first.get(3).timestampMs);
+        o.ack(first.get(3).seq);
+        assertEquals(6, o.pending());
+
+        Outbox reopened = reopen(o, 64);
+        assertEquals(6, reopened.pending());
+        assertEquals(4, reopened.peek(1).get(0).seq);
+        assertEquals(10, reopened.append(payload(10), 2_000));
+        assertEquals(7, reopened.peek(100).size());
+    }
+
+    @Test
+    public void fullyAckedSegmentsAreDeleted() throws Exception {
+        Outbox o = outbox(1, 1 << 20, Long.MAX_VALUE); // one record per segment
+        for (int i = 0; i < 5; i++) o.append(payload(i), 1_000);
+        assertEquals(5, segments().length);
+        o.ack(2);
+        assertEquals(2, segments().length);
+        o.ack(4);
+        // the active segment is kept for the next append
+        assertEquals(1, segments().length);
+        assertEquals(0, o.pending());
+        assertEquals(0, o.peek(10).size());
+    }
+
+    @Test
+    public void tornTailIsCutOnReopen() throws Exception {
+        Outbox o = outbox(1 << 20, 1 << 20, Long.MAX_VALUE);
+        for (int i = 0; i < 3; i++) o.append(payload(i), 1_000);
+        o.close();
+        open.remove(o);
+
+        File seg = segments()[0];
+        long intact = seg.length();
+        try (RandomAccessFile f = new RandomAccessFile(seg, "rw")) {
+            // a header and half a payload, as a crash in the middle of append() leaves it
+            f.seek(intact);
+            f.writeInt(100);
+            f.writeInt(0);
+            f.writeLong(1_000);
+            f.write(new byte[40]);
+        }
+
+        Outbox reopened = outbox(1 << 20, 1 << 20, Long.MAX_VALUE);
+        assertEquals(intact, seg.length());
+        assertEquals(3, reopened.pending());
+        assertEquals(3, reopened.append(payload(3), 2_000));
+        assertEquals(List.of("{\"n\":0}", "{\"n\":1}", "{\"n\":2}", "{\"n\":3}"), payloads(reopened.peek(10)));
+    }
+
+    @Test
+    public void corruptRecordEndsTheSegment() throws Exception {
+        Outbox o = outbox(1 << 20, 1 << 20, Long.MAX_VALUE);
+        for (int i = 0; i < 3; i++) o.append(payload(i), 1_000);
+        o.close();
+        open.remove(o);
+
+        File seg = segments()[0];
+        try (RandomAccessFile f = new RandomAccessFile(seg, "rw")) {
+            // flip a payload byte of the last record: its crc no longer matches
+            f.seek(seg.length() - 2);
+            f.write('9');
+        }
+        assertEquals(2, outbox(1 << 20, 1 << 20, Long.MAX_VALUE).pending());
+    }
+
+    @Test
+    public void oldestSegmentsGoOverTheSizeLimitEvenUnacked() throws Exception {
+        int record = 16 + payload(0).length;
+        Outbox o = outbox(1, 3L * record, Long.MAX_VALUE);
+        for (int i = 0; i < 6; i++) o.append(payload(i), 1_000);
+        assertEquals(3, o.pending());
+        assertEquals(List.of("{\"n\":3}", "{\"n\":4}", "{\"n\":5}"), payloads(o.peek(10)));
+
+        // the drop is checkpointed like an ack
+        assertEquals(3, reopen(o, 1).pending());
+    }
+
+    @Test
+    public void segmentsOlderThanMaxAgeAreDropped() throws Exception {
+        long now = System.currentTimeMillis();
+        Outbox o = outbox(1, 1 << 20, 7 * DAY);
+        o.append(payload(0), now);
+        o.append(payload(1), now);
+        assertEquals(2, o.pending());
+        // eight days on, the next append finds both older segments past retention
+        o.append(payload(2), now + 8 * DAY);
+        assertEquals(List.of("{\"n\":2}"), payloads(o.peek(10)));
+    }
+}
@@ -0,0 +1,147 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Batching out of a real {@link Outbox}: JSON and binary bodies, and acknowledgement on success only. */
+public class OutboxUploaderTest {
+    private static final class Sent {
+        final String contentType;
+        final byte[] body;
+        final int records;
+
+        Sent(String contentType, byte[] body, int records) {
+            this.contentType = contentType;
+            this.body = body;
+            this.records = records;
+        }
+
+        JSONObject json() throws Exception {
+            return new JSONObject(new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
+    private File dir;
+    private Outbox outbox;
+    private final List<Sent> sent = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("outbox-").toFile();
+        outbox = new Outbox(dir, 1 << 20, 8 << 20, Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        outbox.close();
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    private OutboxUploader.BatchSender sender(boolean ok) {
+        return (body, contentType, records) -> {
+            sent.add(new Sent(contentType, body, records));
+            return ok;
+        };
+    }
+
+    private static MetricSample sample(long ts) {
+        MetricSample s = new MetricSample();
+        s.deviceId = "dev-1";
+        s.timestampMs = ts;
+        s.memoryPct = 40.0;
+        s.batteryPct = 90;
+        s.voltageMv = 4100;
+        return s;
+    }
+
+    private void append(JSONObject record) throws IOException {
+        outbox.append(record.toString().getBytes(StandardCharsets.UTF_8), record.optLong("timestampMs"));
+    }
+
+    @Test
+    public void binaryEncoderSendsFullSamples() throws Exception {
+        for (int i = 0; i < 3; i++) append(sample(1_000 + i).toJson());
+        assertEquals(3, new OutboxUploader(outbox, 10).drain(sender(true), 5, new BinaryPayloadEncoder()));
+        assertEquals(1, sent.size());
+        assertEquals(BinaryPayloadEncoder.CONTENT_TYPE, sent.get(0).contentType);
+        assertEquals(3, BinaryPayloadDecoder.decode(sent.get(0).body).size());
+        assertEquals(0, outbox.pending());
+    }
+
+    @Test
+    public void batchWithASelfSnapshotGoesAsJson() throws Exception {
+        append(sample(1_000).toJson());
+        JSONObject withSelf = sample(2_000).toJson().put("self", new JSONObject().put("release", "1.4"));
+        append(withSelf);
+        new OutboxUploader(outbox, 10).drain(sender(true), 5, new BinaryPayloadEncoder());
+
+        assertEquals(JsonPayloadEncoder.CONTENT_TYPE, sent.get(0).contentType);
+        JSONObject body = sent.get(0).json();
+        assertEquals("batch", body.getString("type"));
+        assertEquals("1.4", body.getJSONArray("records").getJSONObject(1).getJSONObject("self").getString("release"));
+    }
+
+    @Test
+    public void batchWithADeltaGoesAsJson() throws Exception {
+        append(sample(1_000).toJson());
+        append(sample(2_000).toDeltaJson(List.of(DeltaFilter.MEMORY)));
+        new OutboxUploader(outbox, 10).drain(sender(true), 5, new BinaryPayloadEncoder());
+        assertEquals(JsonPayloadEncoder.CONTENT_TYPE, sent.get(0).contentType);
+        assertTrue(sent.get(0).json().getJSONArray("records").getJSONObject(1).getBoolean("delta"));
+    }
+
+    @Test
+    public void jsonBatchesAreAckedOnlyWhenTheSendSucceeds() throws Exception {
+        for (int i = 0; i < 5; i++) append(sample(1_000 + i).toJson());
+        OutboxUploader uploader = new OutboxUploader(outbox, 2);
+
+        assertEquals(0, uploader.drain(sender(false), 5));
+        assertEquals(1, sent.size());
+        assertEquals(5, outbox.pending());
+
+        // the retry starts from the same record; maxBatches caps one drain
+        assertEquals(4, uploader.drain(sender(true), 2));
+        assertEquals(1_000, sent.get(1).json().getJSONArray("records").getJSONObject(0).getLong("timestampMs"));
+        assertEquals(1, outbox.pending());
+        assertEquals(1, uploader.drain(sender(true), 5));
+        assertEquals(0, outbox.pending());
+    }
+
+    @Test
+    public void asyncDrainStopsAtTheFirstFailure() throws Exception {
+        for (int i = 0; i < 5; i++) append(sample(1_000 + i).toJson());
+        OutboxUploader uploader = new OutboxUploader(outbox, 2);
+        AtomicReference<Boolean> result = new AtomicReference<>();
+        int[] calls = {0};
+        OutboxUploader.AsyncBatchSender secondFails = (body, contentType, records, done) -> {
+            sent.add(new Sent(contentType, body, records));
+            done.done(++calls[0] != 2);
+        };
+
+        uploader.drainAsync(secondFails, 5, null, result::set);
+        assertFalse(result.get());
+        assertEquals(2, sent.size());
+        assertEquals(3, outbox.pending());
+
+        uploader.drainAsync(secondFails, 5, null, result::set);
+        assertTrue(result.get());
+        assertEquals(0, outbox.pending());
+        assertEquals(1_002, sent.get(2).json().getJSONArray("records").getJSONObject(0).getLong("timestampMs"));
+    }
+}
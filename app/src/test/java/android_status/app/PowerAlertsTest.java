@@ -0,0 +1,91 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/** Battery and temperature traces through the alert bands. */
+public class PowerAlertsTest {
+    private static final long MIN = 60_000L;
+
+    private final PowerAlerts alerts = new PowerAlerts(new PowerAlerts.Config());
+
+    @Test
+    public void firstUpdateOnlySetsTheBaseline() {
+        assertNull(alerts.update(0, 8, 65.0, false, 4));
+        assertEquals(0, alerts.alerts());
+    }
+
+    @Test
+    public void dischargeAlertsOncePerThreshold() {
+        assertNull(alerts.update(0, 30, 30.0, false, 0));
+        String[] expected = new String[31];
+        expected[20] = "battery<=20%";
+        expected[10] = "battery<=10%";
+        expected[5] = "battery<=5%";
+        long t = 0;
+        for (int pct = 29; pct >= 1; pct--) {
+            t += 2 * MIN;
+            assertEquals("at " + pct + "%", expected[pct], alerts.update(t, pct, 30.0, false, 0));
+        }
+        assertEquals(3, alerts.alerts());
+    }
+
+    @Test
+    public void jitterOnAThresholdDoesNotFlap() {
+        alerts.update(0, 21, 30.0, false, 0);
+        assertEquals("battery<=20%", alerts.update(2 * MIN, 20, 30.0, false, 0));
+        assertNull(alerts.update(4 * MIN, 21, 30.0, false, 0)); // within hysteresis: still in the band
+        assertNull(alerts.update(6 * MIN, 20, 30.0, false, 0));
+        assertNull(alerts.update(8 * MIN, 22, 30.0, false, 0)); // cleared: back above
+        assertEquals("battery<=20%", alerts.update(10 * MIN, 20, 30.0, false, 0));
+        assertEquals(2, alerts.alerts());
+    }
+
+    @Test
+    public void temperatureRiseAlertsWithHysteresis() {
+        alerts.update(0, 80, 40.0, false, 0);
+        assertNull(alerts.update(MIN, 80, 44.9, false, 0));
+        assertEquals("temp>=45C", alerts.update(2 * MIN, 80, 45.2, false, 0));
+        assertNull(alerts.update(4 * MIN, 80, 44.3, false, 0));
+        assertNull(alerts.update(6 * MIN, 80, 45.1, false, 0));
+        assertEquals("temp>=60C", alerts.update(8 * MIN, 80, 61.0, false, 0));
+        // cooling is recorded silently
+        assertNull(alerts.update(10 * MIN, 80, 35.0, false, 0));
+        assertEquals("temp>=45C", alerts.update(12 * MIN, 80, 46.0, false, 0));
+    }
+
+    @Test
+    public void alertsCloserThanTheGapAreHeldAndFireAfterIt() {
+        alerts.update(0, 25, 30.0, false, 0);
+        assertEquals("battery<=20%", alerts.update(MIN, 20, 30.0, false, 0));
+        assertNull(alerts.update(MIN + 10_000, 20, 50.0, false, 0));
+        assertEquals(1, alerts.heldBack());
+        assertEquals("temp>=45C", alerts.update(2 * MIN, 20, 50.0, false, 0));
+    }
+
+    @Test
+    public void chargingFreezesTheBatteryBand() {
+        alerts.update(0, 25, 30.0, false, 0);
+        assertNull(alerts.update(2 * MIN, 15, 30.0, true, 0));
+        // unplugged at 15 %: the 20 % crossing was never reported, so it is now
+        assertEquals("battery<=20%", alerts.update(4 * MIN, 15, 30.0, false, 0));
+    }
+
+    @Test
+    public void thermalStatusAlertsFromSevereUp() {
+        alerts.update(0, 80, 30.0, false, 0);
+        assertNull(alerts.update(2 * MIN, 80, 30.0, false, 2));
+        assertEquals("thermalStatus=3", alerts.update(4 * MIN, 80, 30.0, false, 3));
+        assertNull(alerts.update(6 * MIN, 80, 30.0, false, 3));
+        assertEquals("thermalStatus=4", alerts.update(8 * MIN, 80, 30.0, false, 4));
+    }
+
+    @Test
+    public void unknownReadingsKeepTheirBand() {
+        alerts.update(0, 25, 50.0, false, -1);
+        assertNull(alerts.update(2 * MIN, -1, null, false, -1));
+        assertEquals("temp>=60C", alerts.update(4 * MIN, 25, 60.0, false, -1));
+    }
+}
@@ -0,0 +1,197 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** The collector-side contract against a slow server: offers never wait for the network. */
+public class SinkQueueTest {
+    private static final MediaType TEXT = MediaType.get("text/plain");
+
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient.Builder().readTimeout(10, TimeUnit.SECONDS).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        client.dispatcher().executorService().shutdown();
+    }
+
+    /** Posts each item to the mock server and reports the outcome asynchronously. */
+    private SinkQueue.Sink<String> httpSink() {
+        return (item, done) -> client.newCall(new Request.Builder().url(server.url("/post"))
+                .post(RequestBody.create(item, TEXT)).build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                done.done(false);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                done.done(response.isSuccessful());
+            }
+        });
+    }
+
+    private void slowResponses(int n, long delayMs) {
+        for (int i = 0; i < n; i++) {
+            server.enqueue(new MockResponse().setHeadersDelay(delayMs, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static void awaitSent(SinkQueue<?> q, long n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (q.sent.get() + q.failed.get() < n && System.currentTimeMillis() < deadline) Thread.sleep(10);
+    }
+
+    private List<String> bodies(int n) throws InterruptedException {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            RecordedRequest r = server.takeRequest(5, TimeUnit.SECONDS);
+            if (r == null) break;
+            out.add(r.getBody().readUtf8());
+        }
+        return out;
+    }
+
+    @Test
+    public void offerDoesNotWaitForASlowServer() throws Exception {
+        slowResponses(5, 500);
+        SinkQueue<String> q = new SinkQueue<>("slow", httpSink(), 10, 1, SinkQueue.Backpressure.DROP_OLDEST, null, 0);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < 5; i++) assertTrue(q.offer("m" + i));
+        long offerMs = (System.nanoTime() - t0) / 1_000_000;
+        assertTrue("offers took " + offerMs + " ms", offerMs < 200);
+        assertEquals(1, q.inFlight());
+        assertEquals(4, q.queued());
+
+        awaitSent(q, 5);
+        assertEquals(5, q.sent.get());
+        assertEquals(List.of("m0", "m1", "m2", "m3", "m4"), bodies(5));
+    }
+
+    @Test
+    public void inFlightIsBounded() throws Exception {
+        slowResponses(6, 300);
+        SinkQueue<String> q = new SinkQueue<>("bounded", httpSink(), 10, 2, SinkQueue.Backpressure.DROP_OLDEST, null, 0);
+        for (int i = 0; i < 6; i++) q.offer("m" + i);
+        assertEquals(2, q.inFlight());
+        awaitSent(q, 6);
+        assertEquals(6, q.sent.get());
+        assertEquals(0, q.inFlight());
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestWhileTheServerStalls() throws Exception {
+        slowResponses(4, 500);
+        SinkQueue<String> q = new SinkQueue<>("drop", httpSink(), 2, 1, SinkQueue.Backpressure.DROP_OLDEST, null, 0);
+        for (int i = 0; i < 5; i++) q.offer("m" + i);
+        // m0 is in flight; m1 and m2 were pushed out by m3 and m4
+        assertEquals(2, q.dropped.get());
+        awaitSent(q, 3);
+        assertEquals(List.of("m0", "m3", "m4"), bodies(3));
+    }
+
+    @Test
+    public void coalesceMergesIntoTheNewestQueuedItem() throws Exception {
+        slowResponses(2, 300);
+        SinkQueue<String> q = new SinkQueue<>("merge", httpSink(), 1, 1, SinkQueue.Backpressure.COALESCE,
+                (queued, incoming) -> queued + "+" + incoming, 0);
+        for (int i = 0; i < 4; i++) q.offer("m" + i);
+        assertEquals(2, q.coalesced.get());
+        awaitSent(q, 2);
+        assertEquals(List.of("m0", "m1+m2+m3"), bodies(2));
+    }
+
+    @Test
+    public void blockWaitsAtMostMaxBlockMsThenDrops() throws Exception {
+        slowResponses(2, 1_000);
+        SinkQueue<String> q = new SinkQueue<>("block", httpSink(), 1, 1, SinkQueue.Backpressure.BLOCK, null, 100);
+        q.offer("m0");
+        q.offer("m1");
+        long t0 = System.nanoTime();
+        assertFalse(q.offer("m2"));
+        long waitedMs = (System.nanoTime() - t0) / 1_000_000;
+        assertTrue("waited " + waitedMs + " ms", waitedMs >= 90 && waitedMs < 900);
+        assertEquals(1, q.dropped.get());
+    }
+
+    @Test
+    public void serverErrorsCountAsFailed() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse());
+        SinkQueue<String> q = new SinkQueue<>("errors", httpSink(), 10, 1, SinkQueue.Backpressure.DROP_OLDEST, null, 0);
+        q.offer("a");
+        q.offer("b");
+        awaitSent(q, 2);
+        assertEquals(1, q.failed.get());
+        assertEquals(1, q.sent.get());
+    }
+
+    @Test
+    public void heldQueueSendsOnlyWhatReleaseAllows() throws Exception {
+        CountDownLatch sends = new CountDownLatch(3);
+        List<String> seen = new ArrayList<>();
+        SinkQueue<String> q = new SinkQueue<>("held", (item, done) -> {
+            synchronized (seen) {
+                seen.add(item);
+            }
+            sends.countDown();
+            done.done(true);
+        }, 10, 1, SinkQueue.Backpressure.DROP_OLDEST, null, 0);
+        q.hold();
+        q.offer("a");
+        q.offer("b");
+        assertEquals(2, q.queued());
+        assertEquals(0, q.sent.get());
+
+        q.release();
+        assertEquals(2, q.sent.get());
+        q.offer("c");
+        assertEquals(1, q.queued()); // held again after the release
+
+        q.resume();
+        assertTrue(sends.await(1, TimeUnit.SECONDS));
+        assertEquals(List.of("a", "b", "c"), seen);
+    }
+
+    @Test
+    public void closeDropsQueuedItemsAndRejectsNewOnes() {
+        SinkQueue<String> q = new SinkQueue<>("closed", (item, done) -> { }, 10, 1,
+                SinkQueue.Backpressure.DROP_OLDEST, null, 0);
+        q.offer("a"); // in flight, never completes
+        q.offer("b");
+        q.close();
+        assertEquals(1, q.dropped.get());
+        assertFalse(q.offer("c"));
+    }
+}
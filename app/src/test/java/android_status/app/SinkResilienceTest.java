@@ -0,0 +1,199 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Retries and the circuit breaker against a MockWebServer that injects errors, throttling and hangs. */
+public class SinkResilienceTest {
+    private MockWebServer server;
+    private SinkResilience.Config config;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        HttpTransport.configure(new HttpTransport.Config());
+        config = new SinkResilience.Config();
+        config.baseDelayMs = 10;
+        config.maxDelayMs = 50;
+        config.attemptTimeoutMs = 2_000;
+        config.openMs = 300;
+        SinkResilience.configure(config);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        SinkResilience.configure(new SinkResilience.Config());
+    }
+
+    private Request get(String path) {
+        return new Request.Builder().url(server.url(path)).build();
+    }
+
+    private int execute(String path) throws IOException {
+        try (Response r = SinkResilience.execute(get(path))) {
+            return r.code();
+        }
+    }
+
+    @Test
+    public void serverErrorsAreRetriedUntilSuccess() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse());
+        long retries = SinkResilience.stats().retries.get();
+        assertEquals(200, execute("/flaky"));
+        assertEquals(3, server.getRequestCount());
+        assertEquals(2, SinkResilience.stats().retries.get() - retries);
+    }
+
+    @Test
+    public void lastAttemptsAnswerIsReturned() throws Exception {
+        for (int i = 0; i < 3; i++) server.enqueue(new MockResponse().setResponseCode(502));
+        assertEquals(502, execute("/down"));
+        assertEquals(config.maxAttempts, server.getRequestCount());
+    }
+
+    @Test
+    public void clientErrorsAreFinal() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400));
+        assertEquals(400, execute("/bad"));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void droppedConnectionsAreRetried() throws Exception {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+        server.enqueue(new MockResponse());
+        assertEquals(200, execute("/reset"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void hungAttemptTimesOutAndIsRetried() throws Exception {
+        config.attemptTimeoutMs = 200;
+        server.enqueue(new MockResponse().setHeadersDelay(2, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse());
+        long t0 = System.nanoTime();
+        assertEquals(200, execute("/hang"));
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        assertTrue("took " + ms + " ms", ms < 1_500);
+    }
+
+    @Test
+    public void retryAfterIsHonoured() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse());
+        long t0 = System.nanoTime();
+        assertEquals(200, execute("/throttled"));
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        assertTrue("retried after " + ms + " ms", ms >= 950);
+    }
+
+    @Test
+    public void tooLongRetryAfterGivesUp() throws Exception {
+        config.maxRetryAfterMs = 500;
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "60"));
+        assertEquals(429, execute("/throttled-long"));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void breakerOpensShortCircuitsAndClosesAfterAProbe() throws Exception {
+        config.maxAttempts = 1;
+        config.failureThreshold = 3;
+        String url = server.url("/breaker").toString();
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(500));
+            assertEquals(500, execute("/breaker"));
+        }
+        assertEquals(SinkResilience.State.OPEN, SinkResilience.state(url));
+        try {
+            execute("/breaker");
+            fail("expected CircuitOpenException");
+        } catch (SinkResilience.CircuitOpenException expected) {
+        }
+        assertEquals(3, server.getRequestCount());
+        // other endpoints on the same host are unaffected
+        server.enqueue(new MockResponse());
+        assertEquals(200, execute("/other"));
+
+        Thread.sleep(config.openMs + 50);
+        server.enqueue(new MockResponse());
+        assertEquals(200, execute("/breaker"));
+        assertEquals(SinkResilience.State.CLOSED, SinkResilience.state(url));
+    }
+
+    @Test
+    public void failedProbeOpensTheBreakerAgain() throws Exception {
+        config.maxAttempts = 1;
+        config.failureThreshold = 1;
+        String url = server.url("/probe").toString();
+        server.enqueue(new MockResponse().setResponseCode(503));
+        execute("/probe");
+        Thread.sleep(config.openMs + 50);
+        server.enqueue(new MockResponse().setResponseCode(503));
+        assertEquals(503, execute("/probe"));
+        assertEquals(SinkResilience.State.OPEN, SinkResilience.state(url));
+    }
+
+    @Test
+    public void enqueueRetriesOffTheCallersThread() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("ok"));
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        SinkResilience.enqueue(get("/async"), new SinkResilience.Listener() {
+            @Override
+            public void onResponse(Response response) {
+                try (Response r = response) {
+                    result.complete(r.code());
+                }
+            }
+
+            @Override
+            public void onFailure(IOException ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        assertEquals(200, (int) result.get(5, TimeUnit.SECONDS));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void enqueueReportsAnOpenBreakerAsFailure() throws Exception {
+        config.maxAttempts = 1;
+        config.failureThreshold = 1;
+        server.enqueue(new MockResponse().setResponseCode(500));
+        execute("/async-open");
+        CompletableFuture<IOException> failure = new CompletableFuture<>();
+        SinkResilience.enqueue(get("/async-open"), new SinkResilience.Listener() {
+            @Override
+            public void onResponse(Response response) {
+                response.close();
+                failure.complete(null);
+            }
+
+            @Override
+            public void onFailure(IOException ex) {
+                failure.complete(ex);
+            }
+        });
+        assertTrue(failure.get(5, TimeUnit.SECONDS) instanceof SinkResilience.CircuitOpenException);
+    }
+}
@@ -0,0 +1,73 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.ZoneOffset;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** The compiled template against the String.format output it replaced. */
+public class SlackFormatTest {
+    private static String fixed(double v, int decimals) {
+        StringBuilder sb = new StringBuilder();
+        SlackFormat.appendFixed(sb, v, decimals);
+        return sb.toString();
+    }
+
+    private static void assertLikeFormat(double v, int decimals) {
+        assertEquals("value " + v, String.format(Locale.US, "%." + decimals + "f", v), fixed(v, decimals));
+    }
+
+    @Test
+    public void roundsLikeStringFormat() {
+        assertEquals("4.02", fixed(4015 / 1000.0, 2));
+        assertEquals("-0.0", fixed(-0.03, 1));
+        assertEquals("-1.9", fixed(-1.85, 1));
+        double[] edges = {0, -0.0, 0.05, 0.15, 0.25, 1.005, 2.675, 4.015, 4.025, 36.45, 99.95, -0.05, -1.85, -40.25,
+                1e-7, 123456.789};
+        for (double v : edges) {
+            for (int d = 0; d <= 3; d++) assertLikeFormat(v, d);
+        }
+    }
+
+    @Test
+    public void matchesStringFormatOnRandomReadings() {
+        Random r = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            assertLikeFormat(Math.round(r.nextDouble() * 1000 - 500) / 100.0 + (r.nextBoolean() ? 0.005 : 0), 2);
+            assertLikeFormat(r.nextInt(5000) / 1000.0, 2); // millivolts as volts
+            assertLikeFormat(r.nextDouble() * 100, 1);
+        }
+    }
+
+    @Test
+    public void nonFiniteIsNotAvailable() {
+        assertEquals("N/A", fixed(Double.NaN, 1));
+        assertEquals("N/A", fixed(Double.POSITIVE_INFINITY, 2));
+    }
+
+    @Test
+    public void lineFillsTheDefaultTemplate() {
+        MetricSample s = new MetricSample();
+        s.deviceId = "0e908fe6ca72fba2";
+        s.deviceName = "atom2";
+        s.timestampMs = 1_760_000_000_000L; // 2025-10-09 08:53:20 UTC
+        s.memoryPct = 41.25;
+        s.tempC = 36.45;
+        s.batteryPct = 87;
+        s.voltageMv = 4015;
+        String line = new SlackFormat(ZoneOffset.UTC, Locale.US).line(s);
+        assertEquals("[8:53 AM] [2025-10-09 08:53:20] NOTIFICATION [Camera atom2] MEM: 41.3% | temp=36.5'C"
+                + " | Battery: 87% | Voltage: 4.02V", line);
+
+        s.tempC = null;
+        assertEquals("MEM: 41.3% temp=N/A", new SlackFormat("MEM: {mem}% {temp}", ZoneOffset.UTC, Locale.US).line(s));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFieldIsRejected() {
+        new SlackFormat("{nope}", ZoneOffset.UTC, Locale.US);
+    }
+}
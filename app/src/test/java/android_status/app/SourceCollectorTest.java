@@ -0,0 +1,188 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+/** The per-collection deadline, stale and missing sources, late reads and cadence reuse. */
+public class SourceCollectorTest {
+    private static final AtomicInteger names = new AtomicInteger();
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final List<SourceCollector> open = new ArrayList<>();
+    private final List<CountDownLatch> gates = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (CountDownLatch g : gates) g.countDown();
+        for (SourceCollector c : open) c.close();
+    }
+
+    /** InternalMetrics is process-wide, so each source gets a name of its own. */
+    private static String name(String prefix) {
+        return prefix + "-" + names.incrementAndGet();
+    }
+
+    private SourceCollector collector(MetricSource... sources) {
+        SourceCollector c = new SourceCollector(List.of(sources), new SourceCollector.Config(), now::get);
+        open.add(c);
+        return c;
+    }
+
+    private CountDownLatch gate() {
+        CountDownLatch g = new CountDownLatch(1);
+        gates.add(g);
+        return g;
+    }
+
+    private static MetricSource.Reading memory(double v) {
+        return s -> s.memoryPct = v;
+    }
+
+    @Test
+    public void freshSourcesAreAllApplied() {
+        MetricSource cheap = MetricSource.of(name("cheap"), MetricSource.Cost.CHEAP, 0, () -> s -> s.batteryPct = 80);
+        MetricSource io = MetricSource.of(name("io"), MetricSource.Cost.IO, 0, () -> memory(41.5));
+        MetricSample sample = new MetricSample();
+        SourceCollector.Result r = collector(cheap, io).collect(sample, 1_000);
+        assertTrue(r.complete());
+        assertEquals(80, sample.batteryPct);
+        assertEquals(41.5, sample.memoryPct, 0);
+    }
+
+    @Test
+    public void lateSourceIsStaleWithItsLastReadingAndCatchesUpNextTime() throws Exception {
+        String name = name("late");
+        AtomicInteger reads = new AtomicInteger();
+        List<CountDownLatch> blocks = List.of(gate(), gate());
+        MetricSource slow = MetricSource.of(name, MetricSource.Cost.BLOCKING, 0, () -> {
+            int n = reads.incrementAndGet();
+            if (n > 1) blocks.get(n - 2).await();
+            return memory(n);
+        });
+        SourceCollector c = collector(slow);
+        assertTrue(c.collect(new MetricSample(), 1_000).complete());
+
+        MetricSample second = new MetricSample();
+        long t0 = System.nanoTime();
+        SourceCollector.Result r = c.collect(second, 100);
+        long waitedMs = (System.nanoTime() - t0) / 1_000_000L;
+        assertTrue("waited " + waitedMs + " ms", waitedMs >= 90 && waitedMs < 2_000);
+        assertEquals(List.of(name), r.stale);
+        assertTrue(r.missing.isEmpty());
+        assertEquals(1.0, second.memoryPct, 0);
+        assertEquals(1, InternalMetrics.counter("source." + name + ".late").get());
+
+        // the late read finishes after the sample went out; a later collection applies it
+        blocks.get(0).countDown();
+        MetricSample third;
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        do {
+            third = new MetricSample();
+            r = c.collect(third, 50);
+        } while (third.memoryPct != 2.0 && System.nanoTime() < until);
+        assertEquals(List.of(name), r.stale);
+        assertEquals(2.0, third.memoryPct, 0);
+    }
+
+    @Test
+    public void stuckSourceIsNotResubmittedAndDoesNotHoldUpTheNext() {
+        String name = name("stuck");
+        AtomicInteger reads = new AtomicInteger();
+        CountDownLatch never = gate();
+        MetricSource stuck = MetricSource.of(name, MetricSource.Cost.IO, 0, () -> {
+            reads.incrementAndGet();
+            never.await();
+            return memory(1);
+        });
+        MetricSource ok = MetricSource.of(name("ok"), MetricSource.Cost.IO, 0, () -> s -> s.voltageMv = 4_000);
+        SourceCollector c = collector(stuck, ok);
+
+        SourceCollector.Result first = c.collect(new MetricSample(), 100);
+        assertEquals(List.of(name), first.missing);
+
+        MetricSample sample = new MetricSample();
+        long t0 = System.nanoTime();
+        SourceCollector.Result second = c.collect(sample, 1_000);
+        long tookMs = (System.nanoTime() - t0) / 1_000_000L;
+        // the stuck read is not waited on again, so only the healthy source's time counts
+        assertTrue("took " + tookMs + " ms", tookMs < 500);
+        assertEquals(List.of(name), second.missing);
+        assertTrue(second.stale.isEmpty());
+        assertEquals(4_000, sample.voltageMv);
+        assertEquals(1, reads.get());
+        assertEquals(2, InternalMetrics.counter("source." + name + ".late").get());
+    }
+
+    @Test
+    public void failingSourceIsMissingUntilItSucceedsThenStale() {
+        String name = name("flaky");
+        AtomicInteger reads = new AtomicInteger();
+        MetricSource flaky = MetricSource.of(name, MetricSource.Cost.CHEAP, 0, () -> {
+            switch (reads.incrementAndGet()) {
+                case 1: throw new IllegalStateException("no battery level");
+                case 2: return null;
+                case 3: return s -> s.batteryPct = 55;
+                default: throw new IllegalStateException("gone again");
+            }
+        });
+        SourceCollector c = collector(flaky);
+        assertEquals(List.of(name), c.collect(new MetricSample(), 100).missing);
+        assertEquals(List.of(name), c.collect(new MetricSample(), 100).missing);
+        assertTrue(c.collect(new MetricSample(), 100).complete());
+
+        MetricSample sample = new MetricSample();
+        SourceCollector.Result r = c.collect(sample, 100);
+        assertEquals(List.of(name), r.stale);
+        assertEquals(55, sample.batteryPct);
+        InternalMetrics.Timer timer = InternalMetrics.timer("source." + name);
+        assertEquals(4, timer.count());
+        assertEquals(3, timer.errors());
+    }
+
+    @Test
+    public void pooledReadThatThrowsIsMissing() {
+        String name = name("throws");
+        MetricSource broken = MetricSource.of(name, MetricSource.Cost.IO, 0, () -> {
+            throw new IOException("EIO");
+        });
+        SourceCollector.Result r = collector(broken).collect(new MetricSample(), 1_000);
+        assertEquals(List.of(name), r.missing);
+        assertEquals(1, InternalMetrics.timer("source." + name).errors());
+    }
+
+    @Test
+    public void readingYoungerThanTheCadenceIsReused() {
+        AtomicInteger reads = new AtomicInteger();
+        MetricSource cpu = MetricSource.of(name("cadence"), MetricSource.Cost.IO, 10_000, () -> {
+            int n = reads.incrementAndGet();
+            return s -> s.cpuPct = (double) n;
+        });
+        SourceCollector c = collector(cpu);
+        MetricSample a = new MetricSample();
+        assertTrue(c.collect(a, 1_000).complete());
+
+        now.addAndGet(9_999);
+        MetricSample b = new MetricSample();
+        // a reused reading counts as fresh
+        assertTrue(c.collect(b, 1_000).complete());
+        assertEquals(1.0, b.cpuPct, 0);
+        assertEquals(1, reads.get());
+
+        now.addAndGet(1);
+        MetricSample d = new MetricSample();
+        c.collect(d, 1_000);
+        assertEquals(2.0, d.cpuPct, 0);
+        assertEquals(2, reads.get());
+    }
+}
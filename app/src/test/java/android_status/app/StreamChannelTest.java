@@ -0,0 +1,210 @@
+package android_status.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.ByteString;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** StreamChannel against a local broker: hello, batch frames and acks, pushed commands, reconnects. */
+public class StreamChannelTest {
+    /** Server side of one connection: records what the device sent and can answer on the socket. */
+    private static final class Broker extends WebSocketListener {
+        final BlockingQueue<String> texts = new LinkedBlockingQueue<>();
+        final BlockingQueue<ByteString> frames = new LinkedBlockingQueue<>();
+        final CompletableFuture<WebSocket> socket = new CompletableFuture<>();
+        final CompletableFuture<String> authorization = new CompletableFuture<>();
+        private final boolean autoAck;
+
+        Broker(boolean autoAck) {
+            this.autoAck = autoAck;
+        }
+
+        @Override
+        public void onOpen(WebSocket ws, Response response) {
+            authorization.complete(response.request().header("Authorization"));
+            socket.complete(ws);
+        }
+
+        @Override
+        public void onMessage(WebSocket ws, String text) {
+            texts.add(text);
+        }
+
+        @Override
+        public void onMessage(WebSocket ws, ByteString bytes) {
+            frames.add(bytes);
+            if (autoAck) ws.send("{\"type\":\"ack\",\"id\":" + bytes.asByteBuffer().getLong() + "}");
+        }
+
+        @Override
+        public void onClosing(WebSocket ws, int code, String reason) {
+            ws.close(1000, null);
+        }
+
+        WebSocket ws() throws Exception {
+            return socket.get(5, TimeUnit.SECONDS);
+        }
+
+        JSONObject hello() throws Exception {
+            String t = texts.poll(5, TimeUnit.SECONDS);
+            assertNotNull("no hello", t);
+            return new JSONObject(t);
+        }
+    }
+
+    private final BlockingQueue<JSONObject> commands = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Boolean> states = new LinkedBlockingQueue<>();
+    private final StreamChannel.Listener listener = new StreamChannel.Listener() {
+        @Override
+        public void onCommand(JSONObject command) {
+            commands.add(command);
+        }
+
+        @Override
+        public void onStateChanged(boolean open) {
+            states.add(open);
+        }
+    };
+
+    private MockWebServer server;
+    private StreamChannel.Config config;
+    private StreamChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        config = new StreamChannel.Config();
+        config.ackTimeoutMs = 300;
+        config.minReconnectMs = 20;
+        config.maxReconnectMs = 100;
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (channel != null) channel.stop();
+        server.shutdown();
+    }
+
+    private Broker broker(boolean autoAck) {
+        Broker b = new Broker(autoAck);
+        server.enqueue(new MockResponse().withWebSocketUpgrade(b));
+        return b;
+    }
+
+    private void open() throws InterruptedException {
+        channel = new StreamChannel(server.url("/stream").toString().replaceFirst("^http", "ws"), "k3y", "dev-1",
+                config, listener);
+        channel.start();
+        assertEquals(Boolean.TRUE, states.poll(5, TimeUnit.SECONDS));
+    }
+
+    private CompletableFuture<Boolean> send(String body) {
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        channel.send(body.getBytes(StandardCharsets.UTF_8), JsonPayloadEncoder.CONTENT_TYPE, 1, done::complete);
+        return done;
+    }
+
+    @Test
+    public void helloThenAckedBatch() throws Exception {
+        Broker b = broker(true);
+        open();
+        assertEquals("Bearer k3y", b.authorization.get(5, TimeUnit.SECONDS));
+        JSONObject hello = b.hello();
+        assertEquals("hello", hello.getString("type"));
+        assertEquals("dev-1", hello.getString("deviceId"));
+
+        assertTrue(send("{\"a\":1}").get(5, TimeUnit.SECONDS));
+        ByteBuffer frame = b.frames.poll(5, TimeUnit.SECONDS).asByteBuffer();
+        assertEquals(1, frame.getLong());
+        byte[] ct = new byte[frame.get()];
+        frame.get(ct);
+        assertEquals(JsonPayloadEncoder.CONTENT_TYPE, new String(ct, StandardCharsets.US_ASCII));
+        byte[] body = new byte[frame.remaining()];
+        frame.get(body);
+        assertArrayEquals("{\"a\":1}".getBytes(StandardCharsets.UTF_8), body);
+    }
+
+    @Test
+    public void rejectedBatchFails() throws Exception {
+        Broker b = broker(false);
+        open();
+        CompletableFuture<Boolean> done = send("x");
+        long id = b.frames.poll(5, TimeUnit.SECONDS).asByteBuffer().getLong();
+        b.ws().send("{\"type\":\"ack\",\"id\":" + id + ",\"ok\":false}");
+        assertFalse(done.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void missingAckTimesOut() throws Exception {
+        broker(false);
+        open();
+        long t0 = System.nanoTime();
+        assertFalse(send("x").get(5, TimeUnit.SECONDS));
+        assertTrue((System.nanoTime() - t0) / 1_000_000 >= config.ackTimeoutMs - 20);
+    }
+
+    @Test
+    public void pushedCommandReachesTheListener() throws Exception {
+        Broker b = broker(false);
+        open();
+        b.ws().send("{\"type\":\"REQUEST_LOCATION\",\"requestId\":\"r-7\"}");
+        JSONObject cmd = commands.poll(5, TimeUnit.SECONDS);
+        assertNotNull(cmd);
+        assertEquals("REQUEST_LOCATION", cmd.getString("type"));
+        assertEquals("r-7", cmd.getString("requestId"));
+    }
+
+    @Test
+    public void closedSocketFailsUnackedBatchesAndReconnects() throws Exception {
+        Broker first = broker(false);
+        Broker second = broker(true);
+        open();
+        CompletableFuture<Boolean> pending = send("x");
+        first.frames.poll(5, TimeUnit.SECONDS);
+        first.ws().close(1001, "going away");
+
+        assertFalse(pending.get(5, TimeUnit.SECONDS));
+        assertEquals(Boolean.FALSE, states.poll(5, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, states.poll(5, TimeUnit.SECONDS));
+        assertEquals("hello", second.hello().getString("type"));
+        assertTrue(send("y").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sendWhileClosedFailsAtOnce() throws Exception {
+        channel = new StreamChannel("ws://127.0.0.1:1/stream", null, "dev-1", config, listener);
+        assertFalse(send("x").get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stopFailsUnackedBatches() throws Exception {
+        broker(false);
+        open();
+        CompletableFuture<Boolean> pending = send("x");
+        channel.stop();
+        assertFalse(pending.get(1, TimeUnit.SECONDS));
+        assertFalse(channel.isOpen());
+    }
+}
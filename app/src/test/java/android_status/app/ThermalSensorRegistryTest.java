@@ -0,0 +1,134 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Sensor ranking, caching and rediscovery against a fixture /sys tree. */
+public class ThermalSensorRegistryTest {
+    private Path root;
+    private ProcParser parser;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("sys-");
+        parser = new ProcParser(root.toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        parser.close();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private void write(String absPath, String content) throws IOException {
+        Path p = root.resolve(absPath.substring(1));
+        Files.createDirectories(p.getParent());
+        Files.writeString(p, content);
+    }
+
+    private void zone(int n, String type, String temp) throws IOException {
+        write("/sys/class/thermal/thermal_zone" + n + "/type", type + "\n");
+        write("/sys/class/thermal/thermal_zone" + n + "/temp", temp + "\n");
+    }
+
+    @Test
+    public void cpuLikeZoneWinsOverEarlierZones() throws Exception {
+        zone(0, "battery", "31000");
+        zone(2, "pm8150_tz", "33000");
+        zone(10, "cpu-1-0-usr", "45500");
+        ThermalSensorRegistry r = new ThermalSensorRegistry(parser);
+        assertEquals(45.5, r.read(0), 1e-9);
+        assertEquals("/sys/class/thermal/thermal_zone10/temp", r.chosenPath());
+    }
+
+    @Test
+    public void zonesAreRankedByNumberNotName() throws Exception {
+        zone(10, "xo_therm", "40000");
+        zone(2, "skin", "36000");
+        ThermalSensorRegistry r = new ThermalSensorRegistry(parser);
+        assertEquals(36.0, r.read(0), 1e-9);
+    }
+
+    @Test
+    public void firstValidZoneWhenNoneLooksLikeACpu() throws Exception {
+        zone(0, "battery", "0");
+        zone(1, "skin", "-5");
+        zone(3, "xo_therm", "38000");
+        ThermalSensorRegistry r = new ThermalSensorRegistry(parser);
+        assertEquals(38.0, r.read(0), 1e-9);
+    }
+
+    @Test
+    public void hwmonIsTheFallback() throws Exception {
+        zone(0, "cpu", "0");
+        write("/sys/class/hwmon/hwmon1/temp2_input", "41000\n");
+        write("/sys/class/hwmon/hwmon1/temp1_input", "0\n");
+        ThermalSensorRegistry r = new ThermalSensorRegistry(parser);
+        assertEquals(41.0, r.read(0), 1e-9);
+        assertEquals("/sys/class/hwmon/hwmon1/temp2_input", r.chosenPath());
+    }
+
+    @Test
+    public void chosenSensorIsReadWithoutProbingAgain() throws Exception {
+        zone(0, "cpu", "40000");
+        ThermalSensorRegistry r = new ThermalSensorRegistry(parser, 60_000);
+        r.read(0);
+        write("/sys/class/thermal/thermal_zone0/temp", "42000\n");
+        assertEquals(42.0, r.read(30_000), 1e-9);
+        assertEquals(1, r.discoveryCount());
+
+        // a better sensor appearing is only noticed at the next rediscovery
+        zone(1, "soc", "50000");
+        zone(0, "battery", "40000");
+        assertEquals(40.0, r.read(59_999), 1e-9);
+        assertEquals(50.0, r.read(60_000), 1e-9);
+        assertEquals(2, r.discoveryCount());
+    }
+
+    @Test
+    public void sensorThatStopsReportingIsReplacedAtOnce() throws Exception {
+        zone(0, "cpu", "40000");
+        zone(1, "skin", "35000");
+        ThermalSensorRegistry r = new ThermalSensorRegistry(parser);
+        r.read(0);
+        write("/sys/class/thermal/thermal_zone0/temp", "0\n");
+        assertEquals(35.0, r.read(1_000), 1e-9);
+        assertEquals("/sys/class/thermal/thermal_zone1/temp", r.chosenPath());
+    }
+
+    @Test
+    public void noSensorIsNaNAndRetriedAfterAMinute() throws Exception {
+        new File(root.toFile(), "sys/class/thermal").mkdirs();
+        ThermalSensorRegistry r = new ThermalSensorRegistry(parser);
+        assertTrue(Double.isNaN(r.read(0)));
+        assertNull(r.chosenPath());
+
+        zone(0, "cpu", "39000");
+        assertTrue(Double.isNaN(r.read(59_999)));
+        assertEquals(39.0, r.read(60_000), 1e-9);
+    }
+
+    @Test
+    public void invalidateForcesAProbe() throws Exception {
+        zone(0, "skin", "35000");
+        ThermalSensorRegistry r = new ThermalSensorRegistry(parser);
+        r.read(0);
+        zone(1, "cpu", "44000");
+        r.invalidate();
+        assertEquals(44.0, r.read(1), 1e-9);
+    }
+}
@@ -0,0 +1,180 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Ring wrap-around, incremental rollups, reopening the mapped file, and the history payload. */
+public class TimeSeriesStoreTest {
+    private static final long MIN = 60_000L;
+    private static final long T0 = 1_760_000_400_000L; // on a whole hour
+    private static final int MEMORY = TimeSeriesStore.Metric.MEMORY.ordinal();
+    private static final int TEMP = TimeSeriesStore.Metric.TEMP.ordinal();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("history-", ".ats");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static TimeSeriesStore.Config small() {
+        TimeSeriesStore.Config c = new TimeSeriesStore.Config();
+        c.rawCapacity = 10;
+        c.minuteCapacity = 5;
+        c.hourCapacity = 3;
+        c.dayCapacity = 2;
+        return c;
+    }
+
+    private static void append(TimeSeriesStore s, long t, double memory) {
+        s.append(t, memory, Double.NaN, 30.0, 80, 4.0);
+    }
+
+    @Test
+    public void defaultRawRingHoldsADayAtTheFastestInterval() {
+        TimeSeriesStore.Config c = new TimeSeriesStore.Config();
+        long fastest = new AdaptiveSampler.Config().minIntervalMs;
+        assertTrue(c.rawCapacity * fastest >= 24 * 60 * MIN);
+        assertTrue(c.minuteCapacity * MIN >= 2 * 24 * 60 * MIN);
+        assertTrue(c.hourCapacity * 60 * MIN >= 30 * 24 * 60 * MIN);
+    }
+
+    @Test
+    public void fullRingKeepsTheNewestRecords() throws IOException {
+        TimeSeriesStore s = new TimeSeriesStore(file, small());
+        for (int i = 0; i < 25; i++) append(s, T0 + i * 1_000L, i);
+
+        TimeSeriesStore.Series raw = s.query(TimeSeriesStore.Resolution.RAW, 0, Long.MAX_VALUE);
+        assertEquals(10, raw.size);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(T0 + (15 + i) * 1_000L, raw.timestampMs[i]);
+            assertEquals(15 + i, raw.avg[MEMORY][i], 0f);
+            assertEquals(1, raw.count[MEMORY][i]);
+        }
+        assertEquals(0, raw.count[TimeSeriesStore.Metric.CPU.ordinal()][0]);
+        assertTrue(Float.isNaN(raw.avg[TimeSeriesStore.Metric.CPU.ordinal()][0]));
+    }
+
+    @Test
+    public void rollupsKeepMinMaxAndAverage() throws IOException {
+        TimeSeriesStore s = new TimeSeriesStore(file, small());
+        append(s, T0, 10);
+        append(s, T0 + 20_000, 40);
+        append(s, T0 + 40_000, 25);
+        append(s, T0 + MIN, 50);
+
+        TimeSeriesStore.Series m = s.query(TimeSeriesStore.Resolution.MINUTE, 0, Long.MAX_VALUE);
+        assertEquals(2, m.size);
+        assertEquals(T0, m.timestampMs[0]);
+        assertEquals(10f, m.min[MEMORY][0], 0f);
+        assertEquals(40f, m.max[MEMORY][0], 0f);
+        assertEquals(25f, m.avg[MEMORY][0], 1e-4f);
+        assertEquals(3, m.count[MEMORY][0]);
+        assertEquals(50f, m.avg[MEMORY][1], 0f);
+
+        TimeSeriesStore.Series h = s.query(TimeSeriesStore.Resolution.HOUR, 0, Long.MAX_VALUE);
+        assertEquals(1, h.size);
+        assertEquals(4, h.count[MEMORY][0]);
+        assertEquals(31.25f, h.avg[MEMORY][0], 1e-4f);
+        assertEquals(30f, h.avg[TEMP][0], 1e-4f);
+    }
+
+    @Test
+    public void rollupRingsWrapToo() throws IOException {
+        TimeSeriesStore s = new TimeSeriesStore(file, small());
+        for (int i = 0; i < 8; i++) append(s, T0 + i * MIN, i);
+        TimeSeriesStore.Series m = s.query(TimeSeriesStore.Resolution.MINUTE, 0, Long.MAX_VALUE);
+        assertEquals(5, m.size);
+        assertEquals(T0 + 3 * MIN, m.timestampMs[0]);
+        assertEquals(7f, m.avg[MEMORY][4], 0f);
+    }
+
+    @Test
+    public void lateSampleIsKeptRawButNotRolledUp() throws IOException {
+        TimeSeriesStore s = new TimeSeriesStore(file, small());
+        append(s, T0 + 2 * MIN, 10);
+        append(s, T0, 99); // clock stepped back
+        assertEquals(2, s.size(TimeSeriesStore.Resolution.RAW));
+        assertEquals(1, s.size(TimeSeriesStore.Resolution.MINUTE));
+        // it still falls in the open hour and day buckets
+        assertEquals(1, s.droppedFromRollups());
+    }
+
+    @Test
+    public void queryRangeIsHalfOpen() throws IOException {
+        TimeSeriesStore s = new TimeSeriesStore(file, small());
+        for (int i = 0; i < 5; i++) append(s, T0 + i * 1_000L, i);
+        TimeSeriesStore.Series r = s.query(TimeSeriesStore.Resolution.RAW, T0 + 1_000, T0 + 3_000);
+        assertEquals(2, r.size);
+        assertEquals(T0 + 1_000, r.timestampMs[0]);
+        assertEquals(T0 + 2_000, r.timestampMs[1]);
+    }
+
+    @Test
+    public void historySurvivesReopening() throws IOException {
+        TimeSeriesStore s = new TimeSeriesStore(file, small());
+        for (int i = 0; i < 13; i++) append(s, T0 + i * 10_000L, i);
+        s.flush();
+
+        TimeSeriesStore reopened = new TimeSeriesStore(file, small());
+        assertEquals(10, reopened.size(TimeSeriesStore.Resolution.RAW));
+        append(reopened, T0 + 130_000, 13);
+        TimeSeriesStore.Series raw = reopened.query(TimeSeriesStore.Resolution.RAW, 0, Long.MAX_VALUE);
+        assertEquals(T0 + 40_000, raw.timestampMs[0]);
+        assertEquals(13f, raw.avg[MEMORY][9], 0f);
+        // the open minute bucket kept folding in after the reopen
+        TimeSeriesStore.Series m = reopened.query(TimeSeriesStore.Resolution.MINUTE, T0 + 2 * MIN, T0 + 3 * MIN);
+        assertEquals(2, m.count[MEMORY][0]);
+    }
+
+    @Test
+    public void otherLayoutStartsEmpty() throws IOException {
+        TimeSeriesStore s = new TimeSeriesStore(file, small());
+        append(s, T0, 1);
+        s.flush();
+        TimeSeriesStore.Config bigger = small();
+        bigger.rawCapacity = 20;
+        assertEquals(0, new TimeSeriesStore(file, bigger).size(TimeSeriesStore.Resolution.RAW));
+    }
+
+    @Test
+    public void rangeRendersAsAHistoryPayload() throws Exception {
+        TimeSeriesStore s = new TimeSeriesStore(file, small());
+        append(s, T0, 10);
+        s.append(T0 + 30_000, 30, Double.NaN, Double.NaN, 79, 3.9);
+
+        TimeSeriesStore.Series m = s.query(TimeSeriesStore.Resolution.MINUTE, T0, T0 + MIN);
+        JSONObject j = new JSONObject(new String(ApiPayloads.history("dev-1", null, "r-1", T0, T0 + MIN, m),
+                StandardCharsets.UTF_8));
+        assertEquals("history", j.getString("type"));
+        assertEquals("minute", j.getString("resolution"));
+        assertEquals(1, j.getInt("points"));
+        assertEquals(T0, j.getJSONArray("timestampMs").getLong(0));
+        JSONObject memory = j.getJSONObject("metrics").getJSONObject("memoryPct");
+        assertEquals(20.0, memory.getJSONArray("avg").getDouble(0), 1e-6);
+        assertEquals(2, memory.getJSONArray("count").getInt(0));
+        assertTrue(j.getJSONObject("metrics").getJSONObject("cpuPct").getJSONArray("min").isNull(0));
+        assertEquals(1, j.getJSONObject("metrics").getJSONObject("tempC").getJSONArray("count").getInt(0));
+
+        TimeSeriesStore.Series raw = s.query(TimeSeriesStore.Resolution.RAW, T0, T0 + MIN);
+        JSONObject r = new JSONObject(new String(ApiPayloads.history("dev-1", "atom1", null, T0, T0 + MIN, raw),
+                StandardCharsets.UTF_8));
+        assertEquals("atom1", r.getString("deviceName"));
+        assertTrue(r.getJSONObject("metrics").getJSONArray("tempC").isNull(1));
+        assertEquals(3.9, r.getJSONObject("metrics").getJSONArray("voltageV").getDouble(1), 1e-6);
+    }
+}
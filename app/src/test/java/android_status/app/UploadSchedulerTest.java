@@ -0,0 +1,117 @@
+package android_status.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/** Connectivity timelines: what each held upload, network change and radio event leads to. */
+public class UploadSchedulerTest {
+    private static final long MIN = 60_000L;
+
+    private final UploadScheduler.Config config = new UploadScheduler.Config();
+    private final UploadScheduler scheduler = new UploadScheduler(config);
+
+    @Test
+    public void meteredIdleRadioHoldsUntilTheDeadline() {
+        scheduler.onNetwork(0, true, true);
+        assertNull(scheduler.offer(0, false, false));
+        assertNull(scheduler.offer(MIN, false, false));
+        assertNull(scheduler.offer(2 * MIN, false, false));
+        assertEquals(5 * MIN, scheduler.nextDeadlineMs());
+        assertNull(scheduler.tick(5 * MIN - 1));
+        assertEquals(UploadScheduler.Reason.DEADLINE, scheduler.tick(5 * MIN));
+
+        scheduler.flushed(UploadScheduler.Reason.DEADLINE, false);
+        // three uploads would each have woken the radio; the flush woke it once
+        assertEquals(2, scheduler.wakeupsSaved());
+        assertEquals(1, scheduler.wakeupsSpent());
+        assertEquals(0, scheduler.pending());
+        assertEquals(-1, scheduler.nextDeadlineMs());
+    }
+
+    @Test
+    public void activeRadioCarriesHeldUploads() {
+        scheduler.onNetwork(0, true, true);
+        assertNull(scheduler.offer(0, false, false));
+        assertNull(scheduler.offer(10_000, false, false));
+        assertEquals(UploadScheduler.Reason.RADIO_ACTIVE, scheduler.onRadioActive());
+        scheduler.flushed(UploadScheduler.Reason.RADIO_ACTIVE, true);
+        assertEquals(2, scheduler.wakeupsSaved());
+        assertEquals(0, scheduler.wakeupsSpent());
+        assertEquals(1, scheduler.flushes(UploadScheduler.Reason.RADIO_ACTIVE));
+    }
+
+    @Test
+    public void offerWhileTheRadioIsActiveGoesOutAtOnce() {
+        scheduler.onNetwork(0, true, true);
+        assertEquals(UploadScheduler.Reason.RADIO_ACTIVE, scheduler.offer(0, false, true));
+    }
+
+    @Test
+    public void switchingToWifiFlushes() {
+        scheduler.onNetwork(0, true, true);
+        assertNull(scheduler.offer(0, false, false));
+        assertEquals(UploadScheduler.Reason.UNMETERED, scheduler.onNetwork(30_000, true, false));
+        scheduler.flushed(UploadScheduler.Reason.UNMETERED, false);
+        assertEquals(1, scheduler.wakeupsSaved());
+        assertEquals(0, scheduler.wakeupsSpent());
+        // on Wi-Fi nothing is held
+        assertEquals(UploadScheduler.Reason.UNMETERED, scheduler.offer(40_000, false, false));
+    }
+
+    @Test
+    public void urgentFlushesImmediately() {
+        scheduler.onNetwork(0, true, true);
+        assertNull(scheduler.offer(0, false, false));
+        assertEquals(UploadScheduler.Reason.URGENT, scheduler.offer(1_000, true, false));
+    }
+
+    @Test
+    public void offlineHoldsEverythingAndFlushesOnReconnect() {
+        scheduler.onNetwork(0, false, true);
+        assertNull(scheduler.offer(0, true, false));
+        assertNull(scheduler.offer(1_000, false, false));
+        assertNull(scheduler.tick(10 * MIN));
+        assertNull(scheduler.onRadioActive());
+        assertEquals(UploadScheduler.Reason.URGENT, scheduler.onNetwork(11 * MIN, true, true));
+        scheduler.flushed(UploadScheduler.Reason.URGENT, false);
+        // offline uploads would not have woken the radio
+        assertEquals(0, scheduler.wakeupsSaved());
+    }
+
+    @Test
+    public void deadlinePassedOfflineFlushesOnMeteredReconnect() {
+        scheduler.onNetwork(0, true, true);
+        assertNull(scheduler.offer(0, false, false));
+        scheduler.onNetwork(MIN, false, true);
+        assertNull(scheduler.tick(6 * MIN));
+        assertEquals(UploadScheduler.Reason.DEADLINE, scheduler.onNetwork(7 * MIN, true, true));
+    }
+
+    @Test
+    public void fullQueueFlushesEarly() {
+        scheduler.onNetwork(0, true, true);
+        assertNull(scheduler.onQueueFull());
+        assertNull(scheduler.offer(0, false, false));
+        assertEquals(UploadScheduler.Reason.QUEUE_FULL, scheduler.onQueueFull());
+        scheduler.onNetwork(1_000, false, true);
+        assertNull(scheduler.onQueueFull());
+    }
+
+    @Test
+    public void zeroLatencySendsEverythingAtOnce() {
+        config.maxLatencyMs = 0;
+        scheduler.onNetwork(0, true, true);
+        assertEquals(UploadScheduler.Reason.DEADLINE, scheduler.offer(0, false, false));
+    }
+
+    @Test
+    public void deadlineCountsFromTheOldestHeldUpload() {
+        scheduler.onNetwork(0, true, true);
+        assertNull(scheduler.offer(0, false, false));
+        scheduler.flushed(UploadScheduler.Reason.DEADLINE, false);
+        assertNull(scheduler.offer(4 * MIN, false, false));
+        assertEquals(9 * MIN, scheduler.nextDeadlineMs());
+    }
+}
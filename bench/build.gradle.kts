@@ -0,0 +1,70 @@
+/*
+ * JVM-only JMH benchmarks for the pure-Java parts of the app.
+ * Run with ./gradlew :bench:jmh
+ */
+
+plugins {
+    java
+    id("me.champeau.jmh")
+}
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(17))
+    }
+}
+
+sourceSets {
+    main {
+        java {
+            setSrcDirs(listOf("../app/src/main/java"))
+            include("android_status/app/ProcParser.java")
+            include("android_status/app/ThermalSensorRegistry.java")
+            include("android_status/app/MetricSample.java")
+            include("android_status/app/PayloadEncoder.java")
+            include("android_status/app/JsonPayloadEncoder.java")
+            include("android_status/app/BinaryPayloadEncoder.java")
+            include("android_status/app/BinaryPayloadDecoder.java")
+            include("android_status/app/DeltaFilter.java")
+            include("android_status/app/CpuSampler.java")
+            include("android_status/app/SlackFormat.java")
+            include("android_status/app/SlackDigest.java")
+            include("android_status/app/InternalMetrics.java")
+            include("android_status/app/HttpTransport.java")
+            include("android_status/app/SinkResilience.java")
+            include("android_status/app/Outbox.java")
+            include("android_status/app/ApiPayloads.java")
+            include("android_status/app/TimeSeriesStore.java")
+            include("android_status/app/OutboxUploader.java")
+            include("android_status/app/SinkQueue.java")
+            include("android_status/app/StreamChannel.java")
+        }
+    }
+}
+
+dependencies {
+    implementation("org.json:json:20240303")
+    implementation("com.squareup.okhttp3:okhttp:4.9.3")
+    jmh("com.squareup.okhttp3:mockwebserver:4.9.3")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(2)
+    iterations.set(3)
+    fork.set(1)
+    profilers.add("gc")
+    // machine-readable results (score plus gc.alloc.rate.norm per benchmark) for comparing commits
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    if (project.hasProperty("jmhInclude")) includes.add(project.property("jmhInclude").toString())
+}
+
+// Replays a recorded payload trace (one JSON object per line) through DeltaFilter.
+tasks.register<JavaExec>("replayDeltas") {
+    group = "benchmark"
+    description = "Shows how much DeltaFilter reduces upload volume on a trace (-Ptrace=file.jsonl)."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("android_status.bench.DeltaReplay")
+    if (project.hasProperty("trace")) args(project.property("trace").toString())
+}
@@ -0,0 +1,55 @@
+package android_status.bench;
+
+import android_status.app.CpuSampler;
+import android_status.app.ProcParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/** One CpuSampler tick (per-core stat, cpufreq, top-5 processes) as core and process counts grow. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CpuSamplerBenchmark {
+    @Param({"8", "64"})
+    public int cores;
+
+    @Param({"50", "500"})
+    public int procs;
+
+    private File root;
+    private ProcParser parser;
+    private CpuSampler sampler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = Fixtures.newRoot("cpu");
+        Fixtures.writeCpuTree(root, cores, procs);
+        parser = new ProcParser(root.getPath());
+        sampler = new CpuSampler(parser, 5);
+        sampler.sample();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        parser.close();
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public double sample() {
+        sampler.sample();
+        return sampler.totalPct();
+    }
+}
@@ -0,0 +1,97 @@
+package android_status.bench;
+
+import android_status.app.DeltaFilter;
+import android_status.app.MetricSample;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Replays a trace through DeltaFilter and prints how many payloads and JSON bytes remain.
+ *
+ * Usage: ./gradlew :bench:replayDeltas [-Ptrace=path/to/trace.jsonl]
+ * A trace is one API payload JSON object per line, as logged or stored by a backend. Without a
+ * trace, a synthetic 24 h idle device sampled every 30 s is used.
+ */
+public final class DeltaReplay {
+    private DeltaReplay() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<MetricSample> trace = args.length > 0 ? load(args[0]) : idleDay();
+        DeltaFilter filter = new DeltaFilter(new DeltaFilter.Config());
+        long rawBytes = 0, sentBytes = 0;
+        int full = 0, delta = 0, skipped = 0;
+        for (MetricSample s : trace) {
+            rawBytes += bytes(s.toJson());
+            DeltaFilter.Decision d = filter.evaluate(s, false);
+            switch (d.kind) {
+                case SKIP:
+                    skipped++;
+                    break;
+                case FULL:
+                    full++;
+                    sentBytes += bytes(s.toJson());
+                    break;
+                case DELTA:
+                    delta++;
+                    sentBytes += bytes(s.toDeltaJson(d.changed));
+                    break;
+            }
+        }
+        int sent = full + delta;
+        System.out.printf(Locale.US, "samples=%d sent=%d (full=%d delta=%d) skipped=%d%n",
+                trace.size(), sent, full, delta, skipped);
+        System.out.printf(Locale.US, "payloads reduced %.1fx, bytes %d -> %d (%.1fx)%n",
+                trace.size() / (double) Math.max(1, sent), rawBytes, sentBytes, rawBytes / (double) Math.max(1, sentBytes));
+    }
+
+    private static int bytes(JSONObject j) {
+        return j.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    static List<MetricSample> load(String path) throws IOException {
+        List<MetricSample> out = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                out.add(MetricSample.fromJson(new JSONObject(line)));
+            }
+        }
+        return out;
+    }
+
+    /** Parked camera: memory and temperature wobble inside sensor noise, battery drains slowly. */
+    static List<MetricSample> idleDay() {
+        Random rnd = new Random(7);
+        List<MetricSample> out = new ArrayList<>();
+        long ts = 1_730_000_000_000L;
+        for (int i = 0; i < 24 * 120; i++) {
+            MetricSample s = new MetricSample();
+            s.deviceId = "9ea5006ef6b50d20";
+            s.deviceName = "atom1";
+            s.timestampMs = ts;
+            s.memoryPct = Math.round((35.0 + rnd.nextGaussian() * 0.3) * 10.0) / 10.0;
+            s.tempC = 31.0 + Math.round(rnd.nextGaussian() * 2) / 10.0;
+            s.batteryPct = 100 - i / 180;
+            s.voltageMv = 4270 - i / 20 + rnd.nextInt(10);
+            s.lat = -33.86370 + rnd.nextGaussian() * 0.00002;
+            s.lon = 151.20220 + rnd.nextGaussian() * 0.00002;
+            s.accuracy = 8f + rnd.nextInt(40) / 10f;
+            s.provider = "fused";
+            out.add(s);
+            ts += 30_000;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,78 @@
+package android_status.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** Writes fake /proc and /sys trees under a temp directory so parsers can run on plain Linux. */
+final class Fixtures {
+    static final String PROC_STAT =
+            "cpu  2255 34 2290 22625563 6290 127 456 0 0 0\n"
+                    + "cpu0 1132 34 1441 11311718 3675 127 438 0 0 0\n"
+                    + "cpu1 1123 0 849 11313845 2614 0 18 0 0 0\n"
+                    + "intr 114930548 113199788 3 0 5 263 0 4 [... lots more numbers ...]\n"
+                    + "ctxt 1990473\n"
+                    + "btime 1062191376\n"
+                    + "processes 2915\n"
+                    + "procs_running 1\n"
+                    + "procs_blocked 0\n";
+
+    static final String MEMINFO =
+            "MemTotal:        3844432 kB\n"
+                    + "MemFree:          187140 kB\n"
+                    + "MemAvailable:    1526736 kB\n"
+                    + "Buffers:            4264 kB\n"
+                    + "Cached:          1410880 kB\n"
+                    + "SwapCached:        12880 kB\n"
+                    + "Active:          1538596 kB\n"
+                    + "Inactive:        1200000 kB\n";
+
+    private Fixtures() {
+    }
+
+    static File newRoot(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void write(File root, String absPath, String content) throws IOException {
+        File f = new File(root, absPath);
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** Creates /proc/stat, /proc/meminfo and {@code zones} thermal zones; the last zone is the CPU one. */
+    static void writeProcAndThermal(File root, int zones) throws IOException {
+        write(root, "/proc/stat", PROC_STAT);
+        write(root, "/proc/meminfo", MEMINFO);
+        for (int i = 0; i < zones; i++) {
+            String dir = "/sys/class/thermal/thermal_zone" + i;
+            write(root, dir + "/type", i == zones - 1 ? "cpu-0-0-usr\n" : "pa-therm" + i + "\n");
+            write(root, dir + "/temp", (30000 + i * 10) + "\n");
+        }
+    }
+
+    /** /proc/stat with {@code cores} cpuN lines, cpufreq files, and {@code procs} /proc/[pid]/stat files. */
+    static void writeCpuTree(File root, int cores, int procs) throws IOException {
+        StringBuilder stat = new StringBuilder("cpu  2255 34 2290 22625563 6290 127 456 0 0 0\n");
+        for (int c = 0; c < cores; c++) {
+            stat.append("cpu").append(c).append(" 1132 34 1441 11311718 3675 127 438 0 0 0\n");
+            write(root, "/sys/devices/system/cpu/cpu" + c + "/cpufreq/scaling_cur_freq", "1804800\n");
+        }
+        stat.append("intr 114930548 113199788 3 0 5 263 0 4\nctxt 1990473\n");
+        write(root, "/proc/stat", stat.toString());
+        for (int p = 1; p <= procs; p++) {
+            write(root, "/proc/" + (p * 7) + "/stat", (p * 7) + " (proc " + p + ") S 1 1 0 0 -1 4194560 "
+                    + "120 0 0 0 " + (p * 13) + " " + (p * 5) + " 0 0 20 0 1 0 10 0 0\n");
+        }
+    }
+
+    static void delete(File root) throws IOException {
+        if (root == null || !root.exists()) return;
+        try (Stream<java.nio.file.Path> paths = Files.walk(root.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package android_status.bench;
+
+import android_status.app.HttpTransport;
+import android_status.app.JsonPayloadEncoder;
+import android_status.app.MetricSample;
+import android_status.app.SinkResilience;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * One API post through the shared HttpTransport client to a local MockWebServer (HTTP/1.1,
+ * keep-alive), so the numbers are client-side cost: request building, optional gzip, OkHttp's
+ * call machinery and timing listener. {@code resilient} adds the SinkResilience wrapper.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HttpPostBenchmark {
+    /** Records per body: 1 is an on-demand sample, 50 a full outbox batch. */
+    @Param({"1", "50"})
+    public int batch;
+
+    @Param({"true", "false"})
+    public boolean gzip;
+
+    private static final MediaType JSON = MediaType.get(JsonPayloadEncoder.CONTENT_TYPE);
+
+    private MockWebServer server;
+    private HttpUrl url;
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        server.start();
+        url = server.url("/ingest");
+        List<MetricSample> samples = Samples.trace(batch, true, 11);
+        body = new JsonPayloadEncoder().encode(samples);
+        HttpTransport.Config c = new HttpTransport.Config();
+        c.gzipThresholdBytes = gzip ? 1024 : -1;
+        HttpTransport.configure(c);
+        SinkResilience.configure(new SinkResilience.Config());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        HttpTransport.configure(new HttpTransport.Config());
+        server.shutdown();
+    }
+
+    private Request request() {
+        Request.Builder b = new Request.Builder().url(url).post(RequestBody.create(body, JSON))
+                .header("Accept", JsonPayloadEncoder.CONTENT_TYPE);
+        return HttpTransport.compressible(b).build();
+    }
+
+    @Benchmark
+    public int post() throws Exception {
+        try (Response r = HttpTransport.client().newCall(request()).execute()) {
+            return drain(r.code());
+        }
+    }
+
+    @Benchmark
+    public int resilient() throws Exception {
+        try (Response r = SinkResilience.execute(request())) {
+            return drain(r.code());
+        }
+    }
+
+    /** MockWebServer records every request before answering; drop it so the heap stays flat. */
+    private int drain(int code) throws InterruptedException {
+        server.takeRequest(0, TimeUnit.NANOSECONDS);
+        return code;
+    }
+}
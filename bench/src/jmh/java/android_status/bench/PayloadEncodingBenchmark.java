@@ -0,0 +1,76 @@
+package android_status.bench;
+
+import android_status.app.BinaryPayloadDecoder;
+import android_status.app.BinaryPayloadEncoder;
+import android_status.app.JsonPayloadEncoder;
+import android_status.app.MetricSample;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON against the binary wire format: encode/decode throughput, plus the encoded size per batch
+ * reported as an auxiliary counter ("bytesPerBatch") next to the timing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PayloadEncodingBenchmark {
+    @Param({"1", "50"})
+    public int batch;
+
+    @Param({"true", "false"})
+    public boolean located;
+
+    private final JsonPayloadEncoder json = new JsonPayloadEncoder();
+    private final BinaryPayloadEncoder binary = new BinaryPayloadEncoder();
+    private List<MetricSample> samples;
+    private byte[] encodedBinary;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Size {
+        public long bytesPerBatch;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerBatch = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        samples = Samples.trace(batch, located, 42);
+        encodedBinary = binary.encode(samples);
+    }
+
+    @Benchmark
+    public byte[] encodeJson(Size size) throws Exception {
+        byte[] b = json.encode(samples);
+        size.bytesPerBatch = b.length;
+        return b;
+    }
+
+    @Benchmark
+    public byte[] encodeBinary(Size size) {
+        byte[] b = binary.encode(samples);
+        size.bytesPerBatch = b.length;
+        return b;
+    }
+
+    @Benchmark
+    public List<MetricSample> decodeBinary() throws Exception {
+        return BinaryPayloadDecoder.decode(encodedBinary);
+    }
+}
@@ -0,0 +1,135 @@
+package android_status.bench;
+
+import android_status.app.ProcParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProcParser against the BufferedReader/regex readers it replaced in MetricsCollector.
+ * The legacy methods are copied verbatim, minus Android logging, and pointed at the same fixture tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProcParserBenchmark {
+    private File root;
+    private ProcParser parser;
+    private final long[] cpu = new long[7];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = Fixtures.newRoot("procparser");
+        Fixtures.writeProcAndThermal(root, 1);
+        parser = new ProcParser(root.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        parser.close();
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public long cpuStatParser() {
+        parser.readCpuStat(cpu);
+        return cpu[3];
+    }
+
+    @Benchmark
+    public long[] cpuStatLegacy() {
+        return legacyReadCpuStat(new File(root, "proc/stat"));
+    }
+
+    @Benchmark
+    public double memInfoParser() {
+        return parser.readMemUsagePercent();
+    }
+
+    @Benchmark
+    public double memInfoLegacy() {
+        return legacyReadMemUsagePercent(new File(root, "proc/meminfo"));
+    }
+
+    @Benchmark
+    public double tempParser() {
+        return parser.readTempCelsius("/sys/class/thermal/thermal_zone0/temp");
+    }
+
+    @Benchmark
+    public Double tempLegacy() {
+        return legacyParseTempFile(new File(root, "sys/class/thermal/thermal_zone0/temp"));
+    }
+
+    static long[] legacyReadCpuStat(File f) {
+        if (!f.exists()) return null;
+        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+            String line = br.readLine();
+            if (line == null) return null;
+            String[] toks = line.trim().split("\\s+");
+            if (toks.length < 5) return null;
+            long[] vals = new long[7];
+            for (int i = 0; i < vals.length && i + 1 < toks.length; i++) {
+                vals[i] = Long.parseLong(toks[i + 1]);
+            }
+            return vals;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    static double legacyReadMemUsagePercent(File f) {
+        if (!f.exists()) return 0.0;
+        long total = 0, avail = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("MemTotal:")) {
+                    total = Long.parseLong(line.replaceAll("[^0-9]", ""));
+                } else if (line.startsWith("MemAvailable:")) {
+                    avail = Long.parseLong(line.replaceAll("[^0-9]", ""));
+                    break;
+                }
+            }
+            if (total <= 0) return 0.0;
+            double used = (double) (total - avail);
+            return (used / (double) total) * 100.0;
+        } catch (Exception ex) {
+            return 0.0;
+        }
+    }
+
+    static String legacyReadFirstLine(File f) {
+        if (f == null || !f.exists()) return null;
+        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+            return br.readLine();
+        } catch (Exception ignored) {
+            return null;
+        }
+    }
+
+    static Double legacyParseTempFile(File f) {
+        if (f == null || !f.exists()) return null;
+        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+            String s = br.readLine();
+            if (s == null) return null;
+            long raw = Long.parseLong(s.trim());
+            if (raw > 1000) return raw / 1000.0;
+            return (double) raw;
+        } catch (Exception ignored) {
+            return null;
+        }
+    }
+}
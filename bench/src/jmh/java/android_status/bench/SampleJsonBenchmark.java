@@ -0,0 +1,75 @@
+package android_status.bench;
+
+import android_status.app.DeltaFilter;
+import android_status.app.InternalMetrics;
+import android_status.app.MetricSample;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-sample API payload as MetricService.collectAndSend builds it: delta decision, org.json
+ * object, string, UTF-8 bytes. {@code withSelf} adds the InternalMetrics snapshot that rides along
+ * every few minutes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SampleJsonBenchmark {
+    @Param({"true", "false"})
+    public boolean located;
+
+    private List<MetricSample> trace;
+    private int next;
+    private final DeltaFilter filter = new DeltaFilter(new DeltaFilter.Config());
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        trace = Samples.trace(256, located, 7);
+        for (String name : new String[]{"collect.memory", "collect.temp", "collect.battery", "collect.cpu", "http.call"}) {
+            InternalMetrics.Timer t = InternalMetrics.timer(name);
+            for (int i = 1; i <= 1000; i++) t.record(i * 1_000L);
+        }
+        InternalMetrics.counter("collect.allocBytes").add(123_456);
+        InternalMetrics.gauge("heap.usedBytes", () -> 12_345_678L);
+    }
+
+    private MetricSample nextSample() {
+        MetricSample s = trace.get(next);
+        next = (next + 1) & 255;
+        return s;
+    }
+
+    @Benchmark
+    public byte[] fullPayload() throws Exception {
+        return nextSample().toJson().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Same path as collectAndSend: the filter picks delta or full, then the bytes are built. */
+    @Benchmark
+    public byte[] filteredPayload() throws Exception {
+        MetricSample s = nextSample();
+        DeltaFilter.Decision d = filter.evaluate(s, true);
+        JSONObject payload = d.kind == DeltaFilter.Kind.DELTA ? s.toDeltaJson(d.changed) : s.toJson();
+        return payload.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] withSelf() throws Exception {
+        JSONObject payload = nextSample().toJson();
+        payload.put("self", InternalMetrics.toJson());
+        return payload.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
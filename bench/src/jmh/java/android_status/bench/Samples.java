@@ -0,0 +1,41 @@
+package android_status.bench;
+
+import android_status.app.MetricSample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Deterministic sample traces shaped like what MetricService produces every 30 s. */
+final class Samples {
+    private Samples() {
+    }
+
+    static List<MetricSample> trace(int n, boolean located, long seed) {
+        Random rnd = new Random(seed);
+        List<MetricSample> out = new ArrayList<>(n);
+        long ts = 1_730_000_000_000L;
+        double lat = -33.86370, lon = 151.20220;
+        for (int i = 0; i < n; i++) {
+            MetricSample s = new MetricSample();
+            s.deviceId = "9ea5006ef6b50d20";
+            s.deviceName = "atom1";
+            s.timestampMs = ts;
+            s.memoryPct = Math.round((34.0 + rnd.nextDouble() * 4) * 10.0) / 10.0;
+            s.tempC = 30.0 + rnd.nextInt(8000) / 1000.0;
+            s.batteryPct = 99 - i / 20;
+            s.voltageMv = 4270 - rnd.nextInt(40);
+            if (located) {
+                lat += (rnd.nextDouble() - 0.5) * 0.0002;
+                lon += (rnd.nextDouble() - 0.5) * 0.0002;
+                s.lat = lat;
+                s.lon = lon;
+                s.accuracy = 5f + rnd.nextInt(100) / 10f;
+                s.provider = "fused";
+            }
+            out.add(s);
+            ts += 30_000 + rnd.nextInt(200);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,67 @@
+package android_status.bench;
+
+import android_status.app.MetricSample;
+import android_status.app.SlackDigest;
+import android_status.app.SlackFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slack message rendering: the old per-tick SimpleDateFormat + String.format line against the
+ * compiled SlackFormat template, and the cost of a 20-sample Block Kit digest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SlackRenderBenchmark {
+    private final SlackFormat format = new SlackFormat(ZoneId.systemDefault(), Locale.US);
+    private List<MetricSample> samples;
+    private MetricSample sample;
+
+    @Setup
+    public void setUp() {
+        samples = Samples.trace(20, false, 7);
+        sample = samples.get(0);
+    }
+
+    @Benchmark
+    public String legacyLine() {
+        MetricSample s = sample;
+        Date now = new Date(s.timestampMs);
+        String nowShort = new SimpleDateFormat("h:mm a", Locale.getDefault()).format(now);
+        String nowFull = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(now);
+        String tempStr = s.tempC != null ? String.format(Locale.US, "temp=%.1f'C", s.tempC) : "temp=N/A";
+        String voltage = String.format(Locale.US, "%.2fV", s.voltageMv / 1000.0);
+        return String.format(Locale.US,
+                "[%s] [%s] NOTIFICATION [Camera %s] MEM: %.1f%% | %s | Battery: %d%% | Voltage: %s",
+                nowShort, nowFull, s.deviceName, s.memoryPct, tempStr, s.batteryPct, voltage);
+    }
+
+    @Benchmark
+    public String templateLine() {
+        return format.line(sample);
+    }
+
+    @Benchmark
+    public String digest20() {
+        SlackDigest.Config c = new SlackDigest.Config();
+        c.maxSamples = samples.size();
+        SlackDigest d = new SlackDigest(c, format);
+        String body = null;
+        for (MetricSample s : samples) body = d.offer(s);
+        return body;
+    }
+}
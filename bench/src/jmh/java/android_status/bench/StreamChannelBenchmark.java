@@ -0,0 +1,88 @@
+package android_status.bench;
+
+import android_status.app.JsonPayloadEncoder;
+import android_status.app.MetricSample;
+import android_status.app.StreamChannel;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.ByteString;
+
+/**
+ * One outbox batch over an open StreamChannel to a local MockWebServer WebSocket that acks every
+ * frame, from send to ack. Compare with {@link HttpPostBenchmark#post}, which pays for a request
+ * and response per batch on a kept-alive connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StreamChannelBenchmark {
+    /** Records per body: 1 is an on-demand sample, 50 a full outbox batch. */
+    @Param({"1", "50"})
+    public int batch;
+
+    private MockWebServer server;
+    private StreamChannel channel;
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onMessage(WebSocket ws, ByteString frame) {
+                long id = frame.asByteBuffer().getLong();
+                ws.send("{\"type\":\"ack\",\"id\":" + id + "}");
+            }
+        }));
+        server.start();
+        List<MetricSample> samples = Samples.trace(batch, true, 11);
+        body = new JsonPayloadEncoder().encode(samples);
+        CountDownLatch opened = new CountDownLatch(1);
+        String url = server.url("/stream").toString().replaceFirst("^http", "ws");
+        channel = new StreamChannel(url, null, "bench", new StreamChannel.Config(), new StreamChannel.Listener() {
+            @Override
+            public void onCommand(JSONObject command) {
+            }
+
+            @Override
+            public void onStateChanged(boolean open) {
+                if (open) opened.countDown();
+            }
+        });
+        channel.start();
+        if (!opened.await(10, TimeUnit.SECONDS)) throw new IllegalStateException("stream did not open");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        channel.stop();
+        server.shutdown();
+    }
+
+    @Benchmark
+    public boolean send() throws Exception {
+        CompletableFuture<Boolean> acked = new CompletableFuture<>();
+        channel.send(body, JsonPayloadEncoder.CONTENT_TYPE, batch, acked::complete);
+        return acked.get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,82 @@
+package android_status.bench;
+
+import android_status.app.ProcParser;
+import android_status.app.ThermalSensorRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Per-sample temperature cost on a synthetic sysfs tree where the CPU zone is the last one listed:
+ * the old full scan from MetricsCollector against the cached ThermalSensorRegistry lookup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThermalSensorBenchmark {
+    @Param({"8", "100", "400"})
+    public int zones;
+
+    private File root;
+    private ProcParser parser;
+    private ThermalSensorRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = Fixtures.newRoot("thermal");
+        Fixtures.writeProcAndThermal(root, zones);
+        parser = new ProcParser(root.getPath());
+        registry = new ThermalSensorRegistry(parser);
+        registry.read();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        parser.close();
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public double registryRead() {
+        return registry.read();
+    }
+
+    @Benchmark
+    public Double legacyScan() {
+        return legacyReadThermalZones(new File(root, "sys/class/thermal"));
+    }
+
+    static Double legacyReadThermalZones(File base) {
+        try {
+            File[] zones = base.listFiles((dir, name) -> name.startsWith("thermal_zone"));
+            if (zones == null) return null;
+            Pattern prefer = Pattern.compile("(?i)(cpu|ap|a7|a53|soc)");
+            Double firstValid = null;
+            for (File z : zones) {
+                String type = ProcParserBenchmark.legacyReadFirstLine(new File(z, "type"));
+                Double temp = ProcParserBenchmark.legacyParseTempFile(new File(z, "temp"));
+                if (temp != null && temp > 0) {
+                    if (firstValid == null) firstValid = temp;
+                    if (type != null && prefer.matcher(type).find()) {
+                        return temp;
+                    }
+                }
+            }
+            return firstValid;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+}
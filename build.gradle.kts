@@ -1,4 +1,11 @@
+/*
+ * The JVM modules (bench, fleetsim, ingest, fcmdispatch) compile the app sources they list straight
+ * from app/src/main/java; only files without Android dependencies go on those lists. org.json is
+ * part of the Android platform, so those modules take it from the reference implementation instead.
+ */
+
 plugins {
     id("com.android.application") version "8.6.0" apply false
     id("com.google.gms.google-services") version "4.4.2" apply false
+    id("me.champeau.jmh") version "0.7.2" apply false
 }
@@ -0,0 +1,33 @@
+/*
+ * FCM HTTP v1 fan-out of REQUEST_LOCATION to every stored token, with a local FCM stand-in.
+ * Run with ./gradlew :fcmdispatch:run --args="--local" or --args="--service-account key.json --tokens tokens.txt"
+ */
+
+plugins {
+    application
+}
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(17))
+    }
+}
+
+sourceSets {
+    main {
+        java {
+            setSrcDirs(listOf("src/main/java", "../app/src/main/java"))
+            include("android_status/fcmdispatch/**")
+            include("android_status/app/InternalMetrics.java")
+        }
+    }
+}
+
+dependencies {
+    implementation("org.json:json:20240303")
+    testImplementation("junit:junit:4.13.2")
+}
+
+application {
+    mainClass.set("android_status.fcmdispatch.FcmDispatcher")
+}
@@ -0,0 +1,517 @@
+package android_status.fcmdispatch;
+
+import android_status.app.InternalMetrics;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the app's {@code REQUEST_LOCATION} data message to every stored FCM token through the
+ * HTTP v1 API. One {@link HttpClient} carries all sends (HTTP/2, so they multiplex over a single
+ * TLS connection to FCM) with the access token from {@link AccessTokenCache}. A {@link Semaphore}
+ * bounds the sends outstanding and a {@link RateLimiter} their rate, so a large fleet neither
+ * exceeds the project's quota nor the connection's stream limit.
+ *
+ * Tokens are reported in batches of {@code batchSize}, each with its wall time and the p50/p99
+ * round trip of its requests; the sends themselves do not wait at batch boundaries. {@code UNREGISTERED} answers (legacy {@code NotRegistered})
+ * prune the token from the {@link TokenRegistry}; 429, 5xx and IO errors are retried with backoff,
+ * after {@code Retry-After} when given; a 401 fetches a new access token and retries.
+ */
+public final class FcmDispatcher {
+    public static final class Config {
+        public String serviceAccount;
+        /** Defaults to the service account's project_id. */
+        public String projectId;
+        public String baseUrl = "https://fcm.googleapis.com";
+        public String tokensFile;
+        /** Ingestion server root; tokens come from its /devices. */
+        public String tokensUrl;
+        public String apiKey;
+        public boolean local;
+        public int localTokens = 2_000;
+        public double localUnregistered = 0.05;
+        public long localLatencyMs = 20;
+        public double localErrorRate = 0;
+        public long localTokenTtlSec = 3600;
+        /** Same for every message of a round; null picks a random one per round. */
+        public String requestId;
+        public int maxConcurrency = 100;
+        /** Sends per second; 0 = unlimited. */
+        public double qps = 500;
+        public int batchSize = 500;
+        public int maxAttempts = 3;
+        public long timeoutMs = 10_000;
+        public boolean http2 = true;
+        public int rounds = 1;
+        public int everySec = 60;
+        /** Also write every batch and the fcm.* metrics here as JSON. */
+        public String jsonOut;
+    }
+
+    enum Outcome { OK, PRUNED, FAILED }
+
+    static final class BatchResult {
+        final int index;
+        final int tokens;
+        int ok;
+        int pruned;
+        int failed;
+        final AtomicInteger retries = new AtomicInteger();
+        long wallNs;
+        /** Round trip of every attempt in the batch, sorted once the batch is done. */
+        long[] rttNs = new long[0];
+        private int rtts;
+
+        BatchResult(int index, int tokens) {
+            this.index = index;
+            this.tokens = tokens;
+        }
+
+        synchronized void rtt(long ns) {
+            if (rtts == rttNs.length) rttNs = Arrays.copyOf(rttNs, Math.max(16, rtts * 2));
+            rttNs[rtts++] = ns;
+        }
+
+        synchronized long percentileNs(double q) {
+            if (rtts == 0) return 0;
+            int i = (int) Math.ceil(q * rtts) - 1;
+            return rttNs[Math.max(0, Math.min(rtts - 1, i))];
+        }
+
+        synchronized void finish(long wallNs) {
+            this.wallNs = wallNs;
+            rttNs = Arrays.copyOf(rttNs, rtts);
+            Arrays.sort(rttNs);
+        }
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("batch", index).put("tokens", tokens)
+                    .put("ok", ok).put("pruned", pruned).put("failed", failed).put("retries", retries.get())
+                    .put("wallMs", wallNs / 1e6)
+                    .put("rttP50Ms", percentileNs(0.5) / 1e6).put("rttP99Ms", percentileNs(0.99) / 1e6);
+        }
+    }
+
+    /** What one attempt came to: a final outcome, or a retry after {@code retryAfterMs} (0 = backoff). */
+    private static final class Step {
+        final Outcome outcome;
+        final long retryAfterMs;
+
+        Step(Outcome outcome, long retryAfterMs) {
+            this.outcome = outcome;
+            this.retryAfterMs = retryAfterMs;
+        }
+    }
+
+    private static final InternalMetrics.Timer SEND = InternalMetrics.timer("fcm.send");
+    private static final InternalMetrics.Timer BATCH = InternalMetrics.timer("fcm.batch");
+    private static final InternalMetrics.Counter SENT = InternalMetrics.counter("fcm.sent");
+    private static final InternalMetrics.Counter PRUNED = InternalMetrics.counter("fcm.pruned");
+    private static final InternalMetrics.Counter FAILED = InternalMetrics.counter("fcm.failed");
+    private static final InternalMetrics.Counter RETRIES = InternalMetrics.counter("fcm.retries");
+    private static final InternalMetrics.Counter THROTTLED = InternalMetrics.counter("fcm.throttled");
+    private static final InternalMetrics.Counter AUTH_RETRIES = InternalMetrics.counter("fcm.authRetries");
+
+    private static final long MIN_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    /** First few unexpected error bodies are printed; the rest are only counted. */
+    private static final int MAX_LOGGED_ERRORS = 5;
+
+    private final Config config;
+    private final HttpClient client;
+    private final AccessTokenCache oauth;
+    private final TokenRegistry registry;
+    private final URI sendUri;
+    private final RateLimiter limiter;
+    private final Semaphore inFlight;
+    /** Runs delayed retries; they block on the limiter and semaphore like first attempts. */
+    private final ExecutorService retryPool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "fcm-retry");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger loggedErrors = new AtomicInteger();
+
+    FcmDispatcher(Config config, HttpClient client, AccessTokenCache oauth, TokenRegistry registry, String projectId) {
+        this.config = config;
+        this.client = client;
+        this.oauth = oauth;
+        this.registry = registry;
+        this.sendUri = URI.create(config.baseUrl.replaceAll("/+$", "") + "/v1/projects/" + projectId + "/messages:send");
+        this.limiter = new RateLimiter(config.qps, Math.max(1, config.maxConcurrency));
+        this.inFlight = new Semaphore(config.maxConcurrency);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && ("--help".equals(args[0]) || "-h".equals(args[0]))) {
+            System.out.println(USAGE);
+            return;
+        }
+        Config c;
+        try {
+            c = parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        HttpClient client = HttpClient.newBuilder()
+                .version(c.http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(c.timeoutMs))
+                .build();
+        LocalFcm local = null;
+        Path tempKey = null;
+        int code;
+        try {
+            String serviceAccount = c.serviceAccount;
+            TokenRegistry registry;
+            if (c.local) {
+                local = new LocalFcm(Math.max(4, c.maxConcurrency), c.localLatencyMs, c.localErrorRate, c.localTokenTtlSec);
+                c.baseUrl = local.start().toString();
+                tempKey = Files.createTempFile("fcm-local-", ".json");
+                Files.writeString(tempKey, local.serviceAccountJson());
+                serviceAccount = tempKey.toString();
+                registry = TokenRegistry.of(local.tokens(c.localTokens, c.localUnregistered, 1));
+                System.out.printf(Locale.ROOT, "Local FCM at %s: %d tokens, %d of them unregistered%n",
+                        c.baseUrl, c.localTokens, local.unregisteredCount());
+            } else if (c.tokensFile != null) {
+                registry = TokenRegistry.fromFile(Paths.get(c.tokensFile));
+            } else {
+                registry = TokenRegistry.fromIngest(URI.create(c.tokensUrl), c.apiKey, client, c.timeoutMs);
+            }
+            AccessTokenCache oauth = AccessTokenCache.fromServiceAccount(Paths.get(serviceAccount), client, c.timeoutMs);
+            String project = c.projectId != null ? c.projectId : oauth.projectId;
+            if (project == null) throw new IllegalArgumentException("no project_id in the service account; give --project");
+            code = new FcmDispatcher(c, client, oauth, registry, project).run();
+            if (local != null) {
+                System.out.printf(Locale.ROOT, "Local FCM: %d accepted, %d rejected (401), %d token grants, at most %d sends at once%n",
+                        local.accepted.get(), local.rejected.get(), local.tokenGrants.get(), local.maxInFlight.get());
+            }
+        } finally {
+            if (local != null) local.stop();
+            if (tempKey != null) Files.deleteIfExists(tempKey);
+        }
+        System.exit(code);
+    }
+
+    /** @return exit code: 0 when every message was accepted or pruned */
+    int run() throws Exception {
+        List<BatchResult> all = new ArrayList<>();
+        long startNs = System.nanoTime();
+        for (int round = 1; round <= config.rounds; round++) {
+            if (round > 1) Thread.sleep(config.everySec * 1000L);
+            String requestId = config.requestId != null ? config.requestId : UUID.randomUUID().toString().replace("-", "");
+            List<String> tokens = registry.tokens();
+            System.out.printf(Locale.ROOT, "Round %d: REQUEST_LOCATION %s to %d tokens%n", round, requestId, tokens.size());
+            all.addAll(dispatchRound(all.size() + 1, tokens, requestId));
+            int removed = registry.save(config.timeoutMs);
+            if (removed > 0) System.out.printf(Locale.ROOT, "Removed %d unregistered tokens from the token source%n", removed);
+        }
+        double sec = (System.nanoTime() - startNs) / 1e9 - (config.rounds - 1) * (double) config.everySec;
+        printSummary(sec);
+        if (config.jsonOut != null) writeJson(all);
+        return FAILED.get() == 0 ? 0 : 1;
+    }
+
+    /**
+     * Sends to every token, batch after batch, without waiting for a batch to finish before the next one
+     * starts: the semaphore stays full across batch boundaries and batches only group the sends for
+     * reporting. Each batch is printed, in order, once it and all before it are done.
+     */
+    List<BatchResult> dispatchRound(int firstIndex, List<String> tokens, String requestId) throws InterruptedException {
+        List<CompletableFuture<BatchResult>> started = new ArrayList<>();
+        List<BatchResult> done = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i += config.batchSize) {
+            List<String> batch = tokens.subList(i, Math.min(tokens.size(), i + config.batchSize));
+            started.add(startBatch(firstIndex + started.size(), batch, requestId));
+            // report whatever finished meanwhile; the main thread only blocks on the semaphore here
+            while (done.size() < started.size() && started.get(done.size()).isDone()) report(started, done);
+        }
+        while (done.size() < started.size()) report(started, done);
+        return done;
+    }
+
+    /** Waits for the oldest unreported batch and prints it. */
+    private static void report(List<CompletableFuture<BatchResult>> started, List<BatchResult> done) {
+        BatchResult b = started.get(done.size()).join();
+        done.add(b);
+        System.out.printf(Locale.ROOT, "batch %4d %6d tokens %9.1f ms  ok %6d pruned %5d failed %5d retries %4d  rtt p50 %6.1f p99 %7.1f ms%n",
+                b.index, b.tokens, b.wallNs / 1e6, b.ok, b.pruned, b.failed, b.retries.get(),
+                b.percentileNs(0.5) / 1e6, b.percentileNs(0.99) / 1e6);
+    }
+
+    /** Sends to every token of one batch and waits for all of them, retries included. */
+    BatchResult dispatchBatch(int index, List<String> tokens, String requestId) throws InterruptedException {
+        return startBatch(index, tokens, requestId).join();
+    }
+
+    /**
+     * Starts the sends of one batch; returns once the last has a slot, with a future that completes when
+     * all of them, retries included, are done. Its wall time runs from the first send to the last answer.
+     */
+    private CompletableFuture<BatchResult> startBatch(int index, List<String> tokens, String requestId) throws InterruptedException {
+        BatchResult b = new BatchResult(index, tokens.size());
+        long t0 = System.nanoTime();
+        List<CompletableFuture<Outcome>> pending = new ArrayList<>(tokens.size());
+        for (String token : tokens) pending.add(send(token, body(token, requestId), 1, b));
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).thenApply(x -> {
+            for (CompletableFuture<Outcome> f : pending) {
+                Outcome o = f.join();
+                if (o == Outcome.OK) b.ok++;
+                else if (o == Outcome.PRUNED) b.pruned++;
+                else b.failed++;
+            }
+            b.finish(System.nanoTime() - t0);
+            BATCH.stop(t0);
+            return b;
+        });
+    }
+
+    /** Data payload as in {@code scripts/send_fcm.py}; high priority so it reaches a dozing device at once. */
+    static String body(String token, String requestId) {
+        return "{\"message\":{\"token\":" + JSONObject.quote(token)
+                + ",\"data\":{\"type\":\"REQUEST_LOCATION\",\"requestId\":" + JSONObject.quote(requestId) + "}"
+                + ",\"android\":{\"priority\":\"high\"}}}";
+    }
+
+    private CompletableFuture<Outcome> send(String token, String body, int attempt, BatchResult batch) throws InterruptedException {
+        limiter.acquire();
+        inFlight.acquire();
+        // taken once a slot is free, so a send that waited behind a 401 gets the refetched token
+        String bearer;
+        try {
+            bearer = oauth.get();
+        } catch (IOException ex) {
+            inFlight.release();
+            logError("access token: " + ex.getMessage());
+            FAILED.inc();
+            return CompletableFuture.completedFuture(Outcome.FAILED);
+        }
+        HttpRequest req = HttpRequest.newBuilder(sendUri)
+                .timeout(Duration.ofMillis(config.timeoutMs))
+                .header("Authorization", "Bearer " + bearer)
+                .header("Content-Type", "application/json; charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        long t0 = System.nanoTime();
+        return client.sendAsync(req, HttpResponse.BodyHandlers.ofString())
+                .handle((resp, err) -> {
+                    long ns = System.nanoTime() - t0;
+                    batch.rtt(ns);
+                    try {
+                        if (err != null) {
+                            SEND.error();
+                            if (attempt == config.maxAttempts) logError(err.toString());
+                            return new Step(null, 0);
+                        }
+                        SEND.record(ns);
+                        return classify(resp, token, bearer, attempt);
+                    } finally {
+                        // after classify, so a 401 has invalidated the token before the next send takes one
+                        inFlight.release();
+                    }
+                })
+                .thenCompose(step -> {
+                    if (step.outcome != null) {
+                        (step.outcome == Outcome.OK ? SENT : step.outcome == Outcome.PRUNED ? PRUNED : FAILED).inc();
+                        return CompletableFuture.completedFuture(step.outcome);
+                    }
+                    if (attempt >= config.maxAttempts) {
+                        FAILED.inc();
+                        return CompletableFuture.completedFuture(Outcome.FAILED);
+                    }
+                    RETRIES.inc();
+                    batch.retries.incrementAndGet();
+                    long delay = step.retryAfterMs > 0 ? step.retryAfterMs : backoffMs(attempt);
+                    return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, retryPool))
+                            .thenCompose(x -> {
+                                try {
+                                    return send(token, body, attempt + 1, batch);
+                                } catch (InterruptedException ex) {
+                                    Thread.currentThread().interrupt();
+                                    FAILED.inc();
+                                    return CompletableFuture.completedFuture(Outcome.FAILED);
+                                }
+                            });
+                });
+    }
+
+    private Step classify(HttpResponse<String> resp, String token, String bearer, int attempt) {
+        int code = resp.statusCode();
+        if (code == 200) return new Step(Outcome.OK, 0);
+        String errorCode = fcmErrorCode(resp.body());
+        if ("UNREGISTERED".equals(errorCode) || "NotRegistered".equals(errorCode)) {
+            registry.prune(token);
+            return new Step(Outcome.PRUNED, 0);
+        }
+        if (code == 401) {
+            // expired or revoked early: one fresh token, retried at once
+            oauth.invalidate(bearer);
+            AUTH_RETRIES.inc();
+            return new Step(null, 1);
+        }
+        if (code == 429 || code >= 500) {
+            if (code == 429) THROTTLED.inc();
+            long retryAfter = resp.headers().firstValueAsLong("Retry-After").orElse(0) * 1000;
+            if (attempt == config.maxAttempts) logError(code + " " + resp.body());
+            return new Step(null, retryAfter);
+        }
+        logError(code + " " + resp.body());
+        return new Step(Outcome.FAILED, 0);
+    }
+
+    /** {@code errorCode} of the FcmError detail, else the message (legacy errors); null if neither. */
+    static String fcmErrorCode(String body) {
+        try {
+            JSONObject error = new JSONObject(body).optJSONObject("error");
+            if (error == null) return null;
+            JSONArray details = error.optJSONArray("details");
+            if (details != null) {
+                for (int i = 0; i < details.length(); i++) {
+                    JSONObject d = details.optJSONObject(i);
+                    if (d != null && d.has("errorCode")) return d.optString("errorCode");
+                }
+            }
+            return error.optString("message", null);
+        } catch (JSONException ex) {
+            return null;
+        }
+    }
+
+    /** Full-jitter exponential backoff: uniform in [0, min(max, min * 2^attempt)]. */
+    private static long backoffMs(int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MS, MIN_BACKOFF_MS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private void logError(String message) {
+        if (loggedErrors.incrementAndGet() <= MAX_LOGGED_ERRORS) System.err.println("FCM send failed: " + message);
+    }
+
+    private void printSummary(double sec) {
+        long total = SENT.get() + PRUNED.get() + FAILED.get();
+        System.out.printf(Locale.ROOT, "%n%d messages in %.1f s (%.1f/s): %d accepted, %d pruned, %d failed; %d retries, %d throttled, %d access token fetches%n",
+                total, sec, total / Math.max(sec, 1e-9), SENT.get(), PRUNED.get(), FAILED.get(), RETRIES.get(), THROTTLED.get(),
+                InternalMetrics.timer("fcm.oauth").count());
+        System.out.printf(Locale.ROOT, "%-9s %8s %7s %9s %9s %9s %9s%n", "", "n", "errors", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        printTimer("send", SEND);
+        printTimer("batch", BATCH);
+        printTimer("oauth", InternalMetrics.timer("fcm.oauth"));
+    }
+
+    private static void printTimer(String name, InternalMetrics.Timer t) {
+        long[] p = t.percentilesNs(0.5, 0.9, 0.99);
+        System.out.printf(Locale.ROOT, "%-9s %8d %7d %9.1f %9.1f %9.1f %9.1f%n", name, t.count(), t.errors(),
+                p[0] / 1e6, p[1] / 1e6, p[2] / 1e6, t.maxNs() / 1e6);
+    }
+
+    private void writeJson(List<BatchResult> batches) throws IOException, JSONException {
+        JSONArray out = new JSONArray();
+        for (BatchResult b : batches) out.put(b.toJson());
+        JSONObject j = new JSONObject().put("batches", out).put("metrics", InternalMetrics.toJson());
+        Files.writeString(Paths.get(config.jsonOut), j.toString(2));
+    }
+
+    static final String USAGE = String.join("\n",
+            "usage: fcmdispatch (--service-account FILE (--tokens FILE | --tokens-url URL) | --local) [options]",
+            "  --service-account FILE service-account JSON key from the Firebase console",
+            "  --project ID           Firebase project (default: the key's project_id)",
+            "  --base-url URL         FCM API root (https://fcm.googleapis.com)",
+            "  --tokens FILE          one token per line, or deviceId<TAB>token; pruned tokens are removed",
+            "  --tokens-url URL       ingestion server root; reads /devices, prunes via DELETE /tokens/<token>",
+            "  --api-key KEY          Authorization: Bearer KEY for --tokens-url",
+            "  --request-id ID        requestId in every message (default: random per round)",
+            "  --concurrency N        sends outstanding at once (100)",
+            "  --qps N                sends per second, 0 = unlimited (500)",
+            "  --batch N              tokens per reported batch (500)",
+            "  --attempts N           tries per message for 401, 429, 5xx and IO errors (3)",
+            "  --timeout-ms MS        connect and request timeout (10000)",
+            "  --http1                use HTTP/1.1 instead of HTTP/2",
+            "  --rounds N             dispatch to the whole fleet N times (1)",
+            "  --every SEC            pause between rounds (60)",
+            "  --json FILE            write every batch and the fcm.* metrics as JSON",
+            "  --local                start a local FCM stand-in with generated tokens",
+            "  --local-tokens N       stand-in: tokens (2000)",
+            "  --local-unregistered F stand-in: share answering UNREGISTERED (0.05)",
+            "  --local-latency-ms MS  stand-in: delay per send (20)",
+            "  --local-error-rate F   stand-in: share of 503 answers (0)",
+            "  --local-token-ttl SEC  stand-in: access token lifetime (3600)");
+
+    static Config parse(String[] args) {
+        Config c = new Config();
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            switch (a) {
+                case "--local": c.local = true; continue;
+                case "--http1": c.http2 = false; continue;
+                default: break;
+            }
+            if (i + 1 >= args.length) throw new IllegalArgumentException("missing value for " + a);
+            String v = args[++i];
+            try {
+                switch (a) {
+                    case "--service-account": c.serviceAccount = v; break;
+                    case "--project": c.projectId = v; break;
+                    case "--base-url": c.baseUrl = v; break;
+                    case "--tokens": c.tokensFile = v; break;
+                    case "--tokens-url": c.tokensUrl = v; break;
+                    case "--api-key": c.apiKey = v; break;
+                    case "--request-id": c.requestId = v; break;
+                    case "--concurrency": c.maxConcurrency = Integer.parseInt(v); break;
+                    case "--qps": c.qps = Double.parseDouble(v); break;
+                    case "--batch": c.batchSize = Integer.parseInt(v); break;
+                    case "--attempts": c.maxAttempts = Integer.parseInt(v); break;
+                    case "--timeout-ms": c.timeoutMs = Long.parseLong(v); break;
+                    case "--rounds": c.rounds = Integer.parseInt(v); break;
+                    case "--every": c.everySec = Integer.parseInt(v); break;
+                    case "--json": c.jsonOut = v; break;
+                    case "--local-tokens": c.localTokens = Integer.parseInt(v); break;
+                    case "--local-unregistered": c.localUnregistered = Double.parseDouble(v); break;
+                    case "--local-latency-ms": c.localLatencyMs = Long.parseLong(v); break;
+                    case "--local-error-rate": c.localErrorRate = Double.parseDouble(v); break;
+                    case "--local-token-ttl": c.localTokenTtlSec = Long.parseLong(v); break;
+                    default: throw new IllegalArgumentException("unknown option " + a);
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("bad value for " + a + ": " + v);
+            }
+        }
+        if (c.local) {
+            if (c.serviceAccount != null || c.tokensFile != null || c.tokensUrl != null) {
+                throw new IllegalArgumentException("--local replaces --service-account, --tokens and --tokens-url");
+            }
+        } else {
+            if (c.serviceAccount == null) throw new IllegalArgumentException("give --service-account FILE or --local");
+            if ((c.tokensFile == null) == (c.tokensUrl == null)) throw new IllegalArgumentException("give one of --tokens FILE and --tokens-url URL");
+        }
+        if (c.maxConcurrency <= 0 || c.batchSize <= 0 || c.maxAttempts <= 0 || c.rounds <= 0 || c.localTokens < 0) {
+            throw new IllegalArgumentException("--concurrency, --batch, --attempts and --rounds must be positive");
+        }
+        return c;
+    }
+}
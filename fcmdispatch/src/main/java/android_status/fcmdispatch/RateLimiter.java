@@ -0,0 +1,33 @@
+package android_status.fcmdispatch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evenly spaced permits at a fixed rate, with up to {@code burst} permits of credit saved while
+ * idle. Callers that find no permit sleep until theirs is due, so the limiter also queues them in
+ * arrival order.
+ */
+final class RateLimiter {
+    private final long intervalNs;
+    private final long creditNs;
+    /** When the next permit is free. Guarded by this. */
+    private long nextNs = System.nanoTime();
+
+    /** @param perSecond permits per second; 0 or less disables the limit */
+    RateLimiter(double perSecond, int burst) {
+        intervalNs = perSecond > 0 ? (long) (1e9 / perSecond) : 0;
+        creditNs = intervalNs * Math.max(0, burst - 1);
+    }
+
+    void acquire() throws InterruptedException {
+        if (intervalNs == 0) return;
+        long waitNs;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextNs = Math.max(nextNs, now - creditNs);
+            waitNs = nextNs - now;
+            nextNs += intervalNs;
+        }
+        if (waitNs > 0) TimeUnit.NANOSECONDS.sleep(waitNs);
+    }
+}
@@ -0,0 +1,147 @@
+package android_status.fcmdispatch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The FCM tokens a dispatch goes to. They come from a file (one token per line, or
+ * {@code deviceId<TAB>token}; {@code #} starts a comment) or from the ingestion server's
+ * {@code GET /devices}. A token FCM reports as unregistered is dropped at once, so later rounds
+ * skip it, and {@link #save} removes it from the source: the file is rewritten, or the server gets
+ * {@code DELETE /tokens/<token>}.
+ */
+final class TokenRegistry {
+    /** token -> its line in the file (or the token itself), in load order */
+    private final Map<String, String> tokens = new LinkedHashMap<>();
+    private final Set<String> pruned = ConcurrentHashMap.newKeySet();
+    private final Path file;
+    private final URI ingestBase;
+    private final String apiKey;
+    private final HttpClient client;
+
+    private TokenRegistry(Path file, URI ingestBase, String apiKey, HttpClient client) {
+        this.file = file;
+        this.ingestBase = ingestBase;
+        this.apiKey = apiKey;
+        this.client = client;
+    }
+
+    /** Kept in memory only; {@link #save} has nothing to update. */
+    static TokenRegistry of(List<String> tokens) {
+        TokenRegistry r = new TokenRegistry(null, null, null, null);
+        for (String t : tokens) r.tokens.put(t, t);
+        return r;
+    }
+
+    static TokenRegistry fromFile(Path file) throws IOException {
+        TokenRegistry r = new TokenRegistry(file, null, null, null);
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String s = line.trim();
+            if (s.isEmpty() || s.startsWith("#")) continue;
+            int tab = s.lastIndexOf('\t');
+            r.tokens.put(tab >= 0 ? s.substring(tab + 1).trim() : s, line);
+        }
+        return r;
+    }
+
+    /** @param base the ingestion server's root, e.g. {@code http://host:8080} */
+    static TokenRegistry fromIngest(URI base, String apiKey, HttpClient client, long timeoutMs)
+            throws IOException, InterruptedException {
+        TokenRegistry r = new TokenRegistry(null, base, apiKey, client);
+        HttpResponse<String> resp = client.send(r.request(base.resolve("/devices"), timeoutMs).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (resp.statusCode() != 200) throw new IOException("GET /devices answered " + resp.statusCode());
+        try {
+            JSONArray devices = new JSONObject(resp.body()).getJSONArray("devices");
+            for (int i = 0; i < devices.length(); i++) {
+                String t = devices.getJSONObject(i).optString("fcmToken", "");
+                if (!t.isEmpty()) r.tokens.put(t, t);
+            }
+        } catch (JSONException ex) {
+            throw new IOException("Bad /devices response: " + ex.getMessage());
+        }
+        return r;
+    }
+
+    /** Tokens not pruned so far. */
+    synchronized List<String> tokens() {
+        List<String> out = new ArrayList<>(tokens.size());
+        for (String t : tokens.keySet()) {
+            if (!pruned.contains(t)) out.add(t);
+        }
+        return out;
+    }
+
+    /** @return false if it was already pruned */
+    boolean prune(String token) {
+        return pruned.add(token);
+    }
+
+    int prunedCount() {
+        return pruned.size();
+    }
+
+    /**
+     * Removes the pruned tokens from the source.
+     * @return how many were removed there
+     */
+    synchronized int save(long timeoutMs) throws IOException, InterruptedException {
+        List<String> gone = new ArrayList<>();
+        for (String t : pruned) {
+            if (tokens.containsKey(t)) gone.add(t);
+        }
+        if (gone.isEmpty()) return 0;
+        int removed = 0;
+        if (file != null) {
+            StringBuilder out = new StringBuilder();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String s = line.trim();
+                int tab = s.lastIndexOf('\t');
+                String t = tab >= 0 ? s.substring(tab + 1).trim() : s;
+                if (!s.startsWith("#") && pruned.contains(t)) {
+                    removed++;
+                    continue;
+                }
+                out.append(line).append('\n');
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(tmp, out, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else if (ingestBase != null) {
+            for (String t : gone) {
+                URI uri = ingestBase.resolve("/tokens/" + URLEncoder.encode(t, StandardCharsets.UTF_8));
+                int code = client.send(request(uri, timeoutMs).DELETE().build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+                // 404: the device registered a new token meanwhile
+                if (code == 204) removed++;
+                else if (code != 404) throw new IOException("DELETE /tokens answered " + code);
+            }
+        }
+        for (String t : gone) tokens.remove(t);
+        return removed;
+    }
+
+    private HttpRequest.Builder request(URI uri, long timeoutMs) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(timeoutMs));
+        if (apiKey != null && !apiKey.isEmpty()) b.header("Authorization", "Bearer " + apiKey);
+        return b;
+    }
+}
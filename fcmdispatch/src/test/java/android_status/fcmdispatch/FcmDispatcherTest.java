@@ -0,0 +1,201 @@
+package android_status.fcmdispatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/** The dispatcher against {@link LocalFcm}: pruning, retries, token refresh, concurrency and rate limits. */
+public class FcmDispatcherTest {
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private LocalFcm fcm;
+    private Path key;
+
+    @After
+    public void tearDown() throws IOException {
+        if (fcm != null) fcm.stop();
+        if (key != null) Files.deleteIfExists(key);
+    }
+
+    private FcmDispatcher.Config start(long latencyMs, double errorRate, long tokenTtlSec) throws Exception {
+        fcm = new LocalFcm(16, latencyMs, errorRate, tokenTtlSec);
+        FcmDispatcher.Config c = new FcmDispatcher.Config();
+        c.baseUrl = fcm.start().toString();
+        c.qps = 0;
+        c.http2 = false;
+        key = Files.createTempFile("fcm-test-", ".json");
+        Files.writeString(key, fcm.serviceAccountJson());
+        return c;
+    }
+
+    private FcmDispatcher dispatcher(FcmDispatcher.Config c, TokenRegistry registry) throws IOException {
+        AccessTokenCache oauth = AccessTokenCache.fromServiceAccount(key, client, c.timeoutMs);
+        return new FcmDispatcher(c, client, oauth, registry, oauth.projectId);
+    }
+
+    @Test
+    public void unregisteredTokensArePruned() throws Exception {
+        FcmDispatcher.Config c = start(0, 0, 3600);
+        List<String> tokens = fcm.tokens(300, 0.1, 7);
+        TokenRegistry registry = TokenRegistry.of(tokens);
+        FcmDispatcher.BatchResult b = dispatcher(c, registry).dispatchBatch(1, tokens, "req-1");
+
+        assertEquals(300, b.tokens);
+        assertEquals(fcm.unregisteredCount(), b.pruned);
+        assertEquals(300 - fcm.unregisteredCount(), b.ok);
+        assertEquals(0, b.failed);
+        assertEquals(b.ok, fcm.accepted.get());
+        assertEquals(b.pruned, registry.prunedCount());
+        assertEquals(b.ok, registry.tokens().size());
+        assertEquals(1, fcm.tokenGrants.get());
+    }
+
+    @Test
+    public void unavailableIsRetried() throws Exception {
+        FcmDispatcher.Config c = start(0, 0.2, 3600);
+        c.maxAttempts = 8;
+        List<String> tokens = fcm.tokens(40, 0, 3);
+        FcmDispatcher.BatchResult b = dispatcher(c, TokenRegistry.of(tokens)).dispatchBatch(1, tokens, "req-2");
+
+        assertEquals(40, b.ok);
+        assertEquals(0, b.failed);
+        assertTrue(b.retries.get() > 0);
+    }
+
+    @Test
+    public void attemptsAreCapped() throws Exception {
+        FcmDispatcher.Config c = start(0, 1.0, 3600);
+        c.maxAttempts = 2;
+        List<String> tokens = fcm.tokens(5, 0, 4);
+        FcmDispatcher.BatchResult b = dispatcher(c, TokenRegistry.of(tokens)).dispatchBatch(1, tokens, "req-3");
+
+        assertEquals(5, b.failed);
+        assertEquals(5, b.retries.get());
+    }
+
+    @Test
+    public void accessTokenIsRefreshedBeforeItExpires() throws Exception {
+        FcmDispatcher.Config c = start(0, 0, 2);
+        List<String> tokens = fcm.tokens(20, 0, 5);
+        FcmDispatcher d = dispatcher(c, TokenRegistry.of(tokens));
+        d.dispatchBatch(1, tokens, "a");
+        Thread.sleep(1_600); // past the refresh point at 3/4 of the 2 s lifetime
+        FcmDispatcher.BatchResult b = d.dispatchBatch(2, tokens, "b");
+
+        assertEquals(20, b.ok);
+        assertEquals(2, fcm.tokenGrants.get());
+        assertEquals(0, fcm.rejected.get());
+    }
+
+    @Test
+    public void revokedAccessTokenIsFetchedAgain() throws Exception {
+        FcmDispatcher.Config c = start(0, 0, 3600);
+        c.maxConcurrency = 1;
+        List<String> tokens = fcm.tokens(10, 0, 6);
+        FcmDispatcher d = dispatcher(c, TokenRegistry.of(tokens));
+        d.dispatchBatch(1, tokens, "a");
+        fcm.revokeTokens();
+        FcmDispatcher.BatchResult b = d.dispatchBatch(2, tokens, "b");
+
+        assertEquals(10, b.ok);
+        assertEquals(1, fcm.rejected.get());
+        assertEquals(2, fcm.tokenGrants.get());
+    }
+
+    @Test
+    public void concurrencyIsBounded() throws Exception {
+        FcmDispatcher.Config c = start(20, 0, 3600);
+        c.maxConcurrency = 4;
+        List<String> tokens = fcm.tokens(60, 0, 8);
+        FcmDispatcher.BatchResult b = dispatcher(c, TokenRegistry.of(tokens)).dispatchBatch(1, tokens, "req");
+
+        assertEquals(60, b.ok);
+        // the stand-in counts a handler until its exchange closes, just after the client has the
+        // answer and started the next send, so it can see one more than the dispatcher allows
+        assertTrue("max in flight " + fcm.maxInFlight.get(), fcm.maxInFlight.get() <= 5);
+        // 60 sends, 4 at a time, 20 ms each
+        assertTrue("took " + b.wallNs / 1_000_000 + " ms", b.wallNs >= 280_000_000L);
+    }
+
+    @Test
+    public void batchBoundariesDoNotDrainTheSemaphore() throws Exception {
+        FcmDispatcher.Config c = start(50, 0, 3600);
+        c.maxConcurrency = 6;
+        c.batchSize = 2;
+        List<String> tokens = fcm.tokens(24, 0, 10);
+        List<FcmDispatcher.BatchResult> batches = dispatcher(c, TokenRegistry.of(tokens)).dispatchRound(1, tokens, "req");
+
+        assertEquals(12, batches.size());
+        for (int i = 0; i < batches.size(); i++) {
+            assertEquals(i + 1, batches.get(i).index);
+            assertEquals(2, batches.get(i).ok);
+        }
+        // batch by batch, at most 2 (+1, see above) would be in flight
+        assertTrue("max in flight " + fcm.maxInFlight.get(), fcm.maxInFlight.get() >= 5);
+    }
+
+    @Test
+    public void rateIsLimited() throws Exception {
+        FcmDispatcher.Config c = start(0, 0, 3600);
+        c.qps = 100;
+        c.maxConcurrency = 5;
+        List<String> tokens = fcm.tokens(55, 0, 9);
+        FcmDispatcher.BatchResult b = dispatcher(c, TokenRegistry.of(tokens)).dispatchBatch(1, tokens, "req");
+
+        assertEquals(55, b.ok);
+        // a burst of 5, then 50 more at 10 ms apart
+        assertTrue("took " + b.wallNs / 1_000_000 + " ms", b.wallNs >= 450_000_000L);
+    }
+
+    @Test
+    public void messageBodyIsAHighPriorityDataMessage() throws Exception {
+        JSONObject m = new JSONObject(FcmDispatcher.body("tok\"en", "r1")).getJSONObject("message");
+        assertEquals("tok\"en", m.getString("token"));
+        assertEquals("REQUEST_LOCATION", m.getJSONObject("data").getString("type"));
+        assertEquals("r1", m.getJSONObject("data").getString("requestId"));
+        assertEquals("high", m.getJSONObject("android").getString("priority"));
+    }
+
+    @Test
+    public void errorCodesAreReadFromV1AndLegacyBodies() {
+        assertEquals("UNREGISTERED", FcmDispatcher.fcmErrorCode("{\"error\":{\"code\":404,\"message\":\"Requested entity was not found.\","
+                + "\"details\":[{\"@type\":\"type.googleapis.com/google.firebase.fcm.v1.FcmError\",\"errorCode\":\"UNREGISTERED\"}]}}"));
+        assertEquals("NotRegistered", FcmDispatcher.fcmErrorCode("{\"error\":{\"code\":400,\"message\":\"NotRegistered\"}}"));
+        assertNull(FcmDispatcher.fcmErrorCode("<html>Bad Gateway</html>"));
+    }
+
+    @Test
+    public void prunedTokensAreRemovedFromTheTokensFile() throws Exception {
+        Path file = Files.createTempFile("tokens-", ".txt");
+        try {
+            Files.writeString(file, "# device\ttoken\nphone\ttok-a\ntok-b\ntablet\ttok-c\n", StandardCharsets.UTF_8);
+            TokenRegistry registry = TokenRegistry.fromFile(file);
+            assertEquals(List.of("tok-a", "tok-b", "tok-c"), registry.tokens());
+            assertTrue(registry.prune("tok-b"));
+            assertFalse(registry.prune("tok-b"));
+            registry.prune("tok-c");
+
+            assertEquals(2, registry.save(1_000));
+            assertEquals("# device\ttoken\nphone\ttok-a\n", Files.readString(file, StandardCharsets.UTF_8));
+            assertEquals(List.of("tok-a"), registry.tokens());
+            assertEquals(0, registry.save(1_000));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * JVM load generator for the ingestion API: N virtual devices sending the app's own payloads.
+ * Run with ./gradlew :fleetsim:run --args="--devices 10000 --local"
+ */
+
+plugins {
+    application
+}
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(17))
+    }
+}
+
+sourceSets {
+    main {
+        java {
+            setSrcDirs(listOf("src/main/java", "../app/src/main/java"))
+            include("android_status/fleetsim/**")
+            include("android_status/app/ApiPayloads.java")
+            include("android_status/app/TimeSeriesStore.java")
+            include("android_status/app/MetricSample.java")
+            include("android_status/app/DeltaFilter.java")
+            include("android_status/app/InternalMetrics.java")
+        }
+    }
+}
+
+dependencies {
+    implementation("org.json:json:20240303")
+}
+
+application {
+    mainClass.set("android_status.fleetsim.FleetSimulator")
+}
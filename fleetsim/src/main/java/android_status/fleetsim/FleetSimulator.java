@@ -0,0 +1,509 @@
+package android_status.fleetsim;
+
+import android_status.app.InternalMetrics;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Drives N {@link VirtualDevice}s against one API endpoint (or a bundled {@link LocalSink}) for
+ * capacity planning. Each device registers its FCM token, samples on a jittered interval, answers
+ * trigger bursts after an FCM-like delivery delay, and goes offline and back, draining its backlog
+ * on reconnect. Bodies are the app's own ({@code ApiPayloads}), gzipped from 1 KB like
+ * {@code HttpTransport} does.
+ *
+ * Requests go out through one async {@link HttpClient}; {@code maxInFlight} bounds the requests
+ * outstanding across the fleet. A device that finds no slot, or whose send failed, tries again
+ * after a jittered exponential backoff, so it drains even with no periodic samples. Latency
+ * and error counts land in {@link InternalMetrics} under {@code sim.*} and are printed as a
+ * progress line every {@code reportEverySec} and as a summary at the end.
+ */
+public final class FleetSimulator {
+    public static final class Config {
+        /** API URL; null with {@code local} set starts a LocalSink. */
+        public String endpoint;
+        public boolean local;
+        public String apiKey;
+        public int devices = 1000;
+        public int durationSec = 120;
+        /** Periodic API sample interval; 0 sends only on triggers, like the stock app. */
+        public int intervalSec = 30;
+        /** Each interval is randomised by up to this fraction either way. */
+        public double jitter = 0.2;
+        public int burstEverySec = 60;
+        /** Share of the fleet one burst addresses. */
+        public double burstFraction = 0.1;
+        /** Upper bound of the uniform FCM delivery delay. */
+        public long fcmDelayMaxMs = 2_000;
+        /** Long-run share of time a device spends offline. */
+        public double offlineFraction = 0.05;
+        public int offlineMeanSec = 120;
+        public int maxInFlight = 1_000;
+        public int gzipThresholdBytes = 1024;
+        public boolean http2 = false;
+        public long timeoutMs = 30_000;
+        public int reportEverySec = 10;
+        public long seed = 1;
+        /** Also write the summary and all sim.* metrics here as JSON. */
+        public String jsonOut;
+        public long sinkLatencyMs = 0;
+        public double sinkErrorRate = 0;
+        public int sinkThreads = 32;
+    }
+
+    private static final InternalMetrics.Timer REGISTER = InternalMetrics.timer("sim.register");
+    private static final InternalMetrics.Timer BATCH = InternalMetrics.timer("sim.batch");
+    /** Backend trigger send to the answering batch's 2xx. */
+    private static final InternalMetrics.Timer TRIGGER = InternalMetrics.timer("sim.trigger");
+    private static final InternalMetrics.Counter RECORDS = InternalMetrics.counter("sim.records");
+    private static final InternalMetrics.Counter WIRE_BYTES = InternalMetrics.counter("sim.wireBytes");
+    private static final InternalMetrics.Counter DEFERRED = InternalMetrics.counter("sim.deferred");
+    private static final InternalMetrics.Counter IO_ERRORS = InternalMetrics.counter("sim.ioErrors");
+    private static final InternalMetrics.Counter TRIGGERS_SENT = InternalMetrics.counter("sim.triggersSent");
+    private static final InternalMetrics.Counter CHURN = InternalMetrics.counter("sim.offlineEpisodes");
+    private static final InternalMetrics.Counter RETRIES = InternalMetrics.counter("sim.retries");
+
+    private static final long MIN_RETRY_MS = 200;
+    private static final long MAX_RETRY_MS = 30_000;
+
+    private final Config config;
+    private final URI endpoint;
+    private final HttpClient client;
+    private final ScheduledExecutorService timer;
+    private final Semaphore inFlight;
+    private final List<VirtualDevice> fleet = new ArrayList<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong burstSerial = new AtomicLong();
+    private final Random rnd;
+    private volatile long endMs;
+
+    FleetSimulator(Config config, URI endpoint) {
+        this.config = config;
+        this.endpoint = endpoint;
+        this.client = HttpClient.newBuilder()
+                .version(config.http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(config.timeoutMs))
+                .build();
+        this.timer = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        this.inFlight = new Semaphore(config.maxInFlight);
+        this.rnd = new Random(config.seed);
+        for (int i = 0; i < config.devices; i++) fleet.add(new VirtualDevice(i, config.seed));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && ("--help".equals(args[0]) || "-h".equals(args[0]))) {
+            System.out.println(USAGE);
+            return;
+        }
+        Config c;
+        try {
+            c = parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        LocalSink sink = null;
+        URI endpoint;
+        if (c.endpoint != null) {
+            endpoint = URI.create(c.endpoint);
+        } else {
+            sink = new LocalSink(0, c.sinkThreads, c.sinkLatencyMs, c.sinkErrorRate);
+            endpoint = sink.start();
+        }
+        System.out.println("Simulating " + c.devices + " devices against " + endpoint + " for " + c.durationSec + " s");
+        try {
+            JSONObject summary = new FleetSimulator(c, endpoint).run();
+            if (sink != null) summary.put("sinkRequests", sink.requests.get()).put("sinkBodyBytes", sink.bodyBytes.get());
+            if (c.jsonOut != null) {
+                JSONObject out = new JSONObject().put("summary", summary).put("metrics", InternalMetrics.toJson());
+                Files.write(Paths.get(c.jsonOut), out.toString(2).getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            if (sink != null) sink.stop();
+        }
+        System.exit(0);
+    }
+
+    JSONObject run() throws InterruptedException, JSONException {
+        long start = System.currentTimeMillis();
+        endMs = start + config.durationSec * 1000L;
+        // devices come up spread over one interval, as a fleet that booted at different times would
+        long ramp = Math.max(1, config.intervalSec) * 1000L;
+        for (VirtualDevice d : fleet) {
+            timer.schedule(() -> boot(d), (long) (rnd.nextDouble() * ramp), TimeUnit.MILLISECONDS);
+        }
+        if (config.burstEverySec > 0 && config.burstFraction > 0) {
+            timer.scheduleAtFixedRate(this::burst, config.burstEverySec, config.burstEverySec, TimeUnit.SECONDS);
+        }
+        long lastRequests = 0;
+        long lastMs = start;
+        while (System.currentTimeMillis() < endMs) {
+            Thread.sleep(Math.min(config.reportEverySec * 1000L, Math.max(1, endMs - System.currentTimeMillis())));
+            long now = System.currentTimeMillis();
+            long r = requests.get();
+            System.out.println(progress(now - start, (r - lastRequests) * 1000.0 / Math.max(1, now - lastMs)));
+            lastRequests = r;
+            lastMs = now;
+        }
+        timer.shutdownNow();
+        // let outstanding requests finish so their latency is counted
+        inFlight.tryAcquire(config.maxInFlight, config.timeoutMs, TimeUnit.MILLISECONDS);
+        return summary(System.currentTimeMillis() - start);
+    }
+
+    private void boot(VirtualDevice d) {
+        synchronized (d) {
+            try {
+                if (config.intervalSec > 0) d.sample(System.currentTimeMillis(), null, 0);
+            } catch (JSONException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        pump(d);
+        scheduleTick(d);
+        scheduleChurn(d, true);
+    }
+
+    private void scheduleTick(VirtualDevice d) {
+        if (config.intervalSec <= 0) return;
+        double f = 1 + (ThreadLocalRandom.current().nextDouble() * 2 - 1) * config.jitter;
+        schedule(() -> tick(d), (long) (config.intervalSec * 1000L * f));
+    }
+
+    private void tick(VirtualDevice d) {
+        synchronized (d) {
+            try {
+                d.sample(System.currentTimeMillis(), null, 0);
+            } catch (JSONException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        pump(d);
+        scheduleTick(d);
+    }
+
+    /** Alternates online and offline periods with exponential lengths. */
+    private void scheduleChurn(VirtualDevice d, boolean online) {
+        double f = config.offlineFraction;
+        if (f <= 0 || f >= 1) return;
+        double meanMs = online ? config.offlineMeanSec * 1000.0 * (1 - f) / f : config.offlineMeanSec * 1000.0;
+        long delay = (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanMs);
+        schedule(() -> {
+            String trigger = null;
+            long sentAt = 0;
+            synchronized (d) {
+                d.online = !online;
+                if (!online && d.heldTrigger != null) {
+                    trigger = d.heldTrigger;
+                    sentAt = d.heldTriggerSentMs;
+                    d.heldTrigger = null;
+                }
+            }
+            if (online) CHURN.inc();
+            if (trigger != null) {
+                answer(d, trigger, sentAt);
+            } else if (!online) {
+                pump(d);
+            }
+            scheduleChurn(d, !online);
+        }, delay);
+    }
+
+    /** The backend polls a random share of the fleet, as it would with REQUEST_LOCATION over FCM. */
+    private void burst() {
+        long burst = burstSerial.incrementAndGet();
+        int n = (int) Math.round(fleet.size() * config.burstFraction);
+        List<VirtualDevice> picked = new ArrayList<>(fleet);
+        Collections.shuffle(picked, ThreadLocalRandom.current());
+        long sentAt = System.currentTimeMillis();
+        for (VirtualDevice d : picked.subList(0, n)) {
+            String requestId = "b" + burst + "-" + d.index;
+            TRIGGERS_SENT.inc();
+            long delay = (long) (ThreadLocalRandom.current().nextDouble() * config.fcmDelayMaxMs);
+            schedule(() -> {
+                synchronized (d) {
+                    if (!d.online) {
+                        // FCM keeps it until the device is back; a newer request replaces it
+                        d.heldTrigger = requestId;
+                        d.heldTriggerSentMs = sentAt;
+                        return;
+                    }
+                }
+                answer(d, requestId, sentAt);
+            }, delay);
+        }
+    }
+
+    private void answer(VirtualDevice d, String requestId, long sentAtMs) {
+        synchronized (d) {
+            try {
+                d.sample(System.currentTimeMillis(), requestId, sentAtMs);
+            } catch (JSONException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        pump(d);
+    }
+
+    /** Sends the device's next request if it is online, idle and a fleet-wide slot is free. */
+    private void pump(VirtualDevice d) {
+        byte[] body;
+        VirtualDevice.Batch batch = null;
+        synchronized (d) {
+            if (d.busy || !d.online || System.currentTimeMillis() >= endMs) return;
+            try {
+                if (!d.registered) {
+                    body = d.registerBody();
+                } else {
+                    batch = d.peekBatch();
+                    if (batch == null) return;
+                    body = batch.body;
+                }
+            } catch (JSONException ex) {
+                throw new IllegalStateException(ex);
+            }
+            if (!inFlight.tryAcquire()) {
+                DEFERRED.inc();
+                retryLater(d);
+                return;
+            }
+            d.busy = true;
+        }
+        final VirtualDevice.Batch sent = batch;
+        InternalMetrics.Timer t = sent == null ? REGISTER : BATCH;
+        long t0 = System.nanoTime();
+        requests.incrementAndGet();
+        client.sendAsync(request(body), HttpResponse.BodyHandlers.discarding()).whenComplete((resp, err) -> {
+            inFlight.release();
+            t.stop(t0);
+            boolean ok = err == null && resp.statusCode() / 100 == 2;
+            if (err != null) {
+                IO_ERRORS.inc();
+            } else {
+                InternalMetrics.counter("sim.status." + resp.statusCode()).inc();
+            }
+            if (!ok) {
+                t.error();
+                failures.incrementAndGet();
+            }
+            synchronized (d) {
+                d.busy = false;
+                if (!ok) {
+                    retryLater(d);
+                } else {
+                    d.retryDelayMs = 0;
+                }
+                if (ok && sent == null) {
+                    d.registered = true;
+                } else if (ok) {
+                    d.ack(sent.records);
+                    RECORDS.add(sent.records);
+                    if (sent.triggers > 0) TRIGGER.record((System.currentTimeMillis() - sent.firstTriggerMs) * 1_000_000L);
+                }
+            }
+            // keep draining after a success, like OutboxUploader; a failure waits for its retry
+            if (ok) pump(d);
+        });
+    }
+
+    /** Caller holds {@code d}. Pumps again after a backoff doubling from 200 ms to 30 s, half of it jitter. */
+    private void retryLater(VirtualDevice d) {
+        if (d.retryScheduled) return;
+        d.retryScheduled = true;
+        d.retryDelayMs = d.retryDelayMs == 0 ? MIN_RETRY_MS : Math.min(MAX_RETRY_MS, d.retryDelayMs * 2);
+        long delay = ThreadLocalRandom.current().nextLong(d.retryDelayMs / 2, d.retryDelayMs + 1);
+        schedule(() -> {
+            synchronized (d) {
+                d.retryScheduled = false;
+            }
+            RETRIES.inc();
+            pump(d);
+        }, delay);
+    }
+
+    private HttpRequest request(byte[] body) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(endpoint)
+                .timeout(Duration.ofMillis(config.timeoutMs))
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json");
+        if (config.apiKey != null && !config.apiKey.isEmpty()) b.header("Authorization", "Bearer " + config.apiKey);
+        if (config.gzipThresholdBytes >= 0 && body.length >= config.gzipThresholdBytes) {
+            body = gzip(body);
+            b.header("Content-Encoding", "gzip");
+        }
+        WIRE_BYTES.add(body.length);
+        return b.POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+    }
+
+    private void schedule(Runnable r, long delayMs) {
+        try {
+            timer.schedule(r, delayMs, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException ignored) {
+            // run is over
+        }
+    }
+
+    private String progress(long elapsedMs, double rps) {
+        int online = 0;
+        long pending = 0;
+        for (VirtualDevice d : fleet) {
+            synchronized (d) {
+                if (d.online) online++;
+                pending += d.pending();
+            }
+        }
+        long[] p = BATCH.percentilesNs(0.5, 0.99);
+        return String.format(Locale.ROOT, "t=%4ds  %8.1f req/s  in-flight %5d  online %d/%d  queued records %d  batch p50 %.1f ms p99 %.1f ms  errors %d",
+                elapsedMs / 1000, rps, config.maxInFlight - inFlight.availablePermits(), online, fleet.size(), pending,
+                p[0] / 1e6, p[1] / 1e6, failures.get());
+    }
+
+    private JSONObject summary(long elapsedMs) throws JSONException {
+        long n = requests.get();
+        long dropped = 0;
+        for (VirtualDevice d : fleet) {
+            synchronized (d) {
+                dropped += d.dropped;
+            }
+        }
+        JSONObject s = new JSONObject()
+                .put("devices", fleet.size())
+                .put("elapsedMs", elapsedMs)
+                .put("requests", n)
+                .put("requestsPerSec", n * 1000.0 / Math.max(1, elapsedMs))
+                .put("errors", failures.get())
+                .put("errorRate", n == 0 ? 0 : (double) failures.get() / n)
+                .put("recordsStored", RECORDS.get())
+                .put("recordsDropped", dropped)
+                .put("wireBytes", WIRE_BYTES.get())
+                .put("deferred", DEFERRED.get())
+                .put("retries", RETRIES.get());
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%d requests in %.1f s (%.1f/s), %d errors (%.2f%%)%n", n, elapsedMs / 1000.0,
+                s.getDouble("requestsPerSec"), failures.get(), s.getDouble("errorRate") * 100);
+        System.out.printf(Locale.ROOT, "%-9s %8s %7s %9s %9s %9s %9s%n", "", "n", "errors", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        line("register", REGISTER);
+        line("batch", BATCH);
+        line("trigger", TRIGGER);
+        System.out.printf(Locale.ROOT, "records stored %d, dropped %d; %d bytes on the wire; %d sends deferred (max in-flight), %d retries%n",
+                RECORDS.get(), dropped, WIRE_BYTES.get(), DEFERRED.get(), RETRIES.get());
+        JSONObject counters = InternalMetrics.toJson().getJSONObject("counters");
+        StringBuilder statuses = new StringBuilder("responses:");
+        for (String k : counters.keySet()) {
+            if (k.startsWith("sim.status.")) statuses.append(' ').append(k.substring(11)).append('=').append(counters.getLong(k));
+        }
+        statuses.append(" io=").append(IO_ERRORS.get());
+        System.out.println(statuses);
+        return s;
+    }
+
+    private static void line(String name, InternalMetrics.Timer t) {
+        long[] p = t.percentilesNs(0.5, 0.9, 0.99);
+        System.out.printf(Locale.ROOT, "%-9s %8d %7d %9.1f %9.1f %9.1f %9.1f%n", name, t.count(), t.errors(),
+                p[0] / 1e6, p[1] / 1e6, p[2] / 1e6, t.maxNs() / 1e6);
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(body);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    static final String USAGE = String.join("\n",
+            "usage: fleetsim (--endpoint URL | --local) [options]",
+            "  --devices N            virtual devices (1000)",
+            "  --duration SEC         run length (120)",
+            "  --interval SEC         periodic API sample interval, 0 = triggers only (30)",
+            "  --jitter F             interval jitter, fraction either way (0.2)",
+            "  --burst-every SEC      seconds between trigger bursts, 0 = none (60)",
+            "  --burst-fraction F     share of the fleet per burst (0.1)",
+            "  --fcm-delay-ms MS      max FCM delivery delay (2000)",
+            "  --offline-fraction F   long-run share of time offline (0.05)",
+            "  --offline-mean SEC     mean offline period (120)",
+            "  --max-in-flight N      requests outstanding across the fleet (1000)",
+            "  --api-key KEY          sent as Authorization: Bearer KEY",
+            "  --gzip-threshold BYTES gzip bodies from this size, -1 = never (1024)",
+            "  --http2                negotiate HTTP/2",
+            "  --timeout-ms MS        connect and request timeout (30000)",
+            "  --report-every SEC     progress line interval (10)",
+            "  --seed N               device identities and start offsets (1)",
+            "  --json FILE            write summary and metrics as JSON",
+            "  --sink-latency-ms MS   local sink: delay before answering (0)",
+            "  --sink-error-rate F    local sink: share of 503 answers (0)");
+
+    static Config parse(String[] args) {
+        Config c = new Config();
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            switch (a) {
+                case "--local": c.local = true; continue;
+                case "--http2": c.http2 = true; continue;
+                default: break;
+            }
+            if (i + 1 >= args.length) throw new IllegalArgumentException("missing value for " + a);
+            String v = args[++i];
+            try {
+                switch (a) {
+                    case "--endpoint": c.endpoint = v; break;
+                    case "--api-key": c.apiKey = v; break;
+                    case "--devices": c.devices = Integer.parseInt(v); break;
+                    case "--duration": c.durationSec = Integer.parseInt(v); break;
+                    case "--interval": c.intervalSec = Integer.parseInt(v); break;
+                    case "--jitter": c.jitter = Double.parseDouble(v); break;
+                    case "--burst-every": c.burstEverySec = Integer.parseInt(v); break;
+                    case "--burst-fraction": c.burstFraction = Double.parseDouble(v); break;
+                    case "--fcm-delay-ms": c.fcmDelayMaxMs = Long.parseLong(v); break;
+                    case "--offline-fraction": c.offlineFraction = Double.parseDouble(v); break;
+                    case "--offline-mean": c.offlineMeanSec = Integer.parseInt(v); break;
+                    case "--max-in-flight": c.maxInFlight = Integer.parseInt(v); break;
+                    case "--gzip-threshold": c.gzipThresholdBytes = Integer.parseInt(v); break;
+                    case "--timeout-ms": c.timeoutMs = Long.parseLong(v); break;
+                    case "--report-every": c.reportEverySec = Integer.parseInt(v); break;
+                    case "--seed": c.seed = Long.parseLong(v); break;
+                    case "--json": c.jsonOut = v; break;
+                    case "--sink-latency-ms": c.sinkLatencyMs = Long.parseLong(v); break;
+                    case "--sink-error-rate": c.sinkErrorRate = Double.parseDouble(v); break;
+                    default: throw new IllegalArgumentException("unknown option " + a);
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("bad value for " + a + ": " + v);
+            }
+        }
+        if (c.endpoint == null && !c.local) throw new IllegalArgumentException("give --endpoint URL or --local");
+        if (c.endpoint != null && c.local) throw new IllegalArgumentException("--endpoint and --local are exclusive");
+        if (c.devices <= 0 || c.durationSec <= 0 || c.maxInFlight <= 0 || c.reportEverySec <= 0) {
+            throw new IllegalArgumentException("--devices, --duration, --max-in-flight and --report-every must be positive");
+        }
+        return c;
+    }
+}
@@ -0,0 +1,68 @@
+package android_status.fleetsim;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stand-in API for runs without a backend: accepts every POST with 200 after reading (and, for
+ * {@code Content-Encoding: gzip}, inflating) the body. Latency and a 503 rate can be injected to
+ * see how the fleet reacts to a slow or failing backend.
+ */
+final class LocalSink {
+    private final HttpServer server;
+    private final ExecutorService pool;
+    private final long latencyMs;
+    private final double errorRate;
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong bodyBytes = new AtomicLong();
+
+    LocalSink(int port, int threads, long latencyMs, double errorRate) throws IOException {
+        this.latencyMs = latencyMs;
+        this.errorRate = errorRate;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        pool = Executors.newFixedThreadPool(threads);
+        server.setExecutor(pool);
+        server.createContext("/", this::handle);
+    }
+
+    URI start() {
+        server.start();
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/ingest");
+    }
+
+    void stop() {
+        server.stop(0);
+        pool.shutdownNow();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (HttpExchange e = ex) {
+            long n = 0;
+            InputStream in = e.getRequestBody();
+            if ("gzip".equalsIgnoreCase(e.getRequestHeaders().getFirst("Content-Encoding"))) in = new GZIPInputStream(in);
+            byte[] buf = new byte[8192];
+            for (int r; (r = in.read(buf)) > 0; ) n += r;
+            requests.incrementAndGet();
+            bodyBytes.addAndGet(n);
+            if (latencyMs > 0) {
+                try {
+                    Thread.sleep(latencyMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            int code = errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate ? 503 : 200;
+            e.sendResponseHeaders(code, -1);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package android_status.fleetsim;
+
+import android_status.app.ApiPayloads;
+import android_status.app.DeltaFilter;
+import android_status.app.MetricSample;
+
+import org.json.JSONException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * One simulated phone: a random-walk sample source, the app's API delta filter, and an outbox of
+ * encoded records that is drained in batches, one request in flight at a time, like
+ * {@code MetricService}'s api queue. Records stay queued until a 2xx, and pile up while offline.
+ * Not thread-safe; the simulator serialises all calls per device.
+ */
+final class VirtualDevice {
+    /** Same as the app's OUTBOX_BATCH. */
+    static final int BATCH = 50;
+    /** Oldest records are dropped beyond this, standing in for the app's 8 MB outbox cap. */
+    static final int MAX_PENDING = 10_000;
+
+    final int index;
+    final String deviceId;
+    final String deviceName;
+    final Random rnd;
+    private final DeltaFilter filter = new DeltaFilter(new DeltaFilter.Config());
+    private final ArrayDeque<byte[]> outbox = new ArrayDeque<>();
+    /** Backend send time of the trigger a record answers, 0 otherwise; parallel to {@link #outbox}. */
+    private final ArrayDeque<Long> triggeredAt = new ArrayDeque<>();
+
+    boolean online = true;
+    boolean registered;
+    boolean busy;
+    /** Current retry backoff after a failed or deferred send; 0 once a send succeeds. */
+    long retryDelayMs;
+    boolean retryScheduled;
+    /** A trigger sent while offline, delivered on reconnect as FCM would; null if none. */
+    String heldTrigger;
+    long heldTriggerSentMs;
+    long dropped;
+    private long fcmTokenSerial;
+    private double memoryPct;
+    private double tempC;
+    private int batteryPct;
+    private int voltageMv;
+    private double lat;
+    private double lon;
+
+    VirtualDevice(int index, long seed) {
+        this.index = index;
+        this.rnd = new Random(seed * 31 + index);
+        this.deviceId = String.format("%016x", rnd.nextLong());
+        this.deviceName = "sim" + index;
+        memoryPct = 30 + rnd.nextDouble() * 40;
+        tempC = 28 + rnd.nextDouble() * 8;
+        batteryPct = 20 + rnd.nextInt(81);
+        voltageMv = 3700 + batteryPct * 5;
+        lat = -33.8 + rnd.nextDouble() * 0.2;
+        lon = 151.1 + rnd.nextDouble() * 0.2;
+    }
+
+    /** A new FCM token, as after a reinstall or token rotation. */
+    byte[] registerBody() throws JSONException {
+        String token = deviceId + ":APA91b" + Long.toHexString(++fcmTokenSerial) + Long.toHexString(rnd.nextLong());
+        return ApiPayloads.registerToken(deviceId, deviceName, token).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Takes a sample and queues its API record.
+     * @param requestId the trigger this sample answers, or null for a periodic sample
+     * @param sentAtMs when the backend sent that trigger, for end-to-end latency
+     */
+    void sample(long nowMs, String requestId, long sentAtMs) throws JSONException {
+        MetricSample s = next(nowMs);
+        if (requestId != null) {
+            s.requestIds = new String[]{requestId};
+            s.triggeredAtMs = nowMs;
+        }
+        outbox.addLast(ApiPayloads.sample(s, filter, true, null).toString().getBytes(StandardCharsets.UTF_8));
+        triggeredAt.addLast(requestId != null ? sentAtMs : 0L);
+        while (outbox.size() > MAX_PENDING) {
+            outbox.pollFirst();
+            triggeredAt.pollFirst();
+            dropped++;
+        }
+    }
+
+    int pending() {
+        return outbox.size();
+    }
+
+    /** The next batch body, built from the head of the outbox without removing anything. */
+    Batch peekBatch() {
+        int n = Math.min(BATCH, outbox.size());
+        if (n == 0) return null;
+        List<byte[]> records = new ArrayList<>(n);
+        long firstTrigger = 0;
+        int triggers = 0;
+        Iterator<Long> t = triggeredAt.iterator();
+        for (byte[] r : outbox) {
+            if (records.size() == n) break;
+            records.add(r);
+            long at = t.next();
+            if (at != 0) {
+                triggers++;
+                if (firstTrigger == 0 || at < firstTrigger) firstTrigger = at;
+            }
+        }
+        return new Batch(ApiPayloads.batch(records), n, triggers, firstTrigger);
+    }
+
+    /** The batch was stored; drop it from the outbox. */
+    void ack(int records) {
+        for (int i = 0; i < records && !outbox.isEmpty(); i++) {
+            outbox.pollFirst();
+            triggeredAt.pollFirst();
+        }
+    }
+
+    static final class Batch {
+        final byte[] body;
+        final int records;
+        final int triggers;
+        /** Earliest trigger send time among the records, 0 if none answers a trigger. */
+        final long firstTriggerMs;
+
+        Batch(byte[] body, int records, int triggers, long firstTriggerMs) {
+            this.body = body;
+            this.records = records;
+            this.triggers = triggers;
+            this.firstTriggerMs = firstTriggerMs;
+        }
+    }
+
+    private MetricSample next(long nowMs) {
+        memoryPct = clamp(memoryPct + rnd.nextGaussian() * 1.5, 5, 95);
+        tempC = clamp(tempC + rnd.nextGaussian() * 0.4, 15, 70);
+        if (rnd.nextInt(20) == 0) batteryPct = Math.max(1, batteryPct - 1);
+        voltageMv = 3700 + batteryPct * 5 + rnd.nextInt(20);
+        // mostly parked, sometimes walking
+        if (rnd.nextInt(10) == 0) {
+            lat += rnd.nextGaussian() * 0.0005;
+            lon += rnd.nextGaussian() * 0.0005;
+        }
+        MetricSample s = new MetricSample();
+        s.deviceId = deviceId;
+        s.deviceName = deviceName;
+        s.timestampMs = nowMs;
+        s.memoryPct = Math.round(memoryPct * 10.0) / 10.0;
+        s.tempC = Math.round(tempC * 10.0) / 10.0;
+        s.batteryPct = batteryPct;
+        s.voltageMv = voltageMv;
+        s.charging = false;
+        s.lat = lat;
+        s.lon = lon;
+        s.accuracy = 5f + rnd.nextInt(150) / 10f;
+        s.provider = "fused";
+        return s;
+    }
+
+    private static double clamp(double v, double lo, double hi) {
+        return Math.max(lo, Math.min(hi, v));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Reference ingestion server for the app's API contract, with JMH benchmarks for sustained ingest.
+ * Run with ./gradlew :ingest:run --args="--port 8080 --data ingest-data", benchmark with ./gradlew :ingest:jmh
+ */
+
+plugins {
+    application
+    id("me.champeau.jmh")
+}
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(17))
+    }
+}
+
+sourceSets {
+    main {
+        java {
+            setSrcDirs(listOf("src/main/java", "../app/src/main/java"))
+            include("android_status/ingest/**")
+            include("android_status/app/MetricSample.java")
+            include("android_status/app/DeltaFilter.java")
+            include("android_status/app/PayloadEncoder.java")
+            include("android_status/app/BinaryPayloadEncoder.java")
+            include("android_status/app/BinaryPayloadDecoder.java")
+            include("android_status/app/InternalMetrics.java")
+            include("android_status/app/Outbox.java")
+        }
+    }
+}
+
+dependencies {
+    implementation("org.json:json:20240303")
+    testImplementation("junit:junit:4.13.2")
+}
+
+application {
+    mainClass.set("android_status.ingest.IngestServer")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(2)
+    iterations.set(3)
+    fork.set(1)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    if (project.hasProperty("jmhInclude")) includes.add(project.property("jmhInclude").toString())
+}
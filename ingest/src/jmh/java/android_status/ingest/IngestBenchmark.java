@@ -0,0 +1,171 @@
+package android_status.ingest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Sustained ingest on one machine: 50-row batches (one outbox upload) from 16 concurrent callers,
+ * straight into the {@link ColumnStore} and through {@code POST /ingest} on a local
+ * {@link IngestServer}. Multiply ops/s by 50 for rows/s. Every op waits for its group commit, so
+ * the score includes the fsync. {@code query} reads one device-day (2,880 rows at 30 s) back from
+ * its blocks on disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IngestBenchmark {
+    static final int BATCH = 50;
+    static final int DEVICES = 1000;
+    static final long DAY_MS = 86_400_000L;
+    static final long START_MS = 1_760_000_000_000L;
+
+    private File dir;
+    private ColumnStore store;
+    private ColumnStore queryStore;
+    private IngestServer server;
+    private URI endpoint;
+    private HttpClient client;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    /** Each thread owns its devices, so their timestamps only move forward. */
+    @State(Scope.Thread)
+    public static class Caller {
+        Random rnd;
+        String[] ids;
+        long[] clocks;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(IngestBenchmark b) {
+            int t = b.threadIds.getAndIncrement();
+            rnd = new Random(t);
+            ids = new String[DEVICES / 16];
+            clocks = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = String.format("bench-%02d-%04d", t, i);
+                clocks[i] = START_MS;
+            }
+        }
+
+        int nextDevice() {
+            next = (next + 1) % ids.length;
+            return next;
+        }
+
+        List<long[]> rows(int device) {
+            List<long[]> out = new ArrayList<>(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                clocks[device] += 30_000;
+                out.add(row(rnd, clocks[device]));
+            }
+            return out;
+        }
+
+        byte[] json(int device) {
+            StringBuilder b = new StringBuilder("{\"type\":\"batch\",\"records\":[");
+            for (int i = 0; i < BATCH; i++) {
+                clocks[device] += 30_000;
+                if (i > 0) b.append(',');
+                b.append("{\"deviceId\":\"").append(ids[device]).append("\",\"timestampMs\":").append(clocks[device])
+                        .append(",\"memoryPct\":").append(40 + rnd.nextInt(100) / 10.0)
+                        .append(",\"tempC\":").append(31 + rnd.nextInt(10) / 10.0)
+                        .append(",\"batteryPct\":80,\"voltageV\":4.1,\"lat\":-33.8637,\"lon\":151.2022,\"accuracy\":12.5,\"provider\":\"fused\"}");
+            }
+            return b.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("ingest-bench").toFile();
+        IngestServer.Config c = new IngestServer.Config();
+        c.bind = "127.0.0.1";
+        c.port = 0;
+        c.dataDir = dir.getPath();
+        server = new IngestServer(c);
+        store = server.store();
+        endpoint = server.start();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        // one full day for the query benchmark, written out as blocks by close()
+        File queryDir = new File(dir, "query");
+        Random rnd = new Random(1);
+        List<long[]> day = new ArrayList<>();
+        for (long ts = START_MS - DAY_MS; ts < START_MS; ts += 30_000) day.add(row(rnd, ts));
+        try (ColumnStore s = new ColumnStore(queryDir, new ColumnStore.Config())) {
+            s.append("query-device", day).get();
+        }
+        queryStore = new ColumnStore(queryDir, new ColumnStore.Config());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop();
+        queryStore.close();
+        try (Stream<java.nio.file.Path> files = Files.walk(dir.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void storeAppend(Caller c) throws Exception {
+        int d = c.nextDevice();
+        store.append(c.ids[d], c.rows(d)).get();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public int httpBatch(Caller c) throws Exception {
+        int d = c.nextDevice();
+        HttpRequest req = HttpRequest.newBuilder(endpoint)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(c.json(d)))
+                .build();
+        int status = client.send(req, HttpResponse.BodyHandlers.discarding()).statusCode();
+        if (status != 200) throw new IllegalStateException("HTTP " + status);
+        return status;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int query() throws IOException {
+        return queryStore.query("query-device", START_MS - DAY_MS, START_MS).size();
+    }
+
+    static long[] row(Random rnd, long ts) {
+        long[] r = Column.emptyRow();
+        r[Column.TIMESTAMP.ordinal()] = ts;
+        r[Column.MEMORY.ordinal()] = 400 + rnd.nextInt(100);
+        r[Column.TEMP.ordinal()] = 31_000 + rnd.nextInt(1000);
+        r[Column.BATTERY.ordinal()] = 80;
+        r[Column.VOLTAGE.ordinal()] = 4100 + rnd.nextInt(20);
+        r[Column.LAT.ordinal()] = -3_386_370;
+        r[Column.LON.ordinal()] = 15_120_220;
+        r[Column.ACCURACY.ordinal()] = 125;
+        return r;
+    }
+}
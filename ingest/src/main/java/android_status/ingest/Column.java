@@ -0,0 +1,116 @@
+package android_status.ingest;
+
+import android_status.app.MetricSample;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The stored columns. Every value is kept as a scaled long, at the precision the JSON payload
+ * carries; {@link #NULL} marks a value the sample did not have.
+ */
+enum Column {
+    TIMESTAMP("timestampMs", 1, false),
+    MEMORY("memoryPct", 10, false),
+    TEMP("tempC", 1000, true),
+    BATTERY("batteryPct", 1, false),
+    VOLTAGE("voltageV", 1000, false),
+    CHARGING("charging", 0, true),
+    LAT("lat", 100_000, true),
+    LON("lon", 100_000, true),
+    ACCURACY("accuracy", 10, true),
+    CPU("cpuPct", 10, true);
+
+    static final long NULL = Long.MIN_VALUE;
+    static final Column[] ALL = values();
+
+    /** Name in the JSON payload and in query results. */
+    final String field;
+    /** Stored value = round(value x scale); 0 for booleans (stored as 0/1). */
+    final long scale;
+    final boolean nullable;
+
+    Column(String field, long scale, boolean nullable) {
+        this.field = field;
+        this.scale = scale;
+        this.nullable = nullable;
+    }
+
+    static Column byField(String field) {
+        for (Column c : ALL) {
+            if (c.field.equals(field)) return c;
+        }
+        return null;
+    }
+
+    static long[] row(MetricSample s) {
+        long[] r = new long[ALL.length];
+        r[TIMESTAMP.ordinal()] = s.timestampMs;
+        r[MEMORY.ordinal()] = Math.round(s.memoryPct * MEMORY.scale);
+        r[TEMP.ordinal()] = s.tempC != null ? Math.round(s.tempC * TEMP.scale) : NULL;
+        r[BATTERY.ordinal()] = s.batteryPct;
+        r[VOLTAGE.ordinal()] = s.voltageMv;
+        r[CHARGING.ordinal()] = s.charging != null ? (s.charging ? 1 : 0) : NULL;
+        r[LAT.ordinal()] = s.lat != null ? Math.round(s.lat * LAT.scale) : NULL;
+        r[LON.ordinal()] = s.lon != null ? Math.round(s.lon * LON.scale) : NULL;
+        r[ACCURACY.ordinal()] = s.accuracy != null ? Math.round(s.accuracy * ACCURACY.scale) : NULL;
+        r[CPU.ordinal()] = s.cpuPct != null ? Math.round(s.cpuPct * CPU.scale) : NULL;
+        return r;
+    }
+
+    /**
+     * Reads the columns a JSON record carries into a copy of {@code base}; the rest keep the base's
+     * values. With {@link #emptyRow()} as base this parses a full record, with the device's previous
+     * row it expands a delta.
+     */
+    static long[] apply(JSONObject record, long[] base) throws JSONException {
+        long[] r = base.clone();
+        for (Column c : ALL) {
+            Object v = record.opt(c.field);
+            if (v == null) continue;
+            if (v == JSONObject.NULL) {
+                if (c.nullable) r[c.ordinal()] = NULL;
+            } else if (c.scale == 0) {
+                r[c.ordinal()] = record.getBoolean(c.field) ? 1 : 0;
+            } else if (c.scale == 1) {
+                r[c.ordinal()] = record.getLong(c.field);
+            } else {
+                r[c.ordinal()] = Math.round(record.getDouble(c.field) * c.scale);
+            }
+        }
+        return r;
+    }
+
+    /** What a record with no fields means: zero for the required columns, {@link #NULL} for the rest. */
+    static long[] emptyRow() {
+        long[] r = new long[ALL.length];
+        for (Column c : ALL) r[c.ordinal()] = c.nullable ? NULL : 0;
+        return r;
+    }
+
+    /**
+     * Writes a stored value as a JSON literal in payload units. Scales are powers of ten, so the
+     * decimal is exact (no double round trip): 4270 at scale 1000 is {@code 4.27}.
+     */
+    void append(StringBuilder out, long v) {
+        if (v == NULL) {
+            out.append("null");
+        } else if (scale == 0) {
+            out.append(v != 0);
+        } else if (scale == 1) {
+            out.append(v);
+        } else {
+            if (v < 0) out.append('-');
+            long abs = Math.abs(v);
+            out.append(abs / scale);
+            long frac = abs % scale;
+            if (frac != 0) {
+                out.append('.');
+                for (long d = scale / 10; d > 0 && frac != 0; d /= 10) {
+                    out.append((char) ('0' + frac / d));
+                    frac %= d;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package android_status.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * One compressed block of rows in a partition file. A partition file is a sequence of blocks:
+ *
+ * <pre>
+ * 'A' 'S' 'C' 1
+ * int rows
+ * long minTimestampMs, long maxTimestampMs     -- lets a range query skip the block unread
+ * long walSeq                                  -- last write-ahead log record whose rows are in it
+ * int rawLength, int compressedLength, int crc32 of the compressed bytes
+ * compressed bytes (Deflate) of:
+ *   varint rows
+ *   per column, in {@link Column} order:
+ *     [presence bitmap, (rows + 7) / 8 bytes]  -- nullable columns only; bit set = value present
+ *     zigzag varint (value - previous value) for every present value, previous starting at 0
+ * </pre>
+ *
+ * Storing a column's deltas together is what makes the block small: timestamps step by about the
+ * sample interval and most other values barely move, so Deflate sees long runs of tiny varints.
+ * A block that is cut short or fails its CRC ends the file; {@link #scan} reports where.
+ */
+final class ColumnBlock {
+    static final int HEADER_BYTES = 44;
+    private static final int MAGIC = ('A' << 24) | ('S' << 16) | ('C' << 8) | 1;
+
+    interface RowSink {
+        void row(long[] row);
+    }
+
+    /** What {@link #scan} found. */
+    static final class Scan {
+        /** End of the last intact block; less than the length read if the tail is torn. */
+        long end;
+        /** Highest log sequence number among the intact blocks, -1 if none. */
+        long walSeq = -1;
+    }
+
+    private ColumnBlock() {
+    }
+
+    /**
+     * @param walSeq the last log record whose rows are all in {@code rows}
+     * @return the framed block, ready to append to a partition file
+     */
+    static byte[] encode(List<long[]> rows, long walSeq) {
+        int n = rows.size();
+        Buf raw = new Buf(16 + n * Column.ALL.length * 2);
+        raw.varint(n);
+        long minTs = Long.MAX_VALUE;
+        long maxTs = Long.MIN_VALUE;
+        for (Column c : Column.ALL) {
+            int col = c.ordinal();
+            if (c.nullable) {
+                byte[] bitmap = new byte[(n + 7) / 8];
+                for (int i = 0; i < n; i++) {
+                    if (rows.get(i)[col] != Column.NULL) bitmap[i >> 3] |= (byte) (1 << (i & 7));
+                }
+                raw.bytes(bitmap, bitmap.length);
+            }
+            long prev = 0;
+            for (int i = 0; i < n; i++) {
+                long v = rows.get(i)[col];
+                if (v == Column.NULL) continue;
+                raw.varint(zigzag(v - prev));
+                prev = v;
+                if (c == Column.TIMESTAMP) {
+                    minTs = Math.min(minTs, v);
+                    maxTs = Math.max(maxTs, v);
+                }
+            }
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] comp;
+        int compLen;
+        try {
+            deflater.setInput(raw.buf, 0, raw.len);
+            deflater.finish();
+            comp = new byte[raw.len + 64];
+            compLen = 0;
+            while (!deflater.finished()) {
+                if (compLen == comp.length) comp = Arrays.copyOf(comp, comp.length * 2);
+                compLen += deflater.deflate(comp, compLen, comp.length - compLen);
+            }
+        } finally {
+            deflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(comp, 0, compLen);
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + compLen);
+        out.putInt(MAGIC).putInt(n).putLong(minTs).putLong(maxTs).putLong(walSeq)
+                .putInt(raw.len).putInt(compLen).putInt((int) crc.getValue())
+                .put(comp, 0, compLen);
+        return out.array();
+    }
+
+    /**
+     * Reads the blocks of a partition file and passes every row with a timestamp in
+     * [fromMs, toMs] to {@code sink}. Blocks outside the range are skipped by their header.
+     * @param length bytes of the file to read (a snapshot of its size)
+     * @param sink null to only validate every block
+     */
+    static Scan scan(FileChannel ch, long length, long fromMs, long toMs, RowSink sink) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        Scan result = new Scan();
+        long pos = 0;
+        while (pos + HEADER_BYTES <= length) {
+            header.clear();
+            if (readFully(ch, header, pos) < HEADER_BYTES) break;
+            header.flip();
+            if (header.getInt() != MAGIC) break;
+            int rows = header.getInt();
+            long minTs = header.getLong();
+            long maxTs = header.getLong();
+            long walSeq = header.getLong();
+            int rawLen = header.getInt();
+            int compLen = header.getInt();
+            int crc = header.getInt();
+            if (rows < 0 || rawLen < 0 || compLen < 0 || pos + HEADER_BYTES + compLen > length) break;
+            if (sink != null && maxTs >= fromMs && minTs <= toMs) {
+                ByteBuffer comp = ByteBuffer.allocate(compLen);
+                if (readFully(ch, comp, pos + HEADER_BYTES) < compLen) break;
+                if (!decode(comp.array(), rawLen, crc, fromMs, toMs, sink)) break;
+            } else if (sink == null) {
+                // validating only: the CRC still has to be checked
+                ByteBuffer comp = ByteBuffer.allocate(compLen);
+                if (readFully(ch, comp, pos + HEADER_BYTES) < compLen || !crcMatches(comp.array(), crc)) break;
+            }
+            pos += HEADER_BYTES + compLen;
+            result.end = pos;
+            result.walSeq = Math.max(result.walSeq, walSeq);
+        }
+        return result;
+    }
+
+    private static boolean decode(byte[] comp, int rawLen, int crc, long fromMs, long toMs, RowSink sink) {
+        if (!crcMatches(comp, crc)) return false;
+        byte[] raw = new byte[rawLen];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(comp);
+            if (inflater.inflate(raw) != rawLen) return false;
+        } catch (DataFormatException ex) {
+            return false;
+        } finally {
+            inflater.end();
+        }
+        int[] pos = {0};
+        int n = (int) varint(raw, pos);
+        long[][] rows = new long[n][Column.ALL.length];
+        for (Column c : Column.ALL) {
+            int col = c.ordinal();
+            byte[] bitmap = null;
+            if (c.nullable) {
+                bitmap = Arrays.copyOfRange(raw, pos[0], pos[0] + (n + 7) / 8);
+                pos[0] += bitmap.length;
+            }
+            long prev = 0;
+            for (int i = 0; i < n; i++) {
+                if (bitmap != null && (bitmap[i >> 3] & (1 << (i & 7))) == 0) {
+                    rows[i][col] = Column.NULL;
+                    continue;
+                }
+                prev += unzigzag(varint(raw, pos));
+                rows[i][col] = prev;
+            }
+        }
+        int ts = Column.TIMESTAMP.ordinal();
+        for (long[] r : rows) {
+            if (r[ts] >= fromMs && r[ts] <= toMs) sink.row(r);
+        }
+        return true;
+    }
+
+    private static boolean crcMatches(byte[] comp, int crc) {
+        CRC32 c = new CRC32();
+        c.update(comp, 0, comp.length);
+        return (int) c.getValue() == crc;
+    }
+
+    private static int readFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        int total = 0;
+        while (b.hasRemaining()) {
+            int r = ch.read(b, pos + total);
+            if (r < 0) break;
+            total += r;
+        }
+        return total;
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static long varint(byte[] b, int[] pos) {
+        long v = 0;
+        int shift = 0;
+        while (true) {
+            byte x = b[pos[0]++];
+            v |= (long) (x & 0x7f) << shift;
+            if (x >= 0) return v;
+            shift += 7;
+        }
+    }
+
+    private static final class Buf {
+        byte[] buf;
+        int len;
+
+        Buf(int capacity) {
+            buf = new byte[Math.max(16, capacity)];
+        }
+
+        void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                buf[len++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        void bytes(byte[] b, int n) {
+            ensure(n);
+            System.arraycopy(b, 0, buf, len, n);
+            len += n;
+        }
+
+        private void ensure(int n) {
+            if (len + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+        }
+    }
+}
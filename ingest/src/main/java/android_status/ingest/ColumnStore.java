@@ -0,0 +1,421 @@
+package android_status.ingest;
+
+import android_status.app.InternalMetrics;
+import android_status.app.Outbox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sample storage partitioned by device and UTC day: {@code data/<deviceId>/<yyyy-MM-dd>.asc}, each
+ * file a sequence of compressed column blocks ({@link ColumnBlock}).
+ *
+ * Appends are made durable through a write-ahead log (an {@link Outbox}) with group commit: one
+ * writer thread takes everything queued, writes it as a single log record with a single fsync,
+ * then adds the rows to per-partition buffers and completes the callers' futures. A buffer becomes
+ * a block once it holds {@code blockRows} rows; every {@code checkpointMs} all buffers are written
+ * out as blocks and the log is acknowledged up to that point. On start the unacknowledged part of
+ * the log is replayed and checkpointed, so a crash loses nothing that was acknowledged to a client.
+ * Each block records the last log record it covers, so replay skips rows that reached a block
+ * before the crash instead of storing them twice.
+ *
+ * Queries read the blocks whose time range overlaps, plus the rows still buffered.
+ */
+public final class ColumnStore implements Closeable {
+    public static final class Config {
+        public int blockRows = 4096;
+        public long checkpointMs = 10 * 60_000L;
+        /** Appends beyond this many queued rows are refused; the client should retry later. */
+        public int maxQueuedRows = 500_000;
+        public long walSegmentBytes = 16L << 20;
+        public long walMaxBytes = 1L << 30;
+    }
+
+    /** The writer is behind by more than {@code maxQueuedRows}. */
+    public static final class OverloadedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        OverloadedException() {
+            super("ingest queue full");
+        }
+    }
+
+    private static final long DAY_MS = 86_400_000L;
+    /** Keeps one log record (80 bytes a row plus framing) under the Outbox's 1 MB record limit. */
+    static final int MAX_GROUP_ROWS = 10_000;
+    /** Longest range one query may cover. */
+    private static final long MAX_QUERY_DAYS = 366;
+
+    private static final InternalMetrics.Timer WAL_COMMIT = InternalMetrics.timer("store.walCommit");
+    private static final InternalMetrics.Timer CHECKPOINT = InternalMetrics.timer("store.checkpoint");
+    private static final InternalMetrics.Counter ROWS = InternalMetrics.counter("store.rows");
+    private static final InternalMetrics.Counter GROUPS = InternalMetrics.counter("store.walGroups");
+    private static final InternalMetrics.Counter BLOCKS = InternalMetrics.counter("store.blocks");
+    private static final InternalMetrics.Counter BLOCK_BYTES = InternalMetrics.counter("store.blockBytes");
+    /** Same rows as 8-byte longs; against blockBytes this is the compression ratio. */
+    private static final InternalMetrics.Counter PLAIN_BYTES = InternalMetrics.counter("store.plainBytes");
+    private static final InternalMetrics.Counter REJECTED = InternalMetrics.counter("store.rejectedRows");
+
+    private final File dataDir;
+    private final Config config;
+    private final Outbox wal;
+    private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger queuedRows = new AtomicInteger();
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final Thread writer;
+    private volatile boolean closed;
+    /** Writer thread only. */
+    private long lastWalSeq = -1;
+    private long lastCheckpointMs;
+
+    private static final class Append {
+        final String deviceId;
+        final List<long[]> rows;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Append(String deviceId, List<long[]> rows) {
+            this.deviceId = deviceId;
+            this.rows = rows;
+        }
+    }
+
+    public ColumnStore(File root, Config config) throws IOException {
+        this.config = config;
+        this.dataDir = new File(root, "data");
+        if (!dataDir.isDirectory() && !dataDir.mkdirs()) throw new IOException("Cannot create " + dataDir);
+        this.wal = new Outbox(new File(root, "wal"), config.walSegmentBytes, config.walMaxBytes, Long.MAX_VALUE);
+        replay();
+        writer = new Thread(this::writeLoop, "column-store-writer");
+        writer.start();
+    }
+
+    /**
+     * Queues one device's rows (see {@link Column#row}).
+     * @return completes once the rows are in the synced log and visible to queries
+     */
+    public CompletableFuture<Void> append(String deviceId, List<long[]> rows) {
+        Append a = new Append(deviceId, rows);
+        if (closed) {
+            a.done.completeExceptionally(new IOException("store closed"));
+        } else if (!validDeviceId(deviceId)) {
+            a.done.completeExceptionally(new IllegalArgumentException("bad deviceId"));
+        } else if (rows.size() > MAX_GROUP_ROWS) {
+            a.done.completeExceptionally(new IllegalArgumentException("more than " + MAX_GROUP_ROWS + " rows"));
+        } else if (queuedRows.addAndGet(rows.size()) > config.maxQueuedRows) {
+            queuedRows.addAndGet(-rows.size());
+            REJECTED.add(rows.size());
+            a.done.completeExceptionally(new OverloadedException());
+        } else {
+            queue.add(a);
+        }
+        return a.done;
+    }
+
+    /** Rows of one device with timestamps in [fromMs, toMs], oldest first. */
+    public List<long[]> query(String deviceId, long fromMs, long toMs) throws IOException {
+        if (!validDeviceId(deviceId)) throw new IllegalArgumentException("bad deviceId");
+        long firstDay = Math.floorDiv(fromMs, DAY_MS);
+        long lastDay = Math.floorDiv(toMs, DAY_MS);
+        if (lastDay - firstDay >= MAX_QUERY_DAYS) throw new IllegalArgumentException("range longer than " + MAX_QUERY_DAYS + " days");
+        List<long[]> out = new ArrayList<>();
+        for (long day = firstDay; day <= lastDay; day++) {
+            Partition p = partitions.get(key(deviceId, day));
+            if (p != null) {
+                synchronized (p) {
+                    readFile(p.file, fromMs, toMs, out);
+                    int ts = Column.TIMESTAMP.ordinal();
+                    for (long[] r : p.rows) {
+                        if (r[ts] >= fromMs && r[ts] <= toMs) out.add(r.clone());
+                    }
+                }
+            } else {
+                readFile(file(deviceId, day), fromMs, toMs, out);
+            }
+        }
+        out.sort(Comparator.comparingLong(r -> r[Column.TIMESTAMP.ordinal()]));
+        return out;
+    }
+
+    /** The device's latest row in the day up to {@code atMs}, or null; the base for a delta after a restart. */
+    public long[] last(String deviceId, long atMs) throws IOException {
+        List<long[]> rows = query(deviceId, atMs - DAY_MS, atMs);
+        return rows.isEmpty() ? null : rows.get(rows.size() - 1);
+    }
+
+    /** Writes everything buffered, acknowledges the log and stops the writer. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        wal.close();
+    }
+
+    /** Device ids become directory names, so only a safe subset is accepted. */
+    static boolean validDeviceId(String id) {
+        if (id == null || id.isEmpty() || id.length() > 128 || id.charAt(0) == '.') return false;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '_' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readFile(File f, long fromMs, long toMs, List<long[]> out) throws IOException {
+        if (!f.exists()) return;
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            ColumnBlock.scan(ch, ch.size(), fromMs, toMs, out::add);
+        }
+    }
+
+    private void writeLoop() {
+        lastCheckpointMs = System.currentTimeMillis();
+        List<Append> group = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Append first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    group.add(first);
+                    int rows = first.rows.size();
+                    for (Append next; (next = queue.peek()) != null && rows + next.rows.size() <= MAX_GROUP_ROWS; ) {
+                        group.add(queue.poll());
+                        rows += next.rows.size();
+                    }
+                    commit(group);
+                    group.clear();
+                }
+            } catch (InterruptedException ex) {
+                break;
+            }
+            if (System.currentTimeMillis() - lastCheckpointMs >= config.checkpointMs) checkpoint();
+        }
+        checkpoint();
+    }
+
+    private void commit(List<Append> group) {
+        long t0 = System.nanoTime();
+        int rows = 0;
+        for (Append a : group) rows += a.rows.size();
+        try {
+            lastWalSeq = wal.append(encodeLog(group), System.currentTimeMillis());
+            WAL_COMMIT.stop(t0);
+        } catch (IOException ex) {
+            WAL_COMMIT.error();
+            queuedRows.addAndGet(-rows);
+            for (Append a : group) a.done.completeExceptionally(ex);
+            return;
+        }
+        GROUPS.inc();
+        Set<Partition> touched = new LinkedHashSet<>();
+        for (Append a : group) apply(a.deviceId, a.rows, lastWalSeq, false, touched);
+        cutBlocks(touched);
+        for (Append a : group) {
+            queuedRows.addAndGet(-a.rows.size());
+            a.done.complete(null);
+        }
+    }
+
+    /**
+     * Adds the rows of one append, logged as record {@code seq}, to their partitions. Blocks are cut
+     * only once every append of a record is buffered ({@link #cutBlocks}), so every block covers
+     * whole log records and a block's {@code walSeq} says all of that record's rows are in the file.
+     * @param replaying skip rows that reached a block before a crash; live records are always new
+     * @param touched collects the partitions rows were added to
+     * @return rows added
+     */
+    private int apply(String deviceId, List<long[]> rows, long seq, boolean replaying, Set<Partition> touched) {
+        int ts = Column.TIMESTAMP.ordinal();
+        int added = 0;
+        for (long[] r : rows) {
+            long day = Math.floorDiv(r[ts], DAY_MS);
+            Partition p = partitions.computeIfAbsent(key(deviceId, day), k -> new Partition(file(deviceId, day)));
+            synchronized (p) {
+                if (replaying && seq <= p.durableSeq()) continue;
+                p.rows.add(r);
+                p.seq = seq;
+            }
+            added++;
+            touched.add(p);
+        }
+        ROWS.add(added);
+        return added;
+    }
+
+    /** Writes a block for every touched partition that has {@code blockRows} buffered. */
+    private void cutBlocks(Set<Partition> touched) {
+        for (Partition p : touched) {
+            synchronized (p) {
+                if (p.rows.size() >= config.blockRows) p.flush();
+            }
+        }
+    }
+
+    /** Writer thread. Flushes every buffer; the log is acknowledged only if all of them made it. */
+    private void checkpoint() {
+        long t0 = System.nanoTime();
+        boolean all = true;
+        for (Map.Entry<String, Partition> e : partitions.entrySet()) {
+            Partition p = e.getValue();
+            synchronized (p) {
+                all &= p.flush();
+                // idle partitions are dropped; the next row for them reopens the file
+                if (p.rows.isEmpty()) partitions.remove(e.getKey(), p);
+            }
+        }
+        lastCheckpointMs = System.currentTimeMillis();
+        if (!all || lastWalSeq < 0) {
+            CHECKPOINT.stop(t0);
+            return;
+        }
+        try {
+            wal.ack(lastWalSeq);
+            CHECKPOINT.stop(t0);
+        } catch (IOException ex) {
+            CHECKPOINT.error();
+            System.err.println("WAL checkpoint failed: " + ex);
+        }
+    }
+
+    private void replay() throws IOException {
+        List<Outbox.Record> pending = wal.peek(Integer.MAX_VALUE);
+        if (pending.isEmpty()) return;
+        int rows = 0;
+        for (Outbox.Record r : pending) {
+            Set<Partition> touched = new LinkedHashSet<>();
+            try (DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(r.payload))) {
+                int appends = in.readInt();
+                for (int i = 0; i < appends; i++) {
+                    String deviceId = in.readUTF();
+                    int n = in.readInt();
+                    List<long[]> list = new ArrayList<>(n);
+                    for (int j = 0; j < n; j++) {
+                        long[] row = new long[Column.ALL.length];
+                        for (int c = 0; c < row.length; c++) row[c] = in.readLong();
+                        list.add(row);
+                    }
+                    rows += apply(deviceId, list, r.seq, true, touched);
+                }
+            }
+            cutBlocks(touched);
+            lastWalSeq = r.seq;
+        }
+        checkpoint();
+        System.err.println("Replayed " + rows + " rows from the write-ahead log");
+    }
+
+    private static byte[] encodeLog(List<Append> group) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(group.size());
+            for (Append a : group) {
+                out.writeUTF(a.deviceId);
+                out.writeInt(a.rows.size());
+                for (long[] r : a.rows) {
+                    for (long v : r) out.writeLong(v);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String key(String deviceId, long day) {
+        return deviceId + '/' + day;
+    }
+
+    private File file(String deviceId, long day) {
+        return new File(new File(dataDir, deviceId), LocalDate.ofEpochDay(day) + ".asc");
+    }
+
+    /** Buffered rows of one device and day, and the file their blocks go to. Guarded by itself. */
+    private static final class Partition {
+        final File file;
+        final List<long[]> rows = new ArrayList<>();
+        /** Log record of the newest buffered row. */
+        long seq = -1;
+        /** Newest log record already in the file. */
+        private long fileSeq = -1;
+        private boolean repaired;
+
+        Partition(File file) {
+            this.file = file;
+        }
+
+        long durableSeq() {
+            if (!repaired) {
+                try {
+                    repair();
+                } catch (IOException ex) {
+                    // flush() retries and reports it
+                }
+            }
+            return fileSeq;
+        }
+
+        /** @return false if the block could not be written; the rows stay buffered */
+        boolean flush() {
+            if (rows.isEmpty()) return true;
+            try {
+                if (!repaired) repair();
+                byte[] block = ColumnBlock.encode(rows, seq);
+                try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    ByteBuffer b = ByteBuffer.wrap(block);
+                    while (b.hasRemaining()) ch.write(b);
+                    ch.force(false);
+                }
+                BLOCKS.inc();
+                BLOCK_BYTES.add(block.length);
+                PLAIN_BYTES.add((long) rows.size() * Column.ALL.length * 8);
+                fileSeq = seq;
+                rows.clear();
+                return true;
+            } catch (IOException ex) {
+                System.err.println("Cannot write " + file + ": " + ex);
+                return false;
+            }
+        }
+
+        /**
+         * Cuts off a block left half-written by a crash, so new blocks follow an intact one, and
+         * learns which log records the file already holds.
+         */
+        private void repair() throws IOException {
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+            if (file.exists()) {
+                try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    long size = ch.size();
+                    ColumnBlock.Scan scan = ColumnBlock.scan(ch, size, 0, 0, null);
+                    if (scan.end < size) ch.truncate(scan.end);
+                    fileSeq = scan.walSeq;
+                }
+            }
+            repaired = true;
+        }
+    }
+}
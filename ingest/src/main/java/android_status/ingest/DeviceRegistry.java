@@ -0,0 +1,189 @@
+package android_status.ingest;
+
+import android_status.app.InternalMetrics;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory device registry: name, FCM token, last contact, the latest history payload, and the
+ * device's previous row, which is the base that delta records are expanded against. Nothing here
+ * survives a restart: a device is back in the list on its next upload and its token on the next
+ * refresh, and the first delta after a restart takes its base from the store ({@link BaseLookup}).
+ */
+final class DeviceRegistry {
+    /** Finds a device's latest stored row at or before a time; null if none. */
+    interface BaseLookup {
+        long[] last(String deviceId, long atMs) throws IOException;
+    }
+
+    private static final InternalMetrics.Counter NO_BASE = InternalMetrics.counter("ingest.deltaWithoutBase");
+
+    static final class Device {
+        final String deviceId;
+        String deviceName;
+        String fcmToken;
+        long tokenUpdatedMs;
+        long lastSeenMs;
+        long samples;
+        /** Previous row, fully expanded; null until the first one. */
+        long[] last;
+        /** Latest history payload the device sent, as JSON text; null if none. */
+        String history;
+
+        Device(String deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        synchronized JSONObject toJson() throws JSONException {
+            JSONObject j = new JSONObject().put("deviceId", deviceId);
+            if (deviceName != null) j.put("deviceName", deviceName);
+            if (fcmToken != null) j.put("fcmToken", fcmToken).put("tokenUpdatedMs", tokenUpdatedMs);
+            return j.put("lastSeenMs", lastSeenMs).put("samples", samples);
+        }
+    }
+
+    private final Map<String, Device> devices = new ConcurrentHashMap<>();
+    /** token -> deviceId, so a token FCM reports as unregistered can be cleared. */
+    private final Map<String, String> byToken = new ConcurrentHashMap<>();
+    private final BaseLookup baseLookup;
+
+    DeviceRegistry(BaseLookup baseLookup) {
+        this.baseLookup = baseLookup;
+    }
+
+    Device device(String deviceId) {
+        return devices.computeIfAbsent(deviceId, Device::new);
+    }
+
+    void registerToken(String deviceId, String deviceName, String token, long nowMs) {
+        Device d = device(deviceId);
+        synchronized (d) {
+            if (d.fcmToken != null) byToken.remove(d.fcmToken, deviceId);
+            d.fcmToken = token;
+            d.tokenUpdatedMs = nowMs;
+            d.lastSeenMs = nowMs;
+            if (deviceName != null) d.deviceName = deviceName;
+        }
+        byToken.put(token, deviceId);
+    }
+
+    /**
+     * What one request changes in the registry: each device's new previous row, sample count and
+     * name. Deltas later in the same request expand against it; the registry only sees it through
+     * {@link #publish} once the rows are committed, so a request that fails leaves the bases as
+     * the client's retry expects them.
+     */
+    static final class Pending {
+        private final Map<Device, Update> updates = new HashMap<>();
+
+        private static final class Update {
+            long[] last;
+            long samples;
+            String deviceName;
+        }
+    }
+
+    /**
+     * Turns one API record into a row, expanding a delta against the device's previous row (this
+     * request's if it had one, else the committed one), and makes it the request's previous row.
+     * @return null for a delta whose base is neither in memory nor in the store; it is counted and
+     *         dropped, and the device's next keyframe restores the base
+     */
+    long[] toRow(Pending pending, Device d, JSONObject record, long nowMs) throws JSONException, IOException {
+        long[] base;
+        if (record.optBoolean("delta")) {
+            Pending.Update u = pending.updates.get(d);
+            base = u != null ? u.last : committedBase(d, record.optLong("timestampMs"));
+            if (base == null) {
+                synchronized (d) {
+                    d.lastSeenMs = nowMs;
+                }
+                NO_BASE.inc();
+                return null;
+            }
+        } else {
+            base = Column.emptyRow();
+        }
+        long[] row = Column.apply(record, base);
+        seen(pending, d, row, record.optString("deviceName", null));
+        return row;
+    }
+
+    private long[] committedBase(Device d, long atMs) throws IOException {
+        synchronized (d) {
+            if (d.last == null) d.last = baseLookup.last(d.deviceId, atMs);
+            return d.last;
+        }
+    }
+
+    /**
+     * Records a row that arrived complete (binary payloads carry no deltas).
+     * @param deviceName null if the record did not carry one
+     */
+    void seen(Pending pending, Device d, long[] row, String deviceName) {
+        Pending.Update u = pending.updates.computeIfAbsent(d, k -> new Pending.Update());
+        u.last = row;
+        u.samples++;
+        if (deviceName != null) u.deviceName = deviceName;
+    }
+
+    /** The request's rows are committed: their newest rows become the bases for the next deltas. */
+    void publish(Pending pending, long nowMs) {
+        for (Map.Entry<Device, Pending.Update> e : pending.updates.entrySet()) {
+            Device d = e.getKey();
+            Pending.Update u = e.getValue();
+            synchronized (d) {
+                if (u.deviceName != null) d.deviceName = u.deviceName;
+                d.last = u.last;
+                d.lastSeenMs = nowMs;
+                d.samples += u.samples;
+            }
+        }
+    }
+
+    /** Keeps a device's answer to REQUEST_HISTORY, replacing the previous one. */
+    void history(Device d, String payload, long nowMs) {
+        synchronized (d) {
+            d.history = payload;
+            d.lastSeenMs = nowMs;
+        }
+    }
+
+    /** @return the latest history payload of the device, or null */
+    String history(String deviceId) {
+        Device d = devices.get(deviceId);
+        if (d == null) return null;
+        synchronized (d) {
+            return d.history;
+        }
+    }
+
+    /** FCM answered UNREGISTERED for this token. @return true if a device held it */
+    boolean dropToken(String token) {
+        String deviceId = byToken.remove(token);
+        if (deviceId == null) return false;
+        Device d = devices.get(deviceId);
+        if (d == null) return false;
+        synchronized (d) {
+            if (token.equals(d.fcmToken)) d.fcmToken = null;
+        }
+        return true;
+    }
+
+    int size() {
+        return devices.size();
+    }
+
+    JSONArray toJson() throws JSONException {
+        JSONArray out = new JSONArray();
+        for (Device d : devices.values()) out.put(d.toJson());
+        return out;
+    }
+}
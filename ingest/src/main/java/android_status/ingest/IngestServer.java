@@ -0,0 +1,481 @@
+package android_status.ingest;
+
+import android_status.app.BinaryPayloadDecoder;
+import android_status.app.BinaryPayloadEncoder;
+import android_status.app.InternalMetrics;
+import android_status.app.MetricSample;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reference backend for the API contract (README "API contracts"): token registration, JSON
+ * samples and batches, delta records and binary batches on {@code POST /ingest}, stored in a
+ * {@link ColumnStore}. A request is answered 2xx only once all of its rows are in the synced log.
+ *
+ * <pre>
+ * POST   /ingest                               app payloads; 200 {"stored":n}
+ * GET    /query?deviceId=&amp;from=&amp;to=[&amp;fields=]   rows in [from, to] ms as {"columns":{field:[...]}}
+ * GET    /devices                              registry: names, tokens, last contact
+ * GET    /history?deviceId=                    the device's latest REQUEST_HISTORY answer, as it sent it
+ * DELETE /tokens/&lt;token&gt;                        drop a token FCM reported as unregistered
+ * GET    /stats                                ingest.*, store.* and query.* metrics
+ * </pre>
+ *
+ * The JDK's HttpServer accepts and parses requests on one selector thread and hands each exchange
+ * to a fixed pool; handlers block only while their rows wait for a group commit, which many
+ * handlers share.
+ */
+public final class IngestServer {
+    public static final class Config {
+        public String bind = "0.0.0.0";
+        public int port = 8080;
+        public String dataDir = "ingest-data";
+        /** Required as Authorization: Bearer KEY when set. */
+        public String apiKey;
+        /** Handler threads; most of them wait on group commits, so this is well above the core count. */
+        public int threads = 64;
+        /** Bodies larger than this (after gunzip) get 413. */
+        public int maxBodyBytes = 8 << 20;
+        public long commitTimeoutMs = 30_000;
+        public ColumnStore.Config store = new ColumnStore.Config();
+    }
+
+    private static final InternalMetrics.Timer INGEST = InternalMetrics.timer("ingest.request");
+    private static final InternalMetrics.Timer QUERY = InternalMetrics.timer("query.request");
+    private static final InternalMetrics.Counter RECORDS = InternalMetrics.counter("ingest.records");
+    private static final InternalMetrics.Counter BODY_BYTES = InternalMetrics.counter("ingest.bodyBytes");
+    private static final InternalMetrics.Counter REGISTRATIONS = InternalMetrics.counter("ingest.registrations");
+    private static final InternalMetrics.Counter HISTORIES = InternalMetrics.counter("ingest.histories");
+    private static final InternalMetrics.Counter REJECTED = InternalMetrics.counter("ingest.rejected");
+    private static final InternalMetrics.Counter OVERLOADED = InternalMetrics.counter("ingest.overloaded");
+    private static final InternalMetrics.Counter QUERY_ROWS = InternalMetrics.counter("query.rows");
+
+    private static final long DAY_MS = 86_400_000L;
+
+    private final Config config;
+    private final ColumnStore store;
+    private final DeviceRegistry registry;
+    private final HttpServer server;
+    private final ExecutorService pool;
+
+    /** Bad request: answered with this status and message. */
+    private static final class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    static {
+        // The JDK server writes response headers and body separately; with Nagle on, the body
+        // waits for the client's delayed ACK (40 ms per request on Linux). Read once, when the
+        // first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    public IngestServer(Config config) throws IOException {
+        this.config = config;
+        this.store = new ColumnStore(new File(config.dataDir), config.store);
+        this.registry = new DeviceRegistry(store::last);
+        InternalMetrics.gauge("ingest.devices", registry::size);
+        server = HttpServer.create(new InetSocketAddress(config.bind, config.port), 1024);
+        pool = Executors.newFixedThreadPool(config.threads);
+        server.setExecutor(pool);
+        server.createContext("/ingest", e -> handle(e, "POST", this::ingest));
+        server.createContext("/query", e -> handle(e, "GET", this::query));
+        server.createContext("/devices", e -> handle(e, "GET", this::devices));
+        server.createContext("/history", e -> handle(e, "GET", this::history));
+        server.createContext("/tokens/", e -> handle(e, "DELETE", this::dropToken));
+        server.createContext("/stats", e -> handle(e, "GET", this::stats));
+    }
+
+    ColumnStore store() {
+        return store;
+    }
+
+    public URI start() {
+        server.start();
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/ingest");
+    }
+
+    /** Stops accepting, lets running requests finish for up to a second, then checkpoints the store. */
+    public void stop() throws IOException {
+        server.stop(1);
+        pool.shutdown();
+        try {
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && ("--help".equals(args[0]) || "-h".equals(args[0]))) {
+            System.out.println(USAGE);
+            return;
+        }
+        Config c;
+        try {
+            c = parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        IngestServer s = new IngestServer(c);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                s.stop();
+            } catch (IOException ex) {
+                System.err.println("Shutdown failed: " + ex);
+            }
+        }, "ingest-shutdown"));
+        System.out.println("Listening on " + s.start() + ", data in " + new File(c.dataDir).getAbsolutePath());
+    }
+
+    private interface Handler {
+        void handle(HttpExchange e) throws IOException, HttpError, JSONException;
+    }
+
+    private void handle(HttpExchange ex, String method, Handler h) throws IOException {
+        try (HttpExchange e = ex) {
+            int status;
+            String message;
+            try {
+                if (!method.equals(e.getRequestMethod())) throw new HttpError(405, "use " + method);
+                if (config.apiKey != null && !("Bearer " + config.apiKey).equals(e.getRequestHeaders().getFirst("Authorization"))) {
+                    throw new HttpError(401, "bad or missing API key");
+                }
+                h.handle(e);
+                return;
+            } catch (HttpError err) {
+                status = err.status;
+                message = err.getMessage();
+            } catch (JSONException err) {
+                status = 400;
+                message = err.getMessage();
+            }
+            if (status == 503) {
+                e.getResponseHeaders().set("Retry-After", "1");
+            } else {
+                REJECTED.inc();
+            }
+            reply(e, status, "{\"error\":" + JSONObject.quote(message) + "}");
+        }
+    }
+
+    private void ingest(HttpExchange e) throws IOException, HttpError, JSONException {
+        long t0 = System.nanoTime();
+        byte[] body = readBody(e);
+        BODY_BYTES.add(body.length);
+        long now = System.currentTimeMillis();
+        String type = e.getRequestHeaders().getFirst("Content-Type");
+        Map<String, List<long[]>> rows = new LinkedHashMap<>();
+        DeviceRegistry.Pending pending = new DeviceRegistry.Pending();
+        if (type != null && type.startsWith(BinaryPayloadEncoder.CONTENT_TYPE)) {
+            List<MetricSample> samples;
+            try {
+                samples = BinaryPayloadDecoder.decode(body);
+            } catch (IOException | RuntimeException ex) {
+                throw new HttpError(400, "bad binary payload: " + ex.getMessage());
+            }
+            for (MetricSample s : samples) {
+                DeviceRegistry.Device d = device(s.deviceId);
+                long[] row = Column.row(s);
+                registry.seen(pending, d, row, s.deviceName);
+                rows.computeIfAbsent(d.deviceId, k -> new ArrayList<>()).add(row);
+            }
+        } else if (type == null || type.startsWith("application/json")) {
+            Object parsed = new JSONTokener(new String(body, StandardCharsets.UTF_8)).nextValue();
+            if (!(parsed instanceof JSONObject)) throw new HttpError(400, "expected a JSON object");
+            JSONObject payload = (JSONObject) parsed;
+            String kind = payload.optString("type");
+            if ("registerToken".equals(kind)) {
+                String token = payload.optString("fcmToken", "");
+                if (token.isEmpty()) throw new HttpError(400, "missing fcmToken");
+                registry.registerToken(device(payload.optString("deviceId", null)).deviceId,
+                        payload.optString("deviceName", null), token, now);
+                REGISTRATIONS.inc();
+                reply(e, 200, "{\"registered\":true}");
+                INGEST.stop(t0);
+                return;
+            }
+            if ("history".equals(kind)) {
+                // aggregates, not samples: kept as sent (latest per device) rather than stored as rows
+                registry.history(device(payload.optString("deviceId", null)), new String(body, StandardCharsets.UTF_8), now);
+                HISTORIES.inc();
+                reply(e, 200, "{\"stored\":0}");
+                INGEST.stop(t0);
+                return;
+            }
+            if ("batch".equals(kind)) {
+                JSONArray records = payload.optJSONArray("records");
+                if (records == null) throw new HttpError(400, "batch without records");
+                for (int i = 0; i < records.length(); i++) {
+                    JSONObject r = records.optJSONObject(i);
+                    if (r == null) throw new HttpError(400, "record " + i + " is not an object");
+                    record(r, now, pending, rows);
+                }
+            } else {
+                record(payload, now, pending, rows);
+            }
+        } else {
+            // the app falls back to JSON on 415
+            throw new HttpError(415, "unsupported content type " + type);
+        }
+        int stored = commit(rows);
+        registry.publish(pending, now);
+        RECORDS.add(stored);
+        reply(e, 200, "{\"stored\":" + stored + "}");
+        INGEST.stop(t0);
+    }
+
+    private void record(JSONObject r, long now, DeviceRegistry.Pending pending, Map<String, List<long[]>> rows) throws HttpError, JSONException, IOException {
+        if (!r.has("timestampMs")) throw new HttpError(400, "record without timestampMs");
+        DeviceRegistry.Device d = device(r.optString("deviceId", null));
+        long[] row = registry.toRow(pending, d, r, now);
+        if (row != null) rows.computeIfAbsent(d.deviceId, k -> new ArrayList<>()).add(row);
+    }
+
+    private DeviceRegistry.Device device(String deviceId) throws HttpError {
+        if (!ColumnStore.validDeviceId(deviceId)) throw new HttpError(400, "deviceId must be 1-128 of [A-Za-z0-9._-]");
+        return registry.device(deviceId);
+    }
+
+    /** Appends every device's rows and waits for all of them to be committed. */
+    private int commit(Map<String, List<long[]>> rows) throws HttpError, IOException {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        int n = 0;
+        for (Map.Entry<String, List<long[]>> en : rows.entrySet()) {
+            List<long[]> list = en.getValue();
+            for (int i = 0; i < list.size(); i += ColumnStore.MAX_GROUP_ROWS) {
+                pending.add(store.append(en.getKey(), list.subList(i, Math.min(list.size(), i + ColumnStore.MAX_GROUP_ROWS))));
+            }
+            n += list.size();
+        }
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get(config.commitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ColumnStore.OverloadedException) {
+                OVERLOADED.inc();
+                throw new HttpError(503, ex.getCause().getMessage());
+            }
+            throw new IOException(ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new HttpError(503, "commit timed out");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new HttpError(503, "interrupted");
+        }
+        return n;
+    }
+
+    /** Columnar JSON, written straight from the rows without building a JSON tree. */
+    private void query(HttpExchange e) throws IOException, HttpError {
+        long t0 = System.nanoTime();
+        Map<String, String> q = params(e.getRequestURI().getRawQuery());
+        String deviceId = q.get("deviceId");
+        if (!ColumnStore.validDeviceId(deviceId)) throw new HttpError(400, "missing or bad deviceId");
+        long to;
+        long from;
+        try {
+            to = q.containsKey("to") ? Long.parseLong(q.get("to")) : System.currentTimeMillis();
+            from = q.containsKey("from") ? Long.parseLong(q.get("from")) : to - DAY_MS;
+        } catch (NumberFormatException ex) {
+            throw new HttpError(400, "from and to are epoch milliseconds");
+        }
+        if (from > to) throw new HttpError(400, "from after to");
+        List<Column> columns = new ArrayList<>();
+        if (q.containsKey("fields")) {
+            for (String f : q.get("fields").split(",")) {
+                Column c = Column.byField(f.trim());
+                if (c == null) throw new HttpError(400, "unknown field " + f);
+                columns.add(c);
+            }
+        } else {
+            columns.addAll(List.of(Column.ALL));
+        }
+        List<long[]> rows;
+        try {
+            rows = store.query(deviceId, from, to);
+        } catch (IllegalArgumentException ex) {
+            throw new HttpError(400, ex.getMessage());
+        }
+        StringBuilder out = new StringBuilder(64 + rows.size() * columns.size() * 8);
+        out.append("{\"deviceId\":\"").append(deviceId).append("\",\"fromMs\":").append(from)
+                .append(",\"toMs\":").append(to).append(",\"rows\":").append(rows.size()).append(",\"columns\":{");
+        for (int c = 0; c < columns.size(); c++) {
+            Column col = columns.get(c);
+            if (c > 0) out.append(',');
+            out.append('"').append(col.field).append("\":[");
+            int i = col.ordinal();
+            for (int r = 0; r < rows.size(); r++) {
+                if (r > 0) out.append(',');
+                col.append(out, rows.get(r)[i]);
+            }
+            out.append(']');
+        }
+        out.append("}}");
+        QUERY_ROWS.add(rows.size());
+        byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+        e.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        String accept = e.getRequestHeaders().getFirst("Accept-Encoding");
+        if (bytes.length >= 1024 && accept != null && accept.contains("gzip")) {
+            e.getResponseHeaders().set("Content-Encoding", "gzip");
+            e.sendResponseHeaders(200, 0);
+            try (OutputStream os = new GZIPOutputStream(e.getResponseBody(), 8192)) {
+                os.write(bytes);
+            }
+        } else {
+            e.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = e.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+        QUERY.stop(t0);
+    }
+
+    private void devices(HttpExchange e) throws IOException, JSONException {
+        reply(e, 200, new JSONObject().put("devices", registry.toJson()).toString());
+    }
+
+    private void history(HttpExchange e) throws IOException, HttpError {
+        String deviceId = params(e.getRequestURI().getRawQuery()).get("deviceId");
+        if (!ColumnStore.validDeviceId(deviceId)) throw new HttpError(400, "missing or bad deviceId");
+        String payload = registry.history(deviceId);
+        if (payload == null) throw new HttpError(404, "no history from " + deviceId);
+        reply(e, 200, payload);
+    }
+
+    private void dropToken(HttpExchange e) throws IOException, HttpError {
+        String token = URLDecoder.decode(e.getRequestURI().getRawPath().substring("/tokens/".length()), StandardCharsets.UTF_8);
+        if (!registry.dropToken(token)) throw new HttpError(404, "unknown token");
+        e.sendResponseHeaders(204, -1);
+    }
+
+    private void stats(HttpExchange e) throws IOException, JSONException {
+        reply(e, 200, InternalMetrics.toJson().toString());
+    }
+
+    private byte[] readBody(HttpExchange e) throws IOException, HttpError {
+        InputStream in = e.getRequestBody();
+        if ("gzip".equalsIgnoreCase(e.getRequestHeaders().getFirst("Content-Encoding"))) in = new GZIPInputStream(in, 8192);
+        String length = e.getRequestHeaders().getFirst("Content-Length");
+        int hint = 8192;
+        if (length != null) {
+            try {
+                hint = (int) Math.min(config.maxBodyBytes, Math.max(0, Long.parseLong(length)));
+            } catch (NumberFormatException ignored) {
+                // read until the end regardless
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(hint);
+        byte[] buf = new byte[8192];
+        try {
+            for (int r; (r = in.read(buf)) > 0; ) {
+                if (out.size() + r > config.maxBodyBytes) throw new HttpError(413, "body larger than " + config.maxBodyBytes + " bytes");
+                out.write(buf, 0, r);
+            }
+        } catch (java.util.zip.ZipException ex) {
+            throw new HttpError(400, "bad gzip body");
+        }
+        return out.toByteArray();
+    }
+
+    private static void reply(HttpExchange e, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        e.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        e.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = e.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static Map<String, String> params(String rawQuery) {
+        Map<String, String> out = new HashMap<>();
+        if (rawQuery == null) return out;
+        for (String kv : rawQuery.split("&")) {
+            int eq = kv.indexOf('=');
+            if (eq <= 0) continue;
+            out.put(URLDecoder.decode(kv.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(kv.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    static final String USAGE = String.join("\n",
+            "usage: ingest [options]",
+            "  --bind ADDR            listen address (0.0.0.0)",
+            "  --port N               listen port (8080)",
+            "  --data DIR             write-ahead log and partitions (ingest-data)",
+            "  --api-key KEY          require Authorization: Bearer KEY",
+            "  --threads N            handler threads (64)",
+            "  --max-body BYTES       larger bodies get 413 (8388608)",
+            "  --block-rows N         rows per compressed block (4096)",
+            "  --checkpoint-sec SEC   flush partitions and trim the log this often (600)",
+            "  --max-queued-rows N    uncommitted rows before 503 (500000)");
+
+    static Config parse(String[] args) {
+        Config c = new Config();
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (i + 1 >= args.length) throw new IllegalArgumentException("missing value for " + a);
+            String v = args[++i];
+            try {
+                switch (a) {
+                    case "--bind": c.bind = v; break;
+                    case "--port": c.port = Integer.parseInt(v); break;
+                    case "--data": c.dataDir = v; break;
+                    case "--api-key": c.apiKey = v; break;
+                    case "--threads": c.threads = Integer.parseInt(v); break;
+                    case "--max-body": c.maxBodyBytes = Integer.parseInt(v); break;
+                    case "--block-rows": c.store.blockRows = Integer.parseInt(v); break;
+                    case "--checkpoint-sec": c.store.checkpointMs = Long.parseLong(v) * 1000; break;
+                    case "--max-queued-rows": c.store.maxQueuedRows = Integer.parseInt(v); break;
+                    default: throw new IllegalArgumentException("unknown option " + a);
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("bad value for " + a + ": " + v);
+            }
+        }
+        if (c.threads <= 0 || c.maxBodyBytes <= 0 || c.store.blockRows <= 0 || c.store.checkpointMs <= 0) {
+            throw new IllegalArgumentException("--threads, --max-body, --block-rows and --checkpoint-sec must be positive");
+        }
+        return c;
+    }
+}
@@ -0,0 +1,178 @@
+package android_status.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/** Group commit, write-ahead log replay after a crash, and repair of a block torn by one. */
+public class ColumnStoreTest {
+    private static final long START_MS = 1_760_000_000_000L;
+    private static final int TS = Column.TIMESTAMP.ordinal();
+
+    private File root;
+    private final List<ColumnStore> open = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("column-store-").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (ColumnStore s : open) s.close();
+        try (Stream<Path> files = Files.walk(root.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private ColumnStore store(File dir, int blockRows) throws IOException {
+        ColumnStore.Config c = new ColumnStore.Config();
+        c.blockRows = blockRows;
+        c.checkpointMs = Long.MAX_VALUE;
+        ColumnStore s = new ColumnStore(dir, c);
+        open.add(s);
+        return s;
+    }
+
+    private static List<long[]> rows(long fromMs, int n) {
+        List<long[]> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long[] r = Column.emptyRow();
+            r[TS] = fromMs + i * 1_000L;
+            r[Column.BATTERY.ordinal()] = i % 100;
+            out.add(r);
+        }
+        return out;
+    }
+
+    private static List<Long> timestamps(List<long[]> rows) {
+        List<Long> out = new ArrayList<>(rows.size());
+        for (long[] r : rows) out.add(r[TS]);
+        return out;
+    }
+
+    /** Appends {@code appends} batches of {@code perAppend} rows from 16 threads at once. */
+    private static void appendConcurrently(ColumnStore s, String device, int appends, int perAppend) throws Exception {
+        List<CompletableFuture<Void>> acks = new ArrayList<>();
+        Thread[] threads = new Thread[16];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = id; i < appends; i += threads.length) {
+                    CompletableFuture<Void> f = s.append(device, rows(START_MS + (long) i * perAppend * 1_000L, perAppend));
+                    synchronized (acks) {
+                        acks.add(f);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+    }
+
+    /** Copies the store's files as they are now, like the disk after a power cut. */
+    private File crashImage() throws IOException {
+        File image = Files.createTempDirectory(root.toPath(), "crash-").toFile();
+        try (Stream<Path> files = Files.walk(root.toPath())) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                if (p.startsWith(image.toPath()) || p.equals(root.toPath())) continue;
+                Path to = image.toPath().resolve(root.toPath().relativize(p));
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(to);
+                } else {
+                    Files.copy(p, to, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+        return image;
+    }
+
+    @Test
+    public void everyAcknowledgedRowOfAGroupIsStored() throws Exception {
+        ColumnStore s = store(root, 3);
+        appendConcurrently(s, "dev-1", 4_000, 2);
+
+        List<long[]> got = s.query("dev-1", START_MS, START_MS + 10_000_000L);
+        assertEquals(8_000, got.size());
+        for (int i = 0; i < got.size(); i++) assertEquals(START_MS + i * 1_000L, got.get(i)[TS]);
+    }
+
+    @Test
+    public void rowsSurviveCloseAndReopen() throws Exception {
+        ColumnStore s = store(root, 4_096);
+        s.append("dev-1", rows(START_MS, 10)).get(5, TimeUnit.SECONDS);
+        s.close();
+        open.remove(s);
+
+        List<long[]> got = store(root, 4_096).query("dev-1", START_MS, START_MS + 60_000);
+        assertEquals(timestamps(rows(START_MS, 10)), timestamps(got));
+    }
+
+    @Test
+    public void logIsReplayedAfterACrash() throws Exception {
+        ColumnStore s = store(root, 4_096);
+        s.append("dev-1", rows(START_MS, 10)).get(5, TimeUnit.SECONDS);
+        s.append("dev-2", rows(START_MS, 5)).get(5, TimeUnit.SECONDS);
+
+        ColumnStore after = store(crashImage(), 4_096);
+        assertEquals(10, after.query("dev-1", START_MS, START_MS + 60_000).size());
+        assertEquals(5, after.query("dev-2", START_MS, START_MS + 60_000).size());
+    }
+
+    @Test
+    public void replaySkipsRowsThatAlreadyReachedABlock() throws Exception {
+        ColumnStore s = store(root, 3);
+        appendConcurrently(s, "dev-1", 500, 2);
+        // one row less than a block, so the crash leaves it only in the log
+        s.append("dev-1", rows(START_MS + 1_000_000, 1)).get(5, TimeUnit.SECONDS);
+
+        ColumnStore after = store(crashImage(), 3);
+        List<long[]> got = after.query("dev-1", START_MS, START_MS + 10_000_000L);
+        assertEquals(1_001, got.size());
+        for (int i = 0; i < got.size(); i++) assertEquals(START_MS + i * 1_000L, got.get(i)[TS]);
+    }
+
+    @Test
+    public void tornBlockIsCutBeforeTheNextOneIsWritten() throws Exception {
+        ColumnStore s = store(root, 4_096);
+        s.append("dev-1", rows(START_MS, 10)).get(5, TimeUnit.SECONDS);
+        s.close();
+        open.remove(s);
+
+        File[] parts = new File(new File(root, "data"), "dev-1").listFiles();
+        assertEquals(1, parts.length);
+        long intact = parts[0].length();
+        try (RandomAccessFile f = new RandomAccessFile(parts[0], "rw")) {
+            // half a header, as a crash in the middle of writing the next block leaves it
+            f.seek(intact);
+            f.write(new byte[ColumnBlock.HEADER_BYTES / 2]);
+        }
+
+        ColumnStore reopened = store(root, 4_096);
+        assertEquals(10, reopened.query("dev-1", START_MS, START_MS + 60_000).size());
+        reopened.append("dev-1", rows(START_MS + 10_000, 10)).get(5, TimeUnit.SECONDS);
+        reopened.close();
+        open.remove(reopened);
+
+        assertTrue(parts[0].length() > intact);
+        List<long[]> got = store(root, 4_096).query("dev-1", START_MS, START_MS + 60_000);
+        assertEquals(timestamps(rows(START_MS, 20)), timestamps(got));
+    }
+}
@@ -0,0 +1,108 @@
+package android_status.ingest;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/** Delta records over HTTP (a failed request must not move the base its retry expands against) and history answers. */
+public class IngestServerTest {
+    private static final long T0 = 1_760_000_000_000L;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private Path dir;
+    private IngestServer server;
+    private URI ingest;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ingest-");
+        IngestServer.Config c = new IngestServer.Config();
+        c.bind = "127.0.0.1";
+        c.port = 0;
+        c.dataDir = dir.toString();
+        server = new IngestServer(c);
+        ingest = server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private int post(String json) throws Exception {
+        HttpRequest r = HttpRequest.newBuilder(ingest)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        return client.send(r, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static String batch(String... records) {
+        return "{\"type\":\"batch\",\"records\":[" + String.join(",", records) + "]}";
+    }
+
+    private long[] row(long ts) throws IOException {
+        List<long[]> rows = server.store().query("dev-1", ts, ts);
+        assertEquals(1, rows.size());
+        return rows.get(0);
+    }
+
+    @Test
+    public void deltasExpandAgainstThePreviousRow() throws Exception {
+        assertEquals(200, post("{\"deviceId\":\"dev-1\",\"timestampMs\":" + T0 + ",\"memoryPct\":50.0,\"batteryPct\":80,\"tempC\":31.5}"));
+        assertEquals(200, post(batch(
+                "{\"deviceId\":\"dev-1\",\"delta\":true,\"timestampMs\":" + (T0 + 1) + ",\"batteryPct\":79}",
+                "{\"deviceId\":\"dev-1\",\"delta\":true,\"timestampMs\":" + (T0 + 2) + ",\"tempC\":null}")));
+
+        assertEquals(79, row(T0 + 1)[Column.BATTERY.ordinal()]);
+        assertEquals(500, row(T0 + 1)[Column.MEMORY.ordinal()]);
+        assertEquals(31_500, row(T0 + 1)[Column.TEMP.ordinal()]);
+        assertEquals(79, row(T0 + 2)[Column.BATTERY.ordinal()]);
+        assertEquals(Column.NULL, row(T0 + 2)[Column.TEMP.ordinal()]);
+    }
+
+    @Test
+    public void rejectedBatchLeavesTheBaseForItsRetry() throws Exception {
+        assertEquals(200, post("{\"deviceId\":\"dev-1\",\"timestampMs\":" + T0 + ",\"memoryPct\":50.0,\"batteryPct\":80}"));
+        String memory = "{\"deviceId\":\"dev-1\",\"delta\":true,\"timestampMs\":" + (T0 + 1) + ",\"memoryPct\":60.0}";
+        String battery = "{\"deviceId\":\"dev-1\",\"delta\":true,\"timestampMs\":" + (T0 + 2) + ",\"batteryPct\":70}";
+        assertEquals(400, post(batch(memory, battery, "{\"deviceId\":\"dev-1\"}")));
+
+        // the client resends the same deltas, still relative to the keyframe
+        assertEquals(200, post(batch(memory, battery)));
+        assertEquals(80, row(T0 + 1)[Column.BATTERY.ordinal()]);
+        assertEquals(600, row(T0 + 1)[Column.MEMORY.ordinal()]);
+        assertEquals(70, row(T0 + 2)[Column.BATTERY.ordinal()]);
+    }
+
+    @Test
+    public void historyAnswerIsServedBackAsSent() throws Exception {
+        URI history = ingest.resolve("/history?deviceId=dev-1");
+        HttpRequest get = HttpRequest.newBuilder(history).GET().build();
+        assertEquals(404, client.send(get, HttpResponse.BodyHandlers.discarding()).statusCode());
+
+        String answer = "{\"type\":\"history\",\"deviceId\":\"dev-1\",\"resolution\":\"hour\",\"points\":0,"
+                + "\"timestampMs\":[],\"metrics\":{}}";
+        assertEquals(200, post(answer));
+        HttpResponse<String> got = client.send(get, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, got.statusCode());
+        assertEquals(answer, got.body());
+        assertEquals(0, server.store().query("dev-1", T0 - 86_400_000L, T0 + 86_400_000L).size());
+    }
+}
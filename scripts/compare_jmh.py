@@ -0,0 +1,75 @@
+#!/usr/bin/env python3
+"""
+Compare two JMH JSON result files (from `./gradlew :bench:jmh`) and flag regressions in
+latency/throughput and in allocation per operation (gc.alloc.rate.norm).
+
+Usage:
+  cp bench/build/results/jmh/results.json /tmp/base.json      # on the base commit
+  ./gradlew :bench:jmh                                        # on the new commit
+  python3 scripts/compare_jmh.py /tmp/base.json bench/build/results/jmh/results.json [--threshold 10]
+
+Exits with status 1 if any benchmark got worse by more than the threshold (percent).
+"""
+
+import argparse
+import json
+import sys
+from typing import Dict, Tuple
+
+
+def load(path: str) -> Dict[str, dict]:
+    with open(path) as f:
+        runs = json.load(f)
+    out = {}
+    for r in runs:
+        params = r.get("params") or {}
+        key = r["benchmark"].rsplit(".", 2)[-2] + "." + r["benchmark"].rsplit(".", 1)[-1]
+        if params:
+            key += "(" + ",".join(f"{k}={v}" for k, v in sorted(params.items())) + ")"
+        out[key] = r
+    return out
+
+
+def alloc(r: dict) -> Tuple[float, str]:
+    m = (r.get("secondaryMetrics") or {}).get("gc.alloc.rate.norm")
+    return (m["score"], m["scoreUnit"]) if m else (float("nan"), "")
+
+
+def change(old: float, new: float, higher_is_better: bool) -> float:
+    """Percent change where positive means worse."""
+    if old == 0 or old != old or new != new:
+        return 0.0
+    pct = (new - old) / old * 100.0
+    return -pct if higher_is_better else pct
+
+
+def main() -> int:
+    ap = argparse.ArgumentParser(description="Compare two JMH JSON result files")
+    ap.add_argument("base")
+    ap.add_argument("new")
+    ap.add_argument("--threshold", type=float, default=10.0, help="Percent worse that counts as a regression")
+    args = ap.parse_args()
+
+    base, new = load(args.base), load(args.new)
+    regressions = 0
+    print(f"{'benchmark':60} {'score':>24} {'alloc B/op':>22}")
+    for key in sorted(set(base) | set(new)):
+        if key not in base or key not in new:
+            print(f"{key:60} {'only in ' + ('new' if key in new else 'base'):>24}")
+            continue
+        b, n = base[key]["primaryMetric"], new[key]["primaryMetric"]
+        higher_is_better = base[key]["mode"] == "thrpt"
+        d_score = change(b["score"], n["score"], higher_is_better)
+        (ba, _), (na, _) = alloc(base[key]), alloc(new[key])
+        d_alloc = change(ba, na, False)
+        flag = ""
+        if d_score > args.threshold or d_alloc > args.threshold:
+            flag = "  REGRESSION"
+            regressions += 1
+        print(f"{key:60} {n['score']:>12.3f} {d_score:>+9.1f}% {na:>12.1f} {d_alloc:>+8.1f}%{flag}")
+    print(f"{regressions} regression(s) over {args.threshold:.0f}%")
+    return 1 if regressions else 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -6,6 +6,7 @@ Usage:
   python3 scripts/send_fcm.py --key path/to/service-account.json \
       --project YOUR_PROJECT_ID \
       --token DEVICE_FCM_TOKEN \
+      [--request-id ID] \
       [--server-key-only false]
 
 Requires: google-auth (pip install google-auth)
@@ -14,6 +15,7 @@ Requires: google-auth (pip install google-auth)
 import argparse
 import json
 import sys
+import uuid
 from typing import Any, Dict
 
 import requests
@@ -28,12 +30,12 @@ def get_access_token(key_file: str) -> str:
     return creds.token
 
 
-def send_message(project_id: str, token: str, access_token: str) -> requests.Response:
+def send_message(project_id: str, token: str, access_token: str, request_id: str) -> requests.Response:
     url = f"https://fcm.googleapis.com/v1/projects/{project_id}/messages:send"
     body: Dict[str, Any] = {
         "message": {
             "token": token,
-            "data": {"type": "REQUEST_LOCATION"},
+            "data": {"type": "REQUEST_LOCATION", "requestId": request_id},
         }
     }
     headers = {
@@ -48,6 +50,7 @@ def main() -> int:
     ap.add_argument("--key", required=True, help="Path to service-account.json from Firebase")
     ap.add_argument("--project", required=True, help="Firebase project ID")
     ap.add_argument("--token", required=True, help="FCM registration token for the device")
+    ap.add_argument("--request-id", default=None, help="ID echoed back in the payload's requestIds (default: random)")
     args = ap.parse_args()
 
     try:
@@ -56,7 +59,9 @@ def main() -> int:
         print(f"Failed to get access token: {ex}", file=sys.stderr)
         return 1
 
-    resp = send_message(args.project, args.token, access_token)
+    request_id = args.request_id or uuid.uuid4().hex
+    print(f"requestId: {request_id}")
+    resp = send_message(args.project, args.token, access_token, request_id)
     print(f"Status: {resp.status_code}")
     try:
         print(resp.json())
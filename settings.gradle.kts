@@ -9,6 +9,10 @@
 
 rootProject.name = "android_status"
 include("app")
+include("bench")
+include("fleetsim")
+include("ingest")
+include("fcmdispatch")
 
 pluginManagement {
 	repositories {